@@ -120,7 +120,7 @@ public class INDIBLOBElement extends INDIElement {
 
     @Override
     public String getNameAndValueAsString() {
-        return getName() + " - BLOB format: " + this.getValue().getFormat() + " - BLOB Size: " + this.getValue().getSize();
+        return getName() + " - BLOB format: " + this.getValue().getFormat() + " - BLOB Size: " + this.getValue().getLength();
     }
 
     @Override
@@ -167,8 +167,8 @@ public class INDIBLOBElement extends INDIElement {
 
     @Override
     public String toString() {
-        if (this.getValue().getSize() > 0) {
-            return this.getValue().getFormat() + " (" + this.getValue().getSize() + " bytes)";
+        if (this.getValue().getLength() > 0) {
+            return this.getValue().getFormat() + " (" + this.getValue().getLength() + " bytes)";
         }
 
         return "";
@@ -176,6 +176,6 @@ public class INDIBLOBElement extends INDIElement {
 
     @Override
     public String getValueAsString() {
-        return "BLOB format: " + this.getValue().getFormat() + " - BLOB Size: " + this.getValue().getSize();
+        return "BLOB format: " + this.getValue().getFormat() + " - BLOB Size: " + this.getValue().getLength();
     }
 }
\ No newline at end of file
@@ -0,0 +1,484 @@
+package org.indilib.i4j;
+
+/*
+ * #%L
+ * INDI for Java Base Library
+ * %%
+ * Copyright (C) 2013 - 2014 indiforjava
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The content of a BLOB that is not (yet) in the heap: a file, a byte buffer
+ * or a spooled input stream. The transport reads it with a constant size
+ * buffer and base64 encodes it directly to the wire, so a driver can publish
+ * huge images without loading them into a <code>byte[]</code>. Every call to
+ * {@link #openStream()} starts at the beginning again, so the same content
+ * can be sent to any number of clients.
+ *
+ * @author Richard van Nieuwenhoven
+ */
+public abstract class INDIBLOBSource {
+
+    /**
+     * The logger to log to.
+     */
+    private static final Logger LOG = LoggerFactory.getLogger(INDIBLOBSource.class);
+
+    /**
+     * the size of the buffer used to copy the content.
+     */
+    public static final int BUFFER_SIZE = 48 * 1024;
+
+    /**
+     * the prefix of the files where input streams are spooled to.
+     */
+    private static final String SPOOL_FILE_PREFIX = "i4j-blob-";
+
+    /**
+     * the queue where spooled sources are reported when they became
+     * unreachable without being released.
+     */
+    private static final ReferenceQueue<INDIBLOBSource> SPOOLED = new ReferenceQueue<>();
+
+    /**
+     * the files of the spooled sources that were not released yet, by the
+     * reference that reports them as unreachable.
+     */
+    private static final Map<Reference<INDIBLOBSource>, File> SPOOL_FILES = new ConcurrentHashMap<>();
+
+    /**
+     * @return the number of bytes of the content.
+     */
+    public abstract long getLength();
+
+    /**
+     * open a new stream on the content, starting at the first byte. The
+     * caller must close it.
+     *
+     * @return the stream of the content.
+     * @throws IOException if the content could not be read.
+     */
+    public abstract InputStream openStream() throws IOException;
+
+    /**
+     * a holder that reads the content later, when its producer may already
+     * have moved on (like a message waiting in a queue), retains the source
+     * until it calls {@link #release()}. Sources whose content does not
+     * change ignore it.
+     */
+    public void retain() {
+    }
+
+    /**
+     * the holder that called {@link #retain()} will not read the content
+     * anymore.
+     */
+    public void release() {
+    }
+
+    /**
+     * read the complete content into the heap, only use it where a
+     * <code>byte[]</code> is unavoidable.
+     *
+     * @return the content.
+     * @throws IOException if the content could not be read.
+     */
+    public byte[] readAll() throws IOException {
+        long length = getLength();
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException("BLOB of " + length + " bytes does not fit into an array");
+        }
+        byte[] result = new byte[(int) length];
+        try (InputStream in = openStream()) {
+            int offset = 0;
+            while (offset < result.length) {
+                int read = in.read(result, offset, result.length - offset);
+                if (read < 0) {
+                    throw new EOFException("BLOB ended after " + offset + " of " + length + " bytes");
+                }
+                offset += read;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @param bytes the content.
+     * @return a source of the bytes (they are not copied).
+     */
+    public static INDIBLOBSource fromBytes(final byte[] bytes) {
+        return new INDIBLOBSource() {
+
+            @Override
+            public long getLength() {
+                return bytes.length;
+            }
+
+            @Override
+            public InputStream openStream() {
+                return new ByteArrayInputStream(bytes);
+            }
+
+            @Override
+            public byte[] readAll() {
+                return bytes;
+            }
+        };
+    }
+
+    /**
+     * @param file the file with the content, it must not change while the
+     *             BLOB is being sent.
+     * @return a source of the file content.
+     * @throws FileNotFoundException if the file is not readable.
+     */
+    public static INDIBLOBSource fromFile(final File file) throws FileNotFoundException {
+        if (!file.isFile() || !file.canRead()) {
+            throw new FileNotFoundException("BLOB file " + file + " is not readable");
+        }
+        final long length = file.length();
+        return new INDIBLOBSource() {
+
+            @Override
+            public long getLength() {
+                return length;
+            }
+
+            @Override
+            public InputStream openStream() throws IOException {
+                return new LimitedInputStream(new FileInputStream(file), length);
+            }
+        };
+    }
+
+    /**
+     * @param buffer the buffer with the content between its position and
+     *               limit, it must not change while the BLOB is being sent
+     *               (its position and limit are not touched).
+     * @return a source of the buffer content.
+     */
+    public static INDIBLOBSource fromByteBuffer(ByteBuffer buffer) {
+        final ByteBuffer content = buffer.duplicate();
+        return new INDIBLOBSource() {
+
+            @Override
+            public long getLength() {
+                return content.remaining();
+            }
+
+            @Override
+            public InputStream openStream() {
+                return new ByteBufferInputStream(content.duplicate());
+            }
+        };
+    }
+
+    /**
+     * Copy the next <code>length</code> bytes of the stream to a temporary
+     * file, with a constant size buffer. The stream can only be read once but
+     * a BLOB may be sent to several clients. The caller holds the source, the
+     * file is deleted when it calls {@link #release()} and the other holders
+     * and open streams are done with it (or when the source became
+     * unreachable without being released).
+     *
+     * @param in     the stream with the content, it is not closed.
+     * @param length the number of bytes to take from the stream.
+     * @return a source of the stream content.
+     * @throws IOException if the stream ended early or the file could not be
+     *                     written.
+     */
+    public static INDIBLOBSource fromInputStream(InputStream in, long length) throws IOException {
+        deleteUnusedSpoolFiles();
+        File file = File.createTempFile(SPOOL_FILE_PREFIX, ".tmp");
+        try (OutputStream out = new FileOutputStream(file)) {
+            byte[] buffer = new byte[(int) Math.min(BUFFER_SIZE, Math.max(length, 1L))];
+            long remaining = length;
+            while (remaining > 0) {
+                int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (read < 0) {
+                    throw new EOFException("BLOB stream ended after " + (length - remaining) + " of " + length + " bytes");
+                }
+                out.write(buffer, 0, read);
+                remaining -= read;
+            }
+        } catch (IOException e) {
+            if (!file.delete()) {
+                LOG.warn("could not delete BLOB spool file " + file);
+            }
+            throw e;
+        }
+        return new SpoolSource(file, length);
+    }
+
+    /**
+     * delete the spool files of the sources that became unreachable without
+     * being released.
+     */
+    private static void deleteUnusedSpoolFiles() {
+        Reference<? extends INDIBLOBSource> unused = SPOOLED.poll();
+        while (unused != null) {
+            deleteSpoolFile(SPOOL_FILES.remove(unused));
+            unused = SPOOLED.poll();
+        }
+    }
+
+    /**
+     * delete a spool file.
+     *
+     * @param file the file or null if it was already deleted.
+     */
+    private static void deleteSpoolFile(File file) {
+        if (file != null && !file.delete()) {
+            LOG.warn("could not delete BLOB spool file " + file);
+        }
+    }
+
+    /**
+     * The content of a stream spooled to a temporary file, the file is
+     * deleted when the last holder released the source and no stream is open
+     * on it anymore.
+     */
+    private static final class SpoolSource extends INDIBLOBSource {
+
+        /**
+         * the spool file.
+         */
+        private final File file;
+
+        /**
+         * the number of bytes in the file.
+         */
+        private final long length;
+
+        /**
+         * the reference that reports the source as unreachable.
+         */
+        private final Reference<INDIBLOBSource> reference;
+
+        /**
+         * the number of holders and open streams, the creator holds it from
+         * the start.
+         */
+        private int users = 1;
+
+        /**
+         * was the file deleted.
+         */
+        private boolean deleted;
+
+        /**
+         * constructor.
+         *
+         * @param file   the spool file.
+         * @param length the number of bytes in the file.
+         */
+        private SpoolSource(File file, long length) {
+            this.file = file;
+            this.length = length;
+            reference = new PhantomReference<>(this, SPOOLED);
+            SPOOL_FILES.put(reference, file);
+        }
+
+        @Override
+        public long getLength() {
+            return length;
+        }
+
+        @Override
+        public synchronized InputStream openStream() throws IOException {
+            if (deleted) {
+                throw new FileNotFoundException("BLOB spool file " + file + " was already released");
+            }
+            InputStream in = new SpoolInputStream(new FileInputStream(file));
+            users++;
+            return in;
+        }
+
+        @Override
+        public synchronized void retain() {
+            if (deleted) {
+                throw new IllegalStateException("BLOB spool file " + file + " was already released");
+            }
+            users++;
+        }
+
+        @Override
+        public synchronized void release() {
+            if (users > 0) {
+                users--;
+                if (users == 0) {
+                    deleted = true;
+                    deleteSpoolFile(SPOOL_FILES.remove(reference));
+                }
+            }
+        }
+
+        /**
+         * A stream on the spool file that releases the source when it is
+         * closed.
+         */
+        private final class SpoolInputStream extends FilterInputStream {
+
+            /**
+             * was the stream closed.
+             */
+            private boolean closed;
+
+            /**
+             * constructor.
+             *
+             * @param in the stream on the spool file.
+             */
+            private SpoolInputStream(InputStream in) {
+                super(in);
+            }
+
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    if (!closed) {
+                        closed = true;
+                        release();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * An input stream that ends after a fixed number of bytes, so a file that
+     * grows while it is sent does not break the announced size.
+     */
+    private static final class LimitedInputStream extends InputStream {
+
+        /**
+         * the stream to read from.
+         */
+        private final InputStream in;
+
+        /**
+         * the number of bytes still allowed.
+         */
+        private long remaining;
+
+        /**
+         * constructor.
+         *
+         * @param in     the stream to read from.
+         * @param length the number of bytes allowed.
+         */
+        private LimitedInputStream(InputStream in, long length) {
+            this.in = in;
+            remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int result = in.read();
+            if (result >= 0) {
+                remaining--;
+            }
+            return result;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int result = in.read(b, off, (int) Math.min(len, remaining));
+            if (result > 0) {
+                remaining -= result;
+            }
+            return result;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    /**
+     * An input stream over the remaining bytes of a byte buffer.
+     */
+    private static final class ByteBufferInputStream extends InputStream {
+
+        /**
+         * the buffer to read from.
+         */
+        private final ByteBuffer buffer;
+
+        /**
+         * constructor.
+         *
+         * @param buffer the buffer to read from, its position moves.
+         */
+        private ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            return buffer.get() & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int count = Math.min(len, buffer.remaining());
+            buffer.get(b, off, count);
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
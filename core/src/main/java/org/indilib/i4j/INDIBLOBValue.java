@@ -27,7 +27,11 @@ import org.indilib.i4j.protocol.OneBlob;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
 import java.io.Serializable;
+import java.io.UncheckedIOException;
 import java.util.zip.DataFormatException;
 import java.util.zip.Inflater;
 
@@ -44,9 +48,15 @@ public class INDIBLOBValue implements Serializable {
     private static final long serialVersionUID = 2475720079344574791L;
 
     /**
-     * The BLOB data.
+     * The BLOB data, null as long as a streamed source was not read.
      */
-    private final byte[] blobData;
+    private byte[] blobData;
+
+    /**
+     * The BLOB data if it is not in the heap (a file, byte buffer or spooled
+     * stream), the transport streams it to the wire.
+     */
+    private final transient INDIBLOBSource source;
 
     /**
      * The format of the data.
@@ -62,6 +72,19 @@ public class INDIBLOBValue implements Serializable {
     public INDIBLOBValue(final byte[] blobData, final String format) {
         this.format = format;
         this.blobData = blobData;
+        source = null;
+    }
+
+    /**
+     * Constructs a new BLOB Value from a streamed source and format, the data
+     * is only read into the heap if {@link #getBlobData()} is called.
+     *
+     * @param source the data for the BLOB
+     * @param format the format of the data
+     */
+    public INDIBLOBValue(final INDIBLOBSource source, final String format) {
+        this.format = format;
+        this.source = source;
     }
 
     /**
@@ -86,6 +109,15 @@ public class INDIBLOBValue implements Serializable {
 
         f = xml.getFormat().trim();
 
+        if (!f.endsWith(".z") && xml.getSource() != null) {
+            if (xml.getSource().getLength() != size) {
+                throw new IllegalArgumentException("Size of BLOB not correct");
+            }
+            format = f;
+            source = xml.getSource();
+            return;
+        }
+
         byte[] val = xml.getByteContent();
 
         if (f.endsWith(".z")) { // gzipped. Decompress
@@ -113,17 +145,34 @@ public class INDIBLOBValue implements Serializable {
 
         format = f;
         blobData = val;
+        source = null;
     }
 
     /**
-     * Gets the BLOB data.
+     * Gets the BLOB data, a streamed source is read into the heap.
      *
      * @return the BLOB data
      */
-    public final byte[] getBlobData() {
+    public final synchronized byte[] getBlobData() {
+        if (blobData == null && source != null) {
+            try {
+                blobData = source.readAll();
+            } catch (IOException e) {
+                throw new UncheckedIOException("could not read the BLOB data", e);
+            }
+        }
         return blobData;
     }
 
+    /**
+     * Gets the streamed source of the BLOB data.
+     *
+     * @return the source or null if the data is only in the heap.
+     */
+    public final INDIBLOBSource getSource() {
+        return source;
+    }
+
     /**
      * Gets the BLOB data format.
      *
@@ -137,8 +186,27 @@ public class INDIBLOBValue implements Serializable {
      * Gets the size of the BLOB data.
      *
      * @return the size of the BLOB data
+     * @throws IllegalStateException if a streamed BLOB is larger than an int,
+     *                               use {@link #getLength()}.
      */
     public final int getSize() {
+        long length = getLength();
+        if (length > Integer.MAX_VALUE) {
+            throw new IllegalStateException("BLOB of " + length + " bytes is too large for an int size");
+        }
+        return (int) length;
+    }
+
+    /**
+     * Gets the size of the BLOB data, streamed BLOBs may be larger than an
+     * int.
+     *
+     * @return the number of bytes of the BLOB data
+     */
+    public final long getLength() {
+        if (source != null) {
+            return source.getLength();
+        }
         return blobData.length;
     }
 
@@ -150,7 +218,41 @@ public class INDIBLOBValue implements Serializable {
      */
     public final void saveBLOBData(final File file) throws IOException {
         try (FileOutputStream fos = new FileOutputStream(file)) {
-            fos.write(blobData);
+            if (source != null) {
+                try (InputStream in = source.openStream()) {
+                    copy(in, fos);
+                }
+            } else {
+                fos.write(blobData);
+            }
         }
     }
+
+    /**
+     * copy a stream with a constant size buffer.
+     *
+     * @param in  the stream to read.
+     * @param out the stream to write.
+     * @throws IOException if one of the streams failed.
+     */
+    private static void copy(InputStream in, OutputStream out) throws IOException {
+        byte[] buffer = new byte[INDIBLOBSource.BUFFER_SIZE];
+        int read = in.read(buffer);
+        while (read >= 0) {
+            out.write(buffer, 0, read);
+            read = in.read(buffer);
+        }
+    }
+
+    /**
+     * a streamed source is not serializable, so the data is read into the
+     * heap before the value is serialized.
+     *
+     * @param out the stream to serialize to.
+     * @throws IOException if the data could not be read or written.
+     */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        getBlobData();
+        out.defaultWriteObject();
+    }
 }
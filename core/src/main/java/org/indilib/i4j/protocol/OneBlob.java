@@ -24,7 +24,11 @@ package org.indilib.i4j.protocol;
 
 import com.thoughtworks.xstream.annotations.XStreamAlias;
 import com.thoughtworks.xstream.annotations.XStreamConverter;
-import com.thoughtworks.xstream.converters.extended.ToAttributedValueConverter;
+import org.indilib.i4j.INDIBLOBSource;
+import org.indilib.i4j.protocol.io.OneBlobConverter;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
 
 /**
  * This class represents an INDI XML protocol element.
@@ -32,7 +36,7 @@ import com.thoughtworks.xstream.converters.extended.ToAttributedValueConverter;
  * @author Richard van Nieuwenhoven
  */
 @XStreamAlias("oneBLOB")
-@XStreamConverter(value = ToAttributedValueConverter.class, strings = {
+@XStreamConverter(value = OneBlobConverter.class, strings = {
         "byteContent"
 }, types = {
         OneBlob.class
@@ -45,6 +49,12 @@ public class OneBlob extends OneElement<OneBlob> {
      */
     private byte[] byteContent;
 
+    /**
+     * The content of the blob if it is not in the heap, it is streamed to the
+     * wire instead of the byte content.
+     */
+    private transient INDIBLOBSource source;
+
     /**
      * the format attribute of the element.
      */
@@ -56,12 +66,51 @@ public class OneBlob extends OneElement<OneBlob> {
     private String size;
 
     /**
-     * @return the byte content of the element.
+     * @return the byte content of the element, a streamed source is read into
+     * the heap.
      */
     public byte[] getByteContent() {
+        if (byteContent == null && source != null) {
+            try {
+                byteContent = source.readAll();
+            } catch (IOException e) {
+                throw new UncheckedIOException("could not read the BLOB content", e);
+            }
+        }
         return byteContent;
     }
 
+    /**
+     * @return the content of the element if it is streamed, or null.
+     */
+    public INDIBLOBSource getSource() {
+        return source;
+    }
+
+    /**
+     * set the content of the element as a stream (and use the length to set
+     * the size), it replaces the byte content.
+     *
+     * @param newSource the new streamed content.
+     * @return this for builder pattern.
+     */
+    public OneBlob setSource(INDIBLOBSource newSource) {
+        source = newSource;
+        byteContent = null;
+        size = Long.toString(newSource != null ? newSource.getLength() : 0L);
+        return this;
+    }
+
+    /**
+     * @return the number of content bytes, without reading a streamed source.
+     */
+    public long getContentLength() {
+        if (byteContent != null) {
+            return byteContent.length;
+        }
+        return source != null ? source.getLength() : 0L;
+    }
+
     /**
      * set the byte content of the element. (and use the length to set the
      * size).
@@ -71,6 +120,7 @@ public class OneBlob extends OneElement<OneBlob> {
      */
     public OneBlob setByteContent(byte[] newByteContent) {
         byteContent = newByteContent;
+        source = null;
         if (byteContent != null) {
             size = Integer.toString(byteContent.length);
         } else {
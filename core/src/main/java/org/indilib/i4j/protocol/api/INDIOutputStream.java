@@ -25,6 +25,7 @@ package org.indilib.i4j.protocol.api;
 import org.indilib.i4j.protocol.INDIProtocol;
 
 import java.io.IOException;
+import java.util.List;
 
 /**
  * INDI Output stream interface to write indi protocol object to a stream.
@@ -47,4 +48,17 @@ public interface INDIOutputStream {
      * @throws IOException when something went wrong with the underlaying output stream.
      */
     void writeObject(INDIProtocol<?> element) throws IOException;
+
+    /**
+     * Write a list of INDI protocol objects to the output stream in one go
+     * (and flush it once at the end).
+     *
+     * @param elements the elements to write
+     * @throws IOException when something went wrong with the underlaying output stream.
+     */
+    default void writeObjects(List<INDIProtocol<?>> elements) throws IOException {
+        for (INDIProtocol<?> element : elements) {
+            writeObject(element);
+        }
+    }
 }
@@ -31,6 +31,7 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.List;
 
 /**
  * OutPut stream of INDIProtocol objects. Serialized to a xml stream.
@@ -80,4 +81,15 @@ public class INDIOutputStreamImpl extends OutputStream implements INDIOutputStre
         out.writeObject(element);
         out.flush();
     }
+
+    @Override
+    public synchronized void writeObjects(List<INDIProtocol<?>> elements) throws IOException {
+        for (INDIProtocol<?> element : elements) {
+            if (LOG.isTraceEnabled()) {
+                LOG.trace("sending indi object " + element);
+            }
+            out.writeObject(element);
+        }
+        out.flush();
+    }
 }
@@ -22,7 +22,12 @@ package org.indilib.i4j.protocol.io;
  * #L%
  */
 
+import org.indilib.i4j.INDIBLOBSource;
 import org.indilib.i4j.protocol.INDIProtocol;
+import org.indilib.i4j.protocol.NewVector;
+import org.indilib.i4j.protocol.OneBlob;
+import org.indilib.i4j.protocol.OneElement;
+import org.indilib.i4j.protocol.SetVector;
 import org.indilib.i4j.protocol.api.INDIConnection;
 import org.indilib.i4j.protocol.api.INDIInputStream;
 import org.indilib.i4j.protocol.api.INDIOutputStream;
@@ -33,11 +38,17 @@ import org.slf4j.LoggerFactory;
 import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Create two connected INDI protocol streams that have a blocking connection,
- * reading a protokol object will block until one becomes available.
+ * reading a protokol object will block until one becomes available. The
+ * streamed BLOB sources of a queued object are retained until the object
+ * after it is read, so the reader can still stream them.
  *
  * @author Richard van Nieuwenhoven
  */
@@ -167,6 +178,12 @@ public final class INDIPipedConnections {
          */
         private final LinkedBlockingQueue<INDIProtocol<?>> inputQueue;
 
+        /**
+         * the last object read, its BLOB sources are released when the next
+         * one is read.
+         */
+        private final AtomicReference<INDIProtocol<?>> current = new AtomicReference<>();
+
         /**
          * constructor of the wrapper.
          *
@@ -181,10 +198,12 @@ public final class INDIPipedConnections {
         @Override
         public void close() throws IOException {
             connection.close();
+            releaseBLOBSources(current.getAndSet(null));
         }
 
         @Override
         public INDIProtocol<?> readObject() {
+            releaseBLOBSources(current.getAndSet(null));
             if (connection.isClosed()) {
                 return null;
             }
@@ -193,6 +212,7 @@ public final class INDIPipedConnections {
                 if (readObject instanceof INDIProtokolEndMarker) {
                     return null;
                 }
+                current.set(readObject);
                 readObject.trim();
                 return readObject;
             } catch (InterruptedException e) {
@@ -243,13 +263,67 @@ public final class INDIPipedConnections {
             if (connection.isClosed()) {
                 throw new IOException("stream closed");
             }
+            retainBLOBSources(element);
             try {
                 outputQueue.put(element);
             } catch (InterruptedException e) {
+                releaseBLOBSources(element);
                 connection.close();
                 throw new IOException("queue closed", e);
             }
         }
+
+        @Override
+        public synchronized void writeObjects(List<INDIProtocol<?>> elements) throws IOException {
+            for (INDIProtocol<?> element : elements) {
+                writeObject(element);
+            }
+        }
+    }
+
+    /**
+     * retain the streamed BLOB sources of a protocol object, it will be read
+     * later.
+     *
+     * @param element the protocol object.
+     */
+    private static void retainBLOBSources(INDIProtocol<?> element) {
+        for (INDIBLOBSource source : blobSources(element)) {
+            source.retain();
+        }
+    }
+
+    /**
+     * release the streamed BLOB sources of a protocol object, it was read.
+     *
+     * @param element the protocol object or null.
+     */
+    private static void releaseBLOBSources(INDIProtocol<?> element) {
+        for (INDIBLOBSource source : blobSources(element)) {
+            source.release();
+        }
+    }
+
+    /**
+     * @param element the protocol object or null.
+     * @return the streamed BLOB sources of the object.
+     */
+    private static List<INDIBLOBSource> blobSources(INDIProtocol<?> element) {
+        List<OneElement<?>> elements;
+        if (element instanceof SetVector<?>) {
+            elements = ((SetVector<?>) element).getElements();
+        } else if (element instanceof NewVector<?>) {
+            elements = ((NewVector<?>) element).getElements();
+        } else {
+            return Collections.emptyList();
+        }
+        List<INDIBLOBSource> sources = new ArrayList<>();
+        for (OneElement<?> oneElement : elements) {
+            if (oneElement instanceof OneBlob && ((OneBlob) oneElement).getSource() != null) {
+                sources.add(((OneBlob) oneElement).getSource());
+            }
+        }
+        return sources;
     }
 
     /**
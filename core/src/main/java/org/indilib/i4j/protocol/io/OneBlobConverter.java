@@ -0,0 +1,78 @@
+package org.indilib.i4j.protocol.io;
+
+/*
+ * #%L
+ * INDI Protocol implementation
+ * %%
+ * Copyright (C) 2012 - 2014 indiforjava
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import com.thoughtworks.xstream.converters.ConverterLookup;
+import com.thoughtworks.xstream.converters.MarshallingContext;
+import com.thoughtworks.xstream.converters.extended.ToAttributedValueConverter;
+import com.thoughtworks.xstream.converters.reflection.ReflectionProvider;
+import com.thoughtworks.xstream.io.HierarchicalStreamWriter;
+import com.thoughtworks.xstream.io.StreamException;
+import com.thoughtworks.xstream.mapper.Mapper;
+import org.indilib.i4j.INDIBLOBSource;
+import org.indilib.i4j.protocol.OneBlob;
+
+import java.io.IOException;
+import java.util.Base64;
+
+/**
+ * Converter for the oneBLOB element, it works like the attributed value
+ * converter but if the blob content is a stream it is base64 encoded directly
+ * from the source to the wire.
+ *
+ * @author Richard van Nieuwenhoven
+ */
+public class OneBlobConverter extends ToAttributedValueConverter {
+
+    /**
+     * constructor, called by xstream for the converter annotation.
+     *
+     * @param type               the converted type.
+     * @param mapper             the xstream mapper.
+     * @param reflectionProvider the xstream reflection provider.
+     * @param lookup             the xstream converter lookup.
+     * @param valueFieldName     the name of the field that is the value of
+     *                           the element.
+     */
+    public OneBlobConverter(Class<?> type, Mapper mapper, ReflectionProvider reflectionProvider, ConverterLookup lookup, String valueFieldName) {
+        super(type, mapper, reflectionProvider, lookup, valueFieldName);
+    }
+
+    @Override
+    public void marshal(Object source, HierarchicalStreamWriter writer, MarshallingContext context) {
+        super.marshal(source, writer, context);
+        INDIBLOBSource blobSource = ((OneBlob) source).getSource();
+        if (blobSource != null) {
+            HierarchicalStreamWriter underlyingWriter = writer.underlyingWriter();
+            try {
+                if (underlyingWriter instanceof Printwriter) {
+                    ((Printwriter) underlyingWriter).setBase64Value(blobSource);
+                } else {
+                    writer.setValue(Base64.getEncoder().encodeToString(blobSource.readAll()));
+                }
+            } catch (IOException e) {
+                throw new StreamException("could not read the BLOB content", e);
+            }
+        }
+    }
+}
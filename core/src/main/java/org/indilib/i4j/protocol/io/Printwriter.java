@@ -22,14 +22,22 @@ package org.indilib.i4j.protocol.io;
  * #L%
  */
 
+import com.thoughtworks.xstream.core.util.QuickWriter;
+import com.thoughtworks.xstream.io.StreamException;
 import com.thoughtworks.xstream.io.xml.PrettyPrintWriter;
 import com.thoughtworks.xstream.io.xml.XmlFriendlyNameCoder;
+import org.indilib.i4j.INDIBLOBSource;
 import org.indilib.i4j.protocol.url.INDIURLStreamHandlerFactory;
 
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.Writer;
 import java.lang.reflect.Field;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
+import java.util.Arrays;
+import java.util.Base64;
 
 /**
  * Print writer for xml output where all elements get an end tag. even if the
@@ -48,6 +56,12 @@ final class Printwriter extends PrettyPrintWriter {
      */
     private final Field tagIsEmpty;
 
+    /**
+     * the blob content to write as base64 value instead of the text, only set
+     * during {@link #setBase64Value(INDIBLOBSource)}.
+     */
+    private INDIBLOBSource base64Source;
+
     /**
      * instanciate the writer.
      *
@@ -76,6 +90,75 @@ final class Printwriter extends PrettyPrintWriter {
         }
     }
 
+    /**
+     * write the content of the source as base64 encoded value of the current
+     * node, with a constant size buffer.
+     *
+     * @param source the content to write.
+     * @throws IOException if the content could not be read.
+     */
+    void setBase64Value(INDIBLOBSource source) throws IOException {
+        base64Source = source;
+        try {
+            setValue("");
+        } catch (StreamException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw e;
+        } finally {
+            base64Source = null;
+        }
+    }
+
+    @Override
+    protected void writeText(QuickWriter writer, String text) {
+        if (base64Source == null) {
+            super.writeText(writer, text);
+            return;
+        }
+        try {
+            writeBase64(writer, base64Source);
+        } catch (IOException e) {
+            throw new StreamException(e);
+        }
+    }
+
+    /**
+     * copy the source base64 encoded to the writer, every chunk except the
+     * last one is a multiple of 3 bytes so the chunks can be concatenated.
+     *
+     * @param writer the writer to write to.
+     * @param source the content to write.
+     * @throws IOException if the content could not be read.
+     */
+    private static void writeBase64(QuickWriter writer, INDIBLOBSource source) throws IOException {
+        Base64.Encoder encoder = Base64.getEncoder();
+        byte[] buffer = new byte[INDIBLOBSource.BUFFER_SIZE];
+        byte[] encoded = new byte[(buffer.length / 3) * 4];
+        char[] chars = new char[encoded.length];
+        long remaining = source.getLength();
+        try (InputStream in = source.openStream()) {
+            while (remaining > 0) {
+                int length = (int) Math.min(buffer.length, remaining);
+                int filled = 0;
+                while (filled < length) {
+                    int read = in.read(buffer, filled, length - filled);
+                    if (read < 0) {
+                        throw new EOFException("BLOB ended " + remaining + " bytes early");
+                    }
+                    filled += read;
+                }
+                int encodedLength = encoder.encode(length == buffer.length ? buffer : Arrays.copyOf(buffer, length), encoded);
+                for (int index = 0; index < encodedLength; index++) {
+                    chars[index] = (char) encoded[index];
+                }
+                writer.write(encodedLength == chars.length ? chars : Arrays.copyOf(chars, encodedLength));
+                remaining -= length;
+            }
+        }
+    }
+
     @Override
     protected String getNewLine() {
         return "";
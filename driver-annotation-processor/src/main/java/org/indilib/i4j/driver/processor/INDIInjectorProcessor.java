@@ -0,0 +1,491 @@
+package org.indilib.i4j.driver.processor;
+
+/*
+ * #%L
+ * INDI for Java Driver Annotation Processor
+ * %%
+ * Copyright (C) 2013 - 2014 indiforjava
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic.Kind;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Generates an injector (a <code>INDIGeneratedInjector</code>) for every class
+ * declaring fields annotated with <code>@InjectProperty</code>,
+ * <code>@InjectElement</code> or fields of a driver extension type. The
+ * generated code does the same as the reflective scan of the
+ * <code>INDIPropertyInjector</code>, but without looking at the class at
+ * runtime. Private fields are accessed through a field handle resolved once
+ * per class. Classes the generated code can not reach (private nested
+ * classes, static fields, inaccessible types) are left to the reflective
+ * injection, with a note in the compiler output.
+ * <p>
+ * The processor is found automatically when this jar is on the compile class
+ * path of a driver module.
+ *
+ * @author Richard van Nieuwenhoven
+ */
+public class INDIInjectorProcessor extends AbstractProcessor {
+
+    /**
+     * the suffix of the generated classes, see
+     * <code>INDIGeneratedInjector.SUFFIX</code>.
+     */
+    private static final String SUFFIX = "_INDIInjector";
+
+    /**
+     * the driver extension base class.
+     */
+    private static final String EXTENSION_CLASS = "org.indilib.i4j.driver.INDIDriverExtension";
+
+    /**
+     * the driver base class.
+     */
+    private static final String DRIVER_CLASS = "org.indilib.i4j.driver.INDIDriver";
+
+    /**
+     * the property annotation.
+     */
+    private static final String INJECT_PROPERTY = "org.indilib.i4j.driver.annotation.InjectProperty";
+
+    /**
+     * the element annotation.
+     */
+    private static final String INJECT_ELEMENT = "org.indilib.i4j.driver.annotation.InjectElement";
+
+    /**
+     * the extension annotation.
+     */
+    private static final String INJECT_EXTENSION = "org.indilib.i4j.driver.annotation.InjectExtension";
+
+    /**
+     * the runtime injector the generated code calls back.
+     */
+    private static final String INJECTOR_CLASS = "org.indilib.i4j.driver.util.INDIPropertyInjector";
+
+    /**
+     * the name of the enum constant for no standard name.
+     */
+    private static final String NO_STANDARD_NAME = "NONE";
+
+    @Override
+    public Set<String> getSupportedAnnotationTypes() {
+        // extension fields need no annotation, so every class is a candidate.
+        return Collections.singleton("*");
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        TypeElement extension = processingEnv.getElementUtils().getTypeElement(EXTENSION_CLASS);
+        TypeElement driver = processingEnv.getElementUtils().getTypeElement(DRIVER_CLASS);
+        if (extension == null || driver == null) {
+            return false;
+        }
+        for (Element element : roundEnv.getRootElements()) {
+            processType(element, extension, driver);
+        }
+        return false;
+    }
+
+    /**
+     * generate the injectors of a class and its nested classes.
+     *
+     * @param element   the (class) element.
+     * @param extension the driver extension base class.
+     * @param driver    the driver base class.
+     */
+    private void processType(Element element, TypeElement extension, TypeElement driver) {
+        if (element.getKind() == ElementKind.CLASS) {
+            TypeElement type = (TypeElement) element;
+            List<VariableElement> fields = new ArrayList<>();
+            for (VariableElement field : ElementFilter.fieldsIn(type.getEnclosedElements())) {
+                if (isExtension(field.asType(), extension) || annotation(field, INJECT_PROPERTY) != null || annotation(field, INJECT_ELEMENT) != null) {
+                    fields.add(field);
+                }
+            }
+            if (!fields.isEmpty()) {
+                generate(type, fields, extension, driver);
+            }
+        }
+        for (TypeElement nested : ElementFilter.typesIn(element.getEnclosedElements())) {
+            processType(nested, extension, driver);
+        }
+    }
+
+    /**
+     * write the injector source of a class, or leave it to the reflective
+     * injection if the generated code could not reach the fields.
+     *
+     * @param type      the class declaring the fields.
+     * @param fields    the fields to inject, in declaration order.
+     * @param extension the driver extension base class.
+     * @param driver    the driver base class.
+     */
+    private void generate(TypeElement type, List<VariableElement> fields, TypeElement extension, TypeElement driver) {
+        PackageElement pkg = processingEnv.getElementUtils().getPackageOf(type);
+        String reason = unsupported(type, fields, pkg, extension, driver);
+        if (reason != null) {
+            processingEnv.getMessager().printMessage(Kind.NOTE, "INDI injection of " + type + " stays reflective: " + reason, type);
+            return;
+        }
+        String binaryName = processingEnv.getElementUtils().getBinaryName(type).toString();
+        String simpleName = (pkg.isUnnamed() ? binaryName : binaryName.substring(pkg.getQualifiedName().length() + 1)).replace('$', '_') + SUFFIX;
+        String className = pkg.isUnnamed() ? simpleName : pkg.getQualifiedName() + "." + simpleName;
+        StringBuilder source = new StringBuilder();
+        if (!pkg.isUnnamed()) {
+            source.append("package ").append(pkg.getQualifiedName()).append(";\n\n");
+        }
+        source.append("/**\n * Injects the annotated fields of {@link ").append(type.getQualifiedName()).append("}, generated by\n * {@code ")
+                .append(getClass().getName()).append("}, do not edit.\n */\n");
+        source.append("public final class ").append(simpleName).append(" implements org.indilib.i4j.driver.util.INDIGeneratedInjector {\n\n");
+        for (VariableElement field : fields) {
+            if (field.getModifiers().contains(Modifier.PRIVATE)) {
+                source.append("    private static final java.lang.reflect.Field ").append(handle(field)).append(" = ").append(INJECTOR_CLASS).append(".declaredField(")
+                        .append(type.getQualifiedName()).append(".class, \"").append(field.getSimpleName()).append("\");\n\n");
+            }
+        }
+        source.append("    @Override\n    @SuppressWarnings({\"unchecked\", \"rawtypes\"})\n");
+        source.append("    public void inject(").append(INJECTOR_CLASS).append(" injector, Object object) {\n");
+        source.append("        ").append(type.getQualifiedName()).append(" instance = (").append(type.getQualifiedName()).append(") object;\n");
+        source.append("        org.indilib.i4j.driver.util.INDIElementBuilder<?> element;\n");
+        for (VariableElement field : fields) {
+            String fieldType = erasure(field.asType());
+            if (isExtension(field.asType(), extension)) {
+                appendSet(source, field, "(" + fieldType + ") injector.extension(" + get(field) + ", " + extensionArguments(field, extension, driver) + ")");
+            }
+            AnnotationMirror property = annotation(field, INJECT_PROPERTY);
+            if (property != null) {
+                appendSet(source, field, "(" + fieldType + ") injector.property(injector.newProperty(" + fieldType + ".class)" + propertyBuilder(property) + ")");
+            }
+            AnnotationMirror element = annotation(field, INJECT_ELEMENT);
+            if (element != null) {
+                Map<String, AnnotationValue> values = values(element);
+                source.append("        element = injector.newElement(").append(literal(values.get("property"))).append(", \"").append(type.getQualifiedName()).append('.')
+                        .append(field.getSimpleName()).append("\");\n");
+                source.append("        if (element != null) {\n    ");
+                appendSet(source, field, "(" + fieldType + ") injector.element(element" + elementBuilder(values) + ")");
+                source.append("        }\n");
+            }
+        }
+        source.append("    }\n}\n");
+        try (Writer writer = processingEnv.getFiler().createSourceFile(className, type).openWriter()) {
+            writer.write(source.toString());
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(Kind.WARNING, "could not generate " + className + ": " + e.getMessage(), type);
+        }
+    }
+
+    /**
+     * @param type      the class declaring the fields.
+     * @param fields    the fields to inject.
+     * @param pkg       the package of the generated class.
+     * @param extension the driver extension base class.
+     * @param driver    the driver base class.
+     * @return why the generated code could not inject the class or null if
+     * it can.
+     */
+    private String unsupported(TypeElement type, List<VariableElement> fields, PackageElement pkg, TypeElement extension, TypeElement driver) {
+        if (!isAccessible(type, pkg)) {
+            return "the class is not accessible from its package";
+        }
+        for (VariableElement field : fields) {
+            if (field.getModifiers().contains(Modifier.STATIC)) {
+                return "field " + field.getSimpleName() + " is static";
+            }
+            TypeMirror fieldType = processingEnv.getTypeUtils().erasure(field.asType());
+            if (fieldType.getKind() != TypeKind.DECLARED || !isAccessible((TypeElement) ((DeclaredType) fieldType).asElement(), pkg)) {
+                return "the type of field " + field.getSimpleName() + " is not accessible";
+            }
+            if (isExtension(field.asType(), extension)) {
+                ExecutableElement constructor = extensionConstructor(field, driver);
+                if (constructor != null) {
+                    if (!constructor.getThrownTypes().isEmpty()) {
+                        return "the constructor of extension " + field.getSimpleName() + " declares exceptions";
+                    }
+                    TypeMirror parameter = processingEnv.getTypeUtils().erasure(constructor.getParameters().get(0).asType());
+                    if (!isAccessible((TypeElement) ((DeclaredType) parameter).asElement(), pkg)) {
+                        return "the constructor parameter of extension " + field.getSimpleName() + " is not accessible";
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * the public constructor of the extension class of the field with one
+     * driver parameter, like the reflective injection searches it.
+     *
+     * @param field  the extension field.
+     * @param driver the driver base class.
+     * @return the constructor or null if the extension can not be
+     * constructed.
+     */
+    private ExecutableElement extensionConstructor(VariableElement field, TypeElement driver) {
+        TypeElement extensionType = (TypeElement) ((DeclaredType) processingEnv.getTypeUtils().erasure(field.asType())).asElement();
+        if (extensionType.getModifiers().contains(Modifier.ABSTRACT) || extensionType.getKind() != ElementKind.CLASS
+                || extensionType.getNestingKind().isNested() && !extensionType.getModifiers().contains(Modifier.STATIC)) {
+            return null;
+        }
+        for (ExecutableElement constructor : ElementFilter.constructorsIn(extensionType.getEnclosedElements())) {
+            if (constructor.getModifiers().contains(Modifier.PUBLIC) && constructor.getParameters().size() == 1) {
+                TypeMirror parameter = processingEnv.getTypeUtils().erasure(constructor.getParameters().get(0).asType());
+                if (processingEnv.getTypeUtils().isAssignable(parameter, processingEnv.getTypeUtils().erasure(driver.asType()))) {
+                    return constructor;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param field     the extension field.
+     * @param extension the driver extension base class.
+     * @param driver    the driver base class.
+     * @return the group, prefix, renamings and factory arguments for the
+     * extension call of the injector.
+     */
+    private String extensionArguments(VariableElement field, TypeElement extension, TypeElement driver) {
+        String group = "\"\"";
+        String prefix = "\"\"";
+        StringBuilder renamings = new StringBuilder("new String[]{");
+        AnnotationMirror annotation = annotation(field, INJECT_EXTENSION);
+        if (annotation != null) {
+            Map<String, AnnotationValue> values = values(annotation);
+            group = literal(values.get("group"));
+            prefix = literal(values.get("prefix"));
+            String separator = "";
+            for (Object rename : (List<?>) values.get("rename").getValue()) {
+                Map<String, AnnotationValue> renameValues = values((AnnotationMirror) ((AnnotationValue) rename).getValue());
+                renamings.append(separator).append(literal(renameValues.get("name"))).append(", ").append(literal(renameValues.get("to")));
+                separator = ", ";
+            }
+        }
+        renamings.append('}');
+        String factory = "null";
+        ExecutableElement constructor = extensionConstructor(field, driver);
+        if (constructor != null) {
+            factory = "driver -> new " + erasure(field.asType()) + "((" + erasure(constructor.getParameters().get(0).asType()) + ") driver)";
+        }
+        return group + ", " + prefix + ", " + renamings + ", " + factory;
+    }
+
+    /**
+     * the builder calls for the values of a property annotation, they must
+     * do the same as <code>INDIPropertyBuilder.set(InjectProperty)</code>.
+     *
+     * @param annotation the property annotation.
+     * @return the builder calls.
+     */
+    private String propertyBuilder(AnnotationMirror annotation) {
+        Map<String, AnnotationValue> values = values(annotation);
+        StringBuilder builder = new StringBuilder();
+        builder.append(".group(").append(literal(values.get("group"))).append(')');
+        builder.append(".label(").append(literal(values.get("label"))).append(')');
+        builder.append(".name(").append(standardOrName(values.get("std"), values.get("name"))).append(')');
+        builder.append(".permission(").append(literal(values.get("permission"))).append(')');
+        builder.append(".saveable(").append(literal(values.get("saveable"))).append(')');
+        builder.append(".state(").append(literal(values.get("state"))).append(')');
+        builder.append(".switchRule(").append(literal(values.get("switchRule"))).append(')');
+        builder.append(".timeout(").append(literal(values.get("timeout"))).append(')');
+        builder.append(".nIndex(").append(literal(values.get("nIndex"))).append(')');
+        builder.append(".publicationPolicy(org.indilib.i4j.driver.INDIPublicationPolicy.UNLIMITED");
+        builder.append(".maxRate(").append(literal(values.get("maxRate"))).append(')');
+        builder.append(".deadband(").append(literal(values.get("deadband"))).append(')');
+        builder.append(".relativeDeadband(").append(literal(values.get("relativeDeadband"))).append("))");
+        return builder.toString();
+    }
+
+    /**
+     * the builder calls for the values of an element annotation, they must do
+     * the same as <code>INDIElementBuilder.set(InjectElement)</code>.
+     *
+     * @param values the values of the element annotation.
+     * @return the builder calls.
+     */
+    private String elementBuilder(Map<String, AnnotationValue> values) {
+        StringBuilder builder = new StringBuilder();
+        builder.append(".maximum(").append(literal(values.get("maximum"))).append(')');
+        builder.append(".minimum(").append(literal(values.get("minimum"))).append(')');
+        builder.append(".name(").append(standardOrName(values.get("std"), values.get("name"))).append(')');
+        builder.append(".label(").append(literal(values.get("label"))).append(')');
+        builder.append(".numberFormat(").append(literal(values.get("numberFormat"))).append(')');
+        builder.append(".numberValue(").append(literal(values.get("numberValue"))).append(')');
+        builder.append(".state(").append(literal(values.get("state"))).append(')');
+        builder.append(".step(").append(literal(values.get("step"))).append(')');
+        builder.append(".switchValue(").append(literal(values.get("switchValue"))).append(')');
+        builder.append(".textValue(").append(literal(values.get("textValue"))).append(')');
+        builder.append(".nIndex(").append(literal(values.get("nIndex"))).append(')');
+        return builder.toString();
+    }
+
+    /**
+     * @param std  the standard name value.
+     * @param name the name value.
+     * @return the standard name if there is one, the name otherwise.
+     */
+    private String standardOrName(AnnotationValue std, AnnotationValue name) {
+        if (!((VariableElement) std.getValue()).getSimpleName().contentEquals(NO_STANDARD_NAME)) {
+            return literal(std);
+        }
+        return literal(name);
+    }
+
+    /**
+     * append the assignment of a field.
+     *
+     * @param source the source to append to.
+     * @param field  the field.
+     * @param value  the value expression.
+     */
+    private void appendSet(StringBuilder source, VariableElement field, String value) {
+        if (field.getModifiers().contains(Modifier.PRIVATE)) {
+            source.append("        ").append(INJECTOR_CLASS).append(".setFieldValue(").append(handle(field)).append(", instance, ").append(value).append(");\n");
+        } else {
+            source.append("        instance.").append(field.getSimpleName()).append(" = ").append(value).append(";\n");
+        }
+    }
+
+    /**
+     * @param field the field.
+     * @return the expression reading the field.
+     */
+    private String get(VariableElement field) {
+        if (field.getModifiers().contains(Modifier.PRIVATE)) {
+            return INJECTOR_CLASS + ".getFieldValue(" + handle(field) + ", instance)";
+        }
+        return "instance." + field.getSimpleName();
+    }
+
+    /**
+     * @param field the private field.
+     * @return the name of the constant with the field handle.
+     */
+    private static String handle(VariableElement field) {
+        return "FIELD_" + field.getSimpleName();
+    }
+
+    /**
+     * @param type the type.
+     * @return the source name of the erasure of the type.
+     */
+    private String erasure(TypeMirror type) {
+        TypeMirror erasure = processingEnv.getTypeUtils().erasure(type);
+        if (erasure.getKind() == TypeKind.DECLARED) {
+            return ((TypeElement) ((DeclaredType) erasure).asElement()).getQualifiedName().toString();
+        }
+        return erasure.toString();
+    }
+
+    /**
+     * @param type      the type of a field.
+     * @param extension the driver extension base class.
+     * @return true if fields of the type are driver extensions.
+     */
+    private boolean isExtension(TypeMirror type, TypeElement extension) {
+        return processingEnv.getTypeUtils().isAssignable(processingEnv.getTypeUtils().erasure(type), processingEnv.getTypeUtils().erasure(extension.asType()));
+    }
+
+    /**
+     * @param type the type.
+     * @param pkg  the package of the generated code.
+     * @return true if the generated code can reference the type.
+     */
+    private boolean isAccessible(TypeElement type, PackageElement pkg) {
+        Element element = type;
+        while (element instanceof TypeElement) {
+            Set<Modifier> modifiers = element.getModifiers();
+            if (modifiers.contains(Modifier.PRIVATE)) {
+                return false;
+            }
+            if (!modifiers.contains(Modifier.PUBLIC) && !processingEnv.getElementUtils().getPackageOf(element).equals(pkg)) {
+                return false;
+            }
+            element = element.getEnclosingElement();
+        }
+        return true;
+    }
+
+    /**
+     * @param field          the field.
+     * @param annotationName the qualified name of the annotation.
+     * @return the annotation of the field or null if it has none.
+     */
+    private static AnnotationMirror annotation(VariableElement field, String annotationName) {
+        for (AnnotationMirror annotation : field.getAnnotationMirrors()) {
+            if (((TypeElement) annotation.getAnnotationType().asElement()).getQualifiedName().contentEquals(annotationName)) {
+                return annotation;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param annotation the annotation.
+     * @return the values of the annotation including the defaults, by name.
+     */
+    private Map<String, AnnotationValue> values(AnnotationMirror annotation) {
+        Map<String, AnnotationValue> values = new HashMap<>();
+        for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry : processingEnv.getElementUtils().getElementValuesWithDefaults(annotation).entrySet()) {
+            values.put(entry.getKey().getSimpleName().toString(), entry.getValue());
+        }
+        return values;
+    }
+
+    /**
+     * @param value an annotation value (a constant or an enum constant).
+     * @return the java source of the value.
+     */
+    private String literal(AnnotationValue value) {
+        Object constant = value.getValue();
+        if (constant instanceof VariableElement) {
+            VariableElement enumConstant = (VariableElement) constant;
+            return ((TypeElement) enumConstant.getEnclosingElement()).getQualifiedName() + "." + enumConstant.getSimpleName();
+        }
+        return processingEnv.getElementUtils().getConstantExpression(constant);
+    }
+}
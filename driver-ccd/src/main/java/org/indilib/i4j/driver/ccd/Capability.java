@@ -45,6 +45,11 @@ public class Capability {
      */
     private boolean canSubFrame = false;
 
+    /**
+     * can this driver stream video frames?
+     */
+    private boolean canStream = false;
+
     /**
      * Does this driver have a cooler (and a temperature sensor)?
      */
@@ -151,6 +156,24 @@ public class Capability {
         return this;
     }
 
+    /**
+     * @return True if CCD can stream video frames. False otherwise.
+     */
+    public boolean canStream() {
+        return canStream;
+    }
+
+    /**
+     * set the can stream value.
+     *
+     * @param canStreamValue the new value
+     * @return this to specify more capabilities
+     */
+    public Capability canStream(boolean canStreamValue) {
+        canStream = canStreamValue;
+        return this;
+    }
+
     /**
      * @return True if CCD has mechanical or electronic shutter. False
      * otherwise.
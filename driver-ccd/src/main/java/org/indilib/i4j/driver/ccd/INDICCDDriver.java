@@ -22,6 +22,7 @@ package org.indilib.i4j.driver.ccd;
  * #L%
  */
 
+import org.indilib.i4j.Constants.PropertyPermissions;
 import org.indilib.i4j.Constants.PropertyStates;
 import org.indilib.i4j.Constants.SwitchStatus;
 import org.indilib.i4j.FileUtils;
@@ -63,6 +64,14 @@ public abstract class INDICCDDriver extends INDIDriver implements INDIConnection
      * The property tab for the image information.
      */
     protected static final String IMAGE_INFO_TAB = "Image Info";
+    /**
+     * The property tab for the video streaming.
+     */
+    protected static final String STREAMING_TAB = "Streaming";
+    /**
+     * the number of nanoseconds in a millisecond.
+     */
+    private static final double NANOS_PER_MILLISECOND = 1000000d;
     /**
      * The minimum temperature for the ccd chip in degrees celcius.
      */
@@ -144,6 +153,61 @@ public abstract class INDICCDDriver extends INDIDriver implements INDIConnection
      */
     @InjectElement(std = UPLOAD_PREFIX, label = "Prefix", textValue = "IMAGE_XX")
     private INDITextElement uploadSettingsPrefix;
+    /**
+     * When are the saved images forced to the disk.
+     */
+    @InjectProperty(name = "CCD_SAVE_SYNC", label = "Save sync", group = INDIDriver.GROUP_OPTIONS, saveable = true)
+    private INDISwitchProperty saveSync;
+    /**
+     * leave the writing to the operating system (fastest).
+     */
+    @InjectElement(name = "SAVE_SYNC_NONE", label = "None", switchValue = SwitchStatus.ON)
+    private INDISwitchElement saveSyncNone;
+    /**
+     * force the content of every image to the disk.
+     */
+    @InjectElement(name = "SAVE_SYNC_DATA", label = "Data")
+    private INDISwitchElement saveSyncData;
+    /**
+     * force the content and the metadata of every image to the disk.
+     */
+    @InjectElement(name = "SAVE_SYNC_ALL", label = "Data and metadata")
+    private INDISwitchElement saveSyncAll;
+    /**
+     * The state of the local image saving.
+     */
+    @InjectProperty(name = "CCD_SAVE_STATUS", label = "Save status", group = INDIDriver.GROUP_OPTIONS, permission = PropertyPermissions.RO)
+    private INDINumberProperty saveStatus;
+    /**
+     * the number of images waiting to be written.
+     */
+    @InjectElement(name = "SAVE_QUEUED", label = "Queued", maximum = Integer.MAX_VALUE, numberFormat = "%4.0f")
+    private INDINumberElement saveStatusQueued;
+    /**
+     * the time from the end of the encoding to the finished file of the last
+     * image.
+     */
+    @InjectElement(name = "SAVE_LATENCY", label = "Latency (ms)", numberFormat = "%8.1f")
+    private INDINumberElement saveStatusLatency;
+    /**
+     * the longest time from the end of the encoding to the finished file.
+     */
+    @InjectElement(name = "SAVE_MAX_LATENCY", label = "Max latency (ms)", numberFormat = "%8.1f")
+    private INDINumberElement saveStatusMaxLatency;
+    /**
+     * the number of saved images.
+     */
+    @InjectElement(name = "SAVE_FILES", label = "Saved", maximum = Integer.MAX_VALUE, numberFormat = "%8.0f")
+    private INDINumberElement saveStatusFiles;
+    /**
+     * the number of images that could not be saved.
+     */
+    @InjectElement(name = "SAVE_FAILED", label = "Failed", maximum = Integer.MAX_VALUE, numberFormat = "%8.0f")
+    private INDINumberElement saveStatusFailed;
+    /**
+     * saves the images on its own thread.
+     */
+    private final INDICCDFileSaver saver;
 
     /**
      * The CCD driver constructor, all subclasses must call this. All local
@@ -153,6 +217,12 @@ public abstract class INDICCDDriver extends INDIDriver implements INDIConnection
      */
     public INDICCDDriver(INDIConnection connection) {
         super(connection);
+        saver = new INDICCDFileSaver("ccd " + getName());
+        if (saver.getSyncPolicy() == INDICCDFileSaver.SyncPolicy.DATA) {
+            saveSyncData.setOn();
+        } else if (saver.getSyncPolicy() == INDICCDFileSaver.SyncPolicy.ALL) {
+            saveSyncAll.setOn();
+        }
         primaryCCD.setDriverInterface(this);
         guiderCCD.setDriverInterface(createGuiderDriverHandler());
         temperature.setEventHandler(new NumberEvent() {
@@ -177,6 +247,28 @@ public abstract class INDICCDDriver extends INDIDriver implements INDIConnection
                 updateProperty(property);
             }
         });
+        saveSync.setEventHandler(new SwitchEvent() {
+
+            @Override
+            public void processNewValue(Date date, INDISwitchElementAndValue[] elementsAndValues) {
+                property.setValues(elementsAndValues);
+                saver.setSyncPolicy(selectedSyncPolicy());
+                property.setState(PropertyStates.OK);
+                updateProperty(property);
+            }
+        });
+    }
+
+    /**
+     * @return the sync policy selected by the client.
+     */
+    private INDICCDFileSaver.SyncPolicy selectedSyncPolicy() {
+        if (saveSyncData.isOn()) {
+            return INDICCDFileSaver.SyncPolicy.DATA;
+        } else if (saveSyncAll.isOn()) {
+            return INDICCDFileSaver.SyncPolicy.ALL;
+        }
+        return INDICCDFileSaver.SyncPolicy.NONE;
     }
 
     /**
@@ -246,39 +338,75 @@ public abstract class INDICCDDriver extends INDIDriver implements INDIConnection
     }
 
     /**
-     * calculate a unique non existent filename to save an image localy.
+     * Hands a video frame to the stream of the chip, derived classes call this
+     * function for every frame while streaming. The image can be released or
+     * reused afterwards.
+     *
+     * @param targetChip chip that captured the frame
+     * @param image      the captured frame
+     * @return true if the frame is sent or recorded.
+     */
+    protected boolean streamFrame(INDICCDDriverExtension targetChip, INDICCDImage image) {
+        if (targetChip == primaryCCD) {
+            return primaryCCD.streamFrame(image);
+        } else {
+            return guiderCCD.streamFrame(image);
+        }
+    }
+
+    /**
+     * calculate a unique non existent filename to save an image localy. The
+     * upload directory is only listed for the first file, afterwards the
+     * numbers are counted by the {@link INDICCDFileSaver}.
      *
      * @param extension the file extension to use (file format)
      * @return the file to use to store the next image.
      * @throws IOException if the driver could not read on the filesystem.
      */
     protected File getFileWithIndex(String extension) throws IOException {
-        String dir = uploadSettingsDir.getValue();
-        String prefix = uploadSettingsPrefix.getValue();
-
-        int indexOfXX = prefix.indexOf("XX");
-        String uptoXX = prefix.substring(0, indexOfXX);
-        String afterXX = prefix.substring(indexOfXX + 2) + "." + extension;
+        return saver.nextFile(new File(uploadSettingsDir.getValue()), uploadSettingsPrefix.getValue(), extension);
+    }
 
-        int maxNumber = 0;
-        File dirFile = new File(dir);
-        if (dirFile.exists()) {
-            for (File file : dirFile.listFiles()) {
-                if (file.getName().startsWith(uptoXX) && file.getName().endsWith(afterXX)) {
-                    int number = Integer.parseInt(file.getName().substring(indexOfXX, file.getName().lastIndexOf('.')));
-                    if (number > maxNumber) {
-                        maxNumber = number;
-                    }
-                }
-            }
-        } else {
-            if (!dirFile.mkdirs()) {
-                LOG.info("Could not create directoty: " + dir);
+    /**
+     * save an image to the next file on the i/o thread of the driver, wait if
+     * too many images are waiting for the disk.
+     *
+     * @param extension the file extension to use (file format).
+     * @param content   the content of the file.
+     * @param callback  is told on the i/o thread when the file is written.
+     * @throws IOException          if the upload directory could not be
+     *                              created.
+     * @throws InterruptedException if the wait was interrupted, the image is
+     *                              not saved.
+     */
+    protected void saveImage(String extension, INDICCDFileSaver.Content content, final INDICCDFileSaver.Callback callback) throws IOException, InterruptedException {
+        saver.save(getFileWithIndex(extension), content, (file, failure) -> {
+            try {
+                publishSaveStatus();
+            } finally {
+                callback.saved(file, failure);
             }
-        }
-        maxNumber++;
-        File fp = new File(dir, prefix.replace("XX", Integer.toString(maxNumber)) + "." + extension);
-        return fp;
+        });
+    }
+
+    /**
+     * report the queue and the latency of the image saving to the clients.
+     */
+    private void publishSaveStatus() {
+        saveStatusQueued.setValue(saver.getQueued());
+        saveStatusLatency.setValue(saver.getLastLatencyNanos() / NANOS_PER_MILLISECOND);
+        saveStatusMaxLatency.setValue(saver.getMaxLatencyNanos() / NANOS_PER_MILLISECOND);
+        saveStatusFiles.setValue((double) saver.getSaved());
+        saveStatusFailed.setValue((double) saver.getFailed());
+        saveStatus.setState(saver.getFailed() > 0 ? PropertyStates.ALERT : PropertyStates.OK);
+        updateProperty(saveStatus);
+    }
+
+    /**
+     * @return the service saving the images of the driver.
+     */
+    public INDICCDFileSaver getSaver() {
+        return saver;
     }
 
     /**
@@ -317,6 +445,9 @@ public abstract class INDICCDDriver extends INDIDriver implements INDIConnection
             uploadSettingsDir.setValue(new File(FileUtils.getI4JBaseDirectory(), "images").getAbsolutePath());
         }
         addProperty(uploadSettings);
+        saver.setSyncPolicy(selectedSyncPolicy());
+        addProperty(saveSync);
+        addProperty(saveStatus);
     }
 
     @Override
@@ -330,6 +461,8 @@ public abstract class INDICCDDriver extends INDIDriver implements INDIConnection
         }
         removeProperty(upload);
         removeProperty(uploadSettings);
+        removeProperty(saveSync);
+        removeProperty(saveStatus);
     }
 
     /**
@@ -29,6 +29,7 @@ import org.indilib.i4j.Constants.PropertyPermissions;
 import org.indilib.i4j.Constants.PropertyStates;
 import org.indilib.i4j.Constants.SwitchRules;
 import org.indilib.i4j.Constants.SwitchStatus;
+import org.indilib.i4j.INDIBLOBSource;
 import org.indilib.i4j.INDIBLOBValue;
 import org.indilib.i4j.driver.*;
 import org.indilib.i4j.driver.annotation.InjectElement;
@@ -39,11 +40,16 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.zip.DeflaterOutputStream;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static nom.tam.fits.header.ObservationDurationDescription.EXPOSURE;
 import static nom.tam.fits.header.Standard.DATE_OBS;
@@ -74,6 +80,17 @@ public class INDICCDDriverExtension extends INDIDriverExtension<INDICCDDriver> {
      */
     private static final int MAX_STRING_LENGTH_IN_FITS_HEADER = 67;
 
+    /**
+     * the number of nanoseconds in a millisecond.
+     */
+    private static final double NANOS_PER_MILLISECOND = 1000000d;
+
+    /**
+     * the maximum number of seconds {@link #uploadFile(boolean, boolean)}
+     * waits for the file to be saved.
+     */
+    private static final long SAVE_TIMEOUT_SECONDS = 300L;
+
     /**
      * the date/time fomat iso-8601 as a simple date formatter.
      */
@@ -191,6 +208,24 @@ public class INDICCDDriverExtension extends INDIDriverExtension<INDICCDDriver> {
     @InjectElement(name = "VER_BIN", label = "Y", numberValue = 1, maximum = 4, minimum = 1, step = 1, numberFormat = "%2.0f")
     protected INDINumberElement imageBinY;
 
+    /**
+     * how are the pixels combined when the binning is done in software.
+     */
+    @InjectProperty(name = "BINNING_MODE", label = "Binning mode", group = INDICCDDriver.IMAGE_SETTINGS_TAB, saveable = true)
+    protected INDISwitchProperty binningMode;
+
+    /**
+     * the binned pixels are added (saturating at the maximum value).
+     */
+    @InjectElement(name = "BINNING_SUM", label = "Sum", switchValue = SwitchStatus.ON)
+    protected INDISwitchElement binningModeSum;
+
+    /**
+     * the binned pixels are averaged.
+     */
+    @InjectElement(name = "BINNING_AVERAGE", label = "Average")
+    protected INDISwitchElement binningModeAverage;
+
     /**
      * Some information about the ccd sensor itself.
      */
@@ -264,6 +299,280 @@ public class INDICCDDriverExtension extends INDIDriverExtension<INDICCDDriver> {
     @InjectElement(name = "CCD", label = "Image")
     protected INDIBLOBElement fitsImage;
 
+    /**
+     * the format of the preview sent with every image.
+     */
+    @InjectProperty(name = "PREVIEW_FORMAT", label = "Preview", group = INDICCDDriver.IMAGE_SETTINGS_TAB, saveable = true)
+    protected INDISwitchProperty previewFormat;
+
+    /**
+     * send no preview.
+     */
+    @InjectElement(name = "PREVIEW_OFF", label = "Off", switchValue = SwitchStatus.ON)
+    protected INDISwitchElement previewFormatOff;
+
+    /**
+     * send the preview as jpeg image.
+     */
+    @InjectElement(name = "PREVIEW_JPEG", label = "JPEG")
+    protected INDISwitchElement previewFormatJpeg;
+
+    /**
+     * send the preview as png image.
+     */
+    @InjectElement(name = "PREVIEW_PNG", label = "PNG")
+    protected INDISwitchElement previewFormatPng;
+
+    /**
+     * send the preview as tiny 8 bit fits image.
+     */
+    @InjectElement(name = "PREVIEW_FITS", label = "FITS")
+    protected INDISwitchElement previewFormatFits;
+
+    /**
+     * the settings of the preview.
+     */
+    @InjectProperty(name = "PREVIEW_SETTINGS", label = "Preview size", group = INDICCDDriver.IMAGE_SETTINGS_TAB, saveable = true)
+    protected INDINumberProperty previewSettings;
+
+    /**
+     * the maximum width and height of the preview in pixels.
+     */
+    @InjectElement(name = "PREVIEW_MAX_SIZE", label = "Max size (px)", numberValue = 320, minimum = 16, maximum = 4096, numberFormat = "%4.0f")
+    protected INDINumberElement previewMaxSize;
+
+    /**
+     * The reduced and stretched preview of every image, clients on slow links
+     * enable only this BLOB.
+     */
+    @InjectProperty(name = "PREVIEW", label = "Preview", group = INDICCDDriver.IMAGE_INFO_TAB, permission = PropertyPermissions.RO)
+    protected INDIBLOBProperty preview;
+
+    /**
+     * The preview image.
+     */
+    @InjectElement(name = "PREVIEW_IMAGE", label = "Preview")
+    protected INDIBLOBElement previewImage;
+
+    /**
+     * should the statistics of every image be measured.
+     */
+    @InjectProperty(name = "IMAGE_STATISTICS", label = "Statistics", group = INDICCDDriver.IMAGE_SETTINGS_TAB, saveable = true)
+    protected INDISwitchProperty imageStatistics;
+
+    /**
+     * measure the statistics of every image.
+     */
+    @InjectElement(name = "STATISTICS_ON", label = "On", switchValue = SwitchStatus.ON)
+    protected INDISwitchElement imageStatisticsOn;
+
+    /**
+     * do not measure the images.
+     */
+    @InjectElement(name = "STATISTICS_OFF", label = "Off")
+    protected INDISwitchElement imageStatisticsOff;
+
+    /**
+     * the statistics of the last image, see {@link INDICCDImageStatistics}.
+     */
+    @InjectProperty(name = "STATISTICS", label = "Statistics", group = INDICCDDriver.IMAGE_INFO_TAB, permission = PropertyPermissions.RO)
+    protected INDINumberProperty statistics;
+
+    /**
+     * the minimum pixel value.
+     */
+    @InjectElement(name = "STAT_MIN", label = "Minimum", numberFormat = "%10.0f")
+    protected INDINumberElement statisticsMin;
+
+    /**
+     * the maximum pixel value.
+     */
+    @InjectElement(name = "STAT_MAX", label = "Maximum", numberFormat = "%10.0f")
+    protected INDINumberElement statisticsMax;
+
+    /**
+     * the average pixel value.
+     */
+    @InjectElement(name = "STAT_MEAN", label = "Mean", numberFormat = "%12.1f")
+    protected INDINumberElement statisticsMean;
+
+    /**
+     * the median pixel value, the background.
+     */
+    @InjectElement(name = "STAT_MEDIAN", label = "Median (background)", numberFormat = "%10.0f")
+    protected INDINumberElement statisticsMedian;
+
+    /**
+     * the standard deviation of the background noise.
+     */
+    @InjectElement(name = "STAT_NOISE", label = "Noise", numberFormat = "%10.1f")
+    protected INDINumberElement statisticsNoise;
+
+    /**
+     * the number of saturated pixels.
+     */
+    @InjectElement(name = "STAT_SATURATED", label = "Saturated pixels", numberFormat = "%10.0f")
+    protected INDINumberElement statisticsSaturated;
+
+    /**
+     * the number of detected stars.
+     */
+    @InjectElement(name = "STAT_STARS", label = "Stars", numberFormat = "%6.0f")
+    protected INDINumberElement statisticsStars;
+
+    /**
+     * the median half flux radius of the stars in pixels.
+     */
+    @InjectElement(name = "STAT_HFR", label = "HFR (px)", numberFormat = "%6.2f")
+    protected INDINumberElement statisticsHfr;
+
+    /**
+     * the median full width at half maximum of the stars in pixels.
+     */
+    @InjectElement(name = "STAT_FWHM", label = "FWHM (px)", numberFormat = "%6.2f")
+    protected INDINumberElement statisticsFwhm;
+
+    /**
+     * the time the measurement took in milliseconds.
+     */
+    @InjectElement(name = "STAT_TIME", label = "Time (ms)", numberFormat = "%8.1f")
+    protected INDINumberElement statisticsTime;
+
+    /**
+     * the coarse histogram of the last image, {@link INDICCDImageStatistics#HISTOGRAM_BINS}
+     * bins between its minimum and maximum.
+     */
+    @InjectProperty(name = "HISTOGRAM", label = "Histogram", group = INDICCDDriver.IMAGE_INFO_TAB, permission = PropertyPermissions.RO)
+    protected INDINumberProperty histogram;
+
+    /**
+     * switch the video stream on or off.
+     */
+    @InjectProperty(name = "VIDEO_STREAM", label = "Video Stream", group = INDICCDDriver.STREAMING_TAB)
+    protected INDISwitchProperty videoStream;
+
+    /**
+     * stream video frames.
+     */
+    @InjectElement(name = "STREAM_ON", label = "Stream On")
+    protected INDISwitchElement videoStreamOn;
+
+    /**
+     * do not stream video frames.
+     */
+    @InjectElement(name = "STREAM_OFF", label = "Stream Off", switchValue = SwitchStatus.ON)
+    protected INDISwitchElement videoStreamOff;
+
+    /**
+     * the settings of the video stream.
+     */
+    @InjectProperty(name = "STREAMING", label = "Streaming", group = INDICCDDriver.STREAMING_TAB, saveable = true)
+    protected INDINumberProperty streaming;
+
+    /**
+     * the exposure time of one video frame in seconds.
+     */
+    @InjectElement(name = "STREAMING_EXPOSURE_VALUE", label = "Exposure (s)", numberValue = 0.01, maximum = 60, numberFormat = "%6.3f")
+    protected INDINumberElement streamingExposure;
+
+    /**
+     * the maximum number of frames per second sent to the clients, 0 for no
+     * limit.
+     */
+    @InjectElement(name = "STREAMING_MAX_FPS", label = "Max fps", numberValue = 30, maximum = 1000, numberFormat = "%4.0f")
+    protected INDINumberElement streamingMaxFps;
+
+    /**
+     * record the video stream to a file.
+     */
+    @InjectProperty(name = "RECORD_STREAM", label = "Record", group = INDICCDDriver.STREAMING_TAB)
+    protected INDISwitchProperty recordStream;
+
+    /**
+     * record all frames of the stream to a SER file.
+     */
+    @InjectElement(name = "RECORD_ON", label = "Record On")
+    protected INDISwitchElement recordStreamOn;
+
+    /**
+     * stop the recording.
+     */
+    @InjectElement(name = "RECORD_OFF", label = "Record Off", switchValue = SwitchStatus.ON)
+    protected INDISwitchElement recordStreamOff;
+
+    /**
+     * the format of the frames in the stream BLOB.
+     */
+    @InjectProperty(name = "STREAM_FORMAT", label = "Stream format", group = INDICCDDriver.STREAMING_TAB, permission = PropertyPermissions.RO)
+    protected INDINumberProperty streamFormat;
+
+    /**
+     * the width of the stream frames.
+     */
+    @InjectElement(name = "STREAM_WIDTH", label = "Width", maximum = 100000, numberFormat = "%5.0f")
+    protected INDINumberElement streamFormatWidth;
+
+    /**
+     * the height of the stream frames.
+     */
+    @InjectElement(name = "STREAM_HEIGHT", label = "Height", maximum = 100000, numberFormat = "%5.0f")
+    protected INDINumberElement streamFormatHeight;
+
+    /**
+     * the bits per value of the stream frames.
+     */
+    @InjectElement(name = "STREAM_DEPTH", label = "Bits per value", maximum = 16, numberFormat = "%2.0f")
+    protected INDINumberElement streamFormatDepth;
+
+    /**
+     * the number of color planes of the stream frames.
+     */
+    @InjectElement(name = "STREAM_PLANES", label = "Planes", maximum = 3, numberFormat = "%1.0f")
+    protected INDINumberElement streamFormatPlanes;
+
+    /**
+     * the frame rates of the video stream.
+     */
+    @InjectProperty(name = "FPS", label = "Frame rate", group = INDICCDDriver.STREAMING_TAB, permission = PropertyPermissions.RO)
+    protected INDINumberProperty fps;
+
+    /**
+     * the frames per second captured.
+     */
+    @InjectElement(name = "EST_FPS", label = "Captured fps", maximum = 100000, numberFormat = "%6.1f")
+    protected INDINumberElement fpsCaptured;
+
+    /**
+     * the frames per second sent to the clients.
+     */
+    @InjectElement(name = "STREAMED_FPS", label = "Streamed fps", maximum = 100000, numberFormat = "%6.1f")
+    protected INDINumberElement fpsStreamed;
+
+    /**
+     * the number of frames dropped because the clients could not keep up.
+     */
+    @InjectElement(name = "DROPPED_FRAMES", label = "Dropped", maximum = Integer.MAX_VALUE, numberFormat = "%10.0f")
+    protected INDINumberElement fpsDropped;
+
+    /**
+     * the number of frames recorded.
+     */
+    @InjectElement(name = "RECORDED_FRAMES", label = "Recorded", maximum = Integer.MAX_VALUE, numberFormat = "%10.0f")
+    protected INDINumberElement fpsRecorded;
+
+    /**
+     * The video frames, every BLOB is one frame record in the format of
+     * {@link #streamFormat}, see {@link INDICCDStreamFrame}.
+     */
+    @InjectProperty(name = "STREAM", label = "Video Stream", group = INDICCDDriver.STREAMING_TAB, permission = PropertyPermissions.RO)
+    protected INDIBLOBProperty stream;
+
+    /**
+     * The video frames.
+     */
+    @InjectElement(name = "STREAM_FRAME", label = "Frame")
+    protected INDIBLOBElement streamFrame;
+
     /**
      * should a new exposure start as soon as the old one is ready?
      */
@@ -364,15 +673,52 @@ public class INDICCDDriverExtension extends INDIDriverExtension<INDICCDDriver> {
      */
     private INDICCDImage ccdImage;
 
+    /**
+     * the streamed content of the image BLOB, retained until the next image
+     * replaces it.
+     */
+    private INDIBLOBSource publishedImage;
+
     /**
      * the current image extension, fits is recommended!
      */
     private String imageExtension = "fits";
 
     /**
-     * the current exposure time.
+     * the pipeline the frames pass after the exposure.
      */
-    private float exposureTime = 0.0f;
+    private final INDICCDPipeline pipeline;
+
+    /**
+     * guards the exposure state between the exposure and the pipeline
+     * threads.
+     */
+    private final Object exposureLock = new Object();
+
+    /**
+     * the number of the current exposure, incremented at every start.
+     */
+    private long exposureSequence;
+
+    /**
+     * the video stream of the chip.
+     */
+    private final INDICCDVideoStream videoStreamer;
+
+    /**
+     * the format of the last frame sent in the stream.
+     */
+    private INDICCDStreamFrame lastStreamFrame;
+
+    /**
+     * the pixel counts of the histogram bins.
+     */
+    private final INDINumberElement[] histogramBins = new INDINumberElement[INDICCDImageStatistics.HISTOGRAM_BINS];
+
+    /**
+     * the statistics of the last measured image.
+     */
+    private volatile INDICCDImageStatistics lastStatistics;
 
     /**
      * Constructor of the extension, you should really know what you are doing
@@ -382,6 +728,43 @@ public class INDICCDDriverExtension extends INDIDriverExtension<INDICCDDriver> {
      */
     public INDICCDDriverExtension(INDICCDDriver indiccd) {
         super(indiccd);
+        pipeline = new INDICCDPipeline("ccd pipeline " + indiccd.getName());
+        videoStreamer = new INDICCDVideoStream("ccd " + indiccd.getName(), new INDICCDVideoStream.Publisher() {
+
+            @Override
+            public void publish(INDICCDStreamFrame frame) {
+                publishStreamFrame(frame);
+            }
+
+            @Override
+            public void statistics(INDICCDVideoStream statistics) {
+                publishStreamStatistics(statistics);
+            }
+        });
+        videoStream.setEventHandler(new SwitchEvent() {
+
+            @Override
+            public void processNewValue(Date date, INDISwitchElementAndValue[] elementsAndValues) {
+                newVideoStreamValue(elementsAndValues);
+            }
+        });
+        streaming.setEventHandler(new NumberEvent() {
+
+            @Override
+            public void processNewValue(Date date, INDINumberElementAndValue[] elementsAndValues) {
+                streaming.setValues(elementsAndValues);
+                streaming.setState(PropertyStates.OK);
+                videoStreamer.setMaxFps(streamingMaxFps.getValue());
+                updateProperty(streaming);
+            }
+        });
+        recordStream.setEventHandler(new SwitchEvent() {
+
+            @Override
+            public void processNewValue(Date date, INDISwitchElementAndValue[] elementsAndValues) {
+                newRecordStreamValue(elementsAndValues);
+            }
+        });
         imageExposure.setEventHandler(new NumberEvent() {
 
             @Override
@@ -434,6 +817,45 @@ public class INDICCDDriverExtension extends INDIDriverExtension<INDICCDDriver> {
                 newFrameTypeValue(elementsAndValues);
             }
         });
+        binningMode.setEventHandler(new SwitchEvent() {
+
+            @Override
+            public void processNewValue(Date date, INDISwitchElementAndValue[] elementsAndValues) {
+                binningMode.setValues(elementsAndValues);
+                binningMode.setState(PropertyStates.OK);
+                updateProperty(binningMode);
+            }
+        });
+        for (int bin = 0; bin < histogramBins.length; bin++) {
+            histogramBins[bin] = histogram.newElement().name("HISTOGRAM_BIN_" + bin).label("Bin " + bin).numberFormat("%10.0f").maximum(Double.MAX_VALUE).create();
+        }
+        imageStatistics.setEventHandler(new SwitchEvent() {
+
+            @Override
+            public void processNewValue(Date date, INDISwitchElementAndValue[] elementsAndValues) {
+                imageStatistics.setValues(elementsAndValues);
+                imageStatistics.setState(PropertyStates.OK);
+                updateProperty(imageStatistics);
+            }
+        });
+        previewFormat.setEventHandler(new SwitchEvent() {
+
+            @Override
+            public void processNewValue(Date date, INDISwitchElementAndValue[] elementsAndValues) {
+                previewFormat.setValues(elementsAndValues);
+                previewFormat.setState(PropertyStates.OK);
+                updateProperty(previewFormat);
+            }
+        });
+        previewSettings.setEventHandler(new NumberEvent() {
+
+            @Override
+            public void processNewValue(Date date, INDINumberElementAndValue[] elementsAndValues) {
+                previewSettings.setValues(elementsAndValues);
+                previewSettings.setState(PropertyStates.OK);
+                updateProperty(previewSettings);
+            }
+        });
         autoLoopProp.setEventHandler(new SwitchEvent() {
 
             @Override
@@ -587,21 +1009,16 @@ public class INDICCDDriverExtension extends INDIDriverExtension<INDICCDDriver> {
      */
     private void newImageBinValue(INDINumberElementAndValue[] elementsAndValues) {
         // We are being asked to set camera binning
-        if (!capability().canBin()) {
-            imageBin.setState(PropertyStates.ALERT);
-            updateProperty(imageBin);
-            return;
-        }
         imageBin.setValues(elementsAndValues);
         binningX = imageBinX.getIntValue();
         binningY = imageBinY.getIntValue();
-
-        if (driverInterface.updateCCDBin(binningX, binningY)) {
-            imageBin.setState(PropertyStates.OK);
-        } else {
-            imageBin.setState(PropertyStates.ALERT);
+        imageBin.setState(PropertyStates.OK);
+        String message = null;
+        if (!capability().canBin() || !driverInterface.updateCCDBin(binningX, binningY)) {
+            message = String.format("CCD binning %d x %d is done in software", binningX, binningY);
+            LOG.info(message);
         }
-        updateProperty(imageBin);
+        updateProperty(imageBin, message);
     }
 
     /**
@@ -616,13 +1033,7 @@ public class INDICCDDriverExtension extends INDIDriverExtension<INDICCDDriver> {
             driverInterface.abortExposure();
         }
         exposureDuration = imageExposureDuration.getValue();
-        startExposureTime = new Date();
-        if (driverInterface.startExposure(exposureDuration)) {
-            imageExposure.setState(PropertyStates.BUSY);
-        } else {
-            imageExposure.setState(PropertyStates.ALERT);
-        }
-        updateProperty(imageExposure);
+        startExposure();
     }
 
     /**
@@ -631,21 +1042,17 @@ public class INDICCDDriverExtension extends INDIDriverExtension<INDICCDDriver> {
      * @param elementsAndValues The new Elements and Values
      */
     private void newImageFrameValue(INDINumberElementAndValue[] elementsAndValues) {
-        String message;
-        if (capability().canSubFrame()) {
-            imageFrame.setValues(elementsAndValues);
-            imageFrame.setState(PropertyStates.OK);
-            message = String.format("Requested CCD Frame is %4d,%4d %4d x %4d", //
-                    imageFrameX.getIntValue(), imageFrameY.getIntValue(), imageFrameWidth.getIntValue(), imageFrameHeigth.getIntValue());
-            LOG.info(message);
-            if (!driverInterface.updateCCDFrame(imageFrameX.getIntValue(), imageFrameY.getIntValue(), imageFrameWidth.getIntValue(), imageFrameHeigth.getIntValue())) {
-                imageFrame.setState(PropertyStates.ALERT);
-            }
-        } else {
-            message = "sub frame is not supported!";
-            LOG.info(message);
-            imageFrame.setState(PropertyStates.OK);
+        imageFrame.setValues(elementsAndValues);
+        imageFrame.setState(PropertyStates.OK);
+        subframeX = imageFrameX.getIntValue();
+        subframeY = imageFrameY.getIntValue();
+        subframeWidth = imageFrameWidth.getIntValue();
+        subframeHeight = imageFrameHeigth.getIntValue();
+        String message = String.format("Requested CCD Frame is %4d,%4d %4d x %4d", subframeX, subframeY, subframeWidth, subframeHeight);
+        if (!capability().canSubFrame() || !driverInterface.updateCCDFrame(subframeX, subframeY, subframeWidth, subframeHeight)) {
+            message += ", it is cropped in software";
         }
+        LOG.info(message);
         updateProperty(imageFrame, message);
     }
 
@@ -758,18 +1165,28 @@ public class INDICCDDriverExtension extends INDIDriverExtension<INDICCDDriver> {
         if (capability().canAbort()) {
             addProperty(abort);
         }
-        if (!capability().canSubFrame()) {
-            imageFrame.setPermission(PropertyPermissions.RO);
-        }
         addProperty(imageFrame);
-        if (capability().canBin()) {
-            addProperty(imageBin);
-        }
+        addProperty(imageBin);
+        addProperty(binningMode);
         addProperty(imagePixelSize);
         addProperty(compress);
         addProperty(fits);
+        addProperty(previewFormat);
+        addProperty(previewSettings);
+        addProperty(preview);
+        addProperty(imageStatistics);
+        addProperty(statistics);
+        addProperty(histogram);
         addProperty(frameType);
         addProperty(autoLoopProp);
+        if (capability().canStream()) {
+            addProperty(videoStream);
+            addProperty(streaming);
+            addProperty(recordStream);
+            addProperty(streamFormat);
+            addProperty(fps);
+            addProperty(stream);
+        }
     }
 
     @Override
@@ -778,57 +1195,387 @@ public class INDICCDDriverExtension extends INDIDriverExtension<INDICCDDriver> {
         if (capability().canAbort()) {
             removeProperty(abort);
         }
-        if (!capability().canSubFrame()) {
-            imageFrame.setPermission(PropertyPermissions.RO);
-        }
         removeProperty(imageFrame);
-        if (capability().canBin()) {
-            removeProperty(imageBin);
-        }
+        removeProperty(imageBin);
+        removeProperty(binningMode);
         removeProperty(imagePixelSize);
         removeProperty(compress);
         removeProperty(fits);
+        publishImage(null);
+        removeProperty(previewFormat);
+        removeProperty(previewSettings);
+        removeProperty(preview);
+        removeProperty(imageStatistics);
+        removeProperty(statistics);
+        removeProperty(histogram);
         removeProperty(frameType);
         removeProperty(autoLoopProp);
+        if (capability().canStream()) {
+            stopVideoStream();
+            removeProperty(videoStream);
+            removeProperty(streaming);
+            removeProperty(recordStream);
+            removeProperty(streamFormat);
+            removeProperty(fps);
+            removeProperty(stream);
+        }
     }
 
     /**
      * Uploads target Chip exposed buffer as FITS to the client. Dervied classes
-     * should call this functon when an exposure is complete.
+     * should call this functon when an exposure is complete. The frame is
+     * handed to the pipeline (encode, send and save run on their own threads)
+     * and with autoloop the next exposure is started as soon as the pipeline
+     * accepted the frame. The exposure is reported complete together with the
+     * image, when the frame leaves the pipeline. This call never waits: if the
+     * pipeline is full the frame waits on a hand-off thread and the next
+     * autoloop exposure is started from there. A frame buffer from the frame
+     * pool is handed over with the frame and released when it leaves the
+     * pipeline (set a new one for the next exposure), a frame buffer of the
+     * driver stays with the driver and can be filled again for the next
+     * exposure.
      *
      * @return true if the operation was successful.
      */
     public boolean exposureComplete() {
         boolean sendImage = driver.shouldSendImage();
         boolean saveImage = driver.shouldSaveImage();
+        final boolean nextExposure = autoLoop.isOn();
         if (sendImage || saveImage) {
+            if (ccdImage == null) {
+                LOG.error("exposure complete without a frame buffer, it is released after every pooled frame, set a new one with setFrameBuffer");
+                return false;
+            }
+            final INDICCDImage image;
             try {
                 if ("fits".equals(getImageExtension())) {
                     Fits f = ccdImage.asFitsImage();
                     addFITSKeywords(f.getHDU(0));
                 }
-                uploadFile(sendImage, saveImage);
             } catch (Exception e) {
                 LOG.error("could not send or save image", e);
                 return false;
             }
-        }
-        imageExposure.setState(PropertyStates.OK);
-        updateProperty(imageExposure);
-        if (autoLoop.isOn()) {
-            imageExposureDuration.setValue(exposureTime);
-            imageExposure.setState(PropertyStates.BUSY);
-            if (driverInterface.startExposure(exposureTime)) {
-                imageExposure.setState(PropertyStates.BUSY);
+            if (ccdImage.isPooled()) {
+                image = ccdImage;
+                ccdImage = null;
             } else {
-                LOG.error("Autoloop: CCD Exposure Error!");
-                imageExposure.setState(PropertyStates.ALERT);
+                image = ccdImage.snapshot();
             }
+            final Frame frame = new Frame(image, sendImage, saveImage, nextExposure ? -1L : exposureSequence);
+            pipeline.getEncode().handOff(() -> encodeFrame(frame), accepted -> {
+                if (!accepted) {
+                    frame.abort();
+                    frameDone(frame, false);
+                } else if (nextExposure) {
+                    startNextExposure();
+                }
+            });
+            return true;
+        } else if (!nextExposure) {
+            releaseFrameBuffer();
+            imageExposure.setState(PropertyStates.OK);
             updateProperty(imageExposure);
         }
+        if (nextExposure) {
+            startNextExposure();
+        }
         return true;
     }
 
+    /**
+     * autoloop: start the next exposure with the same duration.
+     */
+    private void startNextExposure() {
+        imageExposureDuration.setValue(exposureDuration);
+        if (!startExposure()) {
+            LOG.error("Autoloop: CCD Exposure Error!");
+        }
+    }
+
+    /**
+     * The part of the image that still has to be cropped and binned in
+     * software. The image from the driver is the full sensor or the requested
+     * subframe, binned by the hardware or not.
+     *
+     * @param image the image from the driver.
+     * @return the subframe to write.
+     */
+    private INDICCDImage.Subframe softwareSubframe(INDICCDImage image) {
+        int fullWidth = xResolution > 0 ? xResolution : image.width;
+        int fullHeight = yResolution > 0 ? yResolution : image.height;
+        int width = subframeWidth > 0 ? subframeWidth : fullWidth - subframeX;
+        int height = subframeHeight > 0 ? subframeHeight : fullHeight - subframeY;
+        INDICCDImage.BinningMode mode = binningModeAverage.isOn() ? INDICCDImage.BinningMode.AVERAGE : INDICCDImage.BinningMode.SUM;
+        if (image.width == width / binningX && image.height == height / binningY) {
+            return INDICCDImage.Subframe.FULL_FRAME;
+        } else if (image.width == width && image.height == height) {
+            return new INDICCDImage.Subframe(0, 0, 0, 0, binningX, binningY, mode);
+        } else if (image.width == fullWidth / binningX && image.height == fullHeight / binningY) {
+            return new INDICCDImage.Subframe(subframeX / binningX, subframeY / binningY, width / binningX, height / binningY, 1, 1, mode);
+        } else if (image.width == fullWidth && image.height == fullHeight) {
+            return new INDICCDImage.Subframe(subframeX, subframeY, width, height, binningX, binningY, mode);
+        }
+        LOG.warn("image of " + image.width + "x" + image.height + " does not match the sensor or the subframe, it is sent as it is");
+        return INDICCDImage.Subframe.FULL_FRAME;
+    }
+
+    /**
+     * start an exposure with the current exposure duration and report the
+     * state to the clients.
+     *
+     * @return true if the exposure was started.
+     */
+    private boolean startExposure() {
+        synchronized (exposureLock) {
+            exposureSequence++;
+            startExposureTime = new Date();
+            boolean started = driverInterface.startExposure(exposureDuration);
+            imageExposure.setState(started ? PropertyStates.BUSY : PropertyStates.ALERT);
+            updateProperty(imageExposure);
+            return started;
+        }
+    }
+
+    /**
+     * @return the selected format of the preview or null if no preview should
+     * be sent.
+     */
+    private INDICCDPreview.Format selectedPreviewFormat() {
+        if (previewFormatJpeg.isOn()) {
+            return INDICCDPreview.Format.JPEG;
+        } else if (previewFormatPng.isOn()) {
+            return INDICCDPreview.Format.PNG;
+        } else if (previewFormatFits.isOn()) {
+            return INDICCDPreview.Format.FITS;
+        }
+        return null;
+    }
+
+    /**
+     * render the preview of an image, a failed preview is logged and not
+     * sent, the image itself is not affected.
+     *
+     * @param image    the image.
+     * @param subframe the part of the image to show.
+     * @param format   the format of the preview or null for no preview.
+     * @param maxSize  the maximum width and height of the preview.
+     * @return the preview BLOB or null if there is none.
+     */
+    private static INDIBLOBValue renderPreview(INDICCDImage image, INDICCDImage.Subframe subframe, INDICCDPreview.Format format, int maxSize) {
+        if (format == null) {
+            return null;
+        }
+        try {
+            return new INDIBLOBValue(INDICCDPreview.render(image, subframe, maxSize, format), format.getExtension());
+        } catch (Exception e) {
+            LOG.warn("could not render the preview", e);
+            return null;
+        }
+    }
+
+    /**
+     * encode stage of the pipeline: create the fits stream and the preview,
+     * hand them to the file saver of the driver and (compressed if requested)
+     * to the send stage.
+     *
+     * @param frame the frame to encode.
+     */
+    private void encodeFrame(final Frame frame) {
+        final INDICCDFitsWriter writer;
+        try {
+            writer = frame.image.writer(frame.extension, frame.subframe);
+        } catch (Exception e) {
+            LOG.error("could not encode image", e);
+            frame.abort();
+            frameDone(frame, false);
+            return;
+        }
+        if (frame.save) {
+            try {
+                driver.saveImage(frame.extension, writer::writeTo, (file, failure) -> frameDone(frame, failure == null));
+            } catch (IOException e) {
+                LOG.error("could not save image", e);
+                frameDone(frame, false);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                frameDone(frame, false);
+            }
+        }
+        if (frame.measure) {
+            measureImage(frame.image, frame.subframe);
+        }
+        if (frame.send) {
+            final INDIBLOBValue previewValue = renderPreview(frame.image, frame.subframe, frame.previewFormat, frame.previewSize);
+            final INDIBLOBValue value;
+            if (frame.compressed) {
+                BLOBOutputStream out = new BLOBOutputStream();
+                try (ParallelDeflaterOutputStream os = new ParallelDeflaterOutputStream(out)) {
+                    writer.writeTo(os);
+                } catch (IOException e) {
+                    LOG.error("could not compress image", e);
+                    frameDone(frame, false);
+                    return;
+                }
+                value = new INDIBLOBValue(out.toBLOBSource(), "." + frame.extension + ".z");
+            } else {
+                value = new INDIBLOBValue(writer, "." + frame.extension);
+            }
+            submit(pipeline.getSend(), frame, () -> sendFrame(frame, value, previewValue));
+        }
+    }
+
+    /**
+     * hand the next step of a frame to a stage.
+     *
+     * @param stage the stage.
+     * @param frame the frame.
+     * @param work  the step.
+     */
+    private void submit(INDICCDPipeline.Stage stage, Frame frame, Runnable work) {
+        try {
+            stage.submit(work);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            frameDone(frame, false);
+        }
+    }
+
+    /**
+     * send stage of the pipeline: publish the image to the clients.
+     *
+     * @param frame        the frame to send.
+     * @param value        the encoded image.
+     * @param previewValue the preview of the image or null if there is none.
+     */
+    private void sendFrame(Frame frame, INDIBLOBValue value, INDIBLOBValue previewValue) {
+        // not in an update batch, the BLOBs are large and are written on
+        // their own. The exposure state follows the image.
+        publishPreview(previewValue);
+        publishImage(value);
+        fits.setState(PropertyStates.OK);
+        updateProperty(fits);
+        frameDone(frame, true);
+    }
+
+    /**
+     * measure the statistics of an image and publish them, a failed
+     * measurement is logged and reported with the alert state.
+     *
+     * @param image    the image.
+     * @param subframe the part of the image to measure.
+     */
+    private void measureImage(INDICCDImage image, INDICCDImage.Subframe subframe) {
+        INDICCDImageStatistics result;
+        try {
+            result = INDICCDImageStatistics.measure(image, subframe);
+        } catch (RuntimeException e) {
+            LOG.warn("could not measure the image statistics", e);
+            statistics.setState(PropertyStates.ALERT);
+            updateProperty(statistics);
+            return;
+        }
+        lastStatistics = result;
+        try (INDIUpdateBatch batch = driver.startUpdateBatch()) {
+            statisticsMin.setValue((double) result.getMin());
+            statisticsMax.setValue((double) result.getMax());
+            statisticsMean.setValue(result.getMean());
+            statisticsMedian.setValue((double) result.getMedian());
+            statisticsNoise.setValue(result.getNoise());
+            statisticsSaturated.setValue((double) result.getSaturated());
+            statisticsStars.setValue(result.getStars());
+            statisticsHfr.setValue(result.getHfr());
+            statisticsFwhm.setValue(result.getFwhm());
+            statisticsTime.setValue(result.getNanos() / NANOS_PER_MILLISECOND);
+            statistics.setState(PropertyStates.OK);
+            updateProperty(statistics);
+            long[] counts = result.getHistogram();
+            for (int bin = 0; bin < histogramBins.length; bin++) {
+                histogramBins[bin].setValue((double) counts[bin]);
+            }
+            histogram.setState(PropertyStates.OK);
+            updateProperty(histogram);
+        }
+    }
+
+    /**
+     * @return the statistics of the last measured image or null if none was
+     * measured yet (for focusing and guiding in the driver).
+     */
+    public INDICCDImageStatistics getLastStatistics() {
+        return lastStatistics;
+    }
+
+    /**
+     * publish the preview of an image, before the image so clients on slow
+     * links get it first.
+     *
+     * @param previewValue the preview or null if there is none.
+     */
+    private void publishPreview(INDIBLOBValue previewValue) {
+        if (previewValue != null) {
+            previewImage.setValue(previewValue);
+            preview.setState(PropertyStates.OK);
+            updateProperty(preview);
+        }
+    }
+
+    /**
+     * set the image BLOB, its streamed content is retained (a pooled frame is
+     * not reused) until the next image replaces it.
+     *
+     * @param value the encoded image, or null to only release the previous
+     *              one.
+     */
+    private synchronized void publishImage(INDIBLOBValue value) {
+        INDIBLOBSource source = null;
+        if (value != null) {
+            source = value.getSource();
+            if (source != null) {
+                source.retain();
+            }
+            fitsImage.setValue(value);
+        }
+        if (publishedImage != null) {
+            publishedImage.release();
+        }
+        publishedImage = source;
+    }
+
+    /**
+     * a stage is finished with the frame, the last one releases the image and
+     * reports the end of the exposure (if no new one was started meanwhile).
+     *
+     * @param frame   the frame.
+     * @param success did the stage succeed.
+     */
+    private void frameDone(Frame frame, boolean success) {
+        if (!success) {
+            frame.failed = true;
+        }
+        if (frame.stagesLeft.decrementAndGet() > 0) {
+            return;
+        }
+        frame.image.release();
+        synchronized (exposureLock) {
+            if (frame.exposureSequence == exposureSequence) {
+                imageExposure.setState(frame.failed ? PropertyStates.ALERT : PropertyStates.OK);
+                updateProperty(imageExposure);
+            }
+        }
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("frame done, " + pipeline);
+        }
+    }
+
+    /**
+     * @return the pipeline the frames pass after the exposure, with its
+     * timing statistics.
+     */
+    public INDICCDPipeline getPipeline() {
+        return pipeline;
+    }
+
     /**
      * @return Return image extension (fits, jpeg, raw..etc)
      */
@@ -899,15 +1646,160 @@ public class INDICCDDriverExtension extends INDIDriverExtension<INDICCDDriver> {
         this.updateProperty(imageExposure);
     }
 
+    /**
+     * Hands a video frame to the stream, the driver calls this for every frame
+     * while streaming. The frame is converted if it is sent (limited by the
+     * maximum frame rate) or recorded, the image can be released or reused
+     * afterwards.
+     *
+     * @param image the captured frame.
+     * @return true if the frame is sent or recorded.
+     */
+    public boolean streamFrame(INDICCDImage image) {
+        return videoStreamer.offer(image);
+    }
+
+    /**
+     * @return the video stream of the chip, with its statistics.
+     */
+    public INDICCDVideoStream getVideoStream() {
+        return videoStreamer;
+    }
+
+    /**
+     * the video stream switch was changed on the client.
+     *
+     * @param elementsAndValues The new Elements and Values
+     */
+    private void newVideoStreamValue(INDISwitchElementAndValue[] elementsAndValues) {
+        videoStream.setValues(elementsAndValues);
+        if (videoStreamOn.isOn()) {
+            videoStreamer.setMaxFps(streamingMaxFps.getValue());
+            videoStreamer.start();
+            if (driverInterface.startStreaming(streamingExposure.getValue())) {
+                videoStream.setState(PropertyStates.BUSY);
+            } else {
+                videoStreamer.stop();
+                videoStreamOff.setOn();
+                videoStream.setState(PropertyStates.ALERT);
+            }
+            updateProperty(videoStream);
+        } else {
+            stopVideoStream();
+        }
+    }
+
+    /**
+     * stop the driver streaming, the stream and its recording.
+     */
+    private void stopVideoStream() {
+        if (videoStreamer.isRunning()) {
+            driverInterface.stopStreaming();
+            videoStreamer.stop();
+            LOG.info("video stream stopped: " + videoStreamer);
+        }
+        if (recordStreamOn.isOn()) {
+            recordStreamOff.setOn();
+            recordStream.setState(PropertyStates.IDLE);
+            updateProperty(recordStream);
+        }
+        videoStreamOff.setOn();
+        videoStream.setState(PropertyStates.IDLE);
+        updateProperty(videoStream);
+    }
+
+    /**
+     * the record switch was changed on the client.
+     *
+     * @param elementsAndValues The new Elements and Values
+     */
+    private void newRecordStreamValue(INDISwitchElementAndValue[] elementsAndValues) {
+        recordStream.setValues(elementsAndValues);
+        String message;
+        if (recordStreamOn.isOn()) {
+            try {
+                File file = driver.getFileWithIndex("ser");
+                videoStreamer.startRecording(file, driver.getName());
+                recordStream.setState(PropertyStates.BUSY);
+                message = "recording the stream to " + file;
+            } catch (IOException | IllegalStateException e) {
+                LOG.error("could not start the recording", e);
+                recordStream.setState(PropertyStates.ALERT);
+                message = "could not start the recording: " + e.getMessage();
+            }
+        } else {
+            File file = videoStreamer.getRecordingFile();
+            int frames = videoStreamer.stopRecording();
+            recordStream.setState(PropertyStates.IDLE);
+            message = frames < 0 ? null : "recorded " + frames + " frames to " + file;
+        }
+        if (message != null) {
+            LOG.info(message);
+        }
+        updateProperty(recordStream, message);
+    }
+
+    /**
+     * send a frame of the video stream to the clients (called by the sender
+     * thread of the stream).
+     *
+     * @param frame the frame.
+     */
+    private void publishStreamFrame(INDICCDStreamFrame frame) {
+        try (INDIUpdateBatch batch = driver.startUpdateBatch()) {
+            if (!frame.sameFormat(lastStreamFrame)) {
+                streamFormatWidth.setValue(frame.getWidth());
+                streamFormatHeight.setValue(frame.getHeight());
+                streamFormatDepth.setValue(frame.getDepth());
+                streamFormatPlanes.setValue(frame.getPlanes());
+                streamFormat.setState(PropertyStates.OK);
+                updateProperty(streamFormat);
+            }
+            lastStreamFrame = frame;
+            streamFrame.setValue(new INDIBLOBValue(frame.getData(), ".stream"));
+            stream.setState(PropertyStates.OK);
+            updateProperty(stream);
+        }
+    }
+
+    /**
+     * publish the frame rates of the video stream (called by the sender thread
+     * of the stream).
+     *
+     * @param statistics the stream.
+     */
+    private void publishStreamStatistics(INDICCDVideoStream statistics) {
+        fpsCaptured.setValue(statistics.getCapturedFps());
+        fpsStreamed.setValue(statistics.getStreamedFps());
+        fpsDropped.setValue((double) (statistics.getDropped() + statistics.getRecordDropped()));
+        fpsRecorded.setValue((double) statistics.getRecorded());
+        fps.setState(PropertyStates.OK);
+        updateProperty(fps);
+    }
+
     /**
      * Set raw frame buffer pointer.
      *
      * @param newCcdImage the captured ccd image.
      */
     public void setFrameBuffer(INDICCDImage newCcdImage) {
+        if (ccdImage != null && ccdImage != newCcdImage) {
+            releaseFrameBuffer();
+        }
         ccdImage = newCcdImage;
     }
 
+    /**
+     * give a pooled frame buffer back to the frame pool, it was uploaded and
+     * saved. Frame buffers of the driver stay with the driver.
+     */
+    private void releaseFrameBuffer() {
+        if (ccdImage != null && ccdImage.isPooled()) {
+            ccdImage.release();
+            ccdImage = null;
+        }
+    }
+
     /**
      * Set Maximum CCD Chip binning.
      *
@@ -921,7 +1813,10 @@ public class INDICCDDriverExtension extends INDIDriverExtension<INDICCDDriver> {
     }
 
     /**
-     * Upload a new exposure image to the appropriate places.
+     * Upload a new exposure image to the appropriate places. The file is
+     * written on the i/o thread of the driver while the image is sent, this
+     * call returns when the file is on the disk (it gives up waiting after
+     * {@value #SAVE_TIMEOUT_SECONDS} seconds).
      *
      * @param sendImage should the image be send to the client.
      * @param saveImage should the image be saved locally (where the driver resides)
@@ -929,30 +1824,46 @@ public class INDICCDDriverExtension extends INDIDriverExtension<INDICCDDriver> {
      *                   of the file.
      */
     public void uploadFile(boolean sendImage, boolean saveImage) throws Exception {
-
+        INDICCDImage.Subframe subframe = softwareSubframe(ccdImage);
+        INDICCDFitsWriter writer = ccdImage.writer(getImageExtension(), subframe);
+        if (imageStatisticsOn.isOn()) {
+            measureImage(ccdImage, subframe);
+        }
+        CompletableFuture<File> saved = null;
         if (saveImage) {
-            File fp = driver.getFileWithIndex(getImageExtension());
-            try (DataOutputStream os = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fp)))) {
-                ccdImage.write(os, subframeX, subframeY, subframeWidth, subframeHeight, getImageExtension());
-            }
+            final CompletableFuture<File> savedFile = new CompletableFuture<>();
+            driver.saveImage(getImageExtension(), writer::writeTo, (file, failure) -> {
+                if (failure != null) {
+                    savedFile.completeExceptionally(failure);
+                } else {
+                    savedFile.complete(file);
+                }
+            });
+            saved = savedFile;
         }
         if (sendImage) {
+            publishPreview(renderPreview(ccdImage, subframe, selectedPreviewFormat(), previewMaxSize.getIntValue()));
             if (sendCompressed) {
-                ByteArrayOutputStream out = new ByteArrayOutputStream();
-                try (DataOutputStream os = new DataOutputStream(new BufferedOutputStream(new DeflaterOutputStream(new BufferedOutputStream(out))))) {
-                    ccdImage.write(os, subframeX, subframeY, subframeWidth, subframeHeight, getImageExtension());
+                BLOBOutputStream out = new BLOBOutputStream();
+                try (ParallelDeflaterOutputStream os = new ParallelDeflaterOutputStream(out)) {
+                    writer.writeTo(os);
                 }
-                fitsImage.setValue(new INDIBLOBValue(out.toByteArray(), "." + getImageExtension() + ".z"));
+                publishImage(new INDIBLOBValue(out.toBLOBSource(), "." + getImageExtension() + ".z"));
             } else {
-                ByteArrayOutputStream out = new ByteArrayOutputStream();
-                try (DataOutputStream os = new DataOutputStream(new BufferedOutputStream(out))) {
-                    ccdImage.write(os, subframeX, subframeY, subframeWidth, subframeHeight, getImageExtension());
-                }
-                fitsImage.setValue(new INDIBLOBValue(out.toByteArray(), "." + getImageExtension()));
+                publishImage(new INDIBLOBValue(writer, "." + getImageExtension()));
             }
             fits.setState(PropertyStates.OK);
             updateProperty(fits);
         }
+        if (saved != null) {
+            try {
+                saved.get(SAVE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            } catch (ExecutionException e) {
+                throw new IOException("could not save image", e.getCause());
+            } catch (TimeoutException e) {
+                throw new IOException("image was not saved within " + SAVE_TIMEOUT_SECONDS + " seconds", e);
+            }
+        }
     }
 
     /**
@@ -988,4 +1899,118 @@ public class INDICCDDriverExtension extends INDIDriverExtension<INDICCDDriver> {
             autoLoop.setOff();
         }
     }
+
+    /**
+     * A frame on its way through the pipeline, with the settings at the end
+     * of its exposure.
+     */
+    private final class Frame {
+
+        /**
+         * the captured image.
+         */
+        private final INDICCDImage image;
+
+        /**
+         * the part of the image to crop and bin in software.
+         */
+        private final INDICCDImage.Subframe subframe;
+
+        /**
+         * the file extension (format) of the image.
+         */
+        private final String extension;
+
+        /**
+         * should the image be sent to the clients.
+         */
+        private final boolean send;
+
+        /**
+         * should the image be saved locally.
+         */
+        private final boolean save;
+
+        /**
+         * should the image be sent compressed.
+         */
+        private final boolean compressed;
+
+        /**
+         * should the statistics of the image be measured.
+         */
+        private final boolean measure;
+
+        /**
+         * the format of the preview to send, or null for none.
+         */
+        private final INDICCDPreview.Format previewFormat;
+
+        /**
+         * the maximum width and height of the preview.
+         */
+        private final int previewSize;
+
+        /**
+         * the exposure the frame completes, or -1 if the next exposure was
+         * already started.
+         */
+        private final long exposureSequence;
+
+        /**
+         * the number of stages (send and save) that still need the frame.
+         */
+        private final AtomicInteger stagesLeft;
+
+        /**
+         * did one of the stages fail.
+         */
+        private volatile boolean failed;
+
+        /**
+         * constructor.
+         *
+         * @param image            the captured image.
+         * @param send             should the image be sent to the clients.
+         * @param save             should the image be saved locally.
+         * @param exposureSequence the exposure the frame completes, or -1 if
+         *                         the next exposure was already started.
+         */
+        private Frame(INDICCDImage image, boolean send, boolean save, long exposureSequence) {
+            this.image = image;
+            subframe = softwareSubframe(image);
+            extension = getImageExtension();
+            this.send = send;
+            this.save = save;
+            compressed = sendCompressed;
+            measure = imageStatisticsOn.isOn();
+            previewFormat = send ? selectedPreviewFormat() : null;
+            previewSize = previewMaxSize.getIntValue();
+            this.exposureSequence = exposureSequence;
+            stagesLeft = new AtomicInteger((send ? 1 : 0) + (save ? 1 : 0));
+        }
+
+        /**
+         * the frame could not be encoded or handed to the pipeline, give up
+         * all stages.
+         */
+        private void abort() {
+            failed = true;
+            stagesLeft.set(1);
+        }
+    }
+
+    /**
+     * A byte array output stream that publishes its content as BLOB without
+     * copying it again.
+     */
+    private static final class BLOBOutputStream extends ByteArrayOutputStream {
+
+        /**
+         * @return the written bytes as BLOB source.
+         */
+        private INDIBLOBSource toBLOBSource() {
+            return INDIBLOBSource.fromByteBuffer(ByteBuffer.wrap(buf, 0, count));
+        }
+    }
 }
@@ -83,6 +83,24 @@ public interface INDICCDDriverInterface {
      */
     boolean updateCCDFrameType(CcdFrame frameType);
 
+    /**
+     * Start streaming video frames, the driver hands every frame to
+     * {@link INDICCDDriverExtension#streamFrame(INDICCDImage)} until
+     * {@link #stopStreaming()} is called. Only called if the capability
+     * {@link Capability#canStream()} is set.
+     *
+     * @param exposure the exposure time of one frame in seconds.
+     * @return true if the streaming started, false on error.
+     */
+    boolean startStreaming(double exposure);
+
+    /**
+     * Stop streaming video frames.
+     *
+     * @return true if the streaming stopped, false on error.
+     */
+    boolean stopStreaming();
+
     /**
      * get a map of any additinal fits header information to the fits image. if
      * no extra atts needed keep it null.
@@ -0,0 +1,407 @@
+package org.indilib.i4j.driver.ccd;
+
+/*
+ * #%L
+ * INDI for Java Abstract CCD Driver
+ * %%
+ * Copyright (C) 2013 - 2014 indiforjava
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Saves the images of a driver on its own i/o thread. The file names are
+ * numbered (the "XX" of the prefix is replaced by the number), the upload
+ * directory is scanned once per directory, prefix and extension for the
+ * highest existing number and afterwards the numbers are counted in memory,
+ * so finding the next file does not depend on the number of files in the
+ * directory. The images are written through a file channel and optionally
+ * forced to the disk. At most a bounded number of images wait for the disk,
+ * when the queue is full the caller waits (the pipeline slows down instead
+ * of filling the memory). The saver keeps the latency from the hand over to
+ * the finished file and the queue depth.
+ *
+ * @author Richard van Nieuwenhoven
+ */
+public final class INDICCDFileSaver {
+
+    /**
+     * system property to change the default sync policy, one of the names of
+     * {@link SyncPolicy}.
+     */
+    public static final String SYNC_PROPERTY = "i4j.driver.ccd.saveSync";
+
+    /**
+     * the part of the prefix that is replaced by the number.
+     */
+    private static final String NUMBER_PLACEHOLDER = "XX";
+
+    /**
+     * the logger to log to.
+     */
+    private static final Logger LOG = LoggerFactory.getLogger(INDICCDFileSaver.class);
+
+    /**
+     * When is a saved image forced to the disk.
+     */
+    public enum SyncPolicy {
+        /**
+         * never, the operating system writes it when it wants (fastest).
+         */
+        NONE,
+        /**
+         * the content of every file is forced to the disk before it counts as
+         * saved.
+         */
+        DATA,
+        /**
+         * the content and the metadata of every file are forced to the disk
+         * before it counts as saved.
+         */
+        ALL
+    }
+
+    /**
+     * The content of a file to save.
+     */
+    public interface Content {
+
+        /**
+         * write the content to the file.
+         *
+         * @param channel the channel of the file, it is closed by the saver.
+         * @throws IOException if the content could not be written.
+         */
+        void writeTo(FileChannel channel) throws IOException;
+    }
+
+    /**
+     * Is told when a file is saved.
+     */
+    public interface Callback {
+
+        /**
+         * the file was written (or not).
+         *
+         * @param file    the file.
+         * @param failure the reason why the file could not be written or null
+         *                if it was saved.
+         */
+        void saved(File file, IOException failure);
+    }
+
+    /**
+     * the i/o thread and the bounded queue of the images to save.
+     */
+    private final INDICCDPipeline.Stage stage;
+
+    /**
+     * the next free number per directory, prefix and extension.
+     */
+    private final Map<String, Integer> nextNumbers = new HashMap<>();
+
+    /**
+     * when are the files forced to the disk.
+     */
+    private volatile SyncPolicy syncPolicy;
+
+    /**
+     * the number of files handed over and not yet written.
+     */
+    private final AtomicInteger queued = new AtomicInteger();
+
+    /**
+     * the number of saved files.
+     */
+    private final AtomicLong saved = new AtomicLong();
+
+    /**
+     * the number of files that could not be written.
+     */
+    private final AtomicLong failed = new AtomicLong();
+
+    /**
+     * the number of bytes saved.
+     */
+    private final AtomicLong bytes = new AtomicLong();
+
+    /**
+     * the time from the hand over to the finished file of the last file.
+     */
+    private volatile long lastLatencyNanos;
+
+    /**
+     * the longest time from the hand over to the finished file.
+     */
+    private volatile long maxLatencyNanos;
+
+    /**
+     * the sum of the times from the hand over to the finished files.
+     */
+    private final AtomicLong totalLatencyNanos = new AtomicLong();
+
+    /**
+     * create the saver, the thread is started with the first file.
+     *
+     * @param name the name of the saver (for the thread).
+     */
+    public INDICCDFileSaver(String name) {
+        stage = new INDICCDPipeline.Stage(name + " save", INDICCDPipeline.depth());
+        syncPolicy = configuredSyncPolicy();
+    }
+
+    /**
+     * @return the sync policy of the system property {@link #SYNC_PROPERTY},
+     * an illegal value is logged and ignored.
+     */
+    private static SyncPolicy configuredSyncPolicy() {
+        String value = System.getProperty(SYNC_PROPERTY, SyncPolicy.NONE.name());
+        try {
+            return SyncPolicy.valueOf(value.trim().toUpperCase(Locale.US));
+        } catch (IllegalArgumentException e) {
+            LOG.warn("ignoring the illegal save sync policy " + SYNC_PROPERTY + "=" + value + ", using " + SyncPolicy.NONE);
+            return SyncPolicy.NONE;
+        }
+    }
+
+    /**
+     * reserve the next numbered file, the directory is only listed the first
+     * time a directory, prefix and extension is used (and created if it does
+     * not exist).
+     *
+     * @param dir       the directory of the file.
+     * @param prefix    the name of the file, "XX" is replaced by the number
+     *                  (it is appended if missing).
+     * @param extension the file extension.
+     * @return the file.
+     * @throws IOException if the directory could not be created.
+     */
+    public synchronized File nextFile(File dir, String prefix, String extension) throws IOException {
+        String pattern = prefix.contains(NUMBER_PLACEHOLDER) ? prefix : prefix + NUMBER_PLACEHOLDER;
+        int indexOfXX = pattern.indexOf(NUMBER_PLACEHOLDER);
+        String uptoXX = pattern.substring(0, indexOfXX);
+        String afterXX = pattern.substring(indexOfXX + NUMBER_PLACEHOLDER.length()) + "." + extension;
+        String key = dir.getAbsolutePath() + File.separator + uptoXX + NUMBER_PLACEHOLDER + afterXX;
+        Integer next = nextNumbers.get(key);
+        if (next == null) {
+            next = highestNumber(dir, uptoXX, afterXX) + 1;
+        }
+        File file = new File(dir, uptoXX + next + afterXX);
+        // an other program could have used the number meanwhile.
+        while (file.exists()) {
+            next++;
+            file = new File(dir, uptoXX + next + afterXX);
+        }
+        nextNumbers.put(key, next + 1);
+        return file;
+    }
+
+    /**
+     * @param dir     the directory to scan.
+     * @param uptoXX  the part of the file names before the number.
+     * @param afterXX the part of the file names after the number.
+     * @return the highest number of the existing files or 0.
+     * @throws IOException if the directory could not be created.
+     */
+    private static int highestNumber(File dir, String uptoXX, String afterXX) throws IOException {
+        int highest = 0;
+        String[] names = dir.list();
+        if (names == null) {
+            if (!dir.mkdirs() && !dir.isDirectory()) {
+                throw new IOException("could not create the directory " + dir);
+            }
+            return highest;
+        }
+        for (String name : names) {
+            if (name.length() > uptoXX.length() + afterXX.length() && name.startsWith(uptoXX) && name.endsWith(afterXX)) {
+                try {
+                    highest = Math.max(highest, Integer.parseInt(name.substring(uptoXX.length(), name.length() - afterXX.length())));
+                } catch (NumberFormatException e) {
+                    LOG.debug("ignoring file " + name + " without number");
+                }
+            }
+        }
+        return highest;
+    }
+
+    /**
+     * hand a file to the i/o thread, wait if too many files are waiting.
+     *
+     * @param file     the file to write (it is replaced if it exists).
+     * @param content  the content of the file.
+     * @param callback is told when the file is written, on the i/o thread.
+     * @throws InterruptedException if the wait was interrupted, the file is
+     *                              not saved.
+     */
+    public void save(final File file, final Content content, final Callback callback) throws InterruptedException {
+        final long start = System.nanoTime();
+        queued.incrementAndGet();
+        try {
+            stage.submit(() -> write(file, content, callback, start));
+        } catch (InterruptedException e) {
+            queued.decrementAndGet();
+            throw e;
+        }
+    }
+
+    /**
+     * write the file on the i/o thread, force it to the disk as the policy
+     * requires and record the latency. The callback is always told, any
+     * exception is reported as failure.
+     *
+     * @param file     the file to write.
+     * @param content  the content of the file.
+     * @param callback is told when the file is written (or failed).
+     * @param start    the time the file was handed over.
+     */
+    private void write(File file, Content content, Callback callback, long start) {
+        IOException failure = null;
+        try {
+            writeFile(file, content);
+            saved.incrementAndGet();
+        } catch (IOException e) {
+            failure = e;
+        } catch (Throwable e) {
+            failure = new IOException("could not save image " + file, e);
+        } finally {
+            if (failure != null) {
+                LOG.error("could not save image " + file, failure);
+                failed.incrementAndGet();
+            }
+            long latency = System.nanoTime() - start;
+            lastLatencyNanos = latency;
+            maxLatencyNanos = Math.max(maxLatencyNanos, latency);
+            totalLatencyNanos.addAndGet(latency);
+            queued.decrementAndGet();
+            callback.saved(file, failure);
+        }
+    }
+
+    /**
+     * write the content to the file and force it to the disk as the policy
+     * requires.
+     *
+     * @param file    the file to write.
+     * @param content the content of the file.
+     * @throws IOException if the file could not be written.
+     */
+    private void writeFile(File file, Content content) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            content.writeTo(channel);
+            SyncPolicy policy = syncPolicy;
+            if (policy != SyncPolicy.NONE) {
+                channel.force(policy == SyncPolicy.ALL);
+            }
+            bytes.addAndGet(channel.size());
+        }
+    }
+
+    /**
+     * @return when the files are forced to the disk.
+     */
+    public SyncPolicy getSyncPolicy() {
+        return syncPolicy;
+    }
+
+    /**
+     * @param syncPolicy when the files should be forced to the disk.
+     */
+    public void setSyncPolicy(SyncPolicy syncPolicy) {
+        this.syncPolicy = syncPolicy;
+    }
+
+    /**
+     * @return the number of files handed over and not yet written.
+     */
+    public int getQueued() {
+        return queued.get();
+    }
+
+    /**
+     * @return the number of saved files.
+     */
+    public long getSaved() {
+        return saved.get();
+    }
+
+    /**
+     * @return the number of files that could not be written.
+     */
+    public long getFailed() {
+        return failed.get();
+    }
+
+    /**
+     * @return the number of bytes saved.
+     */
+    public long getBytes() {
+        return bytes.get();
+    }
+
+    /**
+     * @return the time from the hand over to the finished file of the last
+     * file in nanoseconds.
+     */
+    public long getLastLatencyNanos() {
+        return lastLatencyNanos;
+    }
+
+    /**
+     * @return the longest time from the hand over to the finished file in
+     * nanoseconds.
+     */
+    public long getMaxLatencyNanos() {
+        return maxLatencyNanos;
+    }
+
+    /**
+     * @return the average time from the hand over to the finished file in
+     * nanoseconds.
+     */
+    public long getAverageLatencyNanos() {
+        long count = saved.get() + failed.get();
+        if (count == 0L) {
+            return 0L;
+        }
+        return totalLatencyNanos.get() / count;
+    }
+
+    /**
+     * @return the i/o stage with its timing statistics (the time it spends
+     * writing and the time the callers waited for it).
+     */
+    public INDICCDPipeline.Stage getStage() {
+        return stage;
+    }
+
+    @Override
+    public String toString() {
+        return stage + " saved=" + saved + " failed=" + failed + " latency avg=" + getAverageLatencyNanos() + "ns max=" + maxLatencyNanos + "ns sync=" + syncPolicy;
+    }
+}
@@ -0,0 +1,688 @@
+package org.indilib.i4j.driver.ccd;
+
+/*
+ * #%L
+ * INDI for Java Abstract CCD Driver
+ * %%
+ * Copyright (C) 2013 - 2014 indiforjava
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import nom.tam.fits.FitsException;
+import nom.tam.fits.Header;
+import nom.tam.fits.HeaderCard;
+import nom.tam.fits.HeaderCardException;
+import nom.tam.util.BufferedDataOutputStream;
+import nom.tam.util.Cursor;
+import org.indilib.i4j.INDIBLOBSource;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+import static nom.tam.fits.header.Standard.DATAMAX;
+import static nom.tam.fits.header.Standard.DATAMIN;
+import static nom.tam.fits.header.Standard.NAXISn;
+import static nom.tam.fits.header.extra.SBFitsExt.XORGSUBF;
+import static nom.tam.fits.header.extra.SBFitsExt.YORGSUBF;
+
+/**
+ * Streaming fits writer for a ccd image. The header blocks are rendered by
+ * nom-tam (they are small), the pixel data is converted to big endian chunk by
+ * chunk directly from the image array (or copied as they are from the
+ * buffers of an off-heap image), so a frame is never copied as a whole
+ * between the sensor buffer and the file or the socket. The writer takes a
+ * snapshot of the header and a reference to the pixel array, it can be
+ * written any number of times and is also a BLOB source. A subframe of the
+ * image is cropped and binned during the conversion, so only the requested
+ * pixels are encoded. The pixel array of a pooled image is reused once the
+ * image is released and the writer is neither retained nor streamed, reading
+ * the writer after that fails.
+ *
+ * @author Richard van Nieuwenhoven
+ */
+public final class INDICCDFitsWriter extends INDIBLOBSource {
+
+    /**
+     * the size of a fits block, header and data are padded to it.
+     */
+    public static final int FITS_BLOCK_SIZE = 2880;
+
+    /**
+     * the size of the chunks the data is converted in, a multiple of the fits
+     * block size and of every pixel size.
+     */
+    private static final int CHUNK_SIZE = FITS_BLOCK_SIZE * 24;
+
+    /**
+     * mask for the unsigned value of a byte.
+     */
+    private static final int BYTE_MASK = 0xFF;
+
+    /**
+     * the rendered header blocks.
+     */
+    private final byte[] header;
+
+    /**
+     * the primitive pixel array of the image, or the big endian buffer
+     * segments of an off-heap image.
+     */
+    private final Object data;
+
+    /**
+     * the number of pixel values to write (bytes for uncropped buffer
+     * segments).
+     */
+    private final long valueCount;
+
+    /**
+     * the number of bytes of one pixel value (1 for uncropped buffer
+     * segments).
+     */
+    private final int bytesPerValue;
+
+    /**
+     * the number of bytes of the pixel data without padding.
+     */
+    private final long dataLength;
+
+    /**
+     * the number of bytes of one pixel value of the image.
+     */
+    private final int sampleBytes;
+
+    /**
+     * the size of the buffer segments of an off-heap image is 2 to the power
+     * of this.
+     */
+    private final int segmentShift;
+
+    /**
+     * the width of the image.
+     */
+    private final int imageWidth;
+
+    /**
+     * the number of pixels in one layer of the image.
+     */
+    private final long imageLayerSize;
+
+    /**
+     * is only a part of the image written or is it binned.
+     */
+    private final boolean cropped;
+
+    /**
+     * the first column of the image to write.
+     */
+    private final int left;
+
+    /**
+     * the first row of the image to write.
+     */
+    private final int top;
+
+    /**
+     * the width of the written image (after binning).
+     */
+    private final int outWidth;
+
+    /**
+     * the number of pixels in one layer of the written image.
+     */
+    private final long outLayerSize;
+
+    /**
+     * number of pixels binned in x.
+     */
+    private final int binX;
+
+    /**
+     * number of pixels binned in y.
+     */
+    private final int binY;
+
+    /**
+     * should the binned pixels be averaged (or added).
+     */
+    private final boolean average;
+
+    /**
+     * the maximum pixel value of the bit depth.
+     */
+    private final long maxValue;
+
+    /**
+     * the readers of the pooled pixel array, or null if the image is not
+     * pooled.
+     */
+    private final INDICCDFramePool.Usage usage;
+
+    /**
+     * create the writer for the current state of the image.
+     *
+     * @param image    the image to write.
+     * @param subframe the part of the image to write and its binning.
+     * @param usage    the readers of the pooled pixel array, or null if the
+     *                 image is not pooled.
+     * @throws FitsException if the header could not be rendered.
+     */
+    INDICCDFitsWriter(INDICCDImage image, INDICCDImage.Subframe subframe, INDICCDFramePool.Usage usage) throws FitsException {
+        this.usage = usage;
+        data = image.getImageData();
+        long length;
+        if (data instanceof byte[]) {
+            length = ((byte[]) data).length;
+            sampleBytes = Byte.BYTES;
+        } else if (data instanceof short[]) {
+            length = ((short[]) data).length;
+            sampleBytes = Short.BYTES;
+        } else if (data instanceof int[]) {
+            length = ((int[]) data).length;
+            sampleBytes = Integer.BYTES;
+        } else if (data instanceof ByteBuffer[]) {
+            length = 0;
+            for (ByteBuffer segment : (ByteBuffer[]) data) {
+                length += segment.limit();
+            }
+            sampleBytes = image.bpp / Byte.SIZE;
+            length /= sampleBytes;
+        } else {
+            throw new FitsException("the image has no pixel data");
+        }
+        segmentShift = data instanceof ByteBuffer[] ? INDICCDImage.segmentShift((ByteBuffer[]) data) : INDICCDImage.SEGMENT_SHIFT;
+        maxValue = sampleBytes == Integer.BYTES ? Integer.MAX_VALUE : (1L << (sampleBytes * Byte.SIZE)) - 1;
+        imageWidth = image.width;
+        imageLayerSize = (long) image.width * image.height;
+        long layers = length / imageLayerSize;
+
+        left = Math.min(subframe.getLeft(), image.width - 1);
+        top = Math.min(subframe.getTop(), image.height - 1);
+        int width = subframe.getWidth() == 0 ? image.width - left : Math.min(subframe.getWidth(), image.width - left);
+        int height = subframe.getHeight() == 0 ? image.height - top : Math.min(subframe.getHeight(), image.height - top);
+        binX = subframe.getBinX();
+        binY = subframe.getBinY();
+        average = subframe.getMode() == INDICCDImage.BinningMode.AVERAGE;
+        outWidth = width / binX;
+        int outHeight = height / binY;
+        if (outWidth == 0 || outHeight == 0) {
+            throw new IllegalArgumentException("subframe " + subframe + " is empty for an image of " + image.width + "x" + image.height);
+        }
+        outLayerSize = (long) outWidth * outHeight;
+        cropped = outWidth != image.width || outHeight != image.height;
+        if (!cropped) {
+            valueCount = data instanceof ByteBuffer[] ? length * sampleBytes : length;
+            bytesPerValue = data instanceof ByteBuffer[] ? Byte.BYTES : sampleBytes;
+        } else {
+            valueCount = outLayerSize * layers;
+            bytesPerValue = sampleBytes;
+        }
+        dataLength = valueCount * bytesPerValue;
+        try {
+            Header fitsHeader = image.asFitsImage().getHDU(0).getHeader();
+            if (cropped) {
+                fitsHeader = subframeHeader(fitsHeader, outHeight);
+            }
+            header = renderHeader(fitsHeader);
+        } catch (IOException e) {
+            throw new FitsException("could not read the fits header", e);
+        }
+    }
+
+    /**
+     * create the header of the subframe, the header of the image stays
+     * unchanged.
+     *
+     * @param imageHeader the header of the whole image.
+     * @param outHeight   the height of the written image (after binning).
+     * @return the header for the subframe.
+     * @throws HeaderCardException if the header got illegal.
+     */
+    private Header subframeHeader(Header imageHeader, int outHeight) throws HeaderCardException {
+        Header subframeHeader = new Header();
+        Cursor<String, HeaderCard> cards = imageHeader.iterator();
+        while (cards.hasNext()) {
+            subframeHeader.addLine(cards.next().copy());
+        }
+        // same axis order as the image header.
+        subframeHeader.addValue(NAXISn.n(1), outHeight);
+        subframeHeader.addValue(NAXISn.n(2), outWidth);
+        subframeHeader.addValue(XORGSUBF, left);
+        subframeHeader.addValue(YORGSUBF, top);
+        if (!average && binX * binY > 1) {
+            // the sums have an other range.
+            subframeHeader.deleteKey(DATAMAX);
+            subframeHeader.deleteKey(DATAMIN);
+        }
+        return subframeHeader;
+    }
+
+    /**
+     * read one pixel value of an image array.
+     *
+     * @param data        the primitive pixel array of the image, or its big
+     *                    endian buffer segments.
+     * @param sampleBytes the number of bytes of one pixel value.
+     * @param index       the index of the pixel value in the image.
+     * @return the pixel value (16 bit values without the fits offset).
+     */
+    static long sample(Object data, int sampleBytes, long index) {
+        if (data instanceof ByteBuffer[]) {
+            ByteBuffer[] segments = (ByteBuffer[]) data;
+            int segmentShift = INDICCDImage.segmentShift(segments);
+            long byteOffset = index * sampleBytes;
+            ByteBuffer segment = segments[(int) (byteOffset >>> segmentShift)];
+            int offset = (int) (byteOffset & ((1L << segmentShift) - 1));
+            if (sampleBytes == Byte.BYTES) {
+                return segment.get(offset) & BYTE_MASK;
+            } else if (sampleBytes == Short.BYTES) {
+                return segment.getShort(offset) - Short.MIN_VALUE;
+            }
+            return segment.getInt(offset);
+        } else if (data instanceof byte[]) {
+            return ((byte[]) data)[(int) index] & BYTE_MASK;
+        } else if (data instanceof short[]) {
+            return ((short[]) data)[(int) index] - Short.MIN_VALUE;
+        }
+        return ((int[]) data)[(int) index];
+    }
+
+    /**
+     * @param fitsHeader the header to render.
+     * @return the padded header blocks.
+     * @throws FitsException if the header could not be rendered.
+     */
+    private static byte[] renderHeader(Header fitsHeader) throws FitsException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(FITS_BLOCK_SIZE);
+        try (BufferedDataOutputStream dataOut = new BufferedDataOutputStream(out)) {
+            fitsHeader.write(dataOut);
+        } catch (IOException e) {
+            throw new FitsException("could not render the fits header", e);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * @param length the unpadded number of bytes.
+     * @return the number of bytes needed to fill the last fits block.
+     */
+    private static long padding(long length) {
+        return (FITS_BLOCK_SIZE - length % FITS_BLOCK_SIZE) % FITS_BLOCK_SIZE;
+    }
+
+    @Override
+    public long getLength() {
+        return header.length + dataLength + padding(dataLength);
+    }
+
+    @Override
+    public InputStream openStream() throws IOException {
+        open();
+        return new FitsInputStream();
+    }
+
+    /**
+     * keep the pixel array of a pooled image from being reused until
+     * {@link #release()}, for holders that read the writer after the image
+     * was released.
+     */
+    @Override
+    public void retain() {
+        if (usage != null) {
+            usage.retain();
+        }
+    }
+
+    @Override
+    public void release() {
+        if (usage != null) {
+            usage.release();
+        }
+    }
+
+    /**
+     * start reading the pixel array.
+     *
+     * @throws IOException if the pooled array was already reused.
+     */
+    private void open() throws IOException {
+        if (usage != null) {
+            usage.open();
+        }
+    }
+
+    /**
+     * write the fits file to a channel, the buffers of an off-heap image are
+     * handed to the channel as they are (if the whole image is written).
+     *
+     * @param channel the channel to write to, it is not closed.
+     * @throws IOException if the channel failed.
+     */
+    public void writeTo(WritableByteChannel channel) throws IOException {
+        open();
+        try {
+            writeChannel(channel);
+        } finally {
+            release();
+        }
+    }
+
+    /**
+     * write the fits file to a channel.
+     *
+     * @param channel the channel to write to, it is not closed.
+     * @throws IOException if the channel failed.
+     */
+    private void writeChannel(WritableByteChannel channel) throws IOException {
+        if (data instanceof ByteBuffer[] && !cropped) {
+            writeFully(channel, ByteBuffer.wrap(header));
+            for (ByteBuffer segment : (ByteBuffer[]) data) {
+                ByteBuffer content = segment.duplicate();
+                content.position(0);
+                writeFully(channel, content);
+            }
+            writeFully(channel, ByteBuffer.allocate((int) padding(dataLength)));
+            return;
+        }
+        Position cursor = new Position();
+        ByteBuffer buffer = ByteBuffer.allocate(CHUNK_SIZE);
+        while (cursor.fill(buffer)) {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+
+    /**
+     * write all remaining bytes of the buffer to the channel.
+     *
+     * @param channel the channel to write to.
+     * @param buffer  the bytes to write.
+     * @throws IOException if the channel failed.
+     */
+    private static void writeFully(WritableByteChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * write the fits file to a stream.
+     *
+     * @param out the stream to write to, it is not closed.
+     * @throws IOException if the stream failed.
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        open();
+        try {
+            Position cursor = new Position();
+            ByteBuffer buffer = ByteBuffer.allocate(CHUNK_SIZE);
+            while (cursor.fill(buffer)) {
+                out.write(buffer.array(), 0, buffer.position());
+                buffer.clear();
+            }
+        } finally {
+            release();
+        }
+    }
+
+    /**
+     * The position of one pass over the fits file.
+     */
+    private final class Position {
+
+        /**
+         * the next header byte to write.
+         */
+        private int headerIndex;
+
+        /**
+         * the next pixel value to write.
+         */
+        private long valueIndex;
+
+        /**
+         * the padding bytes still to write.
+         */
+        private long paddingLeft = padding(dataLength);
+
+        /**
+         * fill the buffer with the next bytes of the file, the buffer must
+         * have room for at least one pixel value.
+         *
+         * @param buffer the buffer to fill.
+         * @return false if the file was completely written before.
+         */
+        private boolean fill(ByteBuffer buffer) {
+            if (headerIndex >= header.length && valueIndex >= valueCount && paddingLeft == 0) {
+                return false;
+            }
+            if (headerIndex < header.length) {
+                int count = Math.min(header.length - headerIndex, buffer.remaining());
+                buffer.put(header, headerIndex, count);
+                headerIndex += count;
+            }
+            while (valueIndex < valueCount && buffer.remaining() >= bytesPerValue) {
+                valueIndex += putValues(buffer, (int) Math.min(valueCount - valueIndex, buffer.remaining() / bytesPerValue));
+            }
+            if (valueIndex >= valueCount) {
+                while (paddingLeft > 0 && buffer.hasRemaining()) {
+                    buffer.put((byte) 0);
+                    paddingLeft--;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * convert the next pixel values big endian into the buffer.
+         *
+         * @param buffer the buffer to fill.
+         * @param count  the maximum number of values to convert.
+         * @return the number of values converted.
+         */
+        private int putValues(ByteBuffer buffer, int count) {
+            if (cropped) {
+                if (binX * binY == 1) {
+                    return putLine(buffer, count);
+                }
+                return putBinned(buffer, count);
+            }
+            return putSamples(buffer, valueIndex, count);
+        }
+
+        /**
+         * copy the next pixel values of the current line of the subframe into
+         * the buffer.
+         *
+         * @param buffer the buffer to fill.
+         * @param count  the maximum number of values to copy.
+         * @return the number of values copied.
+         */
+        private int putLine(ByteBuffer buffer, int count) {
+            long layer = valueIndex / outLayerSize;
+            long inLayer = valueIndex % outLayerSize;
+            long row = inLayer / outWidth;
+            int column = (int) (inLayer % outWidth);
+            long source = layer * imageLayerSize + (top + row) * imageWidth + left + column;
+            return putSamples(buffer, source, Math.min(count, outWidth - column));
+        }
+
+        /**
+         * bin the next pixel values of the subframe into the buffer.
+         *
+         * @param buffer the buffer to fill.
+         * @param count  the number of values to bin.
+         * @return the number of values binned.
+         */
+        private int putBinned(ByteBuffer buffer, int count) {
+            long binSize = (long) binX * binY;
+            for (int index = 0; index < count; index++) {
+                long outIndex = valueIndex + index;
+                long layer = outIndex / outLayerSize;
+                long inLayer = outIndex % outLayerSize;
+                long row = inLayer / outWidth;
+                long column = inLayer % outWidth;
+                long source = layer * imageLayerSize + (top + row * binY) * imageWidth + left + column * binX;
+                long sum = 0;
+                for (int y = 0; y < binY; y++) {
+                    for (int x = 0; x < binX; x++) {
+                        sum += sample(data, sampleBytes, source + x);
+                    }
+                    source += imageWidth;
+                }
+                if (average) {
+                    sum = (sum + binSize / 2) / binSize;
+                }
+                putSample(buffer, Math.min(sum, maxValue));
+            }
+            return count;
+        }
+
+        /**
+         * copy pixel values of the image big endian into the buffer.
+         *
+         * @param buffer the buffer to fill.
+         * @param source the index of the first value (of the first byte for
+         *               uncropped buffer segments).
+         * @param count  the maximum number of values to copy.
+         * @return the number of values copied.
+         */
+        private int putSamples(ByteBuffer buffer, long source, int count) {
+            if (data instanceof ByteBuffer[]) {
+                long byteOffset = source * (cropped ? sampleBytes : Byte.BYTES);
+                ByteBuffer segment = ((ByteBuffer[]) data)[(int) (byteOffset >>> segmentShift)].duplicate();
+                int offset = (int) (byteOffset & ((1L << segmentShift) - 1));
+                int length = Math.min(count * bytesPerValue, segment.limit() - offset);
+                segment.limit(offset + length).position(offset);
+                buffer.put(segment);
+                return length / bytesPerValue;
+            }
+            int index = (int) source;
+            if (sampleBytes == Byte.BYTES) {
+                buffer.put((byte[]) data, index, count);
+            } else if (sampleBytes == Short.BYTES) {
+                buffer.asShortBuffer().put((short[]) data, index, count);
+                buffer.position(buffer.position() + count * Short.BYTES);
+            } else {
+                buffer.asIntBuffer().put((int[]) data, index, count);
+                buffer.position(buffer.position() + count * Integer.BYTES);
+            }
+            return count;
+        }
+
+        /**
+         * store a pixel value big endian into the buffer.
+         *
+         * @param buffer the buffer to fill.
+         * @param value  the pixel value (16 bit values without the fits
+         *               offset).
+         */
+        private void putSample(ByteBuffer buffer, long value) {
+            if (sampleBytes == Byte.BYTES) {
+                buffer.put((byte) value);
+            } else if (sampleBytes == Short.BYTES) {
+                buffer.putShort((short) (value + Short.MIN_VALUE));
+            } else {
+                buffer.putInt((int) value);
+            }
+        }
+    }
+
+    /**
+     * An input stream over the fits file, with a constant size buffer.
+     */
+    private final class FitsInputStream extends InputStream {
+
+        /**
+         * the position in the file.
+         */
+        private final Position cursor = new Position();
+
+        /**
+         * the converted bytes not yet read.
+         */
+        private final ByteBuffer buffer = ByteBuffer.allocate(CHUNK_SIZE);
+
+        /**
+         * was the stream closed.
+         */
+        private boolean closed;
+
+        /**
+         * create the stream, nothing is converted yet.
+         */
+        private FitsInputStream() {
+            buffer.limit(0);
+        }
+
+        /**
+         * convert the next chunk if all bytes were read.
+         *
+         * @return false at the end of the file.
+         */
+        private boolean ensureAvailable() {
+            if (buffer.hasRemaining()) {
+                return true;
+            }
+            buffer.clear();
+            boolean more = cursor.fill(buffer);
+            buffer.flip();
+            return more;
+        }
+
+        @Override
+        public int read() {
+            if (!ensureAvailable()) {
+                return -1;
+            }
+            return buffer.get() & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!ensureAvailable()) {
+                return -1;
+            }
+            int count = Math.min(len, buffer.remaining());
+            buffer.get(b, off, count);
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                release();
+            }
+        }
+    }
+}
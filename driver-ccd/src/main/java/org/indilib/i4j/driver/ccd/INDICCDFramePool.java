@@ -0,0 +1,610 @@
+package org.indilib.i4j.driver.ccd;
+
+/*
+ * #%L
+ * INDI for Java Abstract CCD Driver
+ * %%
+ * Copyright (C) 2013 - 2014 indiforjava
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import org.indilib.i4j.driver.ccd.INDICCDImage.ImageType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.reflect.Array;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A pool of pixel arrays shared by the ccd drivers in the jvm, so that
+ * steady state capture (autoloop) does not allocate a new frame for every
+ * exposure. Images acquired from the pool take their pixel array from it and
+ * give it back with {@link INDICCDImage#release()}. A released array is
+ * reused as soon as no fits writer of the image is read anymore: the holders
+ * of a writer that read it later (like the published BLOB value) retain it
+ * until they are done, and open streams count until they are closed. The
+ * pool retains at most the configured number of bytes, when a released array
+ * does not fit anymore the free arrays of the frame geometries used least
+ * recently are dropped to make place. Direct buffers are counted against the
+ * same budget although they live outside the heap (their own limit,
+ * -XX:MaxDirectMemorySize, defaults to the maximum heap as well). Images that
+ * are garbage collected without being released are reported as leaks.
+ *
+ * @author Richard van Nieuwenhoven
+ */
+public final class INDICCDFramePool {
+
+    /**
+     * system property to change the maximum number of megabytes the pool
+     * retains (heap arrays and direct buffers together), the default is a
+     * quarter of the maximum heap.
+     */
+    public static final String MAX_MEGABYTES_PROPERTY = "i4j.driver.ccd.framePoolMegabytes";
+
+    /**
+     * system property to record where leaked images were acquired (costs a
+     * stack trace per acquire).
+     */
+    public static final String LEAK_TRACES_PROPERTY = "i4j.driver.ccd.framePoolLeakTraces";
+
+    /**
+     * The logger to log to.
+     */
+    private static final Logger LOG = LoggerFactory.getLogger(INDICCDFramePool.class);
+
+    /**
+     * the number of bytes in a megabyte.
+     */
+    private static final long MEGABYTE = 1024L * 1024L;
+
+    /**
+     * the default part of the heap the pool may retain.
+     */
+    private static final int DEFAULT_HEAP_FRACTION = 4;
+
+    /**
+     * the pool of the ccd drivers in this jvm.
+     */
+    private static final INDICCDFramePool INSTANCE = new INDICCDFramePool();
+
+    /**
+     * the maximum number of bytes retained by the pool.
+     */
+    private final long maxRetainedBytes;
+
+    /**
+     * should the place of acquisition be recorded for leak reports?
+     */
+    private final boolean leakTraces = Boolean.getBoolean(LEAK_TRACES_PROPERTY);
+
+    /**
+     * the free arrays by frame geometry, the geometry used least recently
+     * first.
+     */
+    private final Map<Key, Deque<Object>> free = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * released arrays that may still be read by fits writers.
+     */
+    private final List<Released> inUse = new ArrayList<>();
+
+    /**
+     * the leases of the acquired images that were not released yet.
+     */
+    private final Map<Reference<INDICCDImage>, Lease> leases = new HashMap<>();
+
+    /**
+     * the queue where unreachable acquired images are reported.
+     */
+    private final ReferenceQueue<INDICCDImage> unreachable = new ReferenceQueue<>();
+
+    /**
+     * the number of bytes in the free and in use arrays.
+     */
+    private long retainedBytes;
+
+    /**
+     * the number of arrays allocated.
+     */
+    private long allocations;
+
+    /**
+     * the number of arrays reused.
+     */
+    private long reuses;
+
+    /**
+     * the number of images that were never released.
+     */
+    private long leaks;
+
+    /**
+     * the number of free arrays dropped to make place for others.
+     */
+    private long evictions;
+
+    /**
+     * constructor.
+     */
+    private INDICCDFramePool() {
+        long defaultMegabytes = Runtime.getRuntime().maxMemory() / DEFAULT_HEAP_FRACTION / MEGABYTE;
+        maxRetainedBytes = Long.getLong(MAX_MEGABYTES_PROPERTY, defaultMegabytes) * MEGABYTE;
+    }
+
+    /**
+     * @return the frame pool of the ccd drivers in this jvm.
+     */
+    public static INDICCDFramePool getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * create a ccd image that takes its pixel array from the pool. The image
+     * must be given back with {@link INDICCDImage#release()} when it was
+     * uploaded and saved.
+     *
+     * @param width  the width of the image
+     * @param height the height of the image
+     * @param bpp    the bits per pixel of the image.
+     * @param type   the type of the image.
+     * @return the newly created image.
+     */
+    public synchronized INDICCDImage acquire(int width, int height, int bpp, ImageType type) {
+        return lease(INDICCDImage.createImage(width, height, bpp, type));
+    }
+
+    /**
+     * create a ccd image that takes its off-heap pixel buffers from the pool
+     * (allocating direct buffers is expensive). The image must be given back
+     * with {@link INDICCDImage#release()} when it was uploaded and saved.
+     *
+     * @param width  the width of the image
+     * @param height the height of the image
+     * @param bpp    the bits per pixel of the image.
+     * @param type   the type of the image.
+     * @return the newly created image.
+     */
+    public synchronized INDICCDImage acquireDirect(int width, int height, int bpp, ImageType type) {
+        return lease(INDICCDImage.createDirectImage(width, height, bpp, type));
+    }
+
+    /**
+     * register a new image as borrowing from the pool.
+     *
+     * @param image the new image.
+     * @return the image.
+     */
+    private INDICCDImage lease(INDICCDImage image) {
+        reportLeaks();
+        PhantomReference<INDICCDImage> reference = new PhantomReference<>(image, unreachable);
+        leases.put(reference, new Lease(leakTraces ? new Throwable("acquired here") : null));
+        image.setPool(this, reference);
+        return image;
+    }
+
+    /**
+     * @return the number of pixel arrays the pool had to allocate.
+     */
+    public synchronized long getAllocations() {
+        return allocations;
+    }
+
+    /**
+     * @return the number of pixel arrays that were reused.
+     */
+    public synchronized long getReuses() {
+        return reuses;
+    }
+
+    /**
+     * @return the number of free arrays dropped to make place for arrays of
+     * other frame geometries.
+     */
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * @return the number of images that were never released.
+     */
+    public synchronized long getLeaks() {
+        reportLeaks();
+        return leaks;
+    }
+
+    /**
+     * @return the number of bytes retained in the pool.
+     */
+    public synchronized long getRetainedBytes() {
+        return retainedBytes;
+    }
+
+    /**
+     * get a cleared pixel array for a pooled image.
+     *
+     * @param image the image that needs the array.
+     * @return the array, reused if possible.
+     */
+    synchronized Object borrow(INDICCDImage image) {
+        collectUnused();
+        Deque<Object> arrays = free.get(new Key(image));
+        Object array = arrays != null ? arrays.pollFirst() : null;
+        if (array == null) {
+            allocations++;
+            return image.newImageData();
+        }
+        retainedBytes -= bytes(array);
+        reuses++;
+        clear(array);
+        return array;
+    }
+
+    /**
+     * give the pixel array of a pooled image back.
+     *
+     * @param image   the released image.
+     * @param array   the pixel array of the image, or null if it had none.
+     * @param usage   the readers of the fits writers of the array, or null if
+     *                the image had no writer.
+     */
+    synchronized void giveBack(INDICCDImage image, Object array, Usage usage) {
+        if (array == null) {
+            return;
+        }
+        long size = bytes(array);
+        Key key = new Key(image);
+        collectUnused();
+        if (retainedBytes + size > maxRetainedBytes && !evictOthers(key, retainedBytes + size - maxRetainedBytes)) {
+            return;
+        }
+        retainedBytes += size;
+        inUse.add(new Released(key, array, usage));
+        collectUnused();
+    }
+
+    /**
+     * drop free arrays of other frame geometries, least recently used first,
+     * to make place for a released array. Arrays still read by fits writers
+     * can not be dropped, nothing is dropped if it would not make enough
+     * place.
+     *
+     * @param key    the geometry of the released array.
+     * @param needed the number of bytes to free.
+     * @return true if enough bytes were freed.
+     */
+    private boolean evictOthers(Key key, long needed) {
+        long evictable = 0L;
+        for (Map.Entry<Key, Deque<Object>> entry : free.entrySet()) {
+            if (!entry.getKey().equals(key)) {
+                for (Object array : entry.getValue()) {
+                    evictable += bytes(array);
+                }
+            }
+        }
+        if (evictable < needed) {
+            return false;
+        }
+        long evicted = 0L;
+        Iterator<Map.Entry<Key, Deque<Object>>> entries = free.entrySet().iterator();
+        while (evicted < needed && entries.hasNext()) {
+            Map.Entry<Key, Deque<Object>> entry = entries.next();
+            if (entry.getKey().equals(key)) {
+                continue;
+            }
+            Deque<Object> arrays = entry.getValue();
+            while (evicted < needed && !arrays.isEmpty()) {
+                long size = bytes(arrays.pollFirst());
+                retainedBytes -= size;
+                evicted += size;
+                evictions++;
+            }
+            if (arrays.isEmpty()) {
+                entries.remove();
+            }
+        }
+        return evicted >= needed;
+    }
+
+    /**
+     * the image was released, it is not a leak.
+     *
+     * @param reference the reference to the image given at acquisition.
+     */
+    synchronized void released(Reference<INDICCDImage> reference) {
+        leases.remove(reference);
+        reference.clear();
+    }
+
+    /**
+     * move the released arrays that are not read anymore to the free arrays.
+     */
+    private void collectUnused() {
+        Iterator<Released> iterator = inUse.iterator();
+        while (iterator.hasNext()) {
+            Released released = iterator.next();
+            if (released.isUnused()) {
+                iterator.remove();
+                free.computeIfAbsent(released.key, key -> new ArrayDeque<>()).addLast(released.array);
+            }
+        }
+    }
+
+    /**
+     * log the acquired images that became unreachable without being
+     * released.
+     */
+    private void reportLeaks() {
+        Reference<? extends INDICCDImage> reference = unreachable.poll();
+        while (reference != null) {
+            Lease lease = leases.remove(reference);
+            if (lease != null) {
+                leaks++;
+                if (lease.acquiredAt != null) {
+                    LOG.warn("ccd image was not released to the frame pool", lease.acquiredAt);
+                } else {
+                    LOG.warn("ccd image was not released to the frame pool, set -D" + LEAK_TRACES_PROPERTY + "=true to see where it was acquired");
+                }
+            }
+            reference = unreachable.poll();
+        }
+    }
+
+    /**
+     * @param array a primitive pixel array.
+     * @return the number of bytes of the array.
+     */
+    private static long bytes(Object array) {
+        if (array instanceof ByteBuffer[]) {
+            long length = 0;
+            for (ByteBuffer segment : (ByteBuffer[]) array) {
+                length += segment.capacity();
+            }
+            return length;
+        }
+        long length = Array.getLength(array);
+        if (array instanceof short[]) {
+            return length * Short.BYTES;
+        } else if (array instanceof int[]) {
+            return length * Integer.BYTES;
+        }
+        return length;
+    }
+
+    /**
+     * zero a reused pixel array, as a newly allocated one would be.
+     *
+     * @param array a primitive pixel array.
+     */
+    private static void clear(Object array) {
+        if (array instanceof byte[]) {
+            Arrays.fill((byte[]) array, (byte) 0);
+        } else if (array instanceof short[]) {
+            Arrays.fill((short[]) array, (short) 0);
+        } else if (array instanceof int[]) {
+            Arrays.fill((int[]) array, 0);
+        } else if (array instanceof ByteBuffer[]) {
+            for (ByteBuffer segment : (ByteBuffer[]) array) {
+                ByteBuffer zeros = segment.duplicate();
+                zeros.clear();
+                while (zeros.remaining() >= Long.BYTES) {
+                    zeros.putLong(0L);
+                }
+                while (zeros.hasRemaining()) {
+                    zeros.put((byte) 0);
+                }
+            }
+        }
+    }
+
+    /**
+     * The geometry, bit depth and storage of a frame.
+     */
+    private static final class Key {
+
+        /**
+         * the image width.
+         */
+        private final int width;
+
+        /**
+         * the image height.
+         */
+        private final int height;
+
+        /**
+         * bits per pixel.
+         */
+        private final int bpp;
+
+        /**
+         * type of the image.
+         */
+        private final ImageType type;
+
+        /**
+         * the storage of the image.
+         */
+        private final Class<?> storage;
+
+        /**
+         * the key of the frames like the image.
+         *
+         * @param image the image.
+         */
+        private Key(INDICCDImage image) {
+            width = image.width;
+            height = image.height;
+            bpp = image.bpp;
+            type = image.type;
+            storage = image.getClass();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return width == other.width && height == other.height && bpp == other.bpp && type == other.type && storage == other.storage;
+        }
+
+        @Override
+        public int hashCode() {
+            return ((width * 31 + height) * 31 + bpp) * 31 + type.hashCode();
+        }
+    }
+
+    /**
+     * The readers of a pixel array that was handed to fits writers: the
+     * holders that retained a writer and the streams that are open on it.
+     * Once the array is recycled the writers refuse to read it.
+     */
+    static final class Usage {
+
+        /**
+         * the number of holders and open streams.
+         */
+        private int readers;
+
+        /**
+         * was the array taken back by the pool.
+         */
+        private boolean recycled;
+
+        /**
+         * a holder will read the array later.
+         */
+        synchronized void retain() {
+            if (recycled) {
+                throw new IllegalStateException("the frame was already reused by the frame pool");
+            }
+            readers++;
+        }
+
+        /**
+         * a stream starts to read the array.
+         *
+         * @throws IOException if the array was already recycled.
+         */
+        synchronized void open() throws IOException {
+            if (recycled) {
+                throw new IOException("the frame was already reused by the frame pool");
+            }
+            readers++;
+        }
+
+        /**
+         * a holder or a stream is done with the array.
+         */
+        synchronized void release() {
+            if (readers > 0) {
+                readers--;
+            }
+        }
+
+        /**
+         * take the array back if nobody reads it.
+         *
+         * @return true if the array can be reused.
+         */
+        synchronized boolean recycle() {
+            if (readers > 0) {
+                return false;
+            }
+            recycled = true;
+            return true;
+        }
+    }
+
+    /**
+     * A released array that may still be read by fits writers.
+     */
+    private static final class Released {
+
+        /**
+         * the geometry of the frame.
+         */
+        private final Key key;
+
+        /**
+         * the pixel array.
+         */
+        private final Object array;
+
+        /**
+         * the readers of the fits writers of the array, or null if there was
+         * no writer.
+         */
+        private final Usage usage;
+
+        /**
+         * constructor.
+         *
+         * @param key   the geometry of the frame.
+         * @param array the pixel array.
+         * @param usage the readers of the fits writers of the array, or null
+         *              if there was no writer.
+         */
+        private Released(Key key, Object array, Usage usage) {
+            this.key = key;
+            this.array = array;
+            this.usage = usage;
+        }
+
+        /**
+         * @return true if no writer reads the array anymore, the writers
+         * refuse to read it from now on.
+         */
+        private boolean isUnused() {
+            return usage == null || usage.recycle();
+        }
+    }
+
+    /**
+     * The lease of an acquired image.
+     */
+    private static final class Lease {
+
+        /**
+         * where the image was acquired, or null if not recorded.
+         */
+        private final Throwable acquiredAt;
+
+        /**
+         * constructor.
+         *
+         * @param acquiredAt where the image was acquired, or null if not
+         *                   recorded.
+         */
+        private Lease(Throwable acquiredAt) {
+            this.acquiredAt = acquiredAt;
+        }
+    }
+}
@@ -25,6 +25,14 @@ package org.indilib.i4j.driver.ccd;
 import nom.tam.fits.*;
 
 import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.ref.Reference;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -65,6 +73,12 @@ public abstract class INDICCDImage {
      * the maximum value of a byte.
      */
     private static final int MAX_BYTE_VALUE = 255;
+
+    /**
+     * the size of the buffer segments of off-heap images is 2 to the power
+     * of this (1 GB, a multiple of every pixel size).
+     */
+    static final int SEGMENT_SHIFT = 30;
     /**
      * the image width.
      */
@@ -97,6 +111,20 @@ public abstract class INDICCDImage {
      * extra fits headers to include.
      */
     private Map<String, Object> extraFitsHeaders;
+    /**
+     * the pool the pixel array is borrowed from, or null if the image is not
+     * pooled.
+     */
+    private INDICCDFramePool pool;
+    /**
+     * the reference the pool uses to detect that the image was not released.
+     */
+    private Reference<INDICCDImage> poolReference;
+    /**
+     * the readers of the fits writers of the pooled pixel array, or null if
+     * no writer was created for it.
+     */
+    private INDICCDFramePool.Usage usage;
 
     /**
      * create a ccd image with the specified size and bpp.
@@ -134,6 +162,86 @@ public abstract class INDICCDImage {
         }
     }
 
+    /**
+     * create a ccd image with the specified size and bpp that keeps its pixels
+     * off-heap in direct byte buffers, in fits (big endian) order. It is not
+     * limited to 2^31 pixel values and does not need heap for the pixels.
+     *
+     * @param width  the width of the image
+     * @param height the height of the image
+     * @param bpp    the bits per pixel of the image.
+     * @param type   the type of the image.
+     * @return the newly created image.
+     */
+    public static INDICCDImage createDirectImage(int width, int height, int bpp, ImageType type) {
+        return createDirectImage(width, height, bpp, type, SEGMENT_SHIFT);
+    }
+
+    /**
+     * create an off-heap ccd image with smaller buffer segments, so the
+     * handling of values in several segments can be tested with small
+     * images.
+     *
+     * @param width        the width of the image
+     * @param height       the height of the image
+     * @param bpp          the bits per pixel of the image.
+     * @param type         the type of the image.
+     * @param segmentShift the size of the buffer segments is 2 to the power
+     *                     of this (at least 2, so a segment holds whole
+     *                     values).
+     * @return the newly created image.
+     */
+    static INDICCDImage createDirectImage(int width, int height, int bpp, ImageType type, int segmentShift) {
+        return new INDIBufferCCDImage(width, height, bitsPerValue(bpp), type, null, segmentShift);
+    }
+
+    /**
+     * @param segments the buffer segments of an off-heap image.
+     * @return the size of the segments is 2 to the power of this.
+     */
+    static int segmentShift(ByteBuffer[] segments) {
+        if (segments.length == 1) {
+            return SEGMENT_SHIFT;
+        }
+        return Integer.numberOfTrailingZeros(segments[0].capacity());
+    }
+
+    /**
+     * create a ccd image with the specified size and bpp that keeps its pixels
+     * in a memory mapped file, in fits (big endian) order. It is not limited
+     * to 2^31 pixel values and the pixels are paged by the operating system.
+     *
+     * @param width  the width of the image
+     * @param height the height of the image
+     * @param bpp    the bits per pixel of the image.
+     * @param type   the type of the image.
+     * @param file   the file to map, it is created or replaced. Every new
+     *               frame of the image gets a new file with this name (the
+     *               old one is unlinked, so uploads of the previous frame can
+     *               still read it), where that is not possible (windows) a
+     *               numbered sibling is used.
+     * @return the newly created image.
+     */
+    public static INDICCDImage createMappedImage(int width, int height, int bpp, ImageType type, File file) {
+        return new INDIBufferCCDImage(width, height, bitsPerValue(bpp), type, file, SEGMENT_SHIFT);
+    }
+
+    /**
+     * @param bpp the bits per pixel of the image.
+     * @return the bits of the pixel values that can hold them.
+     */
+    private static int bitsPerValue(int bpp) {
+        if (bpp <= INDI8BitCCDImage.MAX_BPP) {
+            return INDI8BitCCDImage.MAX_BPP;
+        } else if (bpp <= INDI16BitCCDImage.MAX_BPP) {
+            return INDI16BitCCDImage.MAX_BPP;
+        } else if (bpp <= INDI32BitCCDImage.MAX_BPP) {
+            return INDI32BitCCDImage.MAX_BPP;
+        } else {
+            throw new IllegalArgumentException("not supported bits per pixel " + bpp);
+        }
+    }
+
     /**
      * convert the current imageData to a fits image.
      *
@@ -141,7 +249,7 @@ public abstract class INDICCDImage {
      */
     private void convertToFits() throws FitsException {
         f = new Fits();
-        BasicHDU<?> imageFits = FitsFactory.HDUFactory(getImageData());
+        BasicHDU<?> imageFits = FitsFactory.HDUFactory(getFitsHeaderData());
         addFitsAttributes(imageFits);
         f.addHDU(imageFits);
     }
@@ -197,13 +305,134 @@ public abstract class INDICCDImage {
         return extraFitsHeaders;
     }
 
+    /**
+     * @return the number of color planes of the image.
+     */
+    int getPlanes() {
+        return type.axis3;
+    }
+
     /**
      * @return the primitive array of the image.
      */
     abstract Object getImageData();
 
     /**
-     * @return the fits image representing the current data.
+     * @return a new primitive array for the image.
+     */
+    abstract Object newImageData();
+
+    /**
+     * @return the primitive array nom-tam derives the fits header from.
+     */
+    Object getFitsHeaderData() {
+        return getImageData();
+    }
+
+    /**
+     * forget the primitive array of the image.
+     */
+    abstract void dropImageData();
+
+    /**
+     * @return a new image of the same kind without pixel data.
+     */
+    abstract INDICCDImage newEmptyImage();
+
+    /**
+     * @param data the primitive array the image should use.
+     */
+    abstract void useImageData(Object data);
+
+    /**
+     * @return true if the pixel array is borrowed from a frame pool.
+     */
+    boolean isPooled() {
+        return pool != null;
+    }
+
+    /**
+     * a second image on the current pixels (and fits header) of this image.
+     * The driver keeps its own images, the next {@link #iteratePixel()} gets
+     * a new primitive array, so the snapshot can still be encoded, sent and
+     * saved while the next exposure is read out.
+     *
+     * @return the image sharing the current pixel array.
+     */
+    INDICCDImage snapshot() {
+        INDICCDImage copy = newEmptyImage();
+        copy.useImageData(getImageData());
+        copy.f = f;
+        copy.maxPixelValue = maxPixelValue;
+        copy.minPixelValue = minPixelValue;
+        if (extraFitsHeaders != null) {
+            copy.extraFitsHeaders = new HashMap<>(extraFitsHeaders);
+        }
+        return copy;
+    }
+
+    /**
+     * get the primitive array for new pixel data, from the pool if the image
+     * is pooled (a previous array of the image is given back first).
+     *
+     * @return the cleared primitive array.
+     */
+    Object allocateImageData() {
+        if (pool == null) {
+            f = null;
+            return newImageData();
+        }
+        giveBackImageData();
+        return pool.borrow(this);
+    }
+
+    /**
+     * mark the image as pooled.
+     *
+     * @param newPool   the pool the pixel arrays are borrowed from.
+     * @param reference the reference the pool uses to detect leaks.
+     */
+    void setPool(INDICCDFramePool newPool, Reference<INDICCDImage> reference) {
+        pool = newPool;
+        poolReference = reference;
+    }
+
+    /**
+     * Give the pixel array back to the frame pool the image was acquired
+     * from, call it after the image was uploaded and saved. The image can not
+     * be written anymore. Fits writers that were created before can only be
+     * read later if they were retained ({@link INDICCDFitsWriter#retain()}),
+     * the array is reused as soon as no writer is retained or streamed.
+     * Images that are not pooled just forget their data.
+     */
+    public void release() {
+        f = null;
+        if (pool == null) {
+            dropImageData();
+            return;
+        }
+        giveBackImageData();
+        pool.released(poolReference);
+        pool = null;
+    }
+
+    /**
+     * give the current pixel array back to the pool.
+     */
+    private void giveBackImageData() {
+        Object data = getImageData();
+        if (data != null) {
+            dropImageData();
+            f = null;
+            pool.giveBack(this, data, usage);
+            usage = null;
+        }
+    }
+
+    /**
+     * @return the fits image representing the current data. For off-heap
+     * images it only carries the header, write them with
+     * {@link #writer(String)}.
      */
     public Fits asFitsImage() {
         if (f == null) {
@@ -228,8 +457,42 @@ public abstract class INDICCDImage {
      * @throws FitsException if the file could not be written.
      */
     public void write(DataOutputStream os, int left, int top, int subWidth, int subHeigth, String extension) throws FitsException {
+        try {
+            writer(extension, new Subframe(left, top, subWidth, subHeigth, 1, 1, BinningMode.SUM)).writeTo(os);
+        } catch (IOException e) {
+            throw new FitsException("could not write the image", e);
+        }
+    }
+
+    /**
+     * create a streaming writer for the current state of the image, it
+     * converts the pixels directly from the image buffer without copying the
+     * whole image.
+     *
+     * @param extension the file extension (currently only fits allowed).
+     * @return the writer, it is also a BLOB source.
+     * @throws FitsException if the fits header could not be created.
+     */
+    public INDICCDFitsWriter writer(String extension) throws FitsException {
+        return writer(extension, Subframe.FULL_FRAME);
+    }
+
+    /**
+     * create a streaming writer for a part of the image, the subframe is
+     * cropped and binned while the pixels are converted, so only the
+     * requested pixels are encoded.
+     *
+     * @param extension the file extension (currently only fits allowed).
+     * @param subframe  the part of the image to write and its binning.
+     * @return the writer, it is also a BLOB source.
+     * @throws FitsException if the fits header could not be created.
+     */
+    public INDICCDFitsWriter writer(String extension, Subframe subframe) throws FitsException {
         if ("fits".equals(extension)) {
-            asFitsImage().write(os);
+            if (pool != null && usage == null) {
+                usage = new INDICCDFramePool.Usage();
+            }
+            return new INDICCDFitsWriter(this, subframe, pool != null ? usage : null);
         } else {
             throw new IllegalArgumentException("extention " + extension + " not supported");
         }
@@ -282,6 +545,146 @@ public abstract class INDICCDImage {
         }
     }
 
+    /**
+     * how binned pixels are combined.
+     */
+    public enum BinningMode {
+        /**
+         * add the pixels, saturating at the maximum value of the bit depth.
+         */
+        SUM,
+        /**
+         * the (rounded) average of the pixels, the value range stays the
+         * same.
+         */
+        AVERAGE
+    }
+
+    /**
+     * A rectangle of the image (in image pixels) with the software binning to
+     * apply to it while the image is written.
+     */
+    public static final class Subframe {
+
+        /**
+         * the whole image, not binned.
+         */
+        public static final Subframe FULL_FRAME = new Subframe(0, 0, 0, 0, 1, 1, BinningMode.SUM);
+
+        /**
+         * start in x.
+         */
+        private final int left;
+
+        /**
+         * start in y.
+         */
+        private final int top;
+
+        /**
+         * width in pixel, 0 for the rest of the line.
+         */
+        private final int width;
+
+        /**
+         * height in pixel, 0 for the rest of the image.
+         */
+        private final int height;
+
+        /**
+         * number of pixels binned in x.
+         */
+        private final int binX;
+
+        /**
+         * number of pixels binned in y.
+         */
+        private final int binY;
+
+        /**
+         * how binned pixels are combined.
+         */
+        private final BinningMode mode;
+
+        /**
+         * constructor.
+         *
+         * @param left   start in x.
+         * @param top    start in y.
+         * @param width  width in pixel, 0 for the rest of the line.
+         * @param height height in pixel, 0 for the rest of the image.
+         * @param binX   number of pixels binned in x.
+         * @param binY   number of pixels binned in y.
+         * @param mode   how binned pixels are combined.
+         */
+        public Subframe(int left, int top, int width, int height, int binX, int binY, BinningMode mode) {
+            if (binX < 1 || binY < 1) {
+                throw new IllegalArgumentException("illegal binning " + binX + "x" + binY);
+            }
+            this.left = Math.max(0, left);
+            this.top = Math.max(0, top);
+            this.width = Math.max(0, width);
+            this.height = Math.max(0, height);
+            this.binX = binX;
+            this.binY = binY;
+            this.mode = mode;
+        }
+
+        /**
+         * @return start in x.
+         */
+        public int getLeft() {
+            return left;
+        }
+
+        /**
+         * @return start in y.
+         */
+        public int getTop() {
+            return top;
+        }
+
+        /**
+         * @return width in pixel, 0 for the rest of the line.
+         */
+        public int getWidth() {
+            return width;
+        }
+
+        /**
+         * @return height in pixel, 0 for the rest of the image.
+         */
+        public int getHeight() {
+            return height;
+        }
+
+        /**
+         * @return number of pixels binned in x.
+         */
+        public int getBinX() {
+            return binX;
+        }
+
+        /**
+         * @return number of pixels binned in y.
+         */
+        public int getBinY() {
+            return binY;
+        }
+
+        /**
+         * @return how binned pixels are combined.
+         */
+        public BinningMode getMode() {
+            return mode;
+        }
+
+        @Override
+        public String toString() {
+            return left + "," + top + " " + width + "x" + height + " bin " + binX + "x" + binY + " " + mode;
+        }
+    }
+
     /**
      * Iterator to interate over the pixels. Attention this class depends on the
      * fact that the minimum pixel value is 0 and the maximum is dependent on
@@ -443,9 +846,29 @@ public abstract class INDICCDImage {
             return imageData;
         }
 
+        @Override
+        Object newImageData() {
+            return new byte[width * height * type.axis3];
+        }
+
+        @Override
+        void dropImageData() {
+            imageData = null;
+        }
+
+        @Override
+        INDICCDImage newEmptyImage() {
+            return new INDI8BitCCDImage(width, height, type);
+        }
+
+        @Override
+        void useImageData(Object data) {
+            imageData = (byte[]) data;
+        }
+
         @Override
         public PixelIterator iteratePixel() {
-            imageData = new byte[width * height * type.axis3];
+            imageData = (byte[]) allocateImageData();
             return new PixelIterator(width, height) {
 
                 @Override
@@ -495,9 +918,29 @@ public abstract class INDICCDImage {
             return imageData;
         }
 
+        @Override
+        Object newImageData() {
+            return new short[width * height * type.axis3];
+        }
+
+        @Override
+        void dropImageData() {
+            imageData = null;
+        }
+
+        @Override
+        INDICCDImage newEmptyImage() {
+            return new INDI16BitCCDImage(width, height, type);
+        }
+
+        @Override
+        void useImageData(Object data) {
+            imageData = (short[]) data;
+        }
+
         @Override
         public PixelIterator iteratePixel() {
-            imageData = new short[width * height * type.axis3];
+            imageData = (short[]) allocateImageData();
             return new PixelIterator(width, height) {
 
                 @Override
@@ -547,9 +990,29 @@ public abstract class INDICCDImage {
             return imageData;
         }
 
+        @Override
+        Object newImageData() {
+            return new int[width * height * type.axis3];
+        }
+
+        @Override
+        void dropImageData() {
+            imageData = null;
+        }
+
+        @Override
+        INDICCDImage newEmptyImage() {
+            return new INDI32BitCCDImage(width, height, type);
+        }
+
+        @Override
+        void useImageData(Object data) {
+            imageData = (int[]) data;
+        }
+
         @Override
         public PixelIterator iteratePixel() {
-            imageData = new int[width * height * type.axis3];
+            imageData = (int[]) allocateImageData();
             return new PixelIterator(width, height) {
 
                 @Override
@@ -568,4 +1031,214 @@ public abstract class INDICCDImage {
         }
 
     }
+
+    /**
+     * An image that keeps its pixel values off-heap, in direct byte buffers
+     * or in a memory mapped file. The values are stored big endian exactly as
+     * in the fits file (so they can be written to a channel as they are) in
+     * segments of 1 GB, so the image is not limited to 2^31 values. The
+     * readers take the segment size from the segments, see
+     * {@link INDICCDImage#segmentShift(ByteBuffer[])}.
+     */
+    private static class INDIBufferCCDImage extends INDICCDImage {
+
+        /**
+         * the number of bytes of one pixel value.
+         */
+        private final int bytesPerValue;
+
+        /**
+         * the file to map or null for direct buffers.
+         */
+        private final File mappedFile;
+
+        /**
+         * the size of the buffer segments is 2 to the power of this.
+         */
+        private final int segmentShift;
+
+        /**
+         * the pixel values in segments.
+         */
+        private ByteBuffer[] segments;
+
+        /**
+         * create a ccd image with the specified size and bpp.
+         *
+         * @param width      the width of the image
+         * @param height     the height of the image
+         * @param bpp        the bits per pixel value (8, 16 or 32).
+         * @param type       the type of the image.
+         * @param mappedFile   the file to map or null for direct buffers.
+         * @param segmentShift the size of the buffer segments is 2 to the
+         *                     power of this.
+         */
+        INDIBufferCCDImage(int width, int height, int bpp, ImageType type, File mappedFile, int segmentShift) {
+            super(width, height, bpp, type);
+            bytesPerValue = bpp / Byte.SIZE;
+            this.mappedFile = mappedFile;
+            this.segmentShift = segmentShift;
+        }
+
+        @Override
+        Object getImageData() {
+            return segments;
+        }
+
+        @Override
+        Object getFitsHeaderData() {
+            if (bytesPerValue == Byte.BYTES) {
+                return new byte[1];
+            } else if (bytesPerValue == Short.BYTES) {
+                return new short[1];
+            }
+            return new int[1];
+        }
+
+        @Override
+        Object newImageData() {
+            long length = (long) width * height * type.axis3 * bytesPerValue;
+            long segmentMask = (1L << segmentShift) - 1;
+            ByteBuffer[] newSegments = new ByteBuffer[(int) ((length + segmentMask) >>> segmentShift)];
+            if (mappedFile == null) {
+                for (int index = 0; index < newSegments.length; index++) {
+                    newSegments[index] = ByteBuffer.allocateDirect(segmentLength(length, index));
+                }
+                return newSegments;
+            }
+            File target = unusedFile();
+            // mapping read-write grows the new file to the mapped size.
+            try (FileChannel file = FileChannel.open(target.toPath(), StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                for (int index = 0; index < newSegments.length; index++) {
+                    newSegments[index] = file.map(FileChannel.MapMode.READ_WRITE, (long) index << segmentShift, segmentLength(length, index));
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("could not map the image file " + target, e);
+            }
+            return newSegments;
+        }
+
+        /**
+         * never truncate a file that is still mapped by an earlier frame, it
+         * could still be uploaded or saved from there. Unlinking it keeps the
+         * old mapping valid, if the file can not be deleted a numbered sibling
+         * is used.
+         *
+         * @return a file name that does not exist (anymore).
+         */
+        private File unusedFile() {
+            File target = mappedFile;
+            int number = 0;
+            while (!deleted(target)) {
+                number++;
+                target = new File(mappedFile.getParentFile(), mappedFile.getName() + "." + number);
+            }
+            return target;
+        }
+
+        /**
+         * @param file the file to delete.
+         * @return true if the file does not exist anymore.
+         */
+        private static boolean deleted(File file) {
+            try {
+                Files.deleteIfExists(file.toPath());
+                return true;
+            } catch (IOException e) {
+                return false;
+            }
+        }
+
+        /**
+         * @param length the number of bytes of the image.
+         * @param index  the index of the segment.
+         * @return the number of bytes of the segment.
+         */
+        private int segmentLength(long length, int index) {
+            return (int) Math.min(1L << segmentShift, length - ((long) index << segmentShift));
+        }
+
+        @Override
+        void dropImageData() {
+            segments = null;
+        }
+
+        @Override
+        INDICCDImage newEmptyImage() {
+            return new INDIBufferCCDImage(width, height, bpp, type, mappedFile, segmentShift);
+        }
+
+        @Override
+        void useImageData(Object data) {
+            segments = (ByteBuffer[]) data;
+        }
+
+        @Override
+        public PixelIterator iteratePixel() {
+            segments = (ByteBuffer[]) allocateImageData();
+            final long layerSize = (long) width * height;
+            return new PixelIterator(width, height) {
+
+                /**
+                 * index of the pixel in the first layer.
+                 */
+                private long position;
+
+                /**
+                 * index of the pixel in the second layer.
+                 */
+                private long positionLayer2 = layerSize;
+
+                /**
+                 * index of the pixel in the third layer.
+                 */
+                private long positionLayer3 = layerSize * 2;
+
+                @Override
+                public void setPixel(int value) {
+                    put(position++, value);
+                }
+
+                @Override
+                public void setPixel(int red, int green, int blue) {
+                    put(position++, red);
+                    put(positionLayer2++, green);
+                    put(positionLayer3++, blue);
+                }
+
+                @Override
+                public void nextPixel() {
+                    position++;
+                    positionLayer2++;
+                    positionLayer3++;
+                }
+
+                @Override
+                public void nextLine() {
+                    position = (position / width + 1) * width;
+                    positionLayer2 = (positionLayer2 / width + 1) * width;
+                    positionLayer3 = (positionLayer3 / width + 1) * width;
+                }
+
+                /**
+                 * store a pixel value big endian.
+                 *
+                 * @param valueIndex the index of the value.
+                 * @param value      the value.
+                 */
+                private void put(long valueIndex, int value) {
+                    long byteOffset = valueIndex * bytesPerValue;
+                    ByteBuffer segment = segments[(int) (byteOffset >>> segmentShift)];
+                    int offset = (int) (byteOffset & ((1L << segmentShift) - 1));
+                    if (bytesPerValue == Byte.BYTES) {
+                        segment.put(offset, rangeCheckByte(value));
+                    } else if (bytesPerValue == Short.BYTES) {
+                        segment.putShort(offset, rangeCheckShort(value));
+                    } else {
+                        segment.putInt(offset, rangeCheck(value));
+                    }
+                }
+            };
+        }
+    }
 }
@@ -0,0 +1,929 @@
+package org.indilib.i4j.driver.ccd;
+
+/*
+ * #%L
+ * INDI for Java Abstract CCD Driver
+ * %%
+ * Copyright (C) 2013 - 2014 indiforjava
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Statistics of a ccd image for focusing, guiding and quality checks: the
+ * histogram, the background (median) and its noise (from the median absolute
+ * deviation), the saturated pixels and the detected stars with their half
+ * flux radius and full width at half maximum. The image is split in tiles of
+ * rows that are measured in parallel on a fork join pool, so the statistics
+ * keep up with the frame rate of an auto loop. Mono images are measured as
+ * they are, of color images the green plane. 32 bit images are measured with
+ * the histogram resolution of 16 bit.
+ *
+ * @author Richard van Nieuwenhoven
+ */
+public final class INDICCDImageStatistics {
+
+    /**
+     * system property to change the number of threads measuring the images
+     * (values below one are taken as one).
+     */
+    public static final String THREADS_PROPERTY = "i4j.driver.ccd.statisticsThreads";
+
+    /**
+     * the number of bins of the published (coarse) histogram.
+     */
+    public static final int HISTOGRAM_BINS = 32;
+
+    /**
+     * the number of pixels of one tile.
+     */
+    private static final int TILE_PIXELS = 1 << 16;
+
+    /**
+     * the bits of the full histogram of 32 bit images (31 bit values).
+     */
+    private static final int MAX_HISTOGRAM_BITS = 16;
+
+    /**
+     * mask for the unsigned value of a byte.
+     */
+    private static final int BYTE_MASK = 0xFF;
+
+    /**
+     * factor from the median absolute deviation to the standard deviation of
+     * a normal distribution.
+     */
+    private static final double MAD_TO_SIGMA = 1.4826d;
+
+    /**
+     * a star peak is at least this number of standard deviations above the
+     * background.
+     */
+    private static final double DETECTION_SIGMA = 5d;
+
+    /**
+     * the pixels around a star peak that belong to the star are at least
+     * this number of standard deviations above the background.
+     */
+    private static final double SUPPORT_SIGMA = 3d;
+
+    /**
+     * the pixels of a star box that count for its flux are at least this
+     * number of standard deviations above the background (the noise of the
+     * other pixels would widen the stars).
+     */
+    private static final double FLUX_SIGMA = 1d;
+
+    /**
+     * the minimum number of pixels of the 3x3 neighborhood of a peak that
+     * belong to the star (hot pixels are single).
+     */
+    private static final int MIN_STAR_PIXELS = 3;
+
+    /**
+     * the radius of the box a star is measured in.
+     */
+    private static final int STAR_RADIUS = 8;
+
+    /**
+     * factor from the standard deviation of a gaussian to its full width at
+     * half maximum.
+     */
+    private static final double SIGMA_TO_FWHM = 2.3548d;
+
+    /**
+     * the initial capacity for the measured stars of a tile.
+     */
+    private static final int INITIAL_STARS = 16;
+
+    /**
+     * the threads measuring the images (at least one), shared by all
+     * drivers.
+     */
+    private static final ForkJoinPool POOL = new ForkJoinPool(Math.max(1, Integer.getInteger(THREADS_PROPERTY, Runtime.getRuntime().availableProcessors())), pool -> {
+        ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+        thread.setName("ccd statistics " + thread.getPoolIndex());
+        thread.setDaemon(true);
+        return thread;
+    }, null, false);
+
+    /**
+     * the number of measured pixels.
+     */
+    private long pixels;
+
+    /**
+     * the minimum pixel value.
+     */
+    private long min;
+
+    /**
+     * the maximum pixel value.
+     */
+    private long max;
+
+    /**
+     * the average pixel value.
+     */
+    private double mean;
+
+    /**
+     * the median pixel value, the background.
+     */
+    private long median;
+
+    /**
+     * the standard deviation of the background noise, estimated from the
+     * median absolute deviation.
+     */
+    private double noise;
+
+    /**
+     * the number of saturated pixels.
+     */
+    private long saturated;
+
+    /**
+     * the number of detected stars.
+     */
+    private int stars;
+
+    /**
+     * the number of detected stars with a saturated peak.
+     */
+    private int saturatedStars;
+
+    /**
+     * the median half flux radius of the not saturated stars in pixels.
+     */
+    private double hfr;
+
+    /**
+     * the median full width at half maximum of the not saturated stars in
+     * pixels.
+     */
+    private double fwhm;
+
+    /**
+     * the pixel counts of the coarse histogram between the minimum and the
+     * maximum.
+     */
+    private long[] histogram;
+
+    /**
+     * the time the measurement took in nanoseconds.
+     */
+    private long nanos;
+
+    /**
+     * use {@link #measure(INDICCDImage, INDICCDImage.Subframe)}.
+     */
+    private INDICCDImageStatistics() {
+    }
+
+    /**
+     * measure an image.
+     *
+     * @param image    the image.
+     * @param subframe the part of the image to measure (its binning is
+     *                 ignored, the stars are measured in pixels of the
+     *                 image).
+     * @return the statistics.
+     */
+    public static INDICCDImageStatistics measure(INDICCDImage image, INDICCDImage.Subframe subframe) {
+        long start = System.nanoTime();
+        INDICCDImageStatistics statistics = new INDICCDImageStatistics();
+        new Measurement(image, subframe).run(statistics);
+        statistics.nanos = System.nanoTime() - start;
+        return statistics;
+    }
+
+    /**
+     * @return the number of measured pixels.
+     */
+    public long getPixels() {
+        return pixels;
+    }
+
+    /**
+     * @return the minimum pixel value.
+     */
+    public long getMin() {
+        return min;
+    }
+
+    /**
+     * @return the maximum pixel value.
+     */
+    public long getMax() {
+        return max;
+    }
+
+    /**
+     * @return the average pixel value.
+     */
+    public double getMean() {
+        return mean;
+    }
+
+    /**
+     * @return the median pixel value, the background.
+     */
+    public long getMedian() {
+        return median;
+    }
+
+    /**
+     * @return the standard deviation of the background noise, estimated from
+     * the median absolute deviation.
+     */
+    public double getNoise() {
+        return noise;
+    }
+
+    /**
+     * @return the number of saturated pixels.
+     */
+    public long getSaturated() {
+        return saturated;
+    }
+
+    /**
+     * @return the number of detected stars.
+     */
+    public int getStars() {
+        return stars;
+    }
+
+    /**
+     * @return the number of detected stars with a saturated peak, they are
+     * not included in the half flux radius and the full width at half
+     * maximum.
+     */
+    public int getSaturatedStars() {
+        return saturatedStars;
+    }
+
+    /**
+     * @return the median half flux radius of the not saturated stars in
+     * pixels, 0 if there are none.
+     */
+    public double getHfr() {
+        return hfr;
+    }
+
+    /**
+     * @return the median full width at half maximum of the not saturated
+     * stars in pixels, 0 if there are none.
+     */
+    public double getFwhm() {
+        return fwhm;
+    }
+
+    /**
+     * @return the pixel counts of the coarse histogram of
+     * {@link #HISTOGRAM_BINS} bins between the minimum and the maximum.
+     */
+    public long[] getHistogram() {
+        return histogram.clone();
+    }
+
+    /**
+     * @return the time the measurement took in nanoseconds.
+     */
+    public long getNanos() {
+        return nanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "pixels=%d min=%d max=%d mean=%.1f median=%d noise=%.1f saturated=%d stars=%d hfr=%.2f fwhm=%.2f time=%.1fms", pixels, min, max, mean,
+                median, noise, saturated, stars, hfr, fwhm, nanos / 1e6);
+    }
+
+    /**
+     * read a row of pixel values of the image.
+     *
+     * @param data        the primitive pixel array of the image, or its big
+     *                    endian buffer segments.
+     * @param sampleBytes the number of bytes of one pixel value.
+     * @param index       the index of the first pixel value.
+     * @param row         the array to read into.
+     * @param count       the number of pixel values to read.
+     */
+    private static void readRow(Object data, int sampleBytes, long index, int[] row, int count) {
+        if (data instanceof byte[]) {
+            byte[] values = (byte[]) data;
+            for (int offset = 0; offset < count; offset++) {
+                row[offset] = values[(int) index + offset] & BYTE_MASK;
+            }
+        } else if (data instanceof short[]) {
+            short[] values = (short[]) data;
+            for (int offset = 0; offset < count; offset++) {
+                row[offset] = values[(int) index + offset] - Short.MIN_VALUE;
+            }
+        } else if (data instanceof int[]) {
+            int[] values = (int[]) data;
+            for (int offset = 0; offset < count; offset++) {
+                row[offset] = Math.max(0, values[(int) index + offset]);
+            }
+        } else if (data instanceof ByteBuffer[]) {
+            for (int offset = 0; offset < count; offset++) {
+                row[offset] = (int) Math.max(0L, INDICCDFitsWriter.sample(data, sampleBytes, index + offset));
+            }
+        }
+    }
+
+    /**
+     * @param counts the counts of the values.
+     * @param total  the sum of the counts.
+     * @return the median of the values.
+     */
+    private static int medianOf(long[] counts, long total) {
+        long half = (total + 1) / 2;
+        long sum = 0;
+        for (int value = 0; value < counts.length; value++) {
+            sum += counts[value];
+            if (sum >= half) {
+                return value;
+            }
+        }
+        return counts.length - 1;
+    }
+
+    /**
+     * @param values the values, they are sorted.
+     * @param count  the number of values.
+     * @return the median of the values or 0 if there are none.
+     */
+    private static double medianOf(double[] values, int count) {
+        if (count == 0) {
+            return 0d;
+        }
+        Arrays.sort(values, 0, count);
+        return values[count / 2];
+    }
+
+    /**
+     * The measurement of one image.
+     */
+    private static final class Measurement {
+
+        /**
+         * the pixel data of the image.
+         */
+        private final Object data;
+
+        /**
+         * the number of bytes of one pixel value.
+         */
+        private final int sampleBytes;
+
+        /**
+         * the width of the image.
+         */
+        private final int imageWidth;
+
+        /**
+         * the index of the first pixel of the measured plane.
+         */
+        private final long planeOffset;
+
+        /**
+         * the first measured column.
+         */
+        private final int left;
+
+        /**
+         * the first measured row.
+         */
+        private final int top;
+
+        /**
+         * the number of measured columns.
+         */
+        private final int width;
+
+        /**
+         * the number of measured rows.
+         */
+        private final int height;
+
+        /**
+         * the number of rows of a tile.
+         */
+        private final int tileRows;
+
+        /**
+         * the histogram of every worker thread, merged once at the end.
+         */
+        private final Map<Thread, Histogram> threadHistograms = new ConcurrentHashMap<>();
+
+        /**
+         * the bits the pixel values are shifted for the full histogram.
+         */
+        private final int shift;
+
+        /**
+         * the lowest saturated pixel value.
+         */
+        private final int saturation;
+
+        /**
+         * the background level.
+         */
+        private int background;
+
+        /**
+         * the minimum value of a star peak.
+         */
+        private double detectionLevel;
+
+        /**
+         * the minimum value of a pixel that belongs to a star.
+         */
+        private double supportLevel;
+
+        /**
+         * the minimum value of a pixel that counts for the flux of a star.
+         */
+        private double fluxLevel;
+
+        /**
+         * constructor.
+         *
+         * @param image    the image to measure.
+         * @param subframe the part of the image to measure.
+         */
+        private Measurement(INDICCDImage image, INDICCDImage.Subframe subframe) {
+            data = image.getImageData();
+            if (data == null) {
+                throw new IllegalStateException("the image has no pixel data");
+            }
+            sampleBytes = image.bpp / Byte.SIZE;
+            imageWidth = image.width;
+            planeOffset = image.getPlanes() == 1 ? 0L : (long) image.width * image.height;
+            left = Math.min(subframe.getLeft(), image.width - 1);
+            top = Math.min(subframe.getTop(), image.height - 1);
+            width = subframe.getWidth() == 0 ? image.width - left : Math.min(subframe.getWidth(), image.width - left);
+            height = subframe.getHeight() == 0 ? image.height - top : Math.min(subframe.getHeight(), image.height - top);
+            tileRows = Math.max(1, TILE_PIXELS / width);
+            shift = sampleBytes == Integer.BYTES ? Integer.SIZE - 1 - MAX_HISTOGRAM_BITS : 0;
+            saturation = sampleBytes == Integer.BYTES ? Integer.MAX_VALUE : (1 << image.bpp) - 1;
+        }
+
+        /**
+         * @param y the row in the measured part.
+         * @return the index of the first measured pixel of the row.
+         */
+        private long rowIndex(int y) {
+            return planeOffset + (long) (top + y) * imageWidth + left;
+        }
+
+        /**
+         * measure the image.
+         *
+         * @param statistics the statistics to fill.
+         */
+        private void run(INDICCDImageStatistics statistics) {
+            POOL.invoke(new HistogramTiles(0, height));
+            Histogram full = null;
+            for (Histogram threadHistogram : threadHistograms.values()) {
+                full = full == null ? threadHistogram : full.add(threadHistogram);
+            }
+            statistics.pixels = full.pixels;
+            statistics.min = full.min;
+            statistics.max = full.max;
+            statistics.mean = (double) full.sum / full.pixels;
+            int medianBin = medianOf(full.counts, full.pixels);
+            long[] deviations = new long[full.counts.length];
+            for (int bin = 0; bin < full.counts.length; bin++) {
+                deviations[Math.abs(bin - medianBin)] += full.counts[bin];
+            }
+            background = medianBin << shift;
+            double sigma = Math.max(1 << shift, ((long) medianOf(deviations, full.pixels) << shift) * MAD_TO_SIGMA);
+            statistics.median = background;
+            statistics.noise = sigma;
+            statistics.saturated = full.counts[saturation >>> shift];
+            statistics.histogram = coarse(full);
+
+            detectionLevel = background + DETECTION_SIGMA * sigma;
+            supportLevel = background + SUPPORT_SIGMA * sigma;
+            fluxLevel = background + FLUX_SIGMA * sigma;
+            Stars found = POOL.invoke(new StarTiles(0, height));
+            statistics.stars = found.count + found.saturated;
+            statistics.saturatedStars = found.saturated;
+            statistics.hfr = medianOf(found.hfr, found.count);
+            statistics.fwhm = medianOf(found.fwhm, found.count);
+        }
+
+        /**
+         * @param full the full histogram.
+         * @return the coarse histogram between the minimum and the maximum.
+         */
+        private long[] coarse(Histogram full) {
+            long[] result = new long[HISTOGRAM_BINS];
+            long range = full.max - full.min + 1;
+            for (int bin = 0; bin < full.counts.length; bin++) {
+                if (full.counts[bin] > 0) {
+                    long value = Math.max(full.min, (long) bin << shift);
+                    result[(int) Math.min(HISTOGRAM_BINS - 1, (value - full.min) * HISTOGRAM_BINS / range)] += full.counts[bin];
+                }
+            }
+            return result;
+        }
+
+        /**
+         * The histogram, sum and range of some rows.
+         */
+        private final class Histogram {
+
+            /**
+             * the pixel counts per (shifted) value.
+             */
+            private final long[] counts = new long[(saturation >>> shift) + 1];
+
+            /**
+             * the number of pixels.
+             */
+            private long pixels;
+
+            /**
+             * the sum of the pixel values.
+             */
+            private long sum;
+
+            /**
+             * the minimum pixel value.
+             */
+            private long min = Long.MAX_VALUE;
+
+            /**
+             * the maximum pixel value.
+             */
+            private long max = Long.MIN_VALUE;
+
+            /**
+             * add the counts of other rows.
+             *
+             * @param other the histogram of the other rows.
+             * @return this histogram.
+             */
+            private Histogram add(Histogram other) {
+                for (int bin = 0; bin < counts.length; bin++) {
+                    counts[bin] += other.counts[bin];
+                }
+                pixels += other.pixels;
+                sum += other.sum;
+                min = Math.min(min, other.min);
+                max = Math.max(max, other.max);
+                return this;
+            }
+        }
+
+        /**
+         * The stars found in some rows.
+         */
+        private static final class Stars {
+
+            /**
+             * the number of stars that are not saturated.
+             */
+            private int count;
+
+            /**
+             * the number of saturated stars.
+             */
+            private int saturated;
+
+            /**
+             * the half flux radius of the stars that are not saturated.
+             */
+            private double[] hfr = new double[INITIAL_STARS];
+
+            /**
+             * the full width at half maximum of the stars that are not
+             * saturated.
+             */
+            private double[] fwhm = new double[INITIAL_STARS];
+
+            /**
+             * add a measured star.
+             *
+             * @param starHfr  the half flux radius.
+             * @param starFwhm the full width at half maximum.
+             */
+            private void add(double starHfr, double starFwhm) {
+                if (count == hfr.length) {
+                    hfr = Arrays.copyOf(hfr, count * 2);
+                    fwhm = Arrays.copyOf(fwhm, count * 2);
+                }
+                hfr[count] = starHfr;
+                fwhm[count] = starFwhm;
+                count++;
+            }
+
+            /**
+             * add the stars of other rows.
+             *
+             * @param other the stars of the other rows.
+             * @return these stars.
+             */
+            private Stars add(Stars other) {
+                for (int index = 0; index < other.count; index++) {
+                    add(other.hfr[index], other.fwhm[index]);
+                }
+                saturated += other.saturated;
+                return this;
+            }
+        }
+
+        /**
+         * A range of rows, split in tiles that are measured in parallel.
+         *
+         * @param <T> the result of the measurement.
+         */
+        private abstract class Tiles<T> extends RecursiveTask<T> {
+
+            /**
+             * for serialization.
+             */
+            private static final long serialVersionUID = 1L;
+
+            /**
+             * the first row.
+             */
+            private final int from;
+
+            /**
+             * the row after the last row.
+             */
+            private final int to;
+
+            /**
+             * constructor.
+             *
+             * @param from the first row.
+             * @param to   the row after the last row.
+             */
+            private Tiles(int from, int to) {
+                this.from = from;
+                this.to = to;
+            }
+
+            @Override
+            protected T compute() {
+                if (to - from <= tileRows) {
+                    return measure(from, to);
+                }
+                int middle = (from + to) >>> 1;
+                Tiles<T> first = part(from, middle);
+                first.fork();
+                T second = part(middle, to).compute();
+                return merge(first.join(), second);
+            }
+
+            /**
+             * @param partFrom the first row of the part.
+             * @param partTo   the row after the last row of the part.
+             * @return the task for a part of the rows.
+             */
+            protected abstract Tiles<T> part(int partFrom, int partTo);
+
+            /**
+             * measure one tile.
+             *
+             * @param tileFrom the first row of the tile.
+             * @param tileTo   the row after the last row of the tile.
+             * @return the result of the tile.
+             */
+            protected abstract T measure(int tileFrom, int tileTo);
+
+            /**
+             * @param first  the result of the first part.
+             * @param second the result of the second part.
+             * @return the combined result.
+             */
+            protected abstract T merge(T first, T second);
+        }
+
+        /**
+         * The histogram of a range of rows, it is added to the histogram of
+         * the worker thread, so the histograms are only merged once per
+         * thread.
+         */
+        private final class HistogramTiles extends Tiles<Void> {
+
+            /**
+             * for serialization.
+             */
+            private static final long serialVersionUID = 1L;
+
+            /**
+             * constructor.
+             *
+             * @param from the first row.
+             * @param to   the row after the last row.
+             */
+            private HistogramTiles(int from, int to) {
+                super(from, to);
+            }
+
+            @Override
+            protected Tiles<Void> part(int partFrom, int partTo) {
+                return new HistogramTiles(partFrom, partTo);
+            }
+
+            @Override
+            protected Void measure(int tileFrom, int tileTo) {
+                Histogram result = threadHistograms.computeIfAbsent(Thread.currentThread(), thread -> new Histogram());
+                long[] counts = result.counts;
+                int[] row = new int[width];
+                long sum = 0;
+                int rowMin = Integer.MAX_VALUE;
+                int rowMax = Integer.MIN_VALUE;
+                for (int y = tileFrom; y < tileTo; y++) {
+                    readRow(data, sampleBytes, rowIndex(y), row, width);
+                    for (int x = 0; x < width; x++) {
+                        int value = row[x];
+                        counts[value >>> shift]++;
+                        sum += value;
+                        rowMin = Math.min(rowMin, value);
+                        rowMax = Math.max(rowMax, value);
+                    }
+                }
+                result.pixels += (long) width * (tileTo - tileFrom);
+                result.sum += sum;
+                result.min = Math.min(result.min, rowMin);
+                result.max = Math.max(result.max, rowMax);
+                return null;
+            }
+
+            @Override
+            protected Void merge(Void first, Void second) {
+                return null;
+            }
+        }
+
+        /**
+         * The stars with their peak in a range of rows.
+         */
+        private final class StarTiles extends Tiles<Stars> {
+
+            /**
+             * for serialization.
+             */
+            private static final long serialVersionUID = 1L;
+
+            /**
+             * constructor.
+             *
+             * @param from the first row.
+             * @param to   the row after the last row.
+             */
+            private StarTiles(int from, int to) {
+                super(from, to);
+            }
+
+            @Override
+            protected Tiles<Stars> part(int partFrom, int partTo) {
+                return new StarTiles(partFrom, partTo);
+            }
+
+            @Override
+            protected Stars measure(int tileFrom, int tileTo) {
+                Stars result = new Stars();
+                int first = Math.max(tileFrom, STAR_RADIUS);
+                int last = Math.min(tileTo, height - STAR_RADIUS);
+                if (first >= last || width <= 2 * STAR_RADIUS) {
+                    return result;
+                }
+                int[] above = new int[width];
+                int[] row = new int[width];
+                int[] below = new int[width];
+                int[][] box = new int[2 * STAR_RADIUS + 1][2 * STAR_RADIUS + 1];
+                readRow(data, sampleBytes, rowIndex(first - 1), above, width);
+                readRow(data, sampleBytes, rowIndex(first), row, width);
+                for (int y = first; y < last; y++) {
+                    readRow(data, sampleBytes, rowIndex(y + 1), below, width);
+                    for (int x = STAR_RADIUS; x < width - STAR_RADIUS; x++) {
+                        if (row[x] >= detectionLevel && isPeak(above, row, below, x)) {
+                            measureStar(x, y, row[x], box, result);
+                        }
+                    }
+                    int[] recycled = above;
+                    above = row;
+                    row = below;
+                    below = recycled;
+                }
+                return result;
+            }
+
+            /**
+             * is the pixel the highest of its 3x3 neighborhood (the first of
+             * equal ones) and are enough of its neighbors bright enough to
+             * be a star?
+             *
+             * @param above the row above.
+             * @param row   the row of the pixel.
+             * @param below the row below.
+             * @param x     the column of the pixel.
+             * @return true if the pixel is a star peak.
+             */
+            private boolean isPeak(int[] above, int[] row, int[] below, int x) {
+                int value = row[x];
+                if (above[x - 1] >= value || above[x] >= value || above[x + 1] >= value || row[x - 1] >= value) {
+                    return false;
+                }
+                if (row[x + 1] > value || below[x - 1] > value || below[x] > value || below[x + 1] > value) {
+                    return false;
+                }
+                int support = 0;
+                for (int dx = -1; dx <= 1; dx++) {
+                    support += (above[x + dx] >= supportLevel ? 1 : 0) + (row[x + dx] >= supportLevel ? 1 : 0) + (below[x + dx] >= supportLevel ? 1 : 0);
+                }
+                return support >= MIN_STAR_PIXELS;
+            }
+
+            /**
+             * measure the star around a peak, unless a brighter pixel
+             * around it shows that it is the wing of another star.
+             *
+             * @param x      the column of the peak.
+             * @param y      the row of the peak.
+             * @param peak   the value of the peak.
+             * @param box    the array to read the box around the peak into.
+             * @param result the stars to add it to.
+             */
+            private void measureStar(int x, int y, int peak, int[][] box, Stars result) {
+                int size = box.length;
+                double flux = 0d;
+                double sumX = 0d;
+                double sumY = 0d;
+                for (int dy = 0; dy < size; dy++) {
+                    int[] boxRow = box[dy];
+                    readRow(data, sampleBytes, rowIndex(y + dy - STAR_RADIUS) + x - STAR_RADIUS, boxRow, size);
+                    for (int dx = 0; dx < size; dx++) {
+                        int value = boxRow[dx];
+                        if (value > peak || (value == peak && (dy < STAR_RADIUS || (dy == STAR_RADIUS && dx < STAR_RADIUS)))) {
+                            return;
+                        }
+                        if (value >= fluxLevel) {
+                            double signal = value - background;
+                            flux += signal;
+                            sumX += signal * dx;
+                            sumY += signal * dy;
+                        }
+                    }
+                }
+                if (peak >= saturation) {
+                    result.saturated++;
+                    return;
+                }
+                double centerX = sumX / flux;
+                double centerY = sumY / flux;
+                double sumRadius = 0d;
+                double sumSquare = 0d;
+                for (int dy = 0; dy < size; dy++) {
+                    int[] boxRow = box[dy];
+                    for (int dx = 0; dx < size; dx++) {
+                        if (boxRow[dx] >= fluxLevel) {
+                            double signal = boxRow[dx] - background;
+                            double square = (dx - centerX) * (dx - centerX) + (dy - centerY) * (dy - centerY);
+                            sumRadius += signal * Math.sqrt(square);
+                            sumSquare += signal * square;
+                        }
+                    }
+                }
+                result.add(sumRadius / flux, SIGMA_TO_FWHM * Math.sqrt(sumSquare / (2d * flux)));
+            }
+
+            @Override
+            protected Stars merge(Stars first, Stars second) {
+                return first.add(second);
+            }
+        }
+    }
+}
@@ -0,0 +1,351 @@
+package org.indilib.i4j.driver.ccd;
+
+/*
+ * #%L
+ * INDI for Java Abstract CCD Driver
+ * %%
+ * Copyright (C) 2013 - 2014 indiforjava
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * The stages a captured frame passes after the exposure: encoding (fits and
+ * compression) and sending the BLOB, saving the file is handed to the
+ * {@link INDICCDFileSaver} of the driver (a stage of its own). Every stage has
+ * its own thread, so the next exposure runs while earlier frames are encoded,
+ * sent and saved. Every stage holds a bounded number of frames, when it is full
+ * the previous stage waits, so a slow consumer slows down the capture instead
+ * of filling the memory. The exposure itself is never blocked (it may run on a
+ * shared scheduler thread), it hands the frame over with
+ * {@link Stage#handOff(Runnable, Consumer)} and starts the next exposure when
+ * the frame was accepted. Every stage keeps timing statistics to see where
+ * frame rate is lost.
+ *
+ * @author Richard van Nieuwenhoven
+ */
+public final class INDICCDPipeline {
+
+    /**
+     * system property to change the number of frames a stage may hold
+     * waiting.
+     */
+    public static final String DEPTH_PROPERTY = "i4j.driver.ccd.pipelineDepth";
+
+    /**
+     * the default number of frames a stage may hold waiting.
+     */
+    private static final int DEFAULT_DEPTH = 2;
+
+    /**
+     * Logger to log to.
+     */
+    private static final Logger LOG = LoggerFactory.getLogger(INDICCDPipeline.class);
+
+    /**
+     * the seconds an idle stage thread lives.
+     */
+    private static final long IDLE_SECONDS = 60L;
+
+    /**
+     * the stage encoding the frame.
+     */
+    private final Stage encode;
+
+    /**
+     * the stage sending the frame to the clients.
+     */
+    private final Stage send;
+
+    /**
+     * @return the number of frames a stage may hold waiting, see
+     * {@link #DEPTH_PROPERTY}, a negative setting is logged and 0 is used.
+     */
+    static int depth() {
+        int depth = Integer.getInteger(DEPTH_PROPERTY, DEFAULT_DEPTH);
+        if (depth < 0) {
+            LOG.warn("ignoring the illegal ccd pipeline depth " + DEPTH_PROPERTY + "=" + depth + ", using 0");
+            return 0;
+        }
+        return depth;
+    }
+
+    /**
+     * create the stages.
+     *
+     * @param name the name of the pipeline (for the threads).
+     */
+    public INDICCDPipeline(String name) {
+        int depth = depth();
+        encode = new Stage(name + " encode", depth);
+        send = new Stage(name + " send", depth);
+    }
+
+    /**
+     * @return the stage encoding the frame.
+     */
+    public Stage getEncode() {
+        return encode;
+    }
+
+    /**
+     * @return the stage sending the frame to the clients.
+     */
+    public Stage getSend() {
+        return send;
+    }
+
+    /**
+     * @return all stages.
+     */
+    public List<Stage> getStages() {
+        return Arrays.asList(encode, send);
+    }
+
+    @Override
+    public String toString() {
+        return getStages().toString();
+    }
+
+    /**
+     * One stage of the pipeline, it processes the frames in order on its own
+     * thread.
+     */
+    public static final class Stage {
+
+        /**
+         * the log to write messages to.
+         */
+        private static final Logger LOG = LoggerFactory.getLogger(Stage.class);
+
+        /**
+         * the name of the stage.
+         */
+        private final String name;
+
+        /**
+         * the frames the stage may still accept (waiting plus running).
+         */
+        private final Semaphore capacity;
+
+        /**
+         * the thread of the stage.
+         */
+        private final ThreadPoolExecutor executor;
+
+        /**
+         * the thread that waits for the stage for callers that must not block,
+         * created when it is needed the first time.
+         */
+        private ThreadPoolExecutor handOffExecutor;
+
+        /**
+         * the number of frames waiting on the hand-off thread, later frames
+         * queue behind them to keep the order.
+         */
+        private int handOffPending;
+
+        /**
+         * the time producers waited for the stage.
+         */
+        private final AtomicLong blockedNanos = new AtomicLong();
+
+        /**
+         * the number of processed frames.
+         */
+        private volatile long frames;
+
+        /**
+         * the total processing time.
+         */
+        private volatile long totalNanos;
+
+        /**
+         * the longest processing time.
+         */
+        private volatile long maxNanos;
+
+        /**
+         * create the stage.
+         *
+         * @param name  the name of the stage.
+         * @param depth the number of frames that may wait.
+         */
+        Stage(final String name, int depth) {
+            this.name = name;
+            capacity = new Semaphore(depth + 1);
+            executor = newSingleThreadExecutor(name);
+        }
+
+        /**
+         * @param threadName the name of the thread.
+         * @return an executor with one daemon thread that ends when idle.
+         */
+        private static ThreadPoolExecutor newSingleThreadExecutor(final String threadName) {
+            ThreadPoolExecutor result = new ThreadPoolExecutor(1, 1, IDLE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), runnable -> {
+                Thread thread = new Thread(runnable, threadName);
+                thread.setDaemon(true);
+                return thread;
+            });
+            result.allowCoreThreadTimeOut(true);
+            return result;
+        }
+
+        /**
+         * hand a frame to the stage, wait if the stage is full.
+         *
+         * @param work the processing of the frame.
+         * @throws InterruptedException if the wait was interrupted.
+         */
+        public void submit(final Runnable work) throws InterruptedException {
+            if (!capacity.tryAcquire()) {
+                long start = System.nanoTime();
+                capacity.acquire();
+                blockedNanos.addAndGet(System.nanoTime() - start);
+            }
+            execute(work);
+        }
+
+        /**
+         * hand a frame to the stage without blocking the caller. If the stage
+         * is full (or earlier frames are still waiting) the frame waits on the
+         * hand-off thread of the stage, the frames keep their order.
+         *
+         * @param work     the processing of the frame.
+         * @param accepted is told (on the hand-off thread if the stage was
+         *                 full) if the stage accepted the frame, false if the
+         *                 wait was interrupted and the frame is dropped.
+         */
+        public void handOff(final Runnable work, final Consumer<Boolean> accepted) {
+            boolean direct;
+            synchronized (this) {
+                direct = handOffPending == 0 && capacity.tryAcquire();
+                if (!direct) {
+                    handOffPending++;
+                    if (handOffExecutor == null) {
+                        handOffExecutor = newSingleThreadExecutor(name + " hand-off");
+                    }
+                }
+            }
+            if (direct) {
+                execute(work);
+                accepted.accept(Boolean.TRUE);
+                return;
+            }
+            handOffExecutor.execute(() -> {
+                boolean submitted = false;
+                try {
+                    submit(work);
+                    submitted = true;
+                } catch (InterruptedException e) {
+                    LOG.warn("ccd pipeline stage " + name + " dropped a frame, the hand-off was interrupted");
+                } finally {
+                    synchronized (this) {
+                        handOffPending--;
+                    }
+                }
+                accepted.accept(submitted);
+            });
+        }
+
+        /**
+         * run the work on the thread of the stage, the capacity is already
+         * acquired.
+         *
+         * @param work the processing of the frame.
+         */
+        private void execute(final Runnable work) {
+            executor.execute(() -> {
+                long start = System.nanoTime();
+                try {
+                    work.run();
+                } catch (RuntimeException e) {
+                    LOG.error("ccd pipeline stage " + name + " failed", e);
+                } finally {
+                    long duration = System.nanoTime() - start;
+                    frames++;
+                    totalNanos += duration;
+                    maxNanos = Math.max(maxNanos, duration);
+                    capacity.release();
+                }
+            });
+        }
+
+        /**
+         * @return the name of the stage.
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return the number of processed frames.
+         */
+        public long getFrames() {
+            return frames;
+        }
+
+        /**
+         * @return the average processing time of a frame in nanoseconds.
+         */
+        public long getAverageNanos() {
+            long count = frames;
+            if (count == 0L) {
+                return 0L;
+            }
+            return totalNanos / count;
+        }
+
+        /**
+         * @return the longest processing time of a frame in nanoseconds.
+         */
+        public long getMaxNanos() {
+            return maxNanos;
+        }
+
+        /**
+         * @return the total time in nanoseconds the previous stage waited
+         * because this stage was full.
+         */
+        public long getBlockedNanos() {
+            return blockedNanos.get();
+        }
+
+        /**
+         * @return the number of frames waiting or in process.
+         */
+        public int getQueued() {
+            return executor.getQueue().size() + executor.getActiveCount();
+        }
+
+        @Override
+        public String toString() {
+            return name + " frames=" + frames + " avg=" + getAverageNanos() + "ns max=" + maxNanos + "ns blocked=" + getBlockedNanos() + "ns queued=" + getQueued();
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package org.indilib.i4j.driver.ccd;
+
+/*
+ * #%L
+ * INDI for Java Abstract CCD Driver
+ * %%
+ * Copyright (C) 2013 - 2014 indiforjava
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import nom.tam.fits.FitsException;
+import org.indilib.i4j.fits.FitsImage;
+import org.indilib.i4j.fits.debayer.ImagePixels;
+import org.indilib.i4j.fits.debayer.RGBImagePixels;
+
+import javax.imageio.ImageIO;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Renders the quick look preview of a ccd image for clients on slow links:
+ * the (software subframe of the) image is reduced by averaging boxes of
+ * pixels, auto stretched with {@link FitsImage#stretch(RGBImagePixels)} and
+ * encoded as 8 bit jpeg, png or a tiny fits image. A preview of a few hundred
+ * pixels is some kilobytes, instead of the megabytes of the full frame.
+ *
+ * @author Richard van Nieuwenhoven
+ */
+public final class INDICCDPreview {
+
+    /**
+     * The formats of the preview.
+     */
+    public enum Format {
+        /**
+         * jpeg image, the smallest.
+         */
+        JPEG("jpeg", ".jpg"),
+        /**
+         * png image, lossless.
+         */
+        PNG("png", ".png"),
+        /**
+         * tiny 8 bit fits image.
+         */
+        FITS(null, ".fits");
+
+        /**
+         * the name of the image io writer, null for fits.
+         */
+        private final String imageIoFormat;
+
+        /**
+         * the format of the BLOB.
+         */
+        private final String extension;
+
+        /**
+         * constructor.
+         *
+         * @param imageIoFormat the name of the image io writer, null for fits.
+         * @param extension     the format of the BLOB.
+         */
+        Format(String imageIoFormat, String extension) {
+            this.imageIoFormat = imageIoFormat;
+            this.extension = extension;
+        }
+
+        /**
+         * @return the format of the BLOB.
+         */
+        public String getExtension() {
+            return extension;
+        }
+    }
+
+    /**
+     * the bits per value of the preview.
+     */
+    private static final int PREVIEW_BITS = 8;
+
+    /**
+     * utility class.
+     */
+    private INDICCDPreview() {
+    }
+
+    /**
+     * render the preview of an image.
+     *
+     * @param image    the image.
+     * @param subframe the part of the image to show (its binning is ignored,
+     *                 the preview has its own scale).
+     * @param maxSize  the maximum width and height of the preview.
+     * @param format   the format to encode the preview in.
+     * @return the encoded preview.
+     * @throws IOException if the preview could not be encoded.
+     */
+    public static byte[] render(INDICCDImage image, INDICCDImage.Subframe subframe, int maxSize, Format format) throws IOException {
+        RGBImagePixels pixels = downscale(image, subframe, maxSize);
+        FitsImage.stretch(pixels);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        if (format == Format.FITS) {
+            int planes = image.getPlanes();
+            int width = pixels.getGreen().getWidth();
+            int height = pixels.getGreen().getHeight();
+            INDICCDImage preview = INDICCDImage.createImage(width, height, PREVIEW_BITS, planes == 1 ? INDICCDImage.ImageType.GRAY_SCALE : INDICCDImage.ImageType.COLOR);
+            // allocates the pixel array, the layout is the same: the planes one
+            // after the other, the rows width first.
+            preview.iteratePixel();
+            System.arraycopy(pixels.getColors(PREVIEW_BITS), 0, preview.getImageData(), 0, width * height * planes);
+            try {
+                preview.writer("fits").writeTo(out);
+            } catch (FitsException e) {
+                throw new IOException("could not render the preview", e);
+            }
+        } else {
+            try (ImageOutputStream imageOut = new MemoryCacheImageOutputStream(out)) {
+                if (!ImageIO.write(pixels.asImage(), format.imageIoFormat, imageOut)) {
+                    throw new IOException("no image writer for " + format);
+                }
+            }
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * reduce the subframe of the image to at most the maximum size, every
+     * preview pixel is the average of a box of image pixels.
+     *
+     * @param image    the image.
+     * @param subframe the part of the image to reduce.
+     * @param maxSize  the maximum width and height of the result.
+     * @return the reduced image with values between 0 and 1.
+     */
+    static RGBImagePixels downscale(INDICCDImage image, INDICCDImage.Subframe subframe, int maxSize) {
+        Object data = image.getImageData();
+        int sampleBytes = image.bpp / Byte.SIZE;
+        double maxValue = sampleBytes == Integer.BYTES ? Integer.MAX_VALUE : (1L << image.bpp) - 1;
+        int left = Math.min(subframe.getLeft(), image.width - 1);
+        int top = Math.min(subframe.getTop(), image.height - 1);
+        int width = subframe.getWidth() == 0 ? image.width - left : Math.min(subframe.getWidth(), image.width - left);
+        int height = subframe.getHeight() == 0 ? image.height - top : Math.min(subframe.getHeight(), image.height - top);
+        int scale = Math.max(1, (Math.max(width, height) + maxSize - 1) / Math.max(1, maxSize));
+        int boxWidth = Math.min(scale, width);
+        int boxHeight = Math.min(scale, height);
+        int outWidth = width / boxWidth;
+        int outHeight = height / boxHeight;
+        double norm = 1d / (maxValue * boxWidth * boxHeight);
+
+        RGBImagePixels result = new RGBImagePixels(outWidth, outHeight);
+        ImagePixels[] channels;
+        if (image.getPlanes() == 1) {
+            result.setRed(result.getGreen());
+            result.setBlue(result.getGreen());
+            channels = new ImagePixels[]{
+                result.getGreen()
+            };
+        } else {
+            channels = new ImagePixels[]{
+                result.getRed(),
+                result.getGreen(),
+                result.getBlue()
+            };
+        }
+        long layerSize = (long) image.width * image.height;
+        double[] sums = new double[outWidth];
+        for (int plane = 0; plane < channels.length; plane++) {
+            double[] pixel = channels[plane].pixel();
+            for (int outY = 0; outY < outHeight; outY++) {
+                Arrays.fill(sums, 0d);
+                for (int y = 0; y < boxHeight; y++) {
+                    long index = plane * layerSize + (long) (top + outY * boxHeight + y) * image.width + left;
+                    for (int outX = 0; outX < outWidth; outX++) {
+                        double sum = 0d;
+                        for (int x = 0; x < boxWidth; x++) {
+                            sum += INDICCDFitsWriter.sample(data, sampleBytes, index++);
+                        }
+                        sums[outX] += sum;
+                    }
+                }
+                int offset = outY * outWidth;
+                for (int outX = 0; outX < outWidth; outX++) {
+                    pixel[offset + outX] = Math.max(0d, sums[outX] * norm);
+                }
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,243 @@
+package org.indilib.i4j.driver.ccd;
+
+/*
+ * #%L
+ * INDI for Java Abstract CCD Driver
+ * %%
+ * Copyright (C) 2013 - 2014 indiforjava
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.TimeZone;
+
+/**
+ * Records stream frames to a SER video file (the format of the Lucam
+ * recorder, read by most planetary stacking software). The frames are
+ * appended as they are, at the end the frame count is written into the
+ * header and the frame timestamps are added as trailer.
+ *
+ * @author Richard van Nieuwenhoven
+ */
+public final class INDICCDSerWriter implements Closeable {
+
+    /**
+     * the size of the SER header.
+     */
+    public static final int HEADER_SIZE = 178;
+
+    /**
+     * the file id at the start of the header.
+     */
+    private static final String FILE_ID = "LUCAM-RECORDER";
+
+    /**
+     * color id of mono frames.
+     */
+    private static final int COLOR_MONO = 0;
+
+    /**
+     * color id of rgb frames.
+     */
+    private static final int COLOR_RGB = 100;
+
+    /**
+     * the length of the text fields in the header.
+     */
+    private static final int TEXT_LENGTH = 40;
+
+    /**
+     * the number of 100ns ticks from 0001-01-01 to 1970-01-01, the SER
+     * timestamps count from 0001-01-01.
+     */
+    private static final long TICKS_AT_1970 = 621355968000000000L;
+
+    /**
+     * the number of 100ns ticks per millisecond.
+     */
+    private static final long TICKS_PER_MILLISECOND = 10000L;
+
+    /**
+     * the initial number of frame timestamps to keep.
+     */
+    private static final int INITIAL_FRAMES = 1024;
+
+    /**
+     * the file to write.
+     */
+    private final File file;
+
+    /**
+     * the channel to the file.
+     */
+    private final FileChannel channel;
+
+    /**
+     * the instrument name for the header.
+     */
+    private final String instrument;
+
+    /**
+     * the first frame, it defines the format of the file.
+     */
+    private INDICCDStreamFrame format;
+
+    /**
+     * the timestamps of the frames.
+     */
+    private long[] timestamps = new long[INITIAL_FRAMES];
+
+    /**
+     * the number of frames written.
+     */
+    private int frameCount;
+
+    /**
+     * create the file, the header is written when the file is closed.
+     *
+     * @param file       the file to write, it is overwritten.
+     * @param instrument the instrument name for the header.
+     * @throws IOException if the file could not be created.
+     */
+    public INDICCDSerWriter(File file, String instrument) throws IOException {
+        this.file = file;
+        this.instrument = instrument;
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        channel.position(HEADER_SIZE);
+    }
+
+    /**
+     * append a frame, all frames must have the format of the first one.
+     *
+     * @param frame the frame to append.
+     * @throws IOException if the frame could not be written.
+     */
+    public void write(INDICCDStreamFrame frame) throws IOException {
+        if (format == null) {
+            format = frame;
+        } else if (!format.sameFormat(frame)) {
+            throw new IllegalArgumentException("the frame format of the recording " + file + " changed");
+        }
+        writeFully(ByteBuffer.wrap(frame.getData()));
+        if (frameCount == timestamps.length) {
+            timestamps = Arrays.copyOf(timestamps, frameCount * 2);
+        }
+        timestamps[frameCount++] = frame.getTimestamp();
+    }
+
+    /**
+     * @return the number of frames written.
+     */
+    public int getFrameCount() {
+        return frameCount;
+    }
+
+    /**
+     * @return the file to write.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * write the timestamps and the header and close the file.
+     *
+     * @throws IOException if the file could not be written.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            ByteBuffer trailer = ByteBuffer.allocate(frameCount * Long.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            for (int index = 0; index < frameCount; index++) {
+                trailer.putLong(ticks(timestamps[index]));
+            }
+            trailer.flip();
+            writeFully(trailer);
+            channel.position(0);
+            writeFully(header());
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * @return the SER header.
+     */
+    private ByteBuffer header() {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.put(FILE_ID.getBytes(StandardCharsets.US_ASCII));
+        // lu id
+        header.putInt(0);
+        header.putInt(format != null && format.getPlanes() > 1 ? COLOR_RGB : COLOR_MONO);
+        // the "little endian" flag: the writing software puts 0 here for
+        // little endian 16 bit values and so does everyone reading the files.
+        header.putInt(0);
+        header.putInt(format == null ? 0 : format.getWidth());
+        header.putInt(format == null ? 0 : format.getHeight());
+        header.putInt(format == null ? Byte.SIZE : format.getDepth());
+        header.putInt(frameCount);
+        putText(header, "");
+        putText(header, instrument);
+        putText(header, "");
+        long start = frameCount == 0 ? System.currentTimeMillis() : timestamps[0];
+        header.putLong(ticks(start + TimeZone.getDefault().getOffset(start)));
+        header.putLong(ticks(start));
+        header.flip();
+        return header;
+    }
+
+    /**
+     * put a text field padded with zeros.
+     *
+     * @param header the header to fill.
+     * @param text   the text.
+     */
+    private static void putText(ByteBuffer header, String text) {
+        byte[] bytes = text == null ? new byte[0] : text.getBytes(StandardCharsets.US_ASCII);
+        int length = Math.min(bytes.length, TEXT_LENGTH);
+        header.put(bytes, 0, length);
+        header.put(new byte[TEXT_LENGTH - length]);
+    }
+
+    /**
+     * @param millis milliseconds since 1970.
+     * @return 100ns ticks since 0001-01-01.
+     */
+    private static long ticks(long millis) {
+        return TICKS_AT_1970 + millis * TICKS_PER_MILLISECOND;
+    }
+
+    /**
+     * write all remaining bytes of the buffer to the file.
+     *
+     * @param buffer the bytes to write.
+     * @throws IOException if the file could not be written.
+     */
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
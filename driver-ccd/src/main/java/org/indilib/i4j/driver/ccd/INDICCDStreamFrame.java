@@ -0,0 +1,207 @@
+package org.indilib.i4j.driver.ccd;
+
+/*
+ * #%L
+ * INDI for Java Abstract CCD Driver
+ * %%
+ * Copyright (C) 2013 - 2014 indiforjava
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+/**
+ * One frame of a video stream in the layout of a SER frame record: the pixel
+ * values little endian with 8 or 16 bits per value, the colors of a pixel
+ * next to each other (RGB). Frames are sent as they are in the stream BLOB
+ * and appended as they are to a SER recording, so a frame is converted only
+ * once.
+ *
+ * @author Richard van Nieuwenhoven
+ */
+public final class INDICCDStreamFrame {
+
+    /**
+     * the maximum bits per value of a frame, 32 bit images are reduced to 16
+     * bit.
+     */
+    public static final int MAX_DEPTH = 16;
+
+    /**
+     * the bits to shift 31 bit values of 32 bit images to get 16 bit values.
+     */
+    private static final int INT_TO_SHORT_SHIFT = 15;
+
+    /**
+     * the maximum value of 16 bits.
+     */
+    private static final int MAX_SHORT_VALUE = 0xFFFF;
+
+    /**
+     * the width of the frame.
+     */
+    private final int width;
+
+    /**
+     * the height of the frame.
+     */
+    private final int height;
+
+    /**
+     * the bits per value, 8 or 16.
+     */
+    private final int depth;
+
+    /**
+     * the number of color planes, 1 for mono and 3 for rgb.
+     */
+    private final int planes;
+
+    /**
+     * the time the frame was captured in milliseconds since 1970 (UTC).
+     */
+    private final long timestamp;
+
+    /**
+     * the frame record.
+     */
+    private final byte[] data;
+
+    /**
+     * constructor.
+     *
+     * @param width     the width of the frame.
+     * @param height    the height of the frame.
+     * @param depth     the bits per value, 8 or 16.
+     * @param planes    the number of color planes.
+     * @param timestamp the time the frame was captured.
+     * @param data      the frame record.
+     */
+    private INDICCDStreamFrame(int width, int height, int depth, int planes, long timestamp, byte[] data) {
+        this.width = width;
+        this.height = height;
+        this.depth = depth;
+        this.planes = planes;
+        this.timestamp = timestamp;
+        this.data = data;
+    }
+
+    /**
+     * convert the current pixels of an image to a stream frame, the image can
+     * be released afterwards.
+     *
+     * @param image     the image to convert.
+     * @param timestamp the time the frame was captured in milliseconds since
+     *                  1970 (UTC).
+     * @return the stream frame.
+     */
+    public static INDICCDStreamFrame encode(INDICCDImage image, long timestamp) {
+        Object pixels = image.getImageData();
+        if (pixels == null) {
+            throw new IllegalStateException("the image has no pixel data");
+        }
+        int sampleBytes = image.bpp / Byte.SIZE;
+        int depth = Math.min(image.bpp, MAX_DEPTH);
+        int valueBytes = depth / Byte.SIZE;
+        int planes = image.getPlanes();
+        int pixelCount = image.width * image.height;
+        long size = (long) pixelCount * planes * valueBytes;
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("image of " + image.width + "x" + image.height + " is too large for a stream frame");
+        }
+        byte[] data = new byte[(int) size];
+        if (planes == 1 && pixels instanceof byte[]) {
+            System.arraycopy(pixels, 0, data, 0, pixelCount);
+        } else if (pixels instanceof short[]) {
+            short[] values = (short[]) pixels;
+            int index = 0;
+            for (int pixel = 0; pixel < pixelCount; pixel++) {
+                for (int plane = 0; plane < planes; plane++) {
+                    int value = values[plane * pixelCount + pixel] - Short.MIN_VALUE;
+                    data[index++] = (byte) value;
+                    data[index++] = (byte) (value >>> Byte.SIZE);
+                }
+            }
+        } else {
+            int index = 0;
+            for (int pixel = 0; pixel < pixelCount; pixel++) {
+                for (int plane = 0; plane < planes; plane++) {
+                    long value = INDICCDFitsWriter.sample(pixels, sampleBytes, (long) plane * pixelCount + pixel);
+                    if (valueBytes == Byte.BYTES) {
+                        data[index++] = (byte) value;
+                    } else {
+                        if (sampleBytes == Integer.BYTES) {
+                            value = Math.min(Math.max(value, 0) >>> INT_TO_SHORT_SHIFT, MAX_SHORT_VALUE);
+                        }
+                        data[index++] = (byte) value;
+                        data[index++] = (byte) (value >>> Byte.SIZE);
+                    }
+                }
+            }
+        }
+        return new INDICCDStreamFrame(image.width, image.height, depth, planes, timestamp, data);
+    }
+
+    /**
+     * @return the width of the frame.
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * @return the height of the frame.
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return the bits per value, 8 or 16.
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * @return the number of color planes, 1 for mono and 3 for rgb.
+     */
+    public int getPlanes() {
+        return planes;
+    }
+
+    /**
+     * @return the time the frame was captured in milliseconds since 1970
+     * (UTC).
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * @return the frame record, do not change it.
+     */
+    public byte[] getData() {
+        return data;
+    }
+
+    /**
+     * @param other the other frame.
+     * @return true if the other frame has the same size and layout.
+     */
+    public boolean sameFormat(INDICCDStreamFrame other) {
+        return other != null && width == other.width && height == other.height && depth == other.depth && planes == other.planes;
+    }
+}
@@ -0,0 +1,536 @@
+package org.indilib.i4j.driver.ccd;
+
+/*
+ * #%L
+ * INDI for Java Abstract CCD Driver
+ * %%
+ * Copyright (C) 2013 - 2014 indiforjava
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The video stream of a ccd: the driver offers every captured frame, the
+ * frames are converted once to stream frames, sent to the clients at most
+ * with the configured frame rate and optionally recorded to a SER file. The
+ * sender always takes the newest frame, if the clients can not keep up the
+ * older frames are dropped instead of queued. The recorder has its own
+ * bounded queue, frames that do not fit because the disk is too slow are
+ * dropped and counted.
+ *
+ * @author Richard van Nieuwenhoven
+ */
+public final class INDICCDVideoStream {
+
+    /**
+     * system property to change the number of frames waiting to be recorded.
+     */
+    public static final String RECORD_QUEUE_PROPERTY = "i4j.driver.ccd.recordQueueFrames";
+
+    /**
+     * the default number of frames waiting to be recorded.
+     */
+    private static final int DEFAULT_RECORD_QUEUE = 16;
+
+    /**
+     * the interval in milliseconds the statistics are published.
+     */
+    private static final long STATISTICS_INTERVAL = 1000L;
+
+    /**
+     * the milliseconds the recorder waits for a frame before it checks if it
+     * should stop.
+     */
+    private static final long RECORD_POLL_INTERVAL = 100L;
+
+    /**
+     * the number of nanoseconds in a second.
+     */
+    private static final double NANOS_PER_SECOND = 1000000000d;
+
+    /**
+     * the logger to log to.
+     */
+    private static final Logger LOG = LoggerFactory.getLogger(INDICCDVideoStream.class);
+
+    /**
+     * Receives the frames and the statistics of the stream, it is called from
+     * the sender thread.
+     */
+    public interface Publisher {
+
+        /**
+         * send a frame to the clients.
+         *
+         * @param frame the frame.
+         */
+        void publish(INDICCDStreamFrame frame);
+
+        /**
+         * publish the statistics of the stream, called about once a second
+         * while streaming.
+         *
+         * @param stream the stream.
+         */
+        void statistics(INDICCDVideoStream stream);
+    }
+
+    /**
+     * the name of the stream (for the threads).
+     */
+    private final String name;
+
+    /**
+     * receives the frames and the statistics.
+     */
+    private final Publisher publisher;
+
+    /**
+     * guards the frame waiting to be sent.
+     */
+    private final Object lock = new Object();
+
+    /**
+     * the number of frames offered.
+     */
+    private final AtomicLong captured = new AtomicLong();
+
+    /**
+     * the number of frames sent.
+     */
+    private final AtomicLong streamed = new AtomicLong();
+
+    /**
+     * the number of frames dropped because the sender was still busy with an
+     * older frame.
+     */
+    private final AtomicLong dropped = new AtomicLong();
+
+    /**
+     * the number of frames not sent because of the frame rate limit.
+     */
+    private final AtomicLong skipped = new AtomicLong();
+
+    /**
+     * the number of frames recorded.
+     */
+    private final AtomicLong recorded = new AtomicLong();
+
+    /**
+     * the number of frames not recorded because the recorder was too slow.
+     */
+    private final AtomicLong recordDropped = new AtomicLong();
+
+    /**
+     * the maximum number of frames per second to send, 0 for no limit.
+     */
+    private volatile double maxFps;
+
+    /**
+     * is the stream running.
+     */
+    private volatile boolean running;
+
+    /**
+     * the frames per second offered in the last statistics interval.
+     */
+    private volatile double capturedFps;
+
+    /**
+     * the frames per second sent in the last statistics interval.
+     */
+    private volatile double streamedFps;
+
+    /**
+     * the current recording or null.
+     */
+    private volatile Recorder recorder;
+
+    /**
+     * the newest frame waiting to be sent.
+     */
+    private INDICCDStreamFrame pending;
+
+    /**
+     * the thread sending the frames.
+     */
+    private Thread sender;
+
+    /**
+     * the time (nanos) the next frame may be sent.
+     */
+    private long nextSend;
+
+    /**
+     * create the stream, it must be started before frames are accepted.
+     *
+     * @param name      the name of the stream (for the threads).
+     * @param publisher receives the frames and the statistics.
+     */
+    public INDICCDVideoStream(String name, Publisher publisher) {
+        this.name = name;
+        this.publisher = publisher;
+    }
+
+    /**
+     * start accepting and sending frames.
+     */
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        nextSend = System.nanoTime();
+        sender = new Thread(this::sendFrames, name + " stream");
+        sender.setDaemon(true);
+        sender.start();
+    }
+
+    /**
+     * stop the stream and the recording, frames that were not sent yet are
+     * dropped.
+     */
+    public synchronized void stop() {
+        running = false;
+        if (sender != null) {
+            sender.interrupt();
+            sender = null;
+        }
+        synchronized (lock) {
+            pending = null;
+        }
+        stopRecording();
+    }
+
+    /**
+     * @return is the stream running.
+     */
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * @param newMaxFps the maximum number of frames per second to send, 0 for
+     *                  no limit.
+     */
+    public void setMaxFps(double newMaxFps) {
+        maxFps = newMaxFps;
+    }
+
+    /**
+     * offer a captured frame, it is converted to a stream frame if it is sent
+     * or recorded. The image is not kept, the caller can release it
+     * afterwards.
+     *
+     * @param image the captured frame.
+     * @return true if the frame was taken for sending or recording.
+     */
+    public synchronized boolean offer(INDICCDImage image) {
+        if (!running) {
+            return false;
+        }
+        captured.incrementAndGet();
+        long now = System.nanoTime();
+        double fps = maxFps;
+        boolean send = fps <= 0 || now - nextSend >= 0;
+        Recorder currentRecorder = recorder;
+        if (!send) {
+            skipped.incrementAndGet();
+            if (currentRecorder == null) {
+                return false;
+            }
+        }
+        INDICCDStreamFrame frame = INDICCDStreamFrame.encode(image, System.currentTimeMillis());
+        if (send) {
+            if (fps > 0) {
+                // keep the cadence, but do not catch up after a pause.
+                nextSend = Math.max(nextSend + (long) (NANOS_PER_SECOND / fps), now);
+            }
+            synchronized (lock) {
+                if (pending != null) {
+                    dropped.incrementAndGet();
+                }
+                pending = frame;
+                lock.notifyAll();
+            }
+        }
+        if (currentRecorder != null) {
+            currentRecorder.offer(frame);
+        }
+        return true;
+    }
+
+    /**
+     * the sender thread, it sends the newest frame and publishes the
+     * statistics.
+     */
+    private void sendFrames() {
+        long lastStatistics = System.nanoTime();
+        long lastCaptured = captured.get();
+        long lastStreamed = streamed.get();
+        while (running) {
+            INDICCDStreamFrame frame;
+            synchronized (lock) {
+                if (pending == null) {
+                    try {
+                        lock.wait(STATISTICS_INTERVAL);
+                    } catch (InterruptedException e) {
+                        break;
+                    }
+                }
+                frame = pending;
+                pending = null;
+            }
+            if (frame != null) {
+                try {
+                    publisher.publish(frame);
+                    streamed.incrementAndGet();
+                } catch (RuntimeException e) {
+                    LOG.error("could not send the stream frame", e);
+                }
+            }
+            long now = System.nanoTime();
+            if (now - lastStatistics >= TimeUnit.MILLISECONDS.toNanos(STATISTICS_INTERVAL)) {
+                double seconds = (now - lastStatistics) / NANOS_PER_SECOND;
+                long currentCaptured = captured.get();
+                long currentStreamed = streamed.get();
+                capturedFps = (currentCaptured - lastCaptured) / seconds;
+                streamedFps = (currentStreamed - lastStreamed) / seconds;
+                lastCaptured = currentCaptured;
+                lastStreamed = currentStreamed;
+                lastStatistics = now;
+                publisher.statistics(this);
+            }
+        }
+    }
+
+    /**
+     * start recording all offered frames (not limited by the frame rate) to a
+     * SER file.
+     *
+     * @param file       the file to record to, it is overwritten.
+     * @param instrument the instrument name for the header.
+     * @throws IOException if the file could not be created.
+     */
+    public synchronized void startRecording(File file, String instrument) throws IOException {
+        if (recorder != null) {
+            throw new IllegalStateException("the stream is already recorded to " + recorder.writer.getFile());
+        }
+        Recorder newRecorder = new Recorder(new INDICCDSerWriter(file, instrument));
+        newRecorder.thread.start();
+        recorder = newRecorder;
+    }
+
+    /**
+     * stop the recording, the frames already queued are written and the file
+     * is closed.
+     *
+     * @return the number of frames in the file or -1 if there was no
+     * recording.
+     */
+    public int stopRecording() {
+        Recorder currentRecorder;
+        synchronized (this) {
+            currentRecorder = recorder;
+            recorder = null;
+        }
+        if (currentRecorder == null) {
+            return -1;
+        }
+        return currentRecorder.finish();
+    }
+
+    /**
+     * @return the file that is recorded to or null if there is no recording.
+     */
+    public File getRecordingFile() {
+        Recorder currentRecorder = recorder;
+        return currentRecorder == null ? null : currentRecorder.writer.getFile();
+    }
+
+    /**
+     * @return the number of frames offered.
+     */
+    public long getCaptured() {
+        return captured.get();
+    }
+
+    /**
+     * @return the number of frames sent.
+     */
+    public long getStreamed() {
+        return streamed.get();
+    }
+
+    /**
+     * @return the number of frames dropped because the clients could not
+     * keep up.
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * @return the number of frames not sent because of the frame rate limit.
+     */
+    public long getSkipped() {
+        return skipped.get();
+    }
+
+    /**
+     * @return the number of frames recorded.
+     */
+    public long getRecorded() {
+        return recorded.get();
+    }
+
+    /**
+     * @return the number of frames not recorded because the disk could not
+     * keep up.
+     */
+    public long getRecordDropped() {
+        return recordDropped.get();
+    }
+
+    /**
+     * @return the frames per second offered in the last statistics interval.
+     */
+    public double getCapturedFps() {
+        return capturedFps;
+    }
+
+    /**
+     * @return the frames per second sent in the last statistics interval.
+     */
+    public double getStreamedFps() {
+        return streamedFps;
+    }
+
+    @Override
+    public String toString() {
+        return name + " captured=" + captured + " streamed=" + streamed + " dropped=" + dropped + " skipped=" + skipped + " recorded=" + recorded + " recordDropped="
+                + recordDropped;
+    }
+
+    /**
+     * A recording of the stream with its own thread.
+     */
+    private final class Recorder {
+
+        /**
+         * the file to record to.
+         */
+        private final INDICCDSerWriter writer;
+
+        /**
+         * the frames waiting to be written.
+         */
+        private final BlockingQueue<INDICCDStreamFrame> queue = new ArrayBlockingQueue<>(Integer.getInteger(RECORD_QUEUE_PROPERTY, DEFAULT_RECORD_QUEUE));
+
+        /**
+         * the thread writing the frames.
+         */
+        private final Thread thread;
+
+        /**
+         * should the recorder stop when the queue is empty.
+         */
+        private volatile boolean closing;
+
+        /**
+         * did writing fail, all further frames are dropped.
+         */
+        private volatile boolean failed;
+
+        /**
+         * constructor.
+         *
+         * @param writer the file to record to.
+         */
+        private Recorder(INDICCDSerWriter writer) {
+            this.writer = writer;
+            thread = new Thread(this::writeFrames, name + " record");
+            thread.setDaemon(true);
+        }
+
+        /**
+         * queue a frame, it is dropped if the queue is full.
+         *
+         * @param frame the frame to record.
+         */
+        private void offer(INDICCDStreamFrame frame) {
+            if (failed || !queue.offer(frame)) {
+                recordDropped.incrementAndGet();
+            }
+        }
+
+        /**
+         * the recorder thread, it writes the queued frames until the
+         * recording is finished.
+         */
+        private void writeFrames() {
+            try {
+                while (!closing || !queue.isEmpty()) {
+                    INDICCDStreamFrame frame = queue.poll(RECORD_POLL_INTERVAL, TimeUnit.MILLISECONDS);
+                    if (frame != null && !failed) {
+                        try {
+                            writer.write(frame);
+                            recorded.incrementAndGet();
+                        } catch (IOException | IllegalArgumentException e) {
+                            LOG.error("could not record the stream to " + writer.getFile(), e);
+                            failed = true;
+                        }
+                    } else if (frame != null) {
+                        recordDropped.incrementAndGet();
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                try {
+                    writer.close();
+                } catch (IOException e) {
+                    LOG.error("could not close the recording " + writer.getFile(), e);
+                }
+            }
+        }
+
+        /**
+         * write the queued frames and close the file.
+         *
+         * @return the number of frames in the file.
+         */
+        private int finish() {
+            closing = true;
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return writer.getFrameCount();
+        }
+    }
+}
@@ -0,0 +1,370 @@
+package org.indilib.i4j.driver.ccd;
+
+/*
+ * #%L
+ * INDI for Java Abstract CCD Driver
+ * %%
+ * Copyright (C) 2013 - 2014 indiforjava
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Adler32;
+import java.util.zip.Deflater;
+
+/**
+ * A zlib compressing output stream that deflates independent blocks in
+ * parallel (like pigz). Every block is primed with the last 32k of the
+ * previous block as dictionary and ends with a sync flush, so the
+ * concatenated blocks form one standard zlib stream that every inflater
+ * (including the one of the INDIBLOBValue) reads unchanged, with nearly the
+ * same compression as a single deflater. The number of blocks in flight is
+ * bounded, so a slow consumer blocks the writer.
+ *
+ * @author Richard van Nieuwenhoven
+ */
+public class ParallelDeflaterOutputStream extends FilterOutputStream {
+
+    /**
+     * system property to change the number of deflater threads (values below
+     * one are taken as one).
+     */
+    public static final String THREADS_PROPERTY = "i4j.driver.ccd.deflaterThreads";
+
+    /**
+     * the size of the blocks that are deflated independently.
+     */
+    public static final int BLOCK_SIZE = 128 * 1024;
+
+    /**
+     * the size of the dictionary taken from the previous block (the deflate
+     * window).
+     */
+    private static final int DICTIONARY_SIZE = 32 * 1024;
+
+    /**
+     * the compression method and window size byte of the zlib header
+     * (deflate with a 32k window).
+     */
+    private static final int ZLIB_CMF = 0x78;
+
+    /**
+     * the zlib header check value divisor.
+     */
+    private static final int ZLIB_CHECK_DIVISOR = 31;
+
+    /**
+     * the position of the compression level in the zlib flag byte.
+     */
+    private static final int ZLIB_LEVEL_SHIFT = 6;
+
+    /**
+     * the compression level of zlib's default level.
+     */
+    private static final int DEFAULT_LEVEL = 6;
+
+    /**
+     * the number of deflater threads, at least one.
+     */
+    private static final int THREADS = Math.max(1, Integer.getInteger(THREADS_PROPERTY, Runtime.getRuntime().availableProcessors()));
+
+    /**
+     * the threads shared by all streams.
+     */
+    private static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(THREADS, new ThreadFactory() {
+
+        private final AtomicInteger counter = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "parallel deflater " + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    /**
+     * every deflater thread reuses its deflaters.
+     */
+    private static final ThreadLocal<Deflater[]> DEFLATERS = new ThreadLocal<Deflater[]>() {
+
+        @Override
+        protected Deflater[] initialValue() {
+            return new Deflater[Deflater.BEST_COMPRESSION + 1];
+        }
+    };
+
+    /**
+     * the compression level.
+     */
+    private final int level;
+
+    /**
+     * the deflated blocks in the order they must be written.
+     */
+    private final Deque<Future<byte[]>> pending = new ArrayDeque<>();
+
+    /**
+     * the maximum number of blocks in flight.
+     */
+    private final int maxPending = THREADS * 2;
+
+    /**
+     * the checksum of the uncompressed data.
+     */
+    private final Adler32 checksum = new Adler32();
+
+    /**
+     * the block that is being filled.
+     */
+    private byte[] block = new byte[BLOCK_SIZE];
+
+    /**
+     * the number of bytes in the current block.
+     */
+    private int blockLength;
+
+    /**
+     * the previous block, its tail is the dictionary of the current block.
+     */
+    private byte[] previousBlock;
+
+    /**
+     * the zlib header was written.
+     */
+    private boolean headerWritten;
+
+    /**
+     * the stream was finished.
+     */
+    private boolean finished;
+
+    /**
+     * create a parallel deflater with the default compression level.
+     *
+     * @param out the stream to write the zlib stream to.
+     */
+    public ParallelDeflaterOutputStream(OutputStream out) {
+        this(out, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * create a parallel deflater.
+     *
+     * @param out   the stream to write the zlib stream to.
+     * @param level the compression level (0-9 or -1 for the default).
+     */
+    public ParallelDeflaterOutputStream(OutputStream out, int level) {
+        super(out);
+        if (level < Deflater.DEFAULT_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("illegal compression level " + level);
+        }
+        this.level = level == Deflater.DEFAULT_COMPRESSION ? DEFAULT_LEVEL : level;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{
+            (byte) b
+        }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (finished) {
+            throw new IOException("stream already finished");
+        }
+        checksum.update(b, off, len);
+        int offset = off;
+        int remaining = len;
+        while (remaining > 0) {
+            if (blockLength == block.length) {
+                submit(false);
+            }
+            int count = Math.min(remaining, block.length - blockLength);
+            System.arraycopy(b, offset, block, blockLength, count);
+            blockLength += count;
+            offset += count;
+            remaining -= count;
+        }
+    }
+
+    /**
+     * write the deflated blocks that are already complete and flush the
+     * underlying stream. The current block is not cut short, so flushing does
+     * not reduce the compression.
+     *
+     * @throws IOException if the underlying stream failed.
+     */
+    @Override
+    public void flush() throws IOException {
+        while (!pending.isEmpty() && pending.peekFirst().isDone()) {
+            writeNextBlock();
+        }
+        out.flush();
+    }
+
+    /**
+     * deflate the rest of the data and write the checksum, without closing
+     * the underlying stream.
+     *
+     * @throws IOException if the underlying stream failed.
+     */
+    public void finish() throws IOException {
+        if (finished) {
+            return;
+        }
+        submit(true);
+        while (!pending.isEmpty()) {
+            writeNextBlock();
+        }
+        long adler = checksum.getValue();
+        out.write(new byte[]{
+            (byte) (adler >>> 24),
+            (byte) (adler >>> 16),
+            (byte) (adler >>> 8),
+            (byte) adler
+        });
+        finished = true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            finish();
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * start deflating the current block and start a new one, if too many
+     * blocks are in flight the oldest one is written first.
+     *
+     * @param last is it the last block of the stream.
+     * @throws IOException if the underlying stream failed.
+     */
+    private void submit(final boolean last) throws IOException {
+        writeHeader();
+        while (pending.size() >= maxPending) {
+            writeNextBlock();
+        }
+        final byte[] input = block;
+        final int inputLength = blockLength;
+        final byte[] dictionary = previousBlock;
+        pending.addLast(EXECUTOR.submit(() -> deflate(input, inputLength, dictionary, last)));
+        previousBlock = input;
+        block = new byte[BLOCK_SIZE];
+        blockLength = 0;
+    }
+
+    /**
+     * write the zlib header once.
+     *
+     * @throws IOException if the underlying stream failed.
+     */
+    private void writeHeader() throws IOException {
+        if (headerWritten) {
+            return;
+        }
+        int compressionLevel;
+        if (level < 2) {
+            compressionLevel = 0;
+        } else if (level < DEFAULT_LEVEL) {
+            compressionLevel = 1;
+        } else if (level == DEFAULT_LEVEL) {
+            compressionLevel = 2;
+        } else {
+            compressionLevel = 3;
+        }
+        int flags = compressionLevel << ZLIB_LEVEL_SHIFT;
+        flags += ZLIB_CHECK_DIVISOR - (ZLIB_CMF * 256 + flags) % ZLIB_CHECK_DIVISOR;
+        out.write(ZLIB_CMF);
+        out.write(flags);
+        headerWritten = true;
+    }
+
+    /**
+     * wait for the oldest deflated block and write it.
+     *
+     * @throws IOException if the deflating or the underlying stream failed.
+     */
+    private void writeNextBlock() throws IOException {
+        byte[] deflated;
+        try {
+            deflated = pending.removeFirst().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while deflating");
+        } catch (ExecutionException e) {
+            throw new IOException("could not deflate", e.getCause());
+        }
+        out.write(deflated);
+    }
+
+    /**
+     * deflate one block as raw deflate data, primed with the tail of the
+     * previous block.
+     *
+     * @param input       the block.
+     * @param inputLength the number of bytes in the block.
+     * @param dictionary  the previous block or null for the first one.
+     * @param last        is it the last block of the stream.
+     * @return the deflated block, ending on a byte boundary.
+     */
+    private byte[] deflate(byte[] input, int inputLength, byte[] dictionary, boolean last) {
+        Deflater[] deflaters = DEFLATERS.get();
+        Deflater deflater = deflaters[level];
+        if (deflater == null) {
+            deflater = new Deflater(level, true);
+            deflaters[level] = deflater;
+        }
+        deflater.reset();
+        if (dictionary != null) {
+            deflater.setDictionary(dictionary, dictionary.length - DICTIONARY_SIZE, DICTIONARY_SIZE);
+        }
+        deflater.setInput(input, 0, inputLength);
+        byte[] output = new byte[inputLength / 2 + 64];
+        int outputLength = 0;
+        if (last) {
+            deflater.finish();
+        }
+        while (true) {
+            if (outputLength == output.length) {
+                output = Arrays.copyOf(output, output.length * 2);
+            }
+            int count = deflater.deflate(output, outputLength, output.length - outputLength, last ? Deflater.NO_FLUSH : Deflater.SYNC_FLUSH);
+            outputLength += count;
+            if (last ? deflater.finished() : outputLength < output.length) {
+                break;
+            }
+        }
+        return Arrays.copyOf(output, outputLength);
+    }
+}
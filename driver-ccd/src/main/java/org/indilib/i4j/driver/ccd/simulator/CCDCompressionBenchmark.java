@@ -0,0 +1,210 @@
+package org.indilib.i4j.driver.ccd.simulator;
+
+/*
+ * #%L
+ * INDI for Java Abstract CCD Driver
+ * %%
+ * Copyright (C) 2012 - 2014 indiforjava
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import org.indilib.i4j.driver.ccd.INDICCDFitsWriter;
+import org.indilib.i4j.driver.ccd.INDICCDImage;
+import org.indilib.i4j.driver.ccd.INDICCDImage.ImageType;
+import org.indilib.i4j.driver.ccd.INDICCDImage.PixelIterator;
+import org.indilib.i4j.driver.ccd.ParallelDeflaterOutputStream;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.Random;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Measures the compression of the BLOB uploads: simulated 16 bit sky frames
+ * (background noise and stars) are written as fits through the
+ * {@link ParallelDeflaterOutputStream} the driver uses and, for comparison,
+ * through a single threaded {@link DeflaterOutputStream}. Arguments are the
+ * resolutions as <code>WIDTHxHEIGHT</code>, the system property
+ * <code>runs</code> sets the number of runs per stream (the best run is
+ * printed).
+ *
+ * @author Richard van Nieuwenhoven
+ */
+public final class CCDCompressionBenchmark {
+
+    /**
+     * the resolutions measured if none are given.
+     */
+    private static final String[] DEFAULT_RESOLUTIONS = {
+        "1920x1080",
+        "4000x3000",
+        "6000x5000"
+    };
+
+    /**
+     * the default number of runs per stream.
+     */
+    private static final int DEFAULT_RUNS = 3;
+
+    /**
+     * the number of bits per pixel of the frames.
+     */
+    private static final int BITS_PER_PIXEL = 16;
+
+    /**
+     * the sky background of the simulated frames.
+     */
+    private static final double BACKGROUND = 1000d;
+
+    /**
+     * the standard deviation of the background noise.
+     */
+    private static final double NOISE = 10d;
+
+    /**
+     * one star in this many pixels.
+     */
+    private static final int PIXELS_PER_STAR = 2000;
+
+    /**
+     * the maximum peak value of a star above the background.
+     */
+    private static final double MAX_STAR_PEAK = 30000d;
+
+    /**
+     * the radius in pixels of the simulated stars.
+     */
+    private static final int STAR_RADIUS = 4;
+
+    /**
+     * the gaussian sigma of the stars in pixels.
+     */
+    private static final double STAR_SIGMA = 1.5d;
+
+    /**
+     * the maximum pixel value.
+     */
+    private static final double MAX_VALUE = 65535d;
+
+    /**
+     * the number of bytes in a megabyte.
+     */
+    private static final double MEGABYTE = 1024d * 1024d;
+
+    /**
+     * the number of nanoseconds in a second.
+     */
+    private static final double NANOS_PER_SECOND = 1000000000d;
+
+    /**
+     * utility class.
+     */
+    private CCDCompressionBenchmark() {
+    }
+
+    /**
+     * run the benchmark.
+     *
+     * @param args the resolutions as <code>WIDTHxHEIGHT</code>.
+     * @throws Exception if the benchmark failed.
+     */
+    public static void main(String[] args) throws Exception {
+        String[] resolutions = args.length == 0 ? DEFAULT_RESOLUTIONS : args;
+        int runs = Math.max(1, Integer.getInteger("runs", DEFAULT_RUNS));
+        for (String resolution : resolutions) {
+            String[] size = resolution.toLowerCase(Locale.US).split("x");
+            int width = Integer.parseInt(size[0]);
+            int height = Integer.parseInt(size[1]);
+            INDICCDImage image = skyFrame(width, height);
+            INDICCDFitsWriter writer = image.writer("fits");
+            for (boolean parallel : new boolean[]{
+                false,
+                true
+            }) {
+                long best = Long.MAX_VALUE;
+                long compressed = 0L;
+                for (int run = 0; run < runs; run++) {
+                    CountingOutputStream out = new CountingOutputStream();
+                    long start = System.nanoTime();
+                    try (OutputStream os = parallel ? new ParallelDeflaterOutputStream(out) : new DeflaterOutputStream(out)) {
+                        writer.writeTo(os);
+                    }
+                    best = Math.min(best, System.nanoTime() - start);
+                    compressed = out.count;
+                }
+                double seconds = best / NANOS_PER_SECOND;
+                System.out.println(String.format(Locale.US, "%5dx%-5d %-8s fits %7.1f MB compressed %7.1f MB in %6.2f s, %7.1f MB/s", width, height,
+                        parallel ? "parallel" : "single", writer.getLength() / MEGABYTE, compressed / MEGABYTE, seconds, writer.getLength() / MEGABYTE / seconds));
+            }
+        }
+    }
+
+    /**
+     * simulate a sky frame: gaussian background noise with stars.
+     *
+     * @param width  the width of the frame.
+     * @param height the height of the frame.
+     * @return the frame.
+     */
+    private static INDICCDImage skyFrame(int width, int height) {
+        Random random = new Random((long) width * height);
+        double[] values = new double[width * height];
+        for (int index = 0; index < values.length; index++) {
+            values[index] = BACKGROUND + random.nextGaussian() * NOISE;
+        }
+        for (int star = values.length / PIXELS_PER_STAR; star > 0; star--) {
+            int centerX = random.nextInt(width);
+            int centerY = random.nextInt(height);
+            double peak = random.nextDouble() * MAX_STAR_PEAK;
+            for (int y = Math.max(0, centerY - STAR_RADIUS); y < Math.min(height, centerY + STAR_RADIUS + 1); y++) {
+                for (int x = Math.max(0, centerX - STAR_RADIUS); x < Math.min(width, centerX + STAR_RADIUS + 1); x++) {
+                    double distance2 = (x - centerX) * (x - centerX) + (y - centerY) * (y - centerY);
+                    values[y * width + x] += peak * Math.exp(-distance2 / (2d * STAR_SIGMA * STAR_SIGMA));
+                }
+            }
+        }
+        INDICCDImage image = INDICCDImage.createImage(width, height, BITS_PER_PIXEL, ImageType.GRAY_SCALE);
+        PixelIterator pixels = image.iteratePixel();
+        for (double value : values) {
+            pixels.setPixel((int) Math.max(0d, Math.min(MAX_VALUE, value)));
+        }
+        image.iteratorComplete(pixels);
+        return image;
+    }
+
+    /**
+     * an output stream that only counts the bytes written to it.
+     */
+    private static final class CountingOutputStream extends OutputStream {
+
+        /**
+         * the number of bytes written.
+         */
+        private long count;
+
+        @Override
+        public void write(int b) throws IOException {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            count += len;
+        }
+    }
+}
@@ -24,9 +24,11 @@ package org.indilib.i4j.driver.ccd.simulator;
 
 import nom.tam.fits.BasicHDU;
 import org.indilib.i4j.INDIException;
+import org.indilib.i4j.driver.INDIScheduledTask;
 import org.indilib.i4j.driver.ccd.Capability;
 import org.indilib.i4j.driver.ccd.CcdFrame;
 import org.indilib.i4j.driver.ccd.INDICCDDriver;
+import org.indilib.i4j.driver.ccd.INDICCDFramePool;
 import org.indilib.i4j.driver.ccd.INDICCDImage;
 import org.indilib.i4j.driver.ccd.INDICCDImage.ImageType;
 import org.indilib.i4j.driver.ccd.INDICCDImage.PixelIterator;
@@ -41,6 +43,7 @@ import java.io.IOException;
 import java.util.Date;
 import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.TimeUnit;
 
 /**
  * This driver simulates a ccd dirver by sending always sending the same pictute
@@ -74,6 +77,16 @@ public class CCDSimulator extends INDICCDDriver {
      */
     private Camera camera;
 
+    /**
+     * the scheduled task ticking the simulated camera.
+     */
+    private INDIScheduledTask cameraTask;
+
+    /**
+     * the thread producing the video frames while streaming.
+     */
+    private Thread streamThread;
+
     /**
      * standard constructor for the simulated ccd driver.
      *
@@ -90,13 +103,13 @@ public class CCDSimulator extends INDICCDDriver {
     public void driverConnect(Date timestamp) throws INDIException {
         super.driverConnect(timestamp);
         camera = new Camera();
-        new Thread(camera, "camera").start();
+        cameraTask = scheduleAtFixedRate("camera", camera, Camera.ONE_TENTH_OF_A_SECOND, TimeUnit.MILLISECONDS);
     }
 
     @Override
     public void driverDisconnect(Date timestamp) throws INDIException {
         super.driverDisconnect(timestamp);
-        camera.stop();
+        cameraTask.cancel();
     }
 
     @Override
@@ -105,6 +118,7 @@ public class CCDSimulator extends INDICCDDriver {
         capabilities.canAbort(true);
         capabilities.canBin(true);
         capabilities.canSubFrame(false);
+        capabilities.canStream(true);
         capabilities.hasCooler(true);
         capabilities.hasGuideHead(false);
         capabilities.hasShutter(true);
@@ -128,6 +142,35 @@ public class CCDSimulator extends INDICCDDriver {
         return true;
     }
 
+    @Override
+    public synchronized boolean startStreaming(double exposure) {
+        if (camera == null || streamThread != null) {
+            return false;
+        }
+        final Camera streamingCamera = camera;
+        final long frameNanos = (long) (exposure * TimeUnit.SECONDS.toNanos(1));
+        streamThread = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                streamingCamera.streamFrames(frameNanos);
+            }
+        }, getName() + " video");
+        streamThread.setDaemon(true);
+        streamThread.start();
+        return true;
+    }
+
+    @Override
+    public synchronized boolean stopStreaming() {
+        if (streamThread == null) {
+            return false;
+        }
+        streamThread.interrupt();
+        streamThread = null;
+        return true;
+    }
+
     @Override
     public boolean updateCCDBin(int hor, int ver) {
         return true;
@@ -154,7 +197,8 @@ public class CCDSimulator extends INDICCDDriver {
     }
 
     /**
-     * The simulated camera. running as a thread- runnable.
+     * The simulated camera. every run is one tick of 1/10 of a second, it is
+     * scheduled on the shared driver scheduler.
      */
     final class Camera implements Runnable {
 
@@ -211,9 +255,9 @@ public class CCDSimulator extends INDICCDDriver {
          */
         private Random random = new Random(System.currentTimeMillis());
         /**
-         * stop the camera.
+         * the tick counter, the properties are only updated every x'th tick.
          */
-        private boolean stop = false;
+        private int count = 0;
         /**
          * the current (simulated) temperature.
          */
@@ -242,19 +286,10 @@ public class CCDSimulator extends INDICCDDriver {
 
         @Override
         public void run() {
-            int count = 0;
-            while (!stop) {
-                try {
-                    Thread.sleep(ONE_TENTH_OF_A_SECOND);
-                    if (connectionExtension.isConnected()) {
-                        updateTemperature(count == 0);
-                        updateExposure(ONE_TENTH_OF_A_SECOND, count == 0);
-                        count = (count + 1) % PROPERTY_UPDATE_EVERY_X_LOOPS;
-                    }
-                } catch (InterruptedException e) {
-                    LOG.error("camera thread interrrupted", e);
-                }
-
+            if (connectionExtension.isConnected()) {
+                updateTemperature(count == 0);
+                updateExposure(ONE_TENTH_OF_A_SECOND, count == 0);
+                count = (count + 1) % PROPERTY_UPDATE_EVERY_X_LOOPS;
             }
         }
 
@@ -290,7 +325,7 @@ public class CCDSimulator extends INDICCDDriver {
             sensorWidth = sensorWidth / binx * binx;
             sensorHeigth = sensorHeigth / biny * biny;
 
-            INDICCDImage newCcdImage = INDICCDImage.createImage(sensorWidth / binx, sensorHeigth / biny, BITS_PER_PIXEL_COLOR, ImageType.COLOR);
+            INDICCDImage newCcdImage = INDICCDFramePool.getInstance().acquire(sensorWidth / binx, sensorHeigth / biny, BITS_PER_PIXEL_COLOR, ImageType.COLOR);
             Raster stdData = stdImage.getData();
             int[] pixel = new int[VALUES_PER_COLOR];
             int[] pixelSum = new int[VALUES_PER_COLOR];
@@ -328,6 +363,57 @@ public class CCDSimulator extends INDICCDDriver {
             exposureComplete(primaryCCD);
         }
 
+        /**
+         * produce video frames until the thread is interrupted, every frame is
+         * the (binned) simulator image.
+         *
+         * @param frameNanos the exposure time of one frame in nanoseconds.
+         */
+        private void streamFrames(long frameNanos) {
+            int binx = primaryCCD.getBinningX();
+            int biny = primaryCCD.getBinningY();
+            int frameWidth = width / binx;
+            int frameHeigth = heigth / biny;
+            int[] red = new int[frameWidth * frameHeigth];
+            int[] green = new int[red.length];
+            int[] blue = new int[red.length];
+            Raster stdData = stdImage.getData();
+            int[] pixel = new int[VALUES_PER_COLOR];
+            for (int y = 0; y < frameHeigth; y++) {
+                for (int x = 0; x < frameWidth; x++) {
+                    stdData.getPixel(x * binx, y * biny, pixel);
+                    red[y * frameWidth + x] = pixel[0];
+                    green[y * frameWidth + x] = pixel[1];
+                    blue[y * frameWidth + x] = pixel[2];
+                }
+            }
+            long nextFrame = System.nanoTime();
+            while (!Thread.currentThread().isInterrupted()) {
+                INDICCDImage frame = INDICCDFramePool.getInstance().acquire(frameWidth, frameHeigth, BITS_PER_PIXEL_COLOR, ImageType.COLOR);
+                try {
+                    PixelIterator pixelIter = frame.iteratePixel();
+                    for (int index = 0; index < red.length; index++) {
+                        pixelIter.setPixel(red[index], green[index], blue[index]);
+                    }
+                    frame.iteratorComplete(pixelIter);
+                    streamFrame(primaryCCD, frame);
+                } finally {
+                    frame.release();
+                }
+                nextFrame += frameNanos;
+                long sleep = nextFrame - System.nanoTime();
+                if (sleep > 0) {
+                    try {
+                        TimeUnit.NANOSECONDS.sleep(sleep);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                } else {
+                    nextFrame = System.nanoTime();
+                }
+            }
+        }
+
         /**
          * update the temperature field.
          *
@@ -348,13 +434,6 @@ public class CCDSimulator extends INDICCDDriver {
                 updateProperty(CCDSimulator.this.temperature);
             }
         }
-
-        /**
-         * stop the camera thread.
-         */
-        public void stop() {
-            stop = true;
-        }
     }
 
 }
@@ -0,0 +1,200 @@
+package org.indilib.i4j.driver.ccd.simulator;
+
+/*
+ * #%L
+ * INDI for Java Abstract CCD Driver
+ * %%
+ * Copyright (C) 2012 - 2014 indiforjava
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import org.indilib.i4j.driver.ccd.INDICCDFramePool;
+import org.indilib.i4j.driver.ccd.INDICCDImage;
+import org.indilib.i4j.driver.ccd.INDICCDImage.ImageType;
+import org.indilib.i4j.driver.ccd.INDICCDImage.PixelIterator;
+import org.indilib.i4j.driver.ccd.INDICCDStreamFrame;
+import org.indilib.i4j.driver.ccd.INDICCDVideoStream;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Base64;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures the sustained frame rate of the video stream at several
+ * resolutions: frames are produced as fast as possible the way the simulator
+ * produces them (pooled images filled pixel by pixel), every frame is offered
+ * to the stream, sent frames are base64 encoded as they would be on the wire
+ * and all frames are recorded to a temporary SER file. Arguments are the
+ * resolutions as <code>WIDTHxHEIGHT</code>, the system property
+ * <code>seconds</code> sets the duration of every run.
+ *
+ * @author Richard van Nieuwenhoven
+ */
+public final class CCDStreamBenchmark {
+
+    /**
+     * the resolutions measured if none are given.
+     */
+    private static final String[] DEFAULT_RESOLUTIONS = {
+        "640x480",
+        "1280x960",
+        "1920x1080",
+        "3840x2160"
+    };
+
+    /**
+     * the default duration of a run in seconds.
+     */
+    private static final int DEFAULT_SECONDS = 5;
+
+    /**
+     * the number of bits per pixel of the mono runs.
+     */
+    private static final int MONO_BITS_PER_PIXEL = 16;
+
+    /**
+     * the number of bits per pixel of the color runs (as the simulator).
+     */
+    private static final int COLOR_BITS_PER_PIXEL = 8;
+
+    /**
+     * the number of bytes in a megabyte.
+     */
+    private static final double MEGABYTE = 1024d * 1024d;
+
+    /**
+     * the number of nanoseconds in a second.
+     */
+    private static final double NANOS_PER_SECOND = 1000000000d;
+
+    /**
+     * the maximum simulated pixel value.
+     */
+    private static final int MAX_SIMULATED_VALUE = 255;
+
+    /**
+     * utility class.
+     */
+    private CCDStreamBenchmark() {
+    }
+
+    /**
+     * run the benchmark.
+     *
+     * @param args the resolutions as <code>WIDTHxHEIGHT</code>.
+     * @throws Exception if the benchmark failed.
+     */
+    public static void main(String[] args) throws Exception {
+        String[] resolutions = args.length == 0 ? DEFAULT_RESOLUTIONS : args;
+        int seconds = Integer.getInteger("seconds", DEFAULT_SECONDS);
+        for (String resolution : resolutions) {
+            String[] size = resolution.toLowerCase(Locale.US).split("x");
+            int width = Integer.parseInt(size[0]);
+            int height = Integer.parseInt(size[1]);
+            run(width, height, COLOR_BITS_PER_PIXEL, ImageType.COLOR, seconds);
+            run(width, height, MONO_BITS_PER_PIXEL, ImageType.GRAY_SCALE, seconds);
+        }
+    }
+
+    /**
+     * stream frames of one format for the given time and print the rates.
+     *
+     * @param width   the width of the frames.
+     * @param height  the height of the frames.
+     * @param bpp     the bits per pixel.
+     * @param type    the type of the frames.
+     * @param seconds the duration of the run.
+     * @throws IOException if the recording failed.
+     */
+    private static void run(int width, int height, int bpp, ImageType type, int seconds) throws IOException {
+        int planes = type == ImageType.COLOR ? 3 : 1;
+        int[] values = new int[width * height * planes];
+        Random random = new Random(width * height);
+        for (int index = 0; index < values.length; index++) {
+            values[index] = random.nextInt(MAX_SIMULATED_VALUE);
+        }
+        final AtomicLong wireBytes = new AtomicLong();
+        final OutputStream wire = new OutputStream() {
+
+            @Override
+            public void write(int b) {
+                wireBytes.incrementAndGet();
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                wireBytes.addAndGet(len);
+            }
+        };
+        INDICCDVideoStream stream = new INDICCDVideoStream("benchmark", new INDICCDVideoStream.Publisher() {
+
+            @Override
+            public void publish(INDICCDStreamFrame frame) {
+                try (OutputStream out = Base64.getEncoder().wrap(wire)) {
+                    out.write(frame.getData());
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+
+            @Override
+            public void statistics(INDICCDVideoStream statistics) {
+            }
+        });
+        File recording = File.createTempFile("stream-benchmark", ".ser");
+        try {
+            stream.start();
+            stream.startRecording(recording, "benchmark");
+            long start = System.nanoTime();
+            long end = start + TimeUnit.SECONDS.toNanos(seconds);
+            while (System.nanoTime() < end) {
+                INDICCDImage frame = INDICCDFramePool.getInstance().acquire(width, height, bpp, type);
+                try {
+                    PixelIterator pixels = frame.iteratePixel();
+                    int pixelCount = width * height;
+                    for (int index = 0; index < pixelCount; index++) {
+                        if (planes == 1) {
+                            pixels.setPixel(values[index]);
+                        } else {
+                            pixels.setPixel(values[index], values[pixelCount + index], values[2 * pixelCount + index]);
+                        }
+                    }
+                    frame.iteratorComplete(pixels);
+                    stream.offer(frame);
+                } finally {
+                    frame.release();
+                }
+            }
+            int recorded = stream.stopRecording();
+            double duration = (System.nanoTime() - start) / NANOS_PER_SECOND;
+            stream.stop();
+            System.out.println(String.format(Locale.US, "%5dx%-5d %2d bit %-5s captured %7.1f fps streamed %7.1f fps recorded %7.1f fps"
+                    + " dropped %6d wire %7.1f MB/s disk %7.1f MB/s",
+                    width, height, bpp, planes == 1 ? "mono" : "rgb", stream.getCaptured() / duration, stream.getStreamed() / duration, recorded / duration,
+                    stream.getDropped() + stream.getRecordDropped(), wireBytes.get() / MEGABYTE / duration, recording.length() / MEGABYTE / duration));
+        } finally {
+            if (!recording.delete()) {
+                recording.deleteOnExit();
+            }
+        }
+    }
+}
@@ -0,0 +1,425 @@
+package org.indilib.i4j.driver.ccd;
+
+/*
+ * #%L
+ * INDI for Java Abstract CCD Driver
+ * %%
+ * Copyright (C) 2013 - 2014 indiforjava
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import nom.tam.fits.Fits;
+import nom.tam.fits.Header;
+import nom.tam.util.BufferedDataInputStream;
+import nom.tam.util.BufferedDataOutputStream;
+import org.indilib.i4j.driver.ccd.INDICCDImage.BinningMode;
+import org.indilib.i4j.driver.ccd.INDICCDImage.ImageType;
+import org.indilib.i4j.driver.ccd.INDICCDImage.PixelIterator;
+import org.indilib.i4j.driver.ccd.INDICCDImage.Subframe;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import static nom.tam.fits.header.Standard.NAXISn;
+import static nom.tam.fits.header.extra.SBFitsExt.XORGSUBF;
+import static nom.tam.fits.header.extra.SBFitsExt.YORGSUBF;
+import static org.indilib.i4j.driver.ccd.INDICCDFitsWriter.FITS_BLOCK_SIZE;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compares the streaming fits writer with the fits file nom-tam writes for
+ * the same pixels, for every bit depth, color, heap, direct and mapped
+ * images, buffers split in several segments, and crop and binning.
+ *
+ * @author Richard van Nieuwenhoven
+ */
+public class INDICCDFitsWriterTest {
+
+    /**
+     * the size of the buffer segments of the multi-segment images (64
+     * bytes, so rows and binned pixels cross the segment borders).
+     */
+    private static final int SMALL_SEGMENT_SHIFT = 6;
+
+    /**
+     * the number of bytes of a header card.
+     */
+    private static final int CARD_LENGTH = 80;
+
+    /**
+     * the largest value used for 32 bit images, so sums of binned pixels
+     * do not overflow.
+     */
+    private static final int MAX_32_BIT_VALUE = 1 << 24;
+
+    /**
+     * The storage of the pixels of an image.
+     */
+    private enum Storage {
+        /**
+         * primitive arrays on the heap.
+         */
+        HEAP,
+        /**
+         * direct byte buffers.
+         */
+        DIRECT,
+        /**
+         * direct byte buffers in segments of {@link #SMALL_SEGMENT_SHIFT}.
+         */
+        SEGMENTED,
+        /**
+         * a memory mapped file.
+         */
+        MAPPED
+    }
+
+    /**
+     * @param bpp the bits per pixel.
+     * @return the largest pixel value to simulate.
+     */
+    private static int maxValue(int bpp) {
+        if (bpp == Byte.SIZE) {
+            return (1 << Byte.SIZE) - 1;
+        } else if (bpp == Short.SIZE) {
+            return (1 << Short.SIZE) - 1;
+        }
+        return MAX_32_BIT_VALUE;
+    }
+
+    /**
+     * @param bpp the bits per pixel.
+     * @return the value binned sums saturate at.
+     */
+    private static long saturation(int bpp) {
+        if (bpp == Integer.SIZE) {
+            return Integer.MAX_VALUE;
+        }
+        return maxValue(bpp);
+    }
+
+    /**
+     * create random pixel values, layer after layer.
+     *
+     * @param width  the width of the image.
+     * @param height the height of the image.
+     * @param bpp    the bits per pixel.
+     * @param type   the type of the image.
+     * @return the values.
+     */
+    private static int[] values(int width, int height, int bpp, ImageType type) {
+        int[] values = new int[width * height * (type == ImageType.COLOR ? 3 : 1)];
+        Random random = new Random(values.length * 31L + bpp);
+        for (int index = 0; index < values.length; index++) {
+            values[index] = random.nextInt(maxValue(bpp) + 1);
+        }
+        return values;
+    }
+
+    /**
+     * create an image with the values.
+     *
+     * @param width   the width of the image.
+     * @param height  the height of the image.
+     * @param bpp     the bits per pixel.
+     * @param type    the type of the image.
+     * @param storage where the pixels are kept.
+     * @param values  the pixel values, layer after layer.
+     * @return the image.
+     * @throws IOException if the mapped file could not be created.
+     */
+    private static INDICCDImage image(int width, int height, int bpp, ImageType type, Storage storage, int[] values) throws IOException {
+        INDICCDImage image;
+        if (storage == Storage.HEAP) {
+            image = INDICCDImage.createImage(width, height, bpp, type);
+        } else if (storage == Storage.DIRECT) {
+            image = INDICCDImage.createDirectImage(width, height, bpp, type);
+        } else if (storage == Storage.SEGMENTED) {
+            image = INDICCDImage.createDirectImage(width, height, bpp, type, SMALL_SEGMENT_SHIFT);
+        } else {
+            File file = File.createTempFile("fits-writer-test", ".raw");
+            file.deleteOnExit();
+            image = INDICCDImage.createMappedImage(width, height, bpp, type, file);
+        }
+        PixelIterator pixels = image.iteratePixel();
+        int layerSize = width * height;
+        for (int index = 0; index < layerSize; index++) {
+            if (type == ImageType.COLOR) {
+                pixels.setPixel(values[index], values[layerSize + index], values[2 * layerSize + index]);
+            } else {
+                pixels.setPixel(values[index]);
+            }
+        }
+        image.iteratorComplete(pixels);
+        return image;
+    }
+
+    /**
+     * @param image the image.
+     * @return the fits file nom-tam writes for the image.
+     * @throws Exception if the image could not be written.
+     */
+    private static byte[] nomTam(INDICCDImage image) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (BufferedDataOutputStream dataOut = new BufferedDataOutputStream(out)) {
+            image.asFitsImage().write(dataOut);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * write the writer in all three ways and check they give the same file.
+     *
+     * @param writer the writer.
+     * @return the fits file.
+     * @throws Exception if the writer failed.
+     */
+    private static byte[] written(INDICCDFitsWriter writer) throws Exception {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        writer.writeTo(stream);
+        ByteArrayOutputStream channelOut = new ByteArrayOutputStream();
+        try (WritableByteChannel channel = Channels.newChannel(channelOut)) {
+            writer.writeTo(channel);
+        }
+        ByteArrayOutputStream read = new ByteArrayOutputStream();
+        try (InputStream in = writer.openStream()) {
+            byte[] buffer = new byte[FITS_BLOCK_SIZE - 1];
+            int count;
+            while ((count = in.read(buffer)) >= 0) {
+                read.write(buffer, 0, count);
+            }
+        }
+        byte[] result = stream.toByteArray();
+        assertEquals("length", writer.getLength(), result.length);
+        assertEquals("padded to fits blocks", 0, result.length % FITS_BLOCK_SIZE);
+        assertArrayEquals("channel", result, channelOut.toByteArray());
+        assertArrayEquals("input stream", result, read.toByteArray());
+        return result;
+    }
+
+    /**
+     * @param fits a fits file.
+     * @return the length of its header blocks.
+     */
+    private static int headerLength(byte[] fits) {
+        for (int card = 0; card + CARD_LENGTH <= fits.length; card += CARD_LENGTH) {
+            if (new String(fits, card, CARD_LENGTH, StandardCharsets.US_ASCII).startsWith("END ")) {
+                return (card / FITS_BLOCK_SIZE + 1) * FITS_BLOCK_SIZE;
+            }
+        }
+        throw new AssertionError("no END card");
+    }
+
+    /**
+     * @param fits a fits file.
+     * @return the header blocks of the file.
+     */
+    private static byte[] headerBlocks(byte[] fits) {
+        return Arrays.copyOf(fits, headerLength(fits));
+    }
+
+    /**
+     * @param fits a fits file.
+     * @return the data blocks of the file.
+     */
+    private static byte[] dataBlocks(byte[] fits) {
+        return Arrays.copyOfRange(fits, headerLength(fits), fits.length);
+    }
+
+    /**
+     * write the whole image in every storage and compare with nom-tam: the
+     * header with the one nom-tam writes for the same image (its first card
+     * has a time stamp), the data with the one nom-tam writes for the heap
+     * image.
+     *
+     * @param width  the width of the image.
+     * @param height the height of the image.
+     * @param bpp    the bits per pixel.
+     * @param type   the type of the image.
+     * @throws Exception if the image could not be written.
+     */
+    private static void assertFullFrame(int width, int height, int bpp, ImageType type) throws Exception {
+        int[] values = values(width, height, bpp, type);
+        byte[] expected = dataBlocks(nomTam(image(width, height, bpp, type, Storage.HEAP, values)));
+        for (Storage storage : Storage.values()) {
+            String message = width + "x" + height + " " + bpp + " bit " + type + " " + storage;
+            INDICCDImage image = image(width, height, bpp, type, storage, values);
+            byte[] fits = written(image.writer("fits"));
+            assertArrayEquals(message, headerBlocks(nomTam(image)), headerBlocks(fits));
+            assertArrayEquals(message, expected, dataBlocks(fits));
+            if (storage == Storage.HEAP) {
+                assertArrayEquals(message, nomTam(image), fits);
+            }
+            image.release();
+        }
+    }
+
+    /**
+     * crop and bin the values the way the writer should.
+     *
+     * @param values   the values of the image, layer after layer.
+     * @param width    the width of the image.
+     * @param height   the height of the image.
+     * @param layers   the number of layers.
+     * @param bpp      the bits per pixel.
+     * @param subframe the part of the image and its binning.
+     * @return the values of the subframe, layer after layer.
+     */
+    private static int[] subframe(int[] values, int width, int height, int layers, int bpp, Subframe subframe) {
+        int outWidth = subframe.getWidth() / subframe.getBinX();
+        int outHeight = subframe.getHeight() / subframe.getBinY();
+        int binSize = subframe.getBinX() * subframe.getBinY();
+        int[] result = new int[outWidth * outHeight * layers];
+        int index = 0;
+        for (int layer = 0; layer < layers; layer++) {
+            for (int row = 0; row < outHeight; row++) {
+                for (int column = 0; column < outWidth; column++) {
+                    long sum = 0;
+                    for (int y = 0; y < subframe.getBinY(); y++) {
+                        for (int x = 0; x < subframe.getBinX(); x++) {
+                            int sourceX = subframe.getLeft() + column * subframe.getBinX() + x;
+                            int sourceY = subframe.getTop() + row * subframe.getBinY() + y;
+                            sum += values[layer * width * height + sourceY * width + sourceX];
+                        }
+                    }
+                    if (subframe.getMode() == BinningMode.AVERAGE) {
+                        sum = (sum + binSize / 2) / binSize;
+                    }
+                    result[index++] = (int) Math.min(sum, saturation(bpp));
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * write a subframe of the image in every storage and compare the pixels
+     * with the nom-tam file of an image holding the expected pixels.
+     *
+     * @param width    the width of the image.
+     * @param height   the height of the image.
+     * @param bpp      the bits per pixel.
+     * @param type     the type of the image.
+     * @param subframe the part of the image and its binning.
+     * @throws Exception if the image could not be written.
+     */
+    private static void assertSubframe(int width, int height, int bpp, ImageType type, Subframe subframe) throws Exception {
+        int[] values = values(width, height, bpp, type);
+        int outWidth = subframe.getWidth() / subframe.getBinX();
+        int outHeight = subframe.getHeight() / subframe.getBinY();
+        int[] expectedValues = subframe(values, width, height, type == ImageType.COLOR ? 3 : 1, bpp, subframe);
+        byte[] expected = dataBlocks(nomTam(image(outWidth, outHeight, bpp, type, Storage.HEAP, expectedValues)));
+        for (Storage storage : Storage.values()) {
+            String message = width + "x" + height + " " + bpp + " bit " + type + " " + storage + " " + subframe;
+            INDICCDImage image = image(width, height, bpp, type, storage, values);
+            byte[] fits = written(image.writer("fits", subframe));
+            assertArrayEquals(message, expected, dataBlocks(fits));
+            Header header = new Fits(new BufferedDataInputStream(new ByteArrayInputStream(fits))).getHDU(0).getHeader();
+            assertEquals(message, outWidth, header.getIntValue(NAXISn.n(2)));
+            assertEquals(message, outHeight, header.getIntValue(NAXISn.n(1)));
+            assertEquals(message, subframe.getLeft(), header.getIntValue(XORGSUBF));
+            assertEquals(message, subframe.getTop(), header.getIntValue(YORGSUBF));
+            image.release();
+        }
+    }
+
+    /**
+     * 8 bit images, with data ending exactly on a block, with one byte of
+     * padding short of a block and with the most padding.
+     *
+     * @throws Exception if the image could not be written.
+     */
+    @Test
+    public void eightBit() throws Exception {
+        assertFullFrame(48, 60, Byte.SIZE, ImageType.GRAY_SCALE);
+        assertFullFrame(2879, 1, Byte.SIZE, ImageType.GRAY_SCALE);
+        assertFullFrame(1, 1, Byte.SIZE, ImageType.GRAY_SCALE);
+        assertFullFrame(101, 67, Byte.SIZE, ImageType.GRAY_SCALE);
+    }
+
+    /**
+     * 16 bit images with different padding lengths.
+     *
+     * @throws Exception if the image could not be written.
+     */
+    @Test
+    public void sixteenBit() throws Exception {
+        assertFullFrame(48, 30, Short.SIZE, ImageType.GRAY_SCALE);
+        assertFullFrame(37, 23, Short.SIZE, ImageType.GRAY_SCALE);
+        assertFullFrame(640, 480, Short.SIZE, ImageType.GRAY_SCALE);
+    }
+
+    /**
+     * 32 bit images with different padding lengths.
+     *
+     * @throws Exception if the image could not be written.
+     */
+    @Test
+    public void thirtyTwoBit() throws Exception {
+        assertFullFrame(720, 1, Integer.SIZE, ImageType.GRAY_SCALE);
+        assertFullFrame(33, 17, Integer.SIZE, ImageType.GRAY_SCALE);
+    }
+
+    /**
+     * color images are written plane after plane.
+     *
+     * @throws Exception if the image could not be written.
+     */
+    @Test
+    public void color() throws Exception {
+        assertFullFrame(31, 17, Byte.SIZE, ImageType.COLOR);
+        assertFullFrame(40, 24, Byte.SIZE, ImageType.COLOR);
+        assertFullFrame(29, 13, Short.SIZE, ImageType.COLOR);
+    }
+
+    /**
+     * cropped images without binning.
+     *
+     * @throws Exception if the image could not be written.
+     */
+    @Test
+    public void crop() throws Exception {
+        assertSubframe(64, 48, Byte.SIZE, ImageType.GRAY_SCALE, new Subframe(5, 7, 33, 21, 1, 1, BinningMode.SUM));
+        assertSubframe(64, 48, Short.SIZE, ImageType.GRAY_SCALE, new Subframe(0, 1, 64, 40, 1, 1, BinningMode.SUM));
+        assertSubframe(64, 48, Integer.SIZE, ImageType.GRAY_SCALE, new Subframe(13, 0, 17, 48, 1, 1, BinningMode.SUM));
+        assertSubframe(40, 30, Short.SIZE, ImageType.COLOR, new Subframe(3, 4, 20, 10, 1, 1, BinningMode.SUM));
+    }
+
+    /**
+     * binned images, added (saturating) and averaged.
+     *
+     * @throws Exception if the image could not be written.
+     */
+    @Test
+    public void bin() throws Exception {
+        assertSubframe(64, 48, Byte.SIZE, ImageType.GRAY_SCALE, new Subframe(0, 0, 64, 48, 2, 2, BinningMode.SUM));
+        assertSubframe(64, 48, Short.SIZE, ImageType.GRAY_SCALE, new Subframe(0, 0, 63, 48, 3, 2, BinningMode.AVERAGE));
+        assertSubframe(64, 48, Short.SIZE, ImageType.GRAY_SCALE, new Subframe(4, 2, 40, 40, 2, 2, BinningMode.SUM));
+        assertSubframe(64, 48, Integer.SIZE, ImageType.GRAY_SCALE, new Subframe(1, 3, 60, 42, 3, 3, BinningMode.SUM));
+        assertSubframe(40, 30, Byte.SIZE, ImageType.COLOR, new Subframe(2, 2, 36, 26, 2, 2, BinningMode.AVERAGE));
+    }
+}
@@ -0,0 +1,177 @@
+package org.indilib.i4j.driver.ccd;
+
+/*
+ * #%L
+ * INDI for Java Abstract CCD Driver
+ * %%
+ * Copyright (C) 2013 - 2014 indiforjava
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import org.indilib.i4j.driver.ccd.INDICCDImage.ImageType;
+import org.indilib.i4j.driver.ccd.INDICCDImage.PixelIterator;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Measures synthetic frames with a known background, noise and gaussian
+ * stars.
+ *
+ * @author Richard van Nieuwenhoven
+ */
+public class INDICCDImageStatisticsTest {
+
+    /**
+     * the width of the synthetic frames.
+     */
+    private static final int WIDTH = 1200;
+
+    /**
+     * the height of the synthetic frames.
+     */
+    private static final int HEIGHT = 900;
+
+    /**
+     * the background level.
+     */
+    private static final double BACKGROUND = 1000d;
+
+    /**
+     * the standard deviation of the background noise.
+     */
+    private static final double NOISE = 10d;
+
+    /**
+     * the standard deviation of the gaussian stars in pixels.
+     */
+    private static final double STAR_SIGMA = 2d;
+
+    /**
+     * the distance between two stars of the grid.
+     */
+    private static final int STAR_SPACING = 60;
+
+    /**
+     * create a 16 bit frame with gaussian noise and a grid of gaussian stars.
+     *
+     * @param peak      the peak value of the stars above the background.
+     * @param hotPixels the number of single hot pixels.
+     * @return the frame.
+     */
+    private static INDICCDImage frame(double peak, int hotPixels) {
+        double[] values = new double[WIDTH * HEIGHT];
+        Random random = new Random(42L);
+        for (int index = 0; index < values.length; index++) {
+            values[index] = BACKGROUND + random.nextGaussian() * NOISE;
+        }
+        for (int starY = STAR_SPACING / 2; starY < HEIGHT; starY += STAR_SPACING) {
+            for (int starX = STAR_SPACING / 2; starX < WIDTH; starX += STAR_SPACING) {
+                for (int y = starY - 10; y <= starY + 10; y++) {
+                    for (int x = starX - 10; x <= starX + 10; x++) {
+                        double distance2 = (x - starX) * (x - starX) + (y - starY) * (y - starY);
+                        values[y * WIDTH + x] += peak * Math.exp(-distance2 / (2d * STAR_SIGMA * STAR_SIGMA));
+                    }
+                }
+            }
+        }
+        for (int index = 0; index < hotPixels; index++) {
+            int x = STAR_SPACING + random.nextInt(WIDTH - 2 * STAR_SPACING);
+            // between the rows of stars.
+            int y = (random.nextInt(HEIGHT / STAR_SPACING - 1) + 1) * STAR_SPACING;
+            values[y * WIDTH + x] = 60000d;
+        }
+        INDICCDImage image = INDICCDImage.createImage(WIDTH, HEIGHT, 16, ImageType.GRAY_SCALE);
+        PixelIterator pixels = image.iteratePixel();
+        for (double value : values) {
+            pixels.setPixel((int) Math.max(0L, Math.min(65535L, Math.round(value))));
+        }
+        return image;
+    }
+
+    /**
+     * @return the number of stars in the grid.
+     */
+    private static int gridStars() {
+        return (WIDTH / STAR_SPACING) * (HEIGHT / STAR_SPACING);
+    }
+
+    /**
+     * the median is the background, the noise comes from the median absolute
+     * deviation and every pixel is in the histogram.
+     */
+    @Test
+    public void backgroundAndNoise() {
+        INDICCDImageStatistics statistics = INDICCDImageStatistics.measure(frame(2000d, 0), INDICCDImage.Subframe.FULL_FRAME);
+        assertEquals((long) WIDTH * HEIGHT, statistics.getPixels());
+        assertEquals(BACKGROUND, statistics.getMedian(), 2d);
+        assertEquals(NOISE, statistics.getNoise(), 1d);
+        assertEquals(0L, statistics.getSaturated());
+        long histogramPixels = 0L;
+        for (long count : statistics.getHistogram()) {
+            histogramPixels += count;
+        }
+        assertEquals(statistics.getPixels(), histogramPixels);
+    }
+
+    /**
+     * every star is found and measured with its true size.
+     */
+    @Test
+    public void starsAndHalfFluxRadius() {
+        INDICCDImageStatistics statistics = INDICCDImageStatistics.measure(frame(2000d, 0), INDICCDImage.Subframe.FULL_FRAME);
+        assertEquals(gridStars(), statistics.getStars());
+        assertEquals(0, statistics.getSaturatedStars());
+        // the half flux radius of a gaussian is sigma * sqrt(2 ln 2), its full
+        // width at half maximum sigma * 2 sqrt(2 ln 2).
+        double halfWidth = STAR_SIGMA * Math.sqrt(2d * Math.log(2d));
+        assertEquals(halfWidth, statistics.getHfr(), 0.15 * halfWidth);
+        assertEquals(2d * halfWidth, statistics.getFwhm(), 0.15 * 2d * halfWidth);
+    }
+
+    /**
+     * single hot pixels are not counted as stars.
+     */
+    @Test
+    public void hotPixelsAreNoStars() {
+        INDICCDImageStatistics statistics = INDICCDImageStatistics.measure(frame(2000d, 25), INDICCDImage.Subframe.FULL_FRAME);
+        assertEquals(gridStars(), statistics.getStars());
+    }
+
+    /**
+     * stars with a saturated peak are counted but not measured.
+     */
+    @Test
+    public void saturatedStarsAreCountedApart() {
+        INDICCDImageStatistics statistics = INDICCDImageStatistics.measure(frame(100000d, 0), INDICCDImage.Subframe.FULL_FRAME);
+        assertEquals(gridStars(), statistics.getStars());
+        assertEquals(gridStars(), statistics.getSaturatedStars());
+        assertEquals(0d, statistics.getHfr(), 0d);
+    }
+
+    /**
+     * noise alone does not make stars.
+     */
+    @Test
+    public void emptyFrameHasNoStars() {
+        INDICCDImageStatistics statistics = INDICCDImageStatistics.measure(frame(0d, 0), INDICCDImage.Subframe.FULL_FRAME);
+        assertEquals(0, statistics.getStars());
+        assertEquals(BACKGROUND, statistics.getMedian(), 2d);
+    }
+}
@@ -0,0 +1,426 @@
+package org.indilib.i4j.driver.ccd;
+
+/*
+ * #%L
+ * INDI for Java Abstract CCD Driver
+ * %%
+ * Copyright (C) 2013 - 2014 indiforjava
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import nom.tam.fits.BasicHDU;
+import org.indilib.i4j.Constants.PropertyPermissions;
+import org.indilib.i4j.Constants.PropertyStates;
+import org.indilib.i4j.Constants.SwitchStatus;
+import org.indilib.i4j.INDIBLOBValue;
+import org.indilib.i4j.driver.INDIDriver;
+import org.indilib.i4j.driver.INDIDriverExtension;
+import org.indilib.i4j.driver.INDIElement;
+import org.indilib.i4j.driver.INDINumberElement;
+import org.indilib.i4j.driver.INDINumberProperty;
+import org.indilib.i4j.driver.INDIProperty;
+import org.indilib.i4j.driver.INDISwitchElement;
+import org.indilib.i4j.driver.INDISwitchProperty;
+import org.indilib.i4j.driver.INDITextElement;
+import org.indilib.i4j.driver.INDITextProperty;
+import org.indilib.i4j.driver.annotation.InjectElement;
+import org.indilib.i4j.driver.annotation.InjectProperty;
+import org.indilib.i4j.driver.util.INDIGeneratedInjector;
+import org.indilib.i4j.driver.util.INDIPropertyInjector;
+import org.indilib.i4j.protocol.api.INDIConnection;
+import org.indilib.i4j.protocol.io.INDIPipedConnections;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Builds a ccd driver once with the injectors generated by the annotation
+ * processor and once with the reflective injector, both must inject the same
+ * properties, elements and extensions into the same fields. The test driver
+ * adds public, package private and private fields to the ones of
+ * {@link INDICCDDriver} and its (renamed and prefixed) chip extensions.
+ *
+ * @author Richard van Nieuwenhoven
+ */
+public class INDIInjectorEquivalenceTest {
+
+    /**
+     * the package of the classes that are loaded again without their
+     * generated injectors.
+     */
+    private static final String CCD_PACKAGE = "org.indilib.i4j.driver.ccd.";
+
+    /**
+     * The generated injectors must exist, else both drivers would be built
+     * by reflection and the comparison proves nothing.
+     *
+     * @throws Exception if the injector classes are missing.
+     */
+    @Test
+    public void generatedInjectorsExist() throws Exception {
+        for (Class<?> clazz : new Class<?>[]{
+            INDICCDDriver.class,
+            INDICCDDriverExtension.class,
+            InjectedDriver.class
+        }) {
+            Class<?> injector = Class.forName(clazz.getName().replace('$', '_') + INDIGeneratedInjector.SUFFIX);
+            assertNotNull(injector.getConstructor().newInstance());
+        }
+    }
+
+    /**
+     * the generated and the reflective injection build the same tree.
+     *
+     * @throws Exception if the driver could not be built.
+     */
+    @Test
+    public void generatedAndReflectiveInjectionAreEqual() throws Exception {
+        INDIDriver generated = newDriver(InjectedDriver.class);
+        ReflectiveLoader loader = new ReflectiveLoader(getClass().getClassLoader());
+        INDIDriver reflective = newDriver(loader.loadClass(InjectedDriver.class.getName()));
+        assertTrue(loader.hidden.contains(InjectedDriver.class.getName().replace('$', '_') + INDIGeneratedInjector.SUFFIX));
+        assertTrue(loader.hidden.contains(INDICCDDriverExtension.class.getName() + INDIGeneratedInjector.SUFFIX));
+        assertFalse(generated.getClass() == reflective.getClass());
+        List<String> generatedTree = dump(generated);
+        assertFalse(generatedTree.isEmpty());
+        assertEquals(join(generatedTree), join(dump(reflective)));
+    }
+
+    /**
+     * construct a driver on an unconnected pipe.
+     *
+     * @param driverClass the class of the driver.
+     * @return the driver.
+     * @throws Exception if the driver could not be constructed.
+     */
+    private static INDIDriver newDriver(Class<?> driverClass) throws Exception {
+        return (INDIDriver) driverClass.getConstructor(INDIConnection.class).newInstance(new INDIPipedConnections().first());
+    }
+
+    /**
+     * @param lines the lines to join.
+     * @return the lines separated by new lines, so a failure shows the
+     *         difference readable.
+     */
+    private static String join(List<String> lines) {
+        StringBuilder result = new StringBuilder();
+        for (String line : lines) {
+            result.append(line).append('\n');
+        }
+        return result.toString();
+    }
+
+    /**
+     * describe all properties, elements and extensions reachable from the
+     * fields of the driver, in the order of the class hierarchy and the field
+     * declarations.
+     *
+     * @param driver the driver to describe.
+     * @return one line per injected field.
+     * @throws Exception if a field could not be read.
+     */
+    private static List<String> dump(INDIDriver driver) throws Exception {
+        List<String> result = new ArrayList<>();
+        dump(driver, "", result, Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>()));
+        return result;
+    }
+
+    /**
+     * describe the injected fields of one object and recurse into its
+     * extensions.
+     *
+     * @param object the driver or extension.
+     * @param path   the field path to the object.
+     * @param result the lines to add to.
+     * @param seen   the objects already described.
+     * @throws Exception if a field could not be read.
+     */
+    private static void dump(Object object, String path, List<String> result, Set<Object> seen) throws Exception {
+        if (object == null || !seen.add(object)) {
+            return;
+        }
+        List<Class<?>> hierarchy = new ArrayList<>();
+        for (Class<?> clazz = object.getClass(); clazz != null && clazz != Object.class; clazz = clazz.getSuperclass()) {
+            hierarchy.add(0, clazz);
+        }
+        for (Class<?> clazz : hierarchy) {
+            for (Field field : clazz.getDeclaredFields()) {
+                if (Modifier.isStatic(field.getModifiers())) {
+                    continue;
+                }
+                Object value = INDIPropertyInjector.getFieldValue(INDIPropertyInjector.declaredField(clazz, field.getName()), object);
+                String name = path + clazz.getSimpleName() + "." + field.getName();
+                if (value instanceof INDIProperty) {
+                    result.add(name + " -> " + describe((INDIProperty<?>) value));
+                } else if (value instanceof INDIElement) {
+                    result.add(name + " -> " + describe((INDIElement<?>) value));
+                } else if (value instanceof INDIDriverExtension) {
+                    result.add(name + " -> " + value.getClass().getName());
+                    dump(value, name + "/", result, seen);
+                }
+            }
+        }
+    }
+
+    /**
+     * @param property the property to describe.
+     * @return the settings of the property and the names of its elements.
+     */
+    private static String describe(INDIProperty<?> property) {
+        StringBuilder result = new StringBuilder(property.getClass().getSimpleName());
+        result.append(' ').append(property.getName())//
+                .append('|').append(property.getLabel())//
+                .append('|').append(property.getGroup())//
+                .append('|').append(property.getPermission())//
+                .append('|').append(property.getState())//
+                .append('|').append(property.getTimeout())//
+                .append('|').append(INDIPropertyInjector.getFieldValue(INDIPropertyInjector.declaredField(INDIProperty.class, "saveable"), property))//
+                .append('|').append(property.getPublicationPolicy());
+        if (property instanceof INDISwitchProperty) {
+            result.append('|').append(((INDISwitchProperty) property).getRule());
+        }
+        result.append(" [");
+        for (INDIElement<?> element : property.getElementsAsList()) {
+            result.append(' ').append(element.getName());
+        }
+        return result.append(" ]").toString();
+    }
+
+    /**
+     * @param element the element to describe.
+     * @return the settings and the value of the element.
+     */
+    private static String describe(INDIElement<?> element) {
+        StringBuilder result = new StringBuilder(element.getClass().getSimpleName());
+        result.append(' ').append(element.getProperty().getName())//
+                .append(':').append(element.getName())//
+                .append('|').append(element.getLabel());
+        if (element.getValue() instanceof INDIBLOBValue) {
+            INDIBLOBValue blob = (INDIBLOBValue) element.getValue();
+            result.append('|').append(blob.getFormat()).append('|').append(blob.getSize());
+        } else {
+            result.append('|').append(element.getValue());
+        }
+        if (element instanceof INDINumberElement) {
+            INDINumberElement number = (INDINumberElement) element;
+            result.append('|').append(number.getMin())//
+                    .append('|').append(number.getMax())//
+                    .append('|').append(number.getStep())//
+                    .append('|').append(number.getNumberFormat());
+        }
+        return result.toString();
+    }
+
+    /**
+     * A ccd driver with a guide head and injected fields of all visibilities.
+     */
+    public static class InjectedDriver extends INDICCDDriver {
+
+        /**
+         * a public property with a standard timeout.
+         */
+        @InjectProperty(name = "TEST_NUMBERS", label = "Numbers", group = "Test", state = PropertyStates.OK)
+        public INDINumberProperty numbers;
+
+        /**
+         * a public element with limits and a format.
+         */
+        @InjectElement(name = "NUMBER", label = "Number", numberValue = 2d, minimum = -5d, maximum = 5d, step = 0.5d, numberFormat = "%3.1f")
+        public INDINumberElement number;
+
+        /**
+         * a package private read only property.
+         */
+        @InjectProperty(name = "TEST_TEXTS", label = "Texts", permission = PropertyPermissions.RO, timeout = 0, saveable = true)
+        INDITextProperty texts;
+
+        /**
+         * a package private element with the name of the property.
+         */
+        @InjectElement(label = "Text", textValue = "value")
+        INDITextElement text;
+
+        /**
+         * a private switch property.
+         */
+        @InjectProperty(name = "TEST_SWITCHES", label = "Switches", group = "Test")
+        private INDISwitchProperty switches;
+
+        /**
+         * a private switch element.
+         */
+        @InjectElement(name = "ON", label = "On", switchValue = SwitchStatus.ON)
+        private INDISwitchElement switchOn;
+
+        /**
+         * a private element of an earlier property.
+         */
+        @InjectElement(property = "TEST_NUMBERS", name = "OTHER", label = "Other")
+        private INDINumberElement otherNumber;
+
+        /**
+         * constructor.
+         *
+         * @param connection the indi connection to the server.
+         */
+        public InjectedDriver(INDIConnection connection) {
+            super(connection);
+        }
+
+        @Override
+        protected Capability defineCapabilities() {
+            return new Capability().canAbort(true).canBin(true).canSubFrame(true).hasCooler(true).hasGuideHead(true).hasShutter(true);
+        }
+
+        @Override
+        protected Boolean setTemperature(double theTargetTemperature) {
+            return Boolean.TRUE;
+        }
+
+        @Override
+        public boolean abortExposure() {
+            return true;
+        }
+
+        @Override
+        public boolean startExposure(double duration) {
+            return true;
+        }
+
+        @Override
+        public boolean startStreaming(double exposure) {
+            return false;
+        }
+
+        @Override
+        public boolean stopStreaming() {
+            return false;
+        }
+
+        @Override
+        public boolean updateCCDBin(int binX, int binY) {
+            return true;
+        }
+
+        @Override
+        public boolean updateCCDFrame(int x, int y, int width, int height) {
+            return true;
+        }
+
+        @Override
+        public boolean updateCCDFrameType(CcdFrame frameType) {
+            return true;
+        }
+
+        @Override
+        public Map<String, Object> getExtraFITSKeywords(BasicHDU<?> fitsHeader) {
+            return null;
+        }
+
+        @Override
+        public String getName() {
+            return "injected ccd";
+        }
+    }
+
+    /**
+     * Loads the ccd driver classes again without their generated injectors,
+     * so the injection of these copies falls back on reflection. All other
+     * classes come from the parent.
+     */
+    private static final class ReflectiveLoader extends ClassLoader {
+
+        /**
+         * the classes loaded again.
+         */
+        private final Map<String, Class<?>> loaded = new HashMap<>();
+
+        /**
+         * the names of the generated injectors that were asked for and hidden.
+         */
+        private final Set<String> hidden = new HashSet<>();
+
+        /**
+         * constructor.
+         *
+         * @param parent the loader of the test.
+         */
+        private ReflectiveLoader(ClassLoader parent) {
+            super(parent);
+        }
+
+        @Override
+        protected synchronized Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            if (!name.startsWith(CCD_PACKAGE)) {
+                return super.loadClass(name, resolve);
+            }
+            if (name.endsWith(INDIGeneratedInjector.SUFFIX)) {
+                hidden.add(name);
+                throw new ClassNotFoundException(name);
+            }
+            Class<?> clazz = loaded.get(name);
+            if (clazz == null) {
+                byte[] bytes = read(name);
+                clazz = defineClass(name, bytes, 0, bytes.length);
+                loaded.put(name, clazz);
+            }
+            if (resolve) {
+                resolveClass(clazz);
+            }
+            return clazz;
+        }
+
+        /**
+         * @param name the name of the class.
+         * @return the class file of the class.
+         * @throws ClassNotFoundException if the class file is missing.
+         */
+        private byte[] read(String name) throws ClassNotFoundException {
+            try (InputStream in = getParent().getResourceAsStream(name.replace('.', '/') + ".class")) {
+                if (in == null) {
+                    throw new ClassNotFoundException(name);
+                }
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                byte[] buffer = new byte[8192];
+                int count;
+                while ((count = in.read(buffer)) >= 0) {
+                    out.write(buffer, 0, count);
+                }
+                return out.toByteArray();
+            } catch (IOException e) {
+                throw new ClassNotFoundException(name, e);
+            }
+        }
+    }
+}
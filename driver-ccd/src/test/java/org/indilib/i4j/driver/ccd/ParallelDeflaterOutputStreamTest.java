@@ -0,0 +1,244 @@
+package org.indilib.i4j.driver.ccd;
+
+/*
+ * #%L
+ * INDI for Java Abstract CCD Driver
+ * %%
+ * Copyright (C) 2013 - 2014 indiforjava
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import static org.indilib.i4j.driver.ccd.ParallelDeflaterOutputStream.BLOCK_SIZE;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Round trips of the parallel deflater through the standard inflater, at the
+ * lengths where the block handling changes.
+ *
+ * @author Richard van Nieuwenhoven
+ */
+public class ParallelDeflaterOutputStreamTest {
+
+    /**
+     * the number of bytes of a pattern that repeats across the blocks (it
+     * is only compressed well if the dictionary of the blocks works).
+     */
+    private static final int PATTERN_LENGTH = 10000;
+
+    /**
+     * create data that repeats a random pattern, with some noise.
+     *
+     * @param length the number of bytes.
+     * @return the data.
+     */
+    private static byte[] data(int length) {
+        Random random = new Random(length);
+        byte[] pattern = new byte[PATTERN_LENGTH];
+        random.nextBytes(pattern);
+        byte[] data = new byte[length];
+        for (int index = 0; index < length; index++) {
+            data[index] = random.nextInt(16) == 0 ? (byte) random.nextInt() : pattern[index % PATTERN_LENGTH];
+        }
+        return data;
+    }
+
+    /**
+     * deflate the data in one write.
+     *
+     * @param data  the data.
+     * @param level the compression level.
+     * @return the zlib stream.
+     * @throws IOException if the deflating failed.
+     */
+    private static byte[] deflate(byte[] data, int level) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ParallelDeflaterOutputStream os = new ParallelDeflaterOutputStream(out, level)) {
+            os.write(data);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * inflate a zlib stream with the standard inflater.
+     *
+     * @param deflated the zlib stream.
+     * @param length   the expected number of bytes.
+     * @return the inflated bytes.
+     * @throws DataFormatException if the stream is not valid.
+     */
+    private static byte[] inflate(byte[] deflated, int length) throws DataFormatException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(deflated);
+            byte[] result = new byte[length + 1];
+            int resultLength = 0;
+            while (!inflater.finished()) {
+                int count = inflater.inflate(result, resultLength, result.length - resultLength);
+                assertTrue("inflater stalled", count > 0 || inflater.finished());
+                resultLength += count;
+            }
+            assertEquals("trailing bytes after the zlib stream", 0, inflater.getRemaining());
+            return Arrays.copyOf(result, resultLength);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * deflate and inflate data of the length and compare.
+     *
+     * @param length the number of bytes.
+     * @throws Exception if the round trip failed.
+     */
+    private static void roundTrip(int length) throws Exception {
+        byte[] data = data(length);
+        assertArrayEquals("length " + length, data, inflate(deflate(data, Deflater.DEFAULT_COMPRESSION), length));
+    }
+
+    /**
+     * an empty stream is still a valid zlib stream.
+     *
+     * @throws Exception if the round trip failed.
+     */
+    @Test
+    public void empty() throws Exception {
+        roundTrip(0);
+    }
+
+    /**
+     * a single byte.
+     *
+     * @throws Exception if the round trip failed.
+     */
+    @Test
+    public void oneByte() throws Exception {
+        roundTrip(1);
+    }
+
+    /**
+     * the lengths around one, two and three blocks.
+     *
+     * @throws Exception if the round trip failed.
+     */
+    @Test
+    public void blockBoundaries() throws Exception {
+        for (int blocks = 1; blocks <= 3; blocks++) {
+            roundTrip(blocks * BLOCK_SIZE - 1);
+            roundTrip(blocks * BLOCK_SIZE);
+            roundTrip(blocks * BLOCK_SIZE + 1);
+        }
+    }
+
+    /**
+     * more blocks than can be in flight at once.
+     *
+     * @throws Exception if the round trip failed.
+     */
+    @Test
+    public void manyBlocks() throws Exception {
+        roundTrip(Runtime.getRuntime().availableProcessors() * 4 * BLOCK_SIZE + 12345);
+    }
+
+    /**
+     * every compression level gives a valid stream.
+     *
+     * @throws Exception if the round trip failed.
+     */
+    @Test
+    public void allLevels() throws Exception {
+        byte[] data = data(2 * BLOCK_SIZE + 7);
+        for (int level = Deflater.NO_COMPRESSION; level <= Deflater.BEST_COMPRESSION; level++) {
+            assertArrayEquals("level " + level, data, inflate(deflate(data, level), data.length));
+        }
+    }
+
+    /**
+     * single byte writes and flushes in between give the same stream.
+     *
+     * @throws Exception if the round trip failed.
+     */
+    @Test
+    public void byteWritesAndFlushes() throws Exception {
+        byte[] data = data(BLOCK_SIZE + 100);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ParallelDeflaterOutputStream os = new ParallelDeflaterOutputStream(out)) {
+            for (int index = 0; index < data.length; index++) {
+                os.write(data[index]);
+                if (index % 50000 == 0) {
+                    os.flush();
+                }
+            }
+        }
+        assertArrayEquals(deflate(data, Deflater.DEFAULT_COMPRESSION), out.toByteArray());
+        assertArrayEquals(data, inflate(out.toByteArray(), data.length));
+    }
+
+    /**
+     * the blocks use the previous block as dictionary, so repeated data
+     * compresses as well as with a single deflater.
+     *
+     * @throws Exception if the deflating failed.
+     */
+    @Test
+    public void compressesAcrossBlocks() throws Exception {
+        byte[] data = data(4 * BLOCK_SIZE);
+        ByteArrayOutputStream single = new ByteArrayOutputStream();
+        Deflater deflater = new Deflater();
+        try (DeflaterOutputStream os = new DeflaterOutputStream(single, deflater)) {
+            os.write(data);
+        } finally {
+            deflater.end();
+        }
+        int parallelLength = deflate(data, Deflater.DEFAULT_COMPRESSION).length;
+        assertTrue("parallel " + parallelLength + " single " + single.size(), parallelLength < single.size() * 11 / 10);
+    }
+
+    /**
+     * the inflater input stream reads the stream as well.
+     *
+     * @throws Exception if the round trip failed.
+     */
+    @Test
+    public void inflaterInputStream() throws Exception {
+        byte[] data = data(3 * BLOCK_SIZE + 5);
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        try (InputStream in = new InflaterInputStream(new ByteArrayInputStream(deflate(data, Deflater.DEFAULT_COMPRESSION)))) {
+            byte[] buffer = new byte[8192];
+            int count;
+            while ((count = in.read(buffer)) >= 0) {
+                result.write(buffer, 0, count);
+            }
+        }
+        assertArrayEquals(data, result.toByteArray());
+    }
+}
@@ -66,6 +66,11 @@ public class I4JRaspberryPiGPIODriver extends INDIDriver implements INDIConnecti
      */
     private static final int MAX_CPU_TEMPERATURE = 200;
 
+    /**
+     * The number of seconds between two sensor readings.
+     */
+    private static final long SENSOR_READ_INTERVAL_IN_SECONDS = 10L;
+
     /**
      * max voltage.
      */
@@ -281,9 +286,9 @@ public class I4JRaspberryPiGPIODriver extends INDIDriver implements INDIConnecti
     private INDITextElement uptimeIdleTextE;
 
     /**
-     * A thread that reads Raspberry Pi sensors.
+     * The scheduled task that reads Raspberry Pi sensors.
      */
-    private RaspberryPiSensorReaderThread readerThread;
+    private INDIScheduledTask sensorReader;
 
     /**
      * Constructs an instance of a <code>I4JRaspberryPiGPIODriver</code> with a
@@ -673,8 +678,8 @@ public class I4JRaspberryPiGPIODriver extends INDIDriver implements INDIConnecti
         addProperty(uptimeP);
         addProperty(uptimeTextP);
 
-        readerThread = new RaspberryPiSensorReaderThread(this);
-        readerThread.start();
+        setSensors();
+        sensorReader = scheduleAtFixedRate("sensor reader", this::setSensors, SENSOR_READ_INTERVAL_IN_SECONDS, TimeUnit.SECONDS);
     }
 
     @Override
@@ -701,8 +706,8 @@ public class I4JRaspberryPiGPIODriver extends INDIDriver implements INDIConnecti
 
         gpio.shutdown();
 
-        readerThread.stopReading();
-        readerThread = null;
+        sensorReader.cancel();
+        sensorReader = null;
     }
 
     @Override
@@ -718,10 +723,8 @@ public class I4JRaspberryPiGPIODriver extends INDIDriver implements INDIConnecti
     }
 
     /**
-     * Updates the sensor properties. Called periodically by
-     * <code>RaspberryPiSensorReaderThread</code>.
-     *
-     * @see RaspberryPiSensorReaderThread
+     * Updates the sensor properties. Called periodically by the
+     * <code>sensorReader</code> task.
      */
     protected void setSensors() {
         try {
@@ -58,6 +58,7 @@ import java.text.NumberFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.concurrent.TimeUnit;
 
 import static org.indilib.i4j.Constants.PropertyStates.*;
 import static org.indilib.i4j.properties.INDIStandardElement.*;
@@ -278,7 +279,7 @@ public abstract class INDITelescope extends INDIDriver implements INDIConnection
      * The currently active scope status updater, that periodically checks the
      * state of the scope.
      */
-    private ScopeStaturUpdater scopeStatusUpdater;
+    private INDIScheduledTask scopeStatusUpdater;
 
     /**
      * The Telescope driver constructor, all subclasses must call this. All
@@ -568,13 +569,17 @@ public abstract class INDITelescope extends INDIDriver implements INDIConnection
 
     /**
      * Must be implemented by the subclass driver, read the status of the
-     * telescope and update the apropriate properties.
+     * telescope and update the apropriate properties. It runs on the shared
+     * driver scheduler, so reads from the scope must use a timeout shorter
+     * than {@link #updateInterfall()}: a read that takes longer delays the
+     * next one and the updates it missed are skipped, not queued.
      */
     protected abstract void readScopeStatus();
 
     /**
      * @return the interfall in which the scope status schould be updated. The
-     * default is {@link #ONE_SECOND_IN_MILLISECONDS}.
+     * default is {@link #ONE_SECOND_IN_MILLISECONDS}. It is asked when the
+     * driver connects.
      */
     protected long updateInterfall() {
         return ONE_SECOND_IN_MILLISECONDS;
@@ -602,8 +607,16 @@ public abstract class INDITelescope extends INDIDriver implements INDIConnection
 
     @Override
     public void driverConnect(Date timestamp) throws INDIException {
-        scopeStatusUpdater = new ScopeStaturUpdater();
-        new Thread(scopeStatusUpdater, getName() + " Scope status").start();
+        scopeStatusUpdater = scheduleAtFixedRate("scope status", new Runnable() {
+
+            @Override
+            public void run() {
+                // one tick changes several properties, send them together.
+                try (INDIUpdateBatch batch = startUpdateBatch()) {
+                    readScopeStatus();
+                }
+            }
+        }, updateInterfall(), TimeUnit.MILLISECONDS);
         addProperty(eqn);
         addProperty(time);
         addProperty(location);
@@ -620,7 +633,10 @@ public abstract class INDITelescope extends INDIDriver implements INDIConnection
 
     @Override
     public void driverDisconnect(Date timestamp) throws INDIException {
-        scopeStatusUpdater.stop();
+        if (scopeStatusUpdater != null) {
+            scopeStatusUpdater.cancel();
+            scopeStatusUpdater = null;
+        }
         removeProperty(eqn);
         removeProperty(time);
         removeProperty(location);
@@ -691,35 +707,4 @@ public abstract class INDITelescope extends INDIDriver implements INDIConnection
          */
         SCOPE_TRACKING
     }
-
-    /**
-     * The scope status updater thats will run perioticaly to check the status
-     * of the scope and send the current coordinates to the client.
-     */
-    private final class ScopeStaturUpdater implements Runnable {
-
-        /**
-         * Is the status updater still running or is it stopped.
-         */
-        private boolean running = true;
-
-        @Override
-        public void run() {
-            while (running) {
-                readScopeStatus();
-                try {
-                    Thread.sleep(updateInterfall());
-                } catch (InterruptedException e) {
-                    LOG.error("thread interupted", e);
-                }
-            }
-        }
-
-        /**
-         * stop the status updater.
-         */
-        public void stop() {
-            running = false;
-        }
-    }
 }
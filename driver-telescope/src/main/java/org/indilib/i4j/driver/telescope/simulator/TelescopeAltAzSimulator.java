@@ -26,6 +26,7 @@ import net.sourceforge.novaforjava.JulianDay;
 import net.sourceforge.novaforjava.api.LnDate;
 import net.sourceforge.novaforjava.api.LnHrzPosn;
 import org.indilib.i4j.INDIException;
+import org.indilib.i4j.driver.INDIScheduledTask;
 import org.indilib.i4j.driver.annotation.InjectExtension;
 import org.indilib.i4j.driver.telescope.INDIDirection;
 import org.indilib.i4j.driver.telescope.INDITelescope;
@@ -39,6 +40,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.Date;
+import java.util.concurrent.TimeUnit;
 
 /**
  * An telescope simulator that has "real" encoders and can sync. So a template
@@ -71,6 +73,10 @@ public class TelescopeAltAzSimulator extends INDITelescope implements INDITelesc
      * the simulated mount.
      */
     private SimulatedMount mount = new SimulatedMount();
+    /**
+     * the scheduled task updating the simulated mount axes.
+     */
+    private INDIScheduledTask mountTask;
     /**
      * The math plugin for the calculation from eqn to horizontal.
      */
@@ -99,14 +105,14 @@ public class TelescopeAltAzSimulator extends INDITelescope implements INDITelesc
         super.driverConnect(timestamp);
         mathPluginManagement.connect();
         mount = new SimulatedMount();
-        new Thread(mount, "Simulated Telescope Mount").start();
+        mountTask = scheduleAtFixedRate("simulated mount", mount, updateInterfall() / SimulatedMount.UPDATE_TIMES_PER_INTERFALL, TimeUnit.MILLISECONDS);
     }
 
     @Override
     public void driverDisconnect(Date timestamp) throws INDIException {
         super.driverDisconnect(timestamp);
         mathPluginManagement.disconnect();
-        mount.stop = true;
+        mountTask.cancel();
     }
 
     @Override
@@ -259,8 +265,8 @@ public class TelescopeAltAzSimulator extends INDITelescope implements INDITelesc
     }
 
     /**
-     * Simulate a mount with two axis. It will run a thread as long as it is
-     * connected.
+     * Simulate a mount with two axis. It is scheduled as long as it is
+     * connected, every run updates both axes.
      */
     class SimulatedMount extends Mount<SimulatedAxisWithEncoder> implements Runnable {
 
@@ -270,22 +276,10 @@ public class TelescopeAltAzSimulator extends INDITelescope implements INDITelesc
          */
         private static final long UPDATE_TIMES_PER_INTERFALL = 4L;
 
-        /**
-         * stop the thread.
-         */
-        private boolean stop = false;
-
         @Override
         public void run() {
-            while (!stop) {
-                try {
-                    Thread.sleep(updateInterfall() / UPDATE_TIMES_PER_INTERFALL);
-                    horizontalAxis.update();
-                    verticalAxis.update();
-                } catch (InterruptedException e) {
-                    LOG.error("interrupted exception");
-                }
-            }
+            horizontalAxis.update();
+            verticalAxis.update();
         }
 
         @Override
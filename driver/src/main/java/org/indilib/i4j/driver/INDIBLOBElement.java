@@ -22,6 +22,7 @@ package org.indilib.i4j.driver;
  * #L%
  */
 
+import org.indilib.i4j.INDIBLOBSource;
 import org.indilib.i4j.INDIBLOBValue;
 import org.indilib.i4j.driver.util.INDIElementBuilder;
 import org.indilib.i4j.protocol.DefBlob;
@@ -29,6 +30,12 @@ import org.indilib.i4j.protocol.DefElement;
 import org.indilib.i4j.protocol.OneBlob;
 import org.indilib.i4j.protocol.OneElement;
 
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
 /**
  * A class representing a INDI BLOB Element.
  *
@@ -46,6 +53,12 @@ public class INDIBLOBElement extends INDIElement<INDIBLOBElement> {
      */
     private INDIBLOBValue value;
 
+    /**
+     * the spool file source of the current value if it was copied from a
+     * stream, it is released when the value is replaced.
+     */
+    private transient INDIBLOBSource spooled;
+
     /**
      * Constructs an instance of a <code>INDIBLOBElement</code> with the
      * settings from the <code>builder</code>.
@@ -76,17 +89,94 @@ public class INDIBLOBElement extends INDIElement<INDIBLOBElement> {
             throw new IllegalArgumentException("Value for a BLOB Element must be a INDIBLOBValue");
         }
 
-        value = b;
+        replaceValue(b, null);
+    }
+
+    /**
+     * replace the value, the spool file of the previous value is released
+     * (messages that still have to send it retain it).
+     *
+     * @param newValue   the new value.
+     * @param newSpooled the spooled source of the new value or null.
+     */
+    private void replaceValue(INDIBLOBValue newValue, INDIBLOBSource newSpooled) {
+        INDIBLOBSource previous = spooled;
+        value = newValue;
+        spooled = newSpooled;
+        if (previous != null) {
+            previous.release();
+        }
+    }
+
+    /**
+     * Sets the content of a file as value, the file is streamed to the
+     * clients when the property is sent and is never loaded into the heap. It
+     * must not change until the property was sent.
+     *
+     * @param file   the file with the BLOB data.
+     * @param format the format of the data.
+     * @throws FileNotFoundException if the file is not readable.
+     */
+    public void setValue(File file, String format) throws FileNotFoundException {
+        replaceValue(new INDIBLOBValue(INDIBLOBSource.fromFile(file), format), null);
+    }
+
+    /**
+     * Sets the content of a byte buffer (between its position and limit) as
+     * value, it is streamed to the clients when the property is sent. It must
+     * not change until the property was sent.
+     *
+     * @param buffer the buffer with the BLOB data.
+     * @param format the format of the data.
+     */
+    public void setValue(ByteBuffer buffer, String format) {
+        replaceValue(new INDIBLOBValue(INDIBLOBSource.fromByteBuffer(buffer), format), null);
+    }
+
+    /**
+     * Sets the next <code>length</code> bytes of a stream as value. The
+     * stream is copied to a temporary file with a constant size buffer (a
+     * BLOB may be sent to several clients but the stream can only be read
+     * once) and streamed to the clients when the property is sent. The file
+     * is deleted when the value is replaced and the clients have it.
+     *
+     * @param in     the stream with the BLOB data, it is not closed.
+     * @param length the number of bytes of the BLOB.
+     * @param format the format of the data.
+     * @throws IOException if the stream could not be read.
+     */
+    public void setValue(InputStream in, long length, String format) throws IOException {
+        INDIBLOBSource source = INDIBLOBSource.fromInputStream(in, length);
+        replaceValue(new INDIBLOBValue(source, format), source);
     }
 
     @Override
     public OneElement<?> getXMLOneElement(boolean includeMinMaxStep) {
-        return new OneBlob().setName(getName()).setByteContent(value.getBlobData()).setFormat(value.getFormat());
+        OneBlob result = new OneBlob().setName(getName()).setFormat(value.getFormat());
+        if (value.getSource() != null) {
+            return result.setSource(value.getSource());
+        }
+        return result.setByteContent(value.getBlobData());
+    }
+
+    /**
+     * BLOBs are sent with every update of their property, and the sent BLOB
+     * is not remembered (it could be huge).
+     *
+     * @return always <code>true</code>.
+     */
+    @Override
+    protected boolean isChangedSinceLastSent() {
+        return true;
+    }
+
+    @Override
+    protected void markSent() {
     }
 
     @Override
     public String getNameAndValueAsString() {
-        return getName() + " - BLOB format: " + this.getValue().getFormat() + " - BLOB Size: " + this.getValue().getSize();
+        return getName() + " - BLOB format: " + this.getValue().getFormat() + " - BLOB Size: " + this.getValue().getLength();
     }
 
     @Override
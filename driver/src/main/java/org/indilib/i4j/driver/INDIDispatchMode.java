@@ -0,0 +1,81 @@
+package org.indilib.i4j.driver;
+
+/*
+ * #%L
+ * INDI for Java Driver Library
+ * %%
+ * Copyright (C) 2013 - 2014 indiforjava
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Locale;
+
+/**
+ * How a driver dispatches the new values sent by the clients to its handlers.
+ *
+ * @author Richard van Nieuwenhoven
+ */
+public enum INDIDispatchMode {
+    /**
+     * the handlers run on the thread that reads from the connection, one
+     * after the other (a blocking handler stops all incoming traffic of the
+     * driver).
+     */
+    READER,
+    /**
+     * the handlers of the different properties run concurrently, the new
+     * values of one property are handled in the order they arrived.
+     */
+    PROPERTY,
+    /**
+     * the handlers of the different property groups run concurrently, the new
+     * values of the properties in one group are handled in the order they
+     * arrived.
+     */
+    GROUP;
+
+    /**
+     * system property to change the default dispatch mode of the drivers.
+     */
+    public static final String SYSTEM_PROPERTY = "i4j.driver.dispatch";
+
+    /**
+     * Logger to log to.
+     */
+    private static final Logger LOG = LoggerFactory.getLogger(INDIDispatchMode.class);
+
+    /**
+     * @return the default dispatch mode, as configured in the system property
+     * (defaults to {@link #READER}, an illegal setting is logged and the
+     * default is used).
+     */
+    public static INDIDispatchMode fromSystemProperty() {
+        String value = System.getProperty(SYSTEM_PROPERTY);
+        if (value == null || value.trim().isEmpty()) {
+            return READER;
+        }
+        try {
+            return valueOf(value.trim().toUpperCase(Locale.ENGLISH));
+        } catch (IllegalArgumentException e) {
+            LOG.warn("ignoring the illegal dispatch mode " + SYSTEM_PROPERTY + "=" + value + ", using " + READER);
+            return READER;
+        }
+    }
+}
@@ -40,6 +40,9 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
 
 import static org.indilib.i4j.INDIDateFormat.dateFormat;
 
@@ -71,13 +74,23 @@ public abstract class INDIDriver implements INDIProtocolParser {
      */
     private final INDIConnection connection;
     /**
-     * A list of Properties for this Driver.
+     * The Properties of this Driver by name, a property belongs to the driver
+     * if it is the one registered under its name.
      */
     private final Map<String, INDIProperty<?>> properties;
     /**
-     * A list of subdrivers.
+     * The Properties of this Driver in the order they were added, replaced
+     * (copy on write) when a property is added or removed.
      */
-    private final List<INDIDriver> subDrivers;
+    private volatile INDIProperty<?>[] orderedProperties = new INDIProperty<?>[0];
+    /**
+     * Lock for adding and removing properties.
+     */
+    private final Object propertiesLock = new Object();
+    /**
+     * The subdrivers by name.
+     */
+    private final Map<String, INDIDriver> subDrivers;
     /**
      * the connection extension that controls the connect and disconnect
      * property.
@@ -93,6 +106,20 @@ public abstract class INDIDriver implements INDIProtocolParser {
      * To know if the driver has already been started or not.
      */
     private boolean started;
+    /**
+     * The dispatcher of the new values from the clients, created on first
+     * use.
+     */
+    private INDIEventDispatcher eventDispatcher;
+    /**
+     * The periodic and delayed tasks of the driver, cancelled when the driver
+     * finishes.
+     */
+    private final List<INDIScheduledTask> scheduledTasks = new CopyOnWriteArrayList<>();
+    /**
+     * The update batch currently open per thread, null if there is none.
+     */
+    private final ThreadLocal<INDIUpdateBatch> currentBatch = new ThreadLocal<>();
 
     /**
      * Constructs a INDIDriver with a particular <code>inputStream</code> from
@@ -103,9 +130,9 @@ public abstract class INDIDriver implements INDIProtocolParser {
      */
     protected INDIDriver(INDIConnection connection) {
         this.connection = connection;
-        subDrivers = new ArrayList<>();
+        subDrivers = new ConcurrentHashMap<>();
         started = false;
-        properties = new LinkedHashMap<>();
+        properties = new ConcurrentHashMap<>();
         INDIPropertyInjector.initialize(this, this);
     }
 
@@ -123,10 +150,20 @@ public abstract class INDIDriver implements INDIProtocolParser {
     @Override
     public void finishReader() {
         LOG.info("DRIVER " + getName() + " finishing");
+        INDIPropertyStore.getInstance().flush(this);
 
         if (reader != null) {
             reader.setStop(true);
         }
+        synchronized (this) {
+            if (eventDispatcher != null) {
+                eventDispatcher.shutdown();
+            }
+        }
+        for (INDIScheduledTask task : scheduledTasks) {
+            task.cancel();
+        }
+        scheduledTasks.clear();
     }
 
     @Override
@@ -167,7 +204,7 @@ public abstract class INDIDriver implements INDIProtocolParser {
      * @return A List of all the Properties in the Driver.
      */
     public List<INDIProperty<?>> getPropertiesAsList() {
-        return new ArrayList<>(properties.values());
+        return new ArrayList<>(Arrays.asList(orderedProperties));
     }
 
     /**
@@ -302,13 +339,34 @@ public abstract class INDIDriver implements INDIProtocolParser {
     }
 
     @Override
-    public void processProtocolMessage(INDIProtocol<?> xml) {
+    public void processProtocolMessage(final INDIProtocol<?> xml) {
         INDIDriver subDriver = getSubdriver(xml);
         if (subDriver != null) {
             subDriver.processProtocolMessage(xml);
         } else if (xml instanceof GetProperties) {
             processGetProperties((GetProperties) xml);
-        } else if (xml instanceof NewTextVector) {
+        } else if (xml instanceof NewVector<?>) {
+            INDIProperty<?> property = processNewXXXVector((NewVector<?>) xml);
+            if (property != null) {
+                getEventDispatcher().dispatch(property, new Runnable() {
+
+                    @Override
+                    public void run() {
+                        processNewVector((NewVector<?>) xml);
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * Handles a &lt;newXXXVector&gt; XML message, called by the event
+     * dispatcher on the thread configured by the dispatch mode.
+     *
+     * @param xml The &lt;newXXXVector&gt; XML message.
+     */
+    private void processNewVector(NewVector<?> xml) {
+        if (xml instanceof NewTextVector) {
             processNewTextVector((NewTextVector) xml);
         } else if (xml instanceof NewSwitchVector) {
             processNewSwitchVector((NewSwitchVector) xml);
@@ -319,6 +377,30 @@ public abstract class INDIDriver implements INDIProtocolParser {
         }
     }
 
+    /**
+     * The dispatch mode of the driver: on which threads the new values from
+     * the clients are handled. Defaults to the mode configured with the system
+     * property <code>i4j.driver.dispatch</code>, or else
+     * {@link INDIDispatchMode#READER}. Drivers with blocking handlers (serial
+     * commands) may override it to stay responsive, their handlers must then
+     * be thread safe between properties.
+     *
+     * @return the dispatch mode of the driver.
+     */
+    protected INDIDispatchMode getDispatchMode() {
+        return INDIDispatchMode.fromSystemProperty();
+    }
+
+    /**
+     * @return the event dispatcher of the driver, created on first use.
+     */
+    private synchronized INDIEventDispatcher getEventDispatcher() {
+        if (eventDispatcher == null) {
+            eventDispatcher = new INDIEventDispatcher(getName(), getDispatchMode());
+        }
+        return eventDispatcher;
+    }
+
     /**
      * Removes a Property from the Device. A XML message about it will be send
      * to the clients. Drivers must call this method if they want to remove a
@@ -334,8 +416,7 @@ public abstract class INDIDriver implements INDIProtocolParser {
      * Sends all the properties to the clients.
      */
     public void sendAllProperties() {
-        List<INDIProperty<?>> props = getPropertiesAsList();
-        for (INDIProperty<?> prop : props) {
+        for (INDIProperty<?> prop : orderedProperties) {
             sendDefXXXVectorMessage(prop, null);
         }
         propertiesRequested();
@@ -380,7 +461,7 @@ public abstract class INDIDriver implements INDIProtocolParser {
      * @return true if the update was successful.
      */
     public boolean updateProperty(INDIProperty<?> property, boolean includeMinMax, String message) {
-        if (properties.containsValue(property)) {
+        if (hasProperty(property)) {
             if (property instanceof INDISwitchProperty) {
                 INDISwitchProperty sp = (INDISwitchProperty) property;
 
@@ -389,10 +470,26 @@ public abstract class INDIDriver implements INDIProtocolParser {
                     return false;
                 }
             }
+            // the lock of the property orders the update with the held back
+            // updates the publication filter sends from the scheduler.
+            synchronized (property) {
+                INDIPublicationFilter filter = property.getPublicationFilter();
+                if (filter != null) {
+                    if (message != null || includeMinMax) {
+                        filter.published(property);
+                    } else if (!filter.publishNow(this, property)) {
+                        // suppressed, the latest values follow with a later update.
+                        return true;
+                    }
+                }
 
-            SetVector<?> msg = property.getXMLPropertySet(includeMinMax, message);
-
-            sendXML(msg);
+                INDIUpdateBatch batch = currentBatch.get();
+                if (batch != null) {
+                    batch.update(property, includeMinMax, message);
+                } else {
+                    sendXML(property.getXMLPropertySet(includeMinMax, message));
+                }
+            }
             return true;
         } else {
             if (connectionExtension.isActive() && !connectionExtension.isConnected()) {
@@ -405,6 +502,105 @@ public abstract class INDIDriver implements INDIProtocolParser {
         }
     }
 
+    /**
+     * Send the latest values of a property whose update the publication
+     * filter held back (rate limited or inside the deadband), called from the
+     * scheduler. It is sent under the lock of the property like every update,
+     * and only if no update was sent in the meantime.
+     *
+     * @param property the property to send.
+     */
+    void publishHeldBack(INDIProperty<?> property) {
+        synchronized (property) {
+            INDIPublicationFilter filter = property.getPublicationFilter();
+            if (filter == null || !filter.isHeldBack() || !hasProperty(property)) {
+                return;
+            }
+            filter.published(property);
+            sendXML(property.getXMLPropertySet(false, null));
+        }
+    }
+
+    /**
+     * Run a task of the driver periodically at a fixed rate on the shared
+     * {@link INDIScheduler}, instead of a thread of its own. The task is
+     * cancelled when the driver finishes.
+     *
+     * @param taskName the name of the task (for the statistics).
+     * @param task     the task to run.
+     * @param period   the period between the starts of two runs.
+     * @param unit     the time unit of the period.
+     * @return the scheduled task, to cancel it.
+     */
+    public INDIScheduledTask scheduleAtFixedRate(String taskName, Runnable task, long period, TimeUnit unit) {
+        return addScheduledTask(INDIScheduler.getInstance().scheduleAtFixedRate(getName() + " " + taskName, task, period, period, unit));
+    }
+
+    /**
+     * Run a task of the driver once after a delay on the shared
+     * {@link INDIScheduler}. The task is cancelled when the driver finishes.
+     *
+     * @param taskName the name of the task (for the statistics).
+     * @param task     the task to run.
+     * @param delay    the delay before the run.
+     * @param unit     the time unit of the delay.
+     * @return the scheduled task, to cancel it.
+     */
+    public INDIScheduledTask schedule(String taskName, Runnable task, long delay, TimeUnit unit) {
+        return addScheduledTask(INDIScheduler.getInstance().schedule(getName() + " " + taskName, task, delay, unit));
+    }
+
+    /**
+     * remember the task, to cancel it when the driver finishes.
+     *
+     * @param task the scheduled task.
+     * @return the task.
+     */
+    private INDIScheduledTask addScheduledTask(INDIScheduledTask task) {
+        for (INDIScheduledTask scheduledTask : scheduledTasks) {
+            if (scheduledTask.isDone()) {
+                scheduledTasks.remove(scheduledTask);
+            }
+        }
+        scheduledTasks.add(task);
+        return task;
+    }
+
+    /**
+     * Start collecting the messages of the current thread in a batch, they
+     * are sent in one go when the batch is closed. Repeated updates of the
+     * same property are merged into one. If a batch is already open for the
+     * thread, the new scope becomes part of it.
+     *
+     * @return the batch to close (use it in a try-with-resources block).
+     */
+    public INDIUpdateBatch startUpdateBatch() {
+        INDIUpdateBatch batch = currentBatch.get();
+        if (batch != null) {
+            return batch.nest();
+        }
+        batch = new INDIUpdateBatch(this);
+        currentBatch.set(batch);
+        return batch;
+    }
+
+    /**
+     * The outermost scope of the batch was closed, send its messages.
+     *
+     * @param batch the closed batch.
+     */
+    void endUpdateBatch(INDIUpdateBatch batch) {
+        currentBatch.remove();
+        List<INDIProtocol<?>> messages = batch.toProtocolMessages();
+        if (!messages.isEmpty()) {
+            try {
+                connection.getINDIOutputStream().writeObjects(messages);
+            } catch (IOException e) {
+                throw new IllegalStateException("could not write to output stream", e);
+            }
+        }
+    }
+
     /**
      * Notifies the clients about the property and its values with an additional
      * <code>message</code>. Drivres must call this method when the values of
@@ -430,11 +626,24 @@ public abstract class INDIDriver implements INDIProtocolParser {
      *                 message.
      */
     protected void addProperty(INDIProperty<?> property, String message) {
-        if (!properties.containsValue(property)) {
-            properties.put(property.getName(), property);
-
-            sendDefXXXVectorMessage(property, message);
+        synchronized (propertiesLock) {
+            INDIProperty<?> replaced = properties.put(property.getName(), property);
+            if (replaced == property) {
+                return;
+            }
+            INDIProperty<?>[] current = orderedProperties;
+            int index = indexOf(current, replaced);
+            INDIProperty<?>[] changed;
+            if (index >= 0) {
+                changed = current.clone();
+                changed[index] = property;
+            } else {
+                changed = Arrays.copyOf(current, current.length + 1);
+                changed[current.length] = property;
+            }
+            orderedProperties = changed;
         }
+        sendDefXXXVectorMessage(property, message);
     }
 
     /**
@@ -452,6 +661,9 @@ public abstract class INDIDriver implements INDIProtocolParser {
      * <code>null</code> if there is no property with that name.
      */
     protected INDIProperty<?> getProperty(String propertyName) {
+        if (propertyName == null) {
+            return null;
+        }
         return properties.get(propertyName);
     }
 
@@ -469,7 +681,7 @@ public abstract class INDIDriver implements INDIProtocolParser {
      * @param driver The subdriver to register.
      */
     protected void registerSubDriver(INDIDriver driver) {
-        subDrivers.add(driver);
+        subDrivers.putIfAbsent(driver.getName(), driver);
     }
 
     /**
@@ -495,11 +707,18 @@ public abstract class INDIDriver implements INDIProtocolParser {
      *                 client.
      */
     protected void removeProperty(INDIProperty<?> property, String message) {
-        if (properties.containsValue(property)) {
-            properties.remove(property.getName());
-
-            sendDelPropertyMessage(property, message);
+        synchronized (propertiesLock) {
+            if (!properties.remove(property.getName(), property)) {
+                return;
+            }
+            INDIProperty<?>[] current = orderedProperties;
+            int index = indexOf(current, property);
+            INDIProperty<?>[] changed = new INDIProperty<?>[current.length - 1];
+            System.arraycopy(current, 0, changed, 0, index);
+            System.arraycopy(current, index + 1, changed, index, changed.length - index);
+            orderedProperties = changed;
         }
+        sendDelPropertyMessage(property, message);
     }
 
     /**
@@ -508,7 +727,7 @@ public abstract class INDIDriver implements INDIProtocolParser {
      * @param driver The subdriver to unregister.
      */
     protected void unregisterSubDriver(INDIDriver driver) {
-        subDrivers.remove(driver);
+        subDrivers.remove(driver.getName(), driver);
     }
 
     /**
@@ -547,10 +766,37 @@ public abstract class INDIDriver implements INDIProtocolParser {
      * this name.
      */
     private INDIDriver getSubdriver(String name) {
-        for (INDIDriver d : subDrivers) {
-            if (d.getName().compareTo(name) == 0) return d;
+        if (subDrivers.isEmpty()) {
+            return null;
         }
-        return null;
+        return subDrivers.get(name);
+    }
+
+    /**
+     * Checks if the property (this instance, not just one with the same
+     * name) belongs to the driver.
+     *
+     * @param property the property to check.
+     * @return true if the property is registered in this driver.
+     */
+    private boolean hasProperty(INDIProperty<?> property) {
+        return property != null && properties.get(property.getName()) == property;
+    }
+
+    /**
+     * Finds the position of a property in an array by identity.
+     *
+     * @param array    the properties.
+     * @param property the property to search.
+     * @return the index of the property or -1 if it is not in the array.
+     */
+    private static int indexOf(INDIProperty<?>[] array, INDIProperty<?> property) {
+        for (int index = 0; index < array.length; index++) {
+            if (array[index] == property) {
+                return index;
+            }
+        }
+        return -1;
     }
 
     /**
@@ -796,6 +1042,11 @@ public abstract class INDIDriver implements INDIProtocolParser {
      * @param xml The message to be sended.
      */
     private void sendXML(INDIProtocol<?> xml) {
+        INDIUpdateBatch batch = currentBatch.get();
+        if (batch != null) {
+            batch.add(xml);
+            return;
+        }
         try {
             connection.getINDIOutputStream().writeObject(xml);
         } catch (IOException e) {
@@ -24,6 +24,8 @@ package org.indilib.i4j.driver;
 
 import org.indilib.i4j.driver.util.INDIPropertyInjector;
 
+import java.util.concurrent.TimeUnit;
+
 /**
  * When you want to encapsulate a few properties and or elements together with
  * the connected handling code. For example to reduce the complexity of a
@@ -120,6 +122,20 @@ public abstract class INDIDriverExtension<Driver extends INDIDriver> {
         return driver.updateProperty(property, includeMinMax, message);
     }
 
+    /**
+     * Run a task of the extension periodically at a fixed rate on the shared
+     * scheduler. The task is cancelled when the driver finishes.
+     *
+     * @param taskName the name of the task (for the statistics).
+     * @param task     the task to run.
+     * @param period   the period between the starts of two runs.
+     * @param unit     the time unit of the period.
+     * @return the scheduled task, to cancel it.
+     */
+    protected INDIScheduledTask scheduleAtFixedRate(String taskName, Runnable task, long period, TimeUnit unit) {
+        return driver.scheduleAtFixedRate(taskName, task, period, unit);
+    }
+
     /**
      * Adds a new Property to the Device. A message about it will be send to the
      * clients. Drivers must call this method if they want to define a new
@@ -27,6 +27,7 @@ import org.indilib.i4j.protocol.DefElement;
 import org.indilib.i4j.protocol.OneElement;
 
 import java.io.Serializable;
+import java.util.Objects;
 
 /**
  * A class representing a INDI Element. The subclasses
@@ -59,6 +60,16 @@ public abstract class INDIElement<T extends INDIElement<?>> implements Serializa
      */
     private final INDIProperty<T> property;
 
+    /**
+     * The value last sent to the clients in a set vector.
+     */
+    private transient Object lastSentValue;
+
+    /**
+     * <code>true</code> as soon as the value was sent in a set vector.
+     */
+    private transient boolean sent;
+
     /**
      * Constructs an instance of <code>INDIElement</code> with properties from
      * the builder. Called by its sub-classes.
@@ -151,4 +162,29 @@ public abstract class INDIElement<T extends INDIElement<?>> implements Serializa
      * @return a String with the name of the Element and Its Value
      */
     public abstract String getNameAndValueAsString();
+
+    /**
+     * @return <code>true</code> if the value changed since it was last sent to
+     * the clients in a set vector.
+     */
+    protected boolean isChangedSinceLastSent() {
+        return !sent || !Objects.equals(lastSentValue, getValue());
+    }
+
+    /**
+     * The current value was sent to the clients in a set vector.
+     */
+    protected void markSent() {
+        lastSentValue = getValue();
+        sent = true;
+    }
+
+    /**
+     * Forget the value last sent, so that the element is part of the next set
+     * vector.
+     */
+    protected void markChanged() {
+        sent = false;
+        lastSentValue = null;
+    }
 }
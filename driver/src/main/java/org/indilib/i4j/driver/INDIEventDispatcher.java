@@ -0,0 +1,253 @@
+package org.indilib.i4j.driver;
+
+/*
+ * #%L
+ * INDI for Java Driver Library
+ * %%
+ * Copyright (C) 2013 - 2014 indiforjava
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Dispatches the handling of new values from the clients away from the reader
+ * thread of a driver. Every property (or property group) has its own ordered
+ * queue, so independent properties are handled concurrently while the values
+ * of one property are handled in order. The queues are bounded, when a queue
+ * is full the reader waits.
+ *
+ * @author Richard van Nieuwenhoven
+ */
+final class INDIEventDispatcher {
+
+    /**
+     * system property to change the number of dispatch threads per driver.
+     */
+    public static final String THREADS_PROPERTY = "i4j.driver.dispatchThreads";
+
+    /**
+     * system property to change the maximum number of waiting values per
+     * property (or group).
+     */
+    public static final String QUEUE_SIZE_PROPERTY = "i4j.driver.dispatchQueueSize";
+
+    /**
+     * the log to write messages to.
+     */
+    private static final Logger LOG = LoggerFactory.getLogger(INDIEventDispatcher.class);
+
+    /**
+     * default number of dispatch threads per driver.
+     */
+    private static final int DEFAULT_THREADS = 4;
+
+    /**
+     * default maximum number of waiting values per property (or group).
+     */
+    private static final int DEFAULT_QUEUE_SIZE = 64;
+
+    /**
+     * how the values are dispatched.
+     */
+    private final INDIDispatchMode mode;
+
+    /**
+     * the maximum number of waiting values per property (or group).
+     */
+    private final int queueSize;
+
+    /**
+     * the threads running the handlers, null in reader mode.
+     */
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * the ordered queues by property name or group.
+     */
+    private final Map<String, OrderedQueue> queues = new ConcurrentHashMap<>();
+
+    /**
+     * constructor.
+     *
+     * @param driverName the name of the driver (for the thread names).
+     * @param mode       how the values are dispatched.
+     */
+    INDIEventDispatcher(final String driverName, INDIDispatchMode mode) {
+        this.mode = mode;
+        queueSize = Integer.getInteger(QUEUE_SIZE_PROPERTY, DEFAULT_QUEUE_SIZE);
+        if (mode == INDIDispatchMode.READER) {
+            executor = null;
+        } else {
+            int threads = Integer.getInteger(THREADS_PROPERTY, DEFAULT_THREADS);
+            executor = new ThreadPoolExecutor(threads, threads, 1L, TimeUnit.MINUTES, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+
+                private final AtomicInteger counter = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "driver dispatch " + driverName + " " + counter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            executor.allowCoreThreadTimeOut(true);
+        }
+    }
+
+    /**
+     * @return how the values are dispatched.
+     */
+    INDIDispatchMode getMode() {
+        return mode;
+    }
+
+    /**
+     * handle the new value of the property, directly in reader mode, else on
+     * the ordered queue of the property (or its group).
+     *
+     * @param property the property that got a new value.
+     * @param handler  the handling of the new value.
+     */
+    void dispatch(INDIProperty<?> property, Runnable handler) {
+        if (executor == null) {
+            handler.run();
+            return;
+        }
+        String key = mode == INDIDispatchMode.GROUP ? property.getGroup() : property.getName();
+        OrderedQueue queue = queues.get(key);
+        if (queue == null) {
+            OrderedQueue newQueue = new OrderedQueue(key);
+            queue = queues.putIfAbsent(key, newQueue);
+            if (queue == null) {
+                queue = newQueue;
+            }
+        }
+        queue.add(handler);
+    }
+
+    /**
+     * stop dispatching, waiting values are dropped.
+     */
+    void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * The ordered queue of one property or group, at most one thread at a time
+     * works on it.
+     */
+    private final class OrderedQueue implements Runnable {
+
+        /**
+         * the property name or group.
+         */
+        private final String key;
+
+        /**
+         * the waiting handlers.
+         */
+        private final Queue<Runnable> handlers = new ArrayDeque<>();
+
+        /**
+         * the free places in the queue.
+         */
+        private final Semaphore freePlaces = new Semaphore(queueSize);
+
+        /**
+         * true while a thread works on the queue.
+         */
+        private boolean running;
+
+        /**
+         * constructor.
+         *
+         * @param key the property name or group.
+         */
+        private OrderedQueue(String key) {
+            this.key = key;
+        }
+
+        /**
+         * add a handler to the queue, wait if the queue is full.
+         *
+         * @param handler the handler to add.
+         */
+        private void add(Runnable handler) {
+            if (!freePlaces.tryAcquire()) {
+                LOG.warn("dispatch queue of " + key + " is full, waiting for the handlers");
+                freePlaces.acquireUninterruptibly();
+            }
+            boolean start;
+            synchronized (this) {
+                handlers.add(handler);
+                start = !running;
+                running = true;
+            }
+            if (start) {
+                try {
+                    executor.execute(this);
+                } catch (RejectedExecutionException e) {
+                    LOG.warn("driver is shutting down, ignoring new value of " + key);
+                    int dropped;
+                    synchronized (this) {
+                        dropped = handlers.size();
+                        handlers.clear();
+                        running = false;
+                    }
+                    freePlaces.release(dropped);
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                Runnable handler;
+                synchronized (this) {
+                    handler = handlers.poll();
+                    if (handler == null) {
+                        running = false;
+                        return;
+                    }
+                }
+                try {
+                    handler.run();
+                } catch (RuntimeException e) {
+                    LOG.error("handler of " + key + " failed", e);
+                } finally {
+                    freePlaces.release();
+                }
+            }
+        }
+    }
+}
@@ -74,6 +74,17 @@ public class INDINumberElement extends INDIElement<INDINumberElement> {
      */
     private INDISexagesimalFormatter sFormatter;
 
+    /**
+     * The value last sent to the clients in a set vector, kept primitive so
+     * that the change detection does not box the value.
+     */
+    private transient double lastSentNumber;
+
+    /**
+     * <code>true</code> as soon as the value was sent in a set vector.
+     */
+    private transient boolean numberSent;
+
     /**
      * Constructs an instance of a <code>INDINumberElement</code>. Using the
      * settings from the builder.
@@ -282,6 +293,21 @@ public class INDINumberElement extends INDIElement<INDINumberElement> {
         return (int) Math.round(value);
     }
 
+    /**
+     * @return the value as a primitive double.
+     */
+    public double getValueAsDouble() {
+        return value;
+    }
+
+    /**
+     * @param doubleValue the value to check.
+     * @return true if the value is within the limits of the element.
+     */
+    public boolean isInRange(double doubleValue) {
+        return doubleValue >= min && doubleValue <= max;
+    }
+
     /**
      * A covenience method to set the value represented by a double.
      *
@@ -325,6 +351,22 @@ public class INDINumberElement extends INDIElement<INDINumberElement> {
         return result;
     }
 
+    @Override
+    protected boolean isChangedSinceLastSent() {
+        return !numberSent || Double.doubleToLongBits(lastSentNumber) != Double.doubleToLongBits(value);
+    }
+
+    @Override
+    protected void markSent() {
+        lastSentNumber = value;
+        numberSent = true;
+    }
+
+    @Override
+    protected void markChanged() {
+        numberSent = false;
+    }
+
     @Override
     public String getNameAndValueAsString() {
         return getName() + " - " + this.getValueAsString();
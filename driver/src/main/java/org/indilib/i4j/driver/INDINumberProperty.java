@@ -28,6 +28,9 @@ import org.indilib.i4j.protocol.DefVector;
 import org.indilib.i4j.protocol.SetNumberVector;
 import org.indilib.i4j.protocol.SetVector;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * A class representing a INDI Number Property.
  *
@@ -40,6 +43,11 @@ public class INDINumberProperty extends INDIProperty<INDINumberElement> {
      */
     private static final long serialVersionUID = 8341274865983266472L;
 
+    /**
+     * The elements in the order they were added, for the bulk value access.
+     */
+    private transient INDINumberElement[] numberElements;
+
     /**
      * Constructs an instance of <code>INDINumberProperty</code> with the
      * partikular setting in the builder.
@@ -50,6 +58,69 @@ public class INDINumberProperty extends INDIProperty<INDINumberElement> {
         super(builder);
     }
 
+    /**
+     * Set the values of all elements at once, in the order the elements were
+     * added. All values are checked against the limits of their element
+     * before any element changes, so either all or no values are set.
+     *
+     * @param values the new values, one per element.
+     * @throws IllegalArgumentException if the number of values does not match
+     *                                  the number of elements or a value is
+     *                                  not within the limits of its element.
+     */
+    public void setValues(double[] values) {
+        INDINumberElement[] numberElements = numberElements();
+        if (values.length != numberElements.length) {
+            throw new IllegalArgumentException(getName() + " ; " + values.length + " values for " + numberElements.length + " elements");
+        }
+        for (int index = 0; index < numberElements.length; index++) {
+            if (!numberElements[index].isInRange(values[index])) {
+                throw new IllegalArgumentException(numberElements[index].getName() + " ; " + "Number (" + values[index] + ") not in range [" + numberElements[index].getMin()
+                        + ", " + numberElements[index].getMax() + "]");
+            }
+        }
+        for (int index = 0; index < numberElements.length; index++) {
+            numberElements[index].setValueAsDouble(values[index]);
+        }
+    }
+
+    /**
+     * Get the values of all elements at once, in the order the elements were
+     * added.
+     *
+     * @param dst the array to fill, a new one is allocated if it is null or
+     *            too short.
+     * @return the array with the values.
+     */
+    public double[] getValues(double[] dst) {
+        INDINumberElement[] numberElements = numberElements();
+        double[] values = dst;
+        if (values == null || values.length < numberElements.length) {
+            values = new double[numberElements.length];
+        }
+        for (int index = 0; index < numberElements.length; index++) {
+            values[index] = numberElements[index].getValueAsDouble();
+        }
+        return values;
+    }
+
+    /**
+     * @return the elements in the order they were added, cached as the
+     * elements of a property do not change after its definition.
+     */
+    private INDINumberElement[] numberElements() {
+        INDINumberElement[] result = numberElements;
+        if (result == null || result.length != getElementCount()) {
+            List<INDINumberElement> list = new ArrayList<>(getElementCount());
+            for (INDIElement<INDINumberElement> element : this) {
+                list.add((INDINumberElement) element);
+            }
+            result = list.toArray(new INDINumberElement[list.size()]);
+            numberElements = result;
+        }
+        return result;
+    }
+
     @Override
     public INDINumberElement getElement(String name) {
         return (INDINumberElement) super.getElement(name);
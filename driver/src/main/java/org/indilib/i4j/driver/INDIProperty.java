@@ -28,6 +28,9 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
@@ -56,6 +59,17 @@ public abstract class INDIProperty<Element extends INDIElement<?>> implements Se
      * the log to write messages to.
      */
     private static final Logger LOG = LoggerFactory.getLogger(INDIProperty.class);
+    /**
+     * system property to send all elements with every update instead of only
+     * the changed ones.
+     */
+    public static final String FULL_UPDATES_PROPERTY = "i4j.driver.fullUpdates";
+
+    /**
+     * should all properties send all elements with every update?
+     */
+    private static final boolean FULL_UPDATES_DEFAULT = Boolean.getBoolean(FULL_UPDATES_PROPERTY);
+
     /**
      * To save / retrieve properties from this directory. It will be stored
      * inside the default I4J directory.
@@ -102,6 +116,23 @@ public abstract class INDIProperty<Element extends INDIElement<?>> implements Se
      */
     private boolean saveable;
 
+    /**
+     * <code>true</code> if every update sends all elements, otherwise only the
+     * elements that changed since the last update are sent.
+     */
+    private transient boolean fullUpdates = FULL_UPDATES_DEFAULT;
+
+    /**
+     * The state last sent to the clients in a set vector.
+     */
+    private transient PropertyStates lastSentState;
+
+    /**
+     * The filter applying the publication policy, null if every update is
+     * sent.
+     */
+    private transient INDIPublicationFilter publicationFilter;
+
     /**
      * Event handlere for simpler event definitions.
      */
@@ -128,6 +159,7 @@ public abstract class INDIProperty<Element extends INDIElement<?>> implements Se
         this.permission = builder.permission();
         this.timeout = builder.timeout();
         this.saveable = builder.saveable();
+        setPublicationPolicy(builder.publicationPolicy());
         this.elements = new LinkedHashMap<>();
         isInit = false;
     }
@@ -187,6 +219,81 @@ public abstract class INDIProperty<Element extends INDIElement<?>> implements Se
         return prop;
     }
 
+    /**
+     * Restore a property loaded from a file, the transient fields do not get
+     * their initial values from the deserialization.
+     *
+     * @param in the stream to read the property from.
+     * @throws IOException            if the property could not be read.
+     * @throws ClassNotFoundException if a class of the property is unknown.
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        fullUpdates = FULL_UPDATES_DEFAULT;
+    }
+
+    /**
+     * Set the publication policy of the property, it controls how often and
+     * for which changes the updates of the property are sent to the clients.
+     *
+     * @param policy the new policy (null for sending every update).
+     */
+    public void setPublicationPolicy(INDIPublicationPolicy policy) {
+        if (policy == null || policy.isUnlimited()) {
+            publicationFilter = null;
+        } else {
+            publicationFilter = new INDIPublicationFilter(policy);
+        }
+    }
+
+    /**
+     * @return the publication policy of the property.
+     */
+    public INDIPublicationPolicy getPublicationPolicy() {
+        INDIPublicationFilter filter = publicationFilter;
+        if (filter == null) {
+            return INDIPublicationPolicy.UNLIMITED;
+        }
+        return filter.getPolicy();
+    }
+
+    /**
+     * @return the filter applying the publication policy, null if every
+     * update is sent.
+     */
+    INDIPublicationFilter getPublicationFilter() {
+        return publicationFilter;
+    }
+
+    /**
+     * Set if every update must send all elements. By default only the elements
+     * that changed since the last update are sent, all elements are sent when
+     * the state changes, when the min/max values are included or when nothing
+     * changed at all.
+     *
+     * @param fullUpdates <code>true</code> to send all elements with every
+     *                    update.
+     */
+    public void setFullUpdates(boolean fullUpdates) {
+        this.fullUpdates = fullUpdates;
+    }
+
+    /**
+     * @return <code>true</code> if every update sends all elements.
+     */
+    public boolean isFullUpdates() {
+        return fullUpdates;
+    }
+
+    /**
+     * Send all elements with the next update, even the unchanged ones.
+     */
+    public void markAllElementsChanged() {
+        for (INDIElement<Element> element : this) {
+            element.markChanged();
+        }
+    }
+
     /**
      * Set the property to be saveable. Should only be called by property
      * factories.
@@ -467,11 +574,7 @@ public abstract class INDIProperty<Element extends INDIElement<?>> implements Se
      */
     protected SetVector<?> getXMLPropertySet(boolean includeMinMax, String message) {
         if (saveable) {
-            try {
-                saveToFile();
-            } catch (IOException e) {
-                LOG.error("could not save the property to a file", e);
-            }
+            INDIPropertyStore.getInstance().markDirty(this);
         }
         SetVector<?> result = getXMLPropertySetInit();
         result.setDevice(getDriver().getName());
@@ -482,12 +585,30 @@ public abstract class INDIProperty<Element extends INDIElement<?>> implements Se
         if (message == null) {
             result.setMessage(message);
         }
+        boolean allElements = fullUpdates || includeMinMax || getState() != lastSentState || !hasChangedElements();
         for (INDIElement<Element> element : this) {
-            result.getElements().add(element.getXMLOneElement(includeMinMax));
+            if (allElements || element.isChangedSinceLastSent()) {
+                result.getElements().add(element.getXMLOneElement(includeMinMax));
+                element.markSent();
+            }
         }
+        lastSentState = getState();
         return result;
     }
 
+    /**
+     * @return <code>true</code> if at least one element changed since the last
+     * set vector.
+     */
+    private boolean hasChangedElements() {
+        for (INDIElement<Element> element : this) {
+            if (element.isChangedSinceLastSent()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * Gets the opening XML Element &lt;defXXXVector&gt; for this Property.
      *
@@ -503,12 +624,32 @@ public abstract class INDIProperty<Element extends INDIElement<?>> implements Se
     protected abstract SetVector<?> getXMLPropertySetInit();
 
     /**
-     * Saves the property and its elements to a file. Ideal to later restore it
-     * on subsecuent executions of the driver.
+     * Serialize the property and its elements, on the thread that changes
+     * the property, so the snapshot is consistent and can be written to the
+     * file in the background.
+     *
+     * @return the serialized property.
+     * @throws IOException if the property could not be serialized.
+     */
+    byte[] snapshot() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ObjectOutputStream oos = new ObjectOutputStream(out)) {
+            oos.writeObject(this);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Saves a snapshot of the property and its elements to a file. Ideal to
+     * later restore it on subsecuent executions of the driver. The snapshot
+     * is written to a temporary file first that replaces the old file, so a
+     * crash during the write never leaves a corrupt file behind. Called by
+     * the {@link INDIPropertyStore} in the background.
      *
+     * @param snapshot the property serialized by {@link #snapshot()}.
      * @throws IOException if the property could not be saved.
      */
-    private void saveToFile() throws IOException {
+    void saveToFile(byte[] snapshot) throws IOException {
         File i4jDir = FileUtils.getI4JBaseDirectory();
 
         File propertiesDir = new File(i4jDir, PROPERTIES_DIR_NAME);
@@ -519,13 +660,15 @@ public abstract class INDIProperty<Element extends INDIElement<?>> implements Se
 
         if (propertiesDir.exists() && propertiesDir.isDirectory()) {
             File file = new File(propertiesDir, getPropertyNameForFile());
-            FileOutputStream fos = new FileOutputStream(file);
-
-            ObjectOutputStream oos = new ObjectOutputStream(fos);
-
-            oos.writeObject(this);
-
-            oos.close();
+            File tempFile = new File(propertiesDir, file.getName() + ".tmp");
+            try (FileOutputStream fos = new FileOutputStream(tempFile)) {
+                fos.write(snapshot);
+            }
+            try {
+                Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
         }
     }
 
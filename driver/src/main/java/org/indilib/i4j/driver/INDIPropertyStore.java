@@ -0,0 +1,172 @@
+package org.indilib.i4j.driver;
+
+/*
+ * #%L
+ * INDI for Java Driver Library
+ * %%
+ * Copyright (C) 2013 - 2014 indiforjava
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Write-behind store for the saveable properties of the drivers. Updating a
+ * saveable property takes a serialized snapshot of it on the updating thread
+ * (the live property is never read in the background), a task on the shared
+ * {@link INDIScheduler} writes the latest snapshots at most once per interval.
+ * The remaining dirty properties are written when a driver finishes and when
+ * the jvm shuts down.
+ *
+ * @author Richard van Nieuwenhoven
+ */
+final class INDIPropertyStore {
+
+    /**
+     * system property to change the interval between two writes of the
+     * properties in milliseconds.
+     */
+    public static final String INTERVAL_PROPERTY = "i4j.driver.propertySaveInterval";
+
+    /**
+     * the log to write messages to.
+     */
+    private static final Logger LOG = LoggerFactory.getLogger(INDIPropertyStore.class);
+
+    /**
+     * default interval between two writes of the properties in milliseconds.
+     */
+    private static final long DEFAULT_INTERVAL = 1000L;
+
+    /**
+     * the store of the properties in this jvm.
+     */
+    private static final INDIPropertyStore INSTANCE = new INDIPropertyStore();
+
+    /**
+     * the latest snapshots of the properties that changed since they were
+     * last written.
+     */
+    private final Map<INDIProperty<?>, byte[]> dirty = new ConcurrentHashMap<>();
+
+    /**
+     * true as long as a write is scheduled.
+     */
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    /**
+     * the interval between two writes of the properties in milliseconds.
+     */
+    private final long interval;
+
+    /**
+     * constructor, registers the final write on jvm shutdown.
+     */
+    private INDIPropertyStore() {
+        interval = Long.getLong(INTERVAL_PROPERTY, DEFAULT_INTERVAL);
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                flush();
+            }
+        }, "property store shutdown"));
+    }
+
+    /**
+     * @return the store of the properties in this jvm.
+     */
+    static INDIPropertyStore getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * the property changed and must be written with the next write, its
+     * snapshot is taken now on the calling thread.
+     *
+     * @param property the changed property.
+     */
+    void markDirty(INDIProperty<?> property) {
+        try {
+            dirty.put(property, property.snapshot());
+        } catch (IOException e) {
+            LOG.error("could not save the property " + property.getName(), e);
+            return;
+        }
+        if (scheduled.compareAndSet(false, true)) {
+            INDIScheduler.getInstance().schedule("property store", new Runnable() {
+
+                @Override
+                public void run() {
+                    scheduled.set(false);
+                    flush();
+                }
+            }, interval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * write all dirty properties now.
+     */
+    synchronized void flush() {
+        write(new ArrayList<>(dirty.keySet()));
+    }
+
+    /**
+     * write the dirty properties of one driver now.
+     *
+     * @param driver the driver that finishes.
+     */
+    synchronized void flush(INDIDriver driver) {
+        List<INDIProperty<?>> properties = new ArrayList<>();
+        for (INDIProperty<?> property : dirty.keySet()) {
+            if (property.getDriver() == driver) {
+                properties.add(property);
+            }
+        }
+        write(properties);
+    }
+
+    /**
+     * write the latest snapshots of the properties, a property that changes
+     * again while it is written keeps its newer snapshot for the next write.
+     *
+     * @param properties the properties to write.
+     */
+    private void write(List<INDIProperty<?>> properties) {
+        for (INDIProperty<?> property : properties) {
+            byte[] snapshot = dirty.remove(property);
+            if (snapshot == null) {
+                continue;
+            }
+            try {
+                property.saveToFile(snapshot);
+            } catch (IOException e) {
+                LOG.error("could not save the property " + property.getName() + " to a file", e);
+            }
+        }
+    }
+}
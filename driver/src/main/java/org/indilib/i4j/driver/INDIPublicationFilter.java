@@ -0,0 +1,256 @@
+package org.indilib.i4j.driver;
+
+/*
+ * #%L
+ * INDI for Java Driver Library
+ * %%
+ * Copyright (C) 2013 - 2014 indiforjava
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import org.indilib.i4j.Constants.PropertyStates;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Applies the publication policy of one property: it remembers what was sent
+ * last and decides if an update must be sent now, later or not at all.
+ *
+ * @author Richard van Nieuwenhoven
+ */
+final class INDIPublicationFilter {
+
+    /**
+     * the minimum time without new values before a value held back by the
+     * deadband is sent anyway.
+     */
+    private static final long MIN_QUIET_PERIOD_NANOS = TimeUnit.SECONDS.toNanos(1L);
+
+    /**
+     * the policy to apply.
+     */
+    private final INDIPublicationPolicy policy;
+
+    /**
+     * the nano time of the last update sent.
+     */
+    private long lastSentNanos;
+
+    /**
+     * true as soon as one update was sent.
+     */
+    private boolean sent;
+
+    /**
+     * the state last sent.
+     */
+    private PropertyStates lastSentState;
+
+    /**
+     * the number values last sent (only for number properties with a
+     * deadband).
+     */
+    private double[] lastSentValues;
+
+    /**
+     * true while a delayed update is scheduled.
+     */
+    private boolean delayed;
+
+    /**
+     * true if the latest values were not sent.
+     */
+    private boolean heldBack;
+
+    /**
+     * the nano time of the last update held back by the deadband.
+     */
+    private long lastHeldBackNanos;
+
+    /**
+     * true while the update after the quiet period is scheduled.
+     */
+    private boolean settling;
+
+    /**
+     * constructor.
+     *
+     * @param policy the policy to apply.
+     */
+    INDIPublicationFilter(INDIPublicationPolicy policy) {
+        this.policy = policy;
+    }
+
+    /**
+     * @return the policy to apply.
+     */
+    INDIPublicationPolicy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * Decide if the update of the property must be sent now. If it is too
+     * early, a delayed update is scheduled that sends the latest values as
+     * soon as the rate allows it. Values held back by the deadband are sent
+     * when no new values came for a quiet period, so the clients always get
+     * the values the property settled on.
+     *
+     * @param driver   the driver of the property.
+     * @param property the updated property.
+     * @return true if the update must be sent now.
+     */
+    synchronized boolean publishNow(final INDIDriver driver, final INDIProperty<?> property) {
+        if (!sent || property.getState() != lastSentState) {
+            return published(property);
+        }
+        if (!changedOutsideDeadband(property)) {
+            heldBack = true;
+            lastHeldBackNanos = System.nanoTime();
+            if (!settling) {
+                settling = true;
+                scheduleSettled(driver, property, quietPeriodNanos());
+            }
+            return false;
+        }
+        long waitNanos = lastSentNanos + policy.minIntervalNanos() - System.nanoTime();
+        if (waitNanos <= 0L) {
+            return published(property);
+        }
+        heldBack = true;
+        if (!delayed) {
+            delayed = true;
+            INDIScheduler.getInstance().schedule("delayed update of " + property.getName(), new Runnable() {
+
+                @Override
+                public void run() {
+                    synchronized (INDIPublicationFilter.this) {
+                        delayed = false;
+                    }
+                    driver.publishHeldBack(property);
+                }
+            }, waitNanos, TimeUnit.NANOSECONDS);
+        }
+        return false;
+    }
+
+    /**
+     * schedule the check if the values held back by the deadband settled.
+     *
+     * @param driver     the driver of the property.
+     * @param property   the property.
+     * @param delayNanos the time until the check.
+     */
+    private void scheduleSettled(final INDIDriver driver, final INDIProperty<?> property, long delayNanos) {
+        INDIScheduler.getInstance().schedule("settled update of " + property.getName(), new Runnable() {
+
+            @Override
+            public void run() {
+                settled(driver, property);
+            }
+        }, delayNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * send the values held back by the deadband if no new values came for the
+     * quiet period, else check again when it ends.
+     *
+     * @param driver   the driver of the property.
+     * @param property the property.
+     */
+    private void settled(INDIDriver driver, INDIProperty<?> property) {
+        synchronized (this) {
+            if (!heldBack) {
+                settling = false;
+                return;
+            }
+            long quietNanos = lastHeldBackNanos + quietPeriodNanos() - System.nanoTime();
+            if (quietNanos > 0L) {
+                scheduleSettled(driver, property, quietNanos);
+                return;
+            }
+            settling = false;
+        }
+        driver.publishHeldBack(property);
+    }
+
+    /**
+     * @return the time without new values after which a value held back by
+     * the deadband is sent.
+     */
+    private long quietPeriodNanos() {
+        return Math.max(MIN_QUIET_PERIOD_NANOS, policy.minIntervalNanos());
+    }
+
+    /**
+     * @return true if the latest values were not sent.
+     */
+    synchronized boolean isHeldBack() {
+        return heldBack;
+    }
+
+    /**
+     * An update is sent now, remember what was sent.
+     *
+     * @param property the sent property.
+     * @return always true.
+     */
+    synchronized boolean published(INDIProperty<?> property) {
+        sent = true;
+        heldBack = false;
+        lastSentNanos = System.nanoTime();
+        lastSentState = property.getState();
+        if (hasDeadband() && property instanceof INDINumberProperty) {
+            List<INDIElement<INDINumberElement>> elements = ((INDINumberProperty) property).getElementsAsList();
+            if (lastSentValues == null || lastSentValues.length != elements.size()) {
+                lastSentValues = new double[elements.size()];
+            }
+            for (int index = 0; index < lastSentValues.length; index++) {
+                lastSentValues[index] = ((INDINumberElement) elements.get(index)).getValue();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return true if the policy has a deadband.
+     */
+    private boolean hasDeadband() {
+        return policy.getDeadband() > 0d || policy.getRelativeDeadband() > 0d;
+    }
+
+    /**
+     * @param property the property to check.
+     * @return true if one of the number values moved outside the deadband,
+     * always true for properties without deadband.
+     */
+    private boolean changedOutsideDeadband(INDIProperty<?> property) {
+        if (!hasDeadband() || !(property instanceof INDINumberProperty) || lastSentValues == null) {
+            return true;
+        }
+        List<INDIElement<INDINumberElement>> elements = ((INDINumberProperty) property).getElementsAsList();
+        if (elements.size() != lastSentValues.length) {
+            return true;
+        }
+        for (int index = 0; index < lastSentValues.length; index++) {
+            if (policy.isOutsideDeadband(lastSentValues[index], ((INDINumberElement) elements.get(index)).getValue())) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,242 @@
+package org.indilib.i4j.driver;
+
+/*
+ * #%L
+ * INDI for Java Driver Library
+ * %%
+ * Copyright (C) 2013 - 2014 indiforjava
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Serializable;
+import java.util.Locale;
+
+/**
+ * The publication policy of a property: how often and for which changes the
+ * updates of the property are sent to the clients. Updates that arrive faster
+ * than the maximum rate are delayed (the latest values are sent as soon as the
+ * rate allows it), number updates that stay within the deadband of the values
+ * last sent are dropped. A change of the property state or an update with a
+ * message is always sent immediately.
+ * <p>
+ * The policy of a property can be set by the driver or, without touching the
+ * driver, with the system property <code>i4j.driver.publication.NAME</code>
+ * where NAME is the property name, for example
+ * <code>-Di4j.driver.publication.EQUATORIAL_EOD_COORD=maxRate=2,deadband=0.0001</code>.
+ *
+ * @author Richard van Nieuwenhoven
+ */
+public final class INDIPublicationPolicy implements Serializable {
+
+    /**
+     * the policy that sends every update.
+     */
+    public static final INDIPublicationPolicy UNLIMITED = new INDIPublicationPolicy(0d, 0d, 0d);
+
+    /**
+     * prefix of the system properties with the policies of the properties.
+     */
+    public static final String SYSTEM_PROPERTY_PREFIX = "i4j.driver.publication.";
+
+    /**
+     * Serialization id.
+     */
+    private static final long serialVersionUID = 6135281537733722451L;
+
+    /**
+     * Logger to log to.
+     */
+    private static final Logger LOG = LoggerFactory.getLogger(INDIPublicationPolicy.class);
+
+    /**
+     * the number of nanoseconds in a second.
+     */
+    private static final double NANOS_PER_SECOND = 1000000000d;
+
+    /**
+     * the maximum number of updates per second, 0 for no limit.
+     */
+    private final double maxRate;
+
+    /**
+     * the absolute change of a number element that must be exceeded before an
+     * update is sent, 0 for none.
+     */
+    private final double deadband;
+
+    /**
+     * the change of a number element relative to the value last sent that must
+     * be exceeded before an update is sent, 0 for none.
+     */
+    private final double relativeDeadband;
+
+    /**
+     * constructor.
+     *
+     * @param maxRate          the maximum number of updates per second.
+     * @param deadband         the absolute deadband of the number elements.
+     * @param relativeDeadband the relative deadband of the number elements.
+     */
+    private INDIPublicationPolicy(double maxRate, double deadband, double relativeDeadband) {
+        if (maxRate < 0d || deadband < 0d || relativeDeadband < 0d) {
+            throw new IllegalArgumentException("publication policy values must not be negative");
+        }
+        this.maxRate = maxRate;
+        this.deadband = deadband;
+        this.relativeDeadband = relativeDeadband;
+    }
+
+    /**
+     * Get the policy of a property as configured in the system properties, an
+     * illegal setting is logged and the default is used.
+     *
+     * @param propertyName the name of the property.
+     * @param defaultPolicy the policy to use if nothing is configured.
+     * @return the configured policy or the default.
+     */
+    public static INDIPublicationPolicy fromSystemProperties(String propertyName, INDIPublicationPolicy defaultPolicy) {
+        String value = System.getProperty(SYSTEM_PROPERTY_PREFIX + propertyName);
+        if (value == null || value.trim().isEmpty()) {
+            return defaultPolicy;
+        }
+        try {
+            return parse(value);
+        } catch (IllegalArgumentException e) {
+            LOG.warn("ignoring the illegal publication policy " + SYSTEM_PROPERTY_PREFIX + propertyName + "=" + value + ": " + e.getMessage());
+            return defaultPolicy;
+        }
+    }
+
+    /**
+     * parse a policy in the form <code>maxRate=2,deadband=0.1,relativeDeadband=0.001</code>
+     * (all parts are optional).
+     *
+     * @param value the policy string.
+     * @return the parsed policy.
+     */
+    public static INDIPublicationPolicy parse(String value) {
+        INDIPublicationPolicy result = UNLIMITED;
+        for (String setting : value.split(",")) {
+            int separator = setting.indexOf('=');
+            if (separator < 0) {
+                throw new IllegalArgumentException("publication policy setting without value: " + setting);
+            }
+            String name = setting.substring(0, separator).trim().toLowerCase(Locale.ENGLISH);
+            double number = Double.parseDouble(setting.substring(separator + 1).trim());
+            if ("maxrate".equals(name)) {
+                result = result.maxRate(number);
+            } else if ("deadband".equals(name)) {
+                result = result.deadband(number);
+            } else if ("relativedeadband".equals(name)) {
+                result = result.relativeDeadband(number);
+            } else {
+                throw new IllegalArgumentException("unknown publication policy setting: " + setting);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @param maxRateValue the maximum number of updates per second, 0 for no
+     *                     limit.
+     * @return a copy of the policy with the new maximum rate.
+     */
+    public INDIPublicationPolicy maxRate(double maxRateValue) {
+        return new INDIPublicationPolicy(maxRateValue, deadband, relativeDeadband);
+    }
+
+    /**
+     * @param deadbandValue the absolute change of a number element that must
+     *                      be exceeded before an update is sent, 0 for none.
+     * @return a copy of the policy with the new deadband.
+     */
+    public INDIPublicationPolicy deadband(double deadbandValue) {
+        return new INDIPublicationPolicy(maxRate, deadbandValue, relativeDeadband);
+    }
+
+    /**
+     * @param relativeDeadbandValue the change of a number element relative to
+     *                              the value last sent that must be exceeded
+     *                              before an update is sent, 0 for none.
+     * @return a copy of the policy with the new relative deadband.
+     */
+    public INDIPublicationPolicy relativeDeadband(double relativeDeadbandValue) {
+        return new INDIPublicationPolicy(maxRate, deadband, relativeDeadbandValue);
+    }
+
+    /**
+     * @return the maximum number of updates per second, 0 for no limit.
+     */
+    public double getMaxRate() {
+        return maxRate;
+    }
+
+    /**
+     * @return the absolute deadband of the number elements, 0 for none.
+     */
+    public double getDeadband() {
+        return deadband;
+    }
+
+    /**
+     * @return the relative deadband of the number elements, 0 for none.
+     */
+    public double getRelativeDeadband() {
+        return relativeDeadband;
+    }
+
+    /**
+     * @return true if the policy sends every update.
+     */
+    public boolean isUnlimited() {
+        return maxRate == 0d && deadband == 0d && relativeDeadband == 0d;
+    }
+
+    /**
+     * @return the minimum nanoseconds between two updates.
+     */
+    long minIntervalNanos() {
+        if (maxRate == 0d) {
+            return 0L;
+        }
+        return (long) (NANOS_PER_SECOND / maxRate);
+    }
+
+    /**
+     * @param lastSent the value last sent.
+     * @param current  the current value.
+     * @return true if the change is outside of the deadband.
+     */
+    boolean isOutsideDeadband(double lastSent, double current) {
+        double change = Math.abs(current - lastSent);
+        if (Double.isNaN(change)) {
+            return !Double.isNaN(lastSent) || !Double.isNaN(current);
+        }
+        if (change <= deadband) {
+            return false;
+        }
+        return relativeDeadband == 0d || change > relativeDeadband * Math.abs(lastSent);
+    }
+
+    @Override
+    public String toString() {
+        return "maxRate=" + maxRate + ",deadband=" + deadband + ",relativeDeadband=" + relativeDeadband;
+    }
+}
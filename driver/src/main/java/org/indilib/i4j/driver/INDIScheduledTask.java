@@ -0,0 +1,257 @@
+package org.indilib.i4j.driver;
+
+/*
+ * #%L
+ * INDI for Java Driver Library
+ * %%
+ * Copyright (C) 2013 - 2014 indiforjava
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A task scheduled in the {@link INDIScheduler}, with its timing statistics.
+ * A task never runs concurrently with itself.
+ *
+ * @author Richard van Nieuwenhoven
+ */
+public final class INDIScheduledTask implements Runnable {
+
+    /**
+     * the log to write messages to.
+     */
+    private static final Logger LOG = LoggerFactory.getLogger(INDIScheduledTask.class);
+
+    /**
+     * the scheduler of the task.
+     */
+    private final INDIScheduler scheduler;
+
+    /**
+     * the name of the task.
+     */
+    private final String name;
+
+    /**
+     * the work to do.
+     */
+    private final Runnable task;
+
+    /**
+     * the period in nanoseconds, 0 for a task that runs once.
+     */
+    private final long periodNanos;
+
+    /**
+     * the nano time the next run should start.
+     */
+    private volatile long nextRunNanos;
+
+    /**
+     * the future of the next run.
+     */
+    private volatile Future<?> future;
+
+    /**
+     * true as soon as the task is cancelled.
+     */
+    private volatile boolean cancelled;
+
+    /**
+     * the number of runs.
+     */
+    private volatile long runs;
+
+    /**
+     * the number of runs skipped because the task was too late.
+     */
+    private volatile long skippedRuns;
+
+    /**
+     * the sum of the run durations in nanoseconds.
+     */
+    private volatile long totalNanos;
+
+    /**
+     * the longest run in nanoseconds.
+     */
+    private volatile long maxNanos;
+
+    /**
+     * the maximum delay between the planned and the real start of a run in
+     * nanoseconds.
+     */
+    private volatile long maxLatenessNanos;
+
+    /**
+     * constructor.
+     *
+     * @param scheduler   the scheduler of the task.
+     * @param name        the name of the task.
+     * @param task        the work to do.
+     * @param periodNanos the period in nanoseconds, 0 for a task that runs
+     *                    once.
+     */
+    INDIScheduledTask(INDIScheduler scheduler, String name, Runnable task, long periodNanos) {
+        this.scheduler = scheduler;
+        this.name = name;
+        this.task = task;
+        this.periodNanos = periodNanos;
+    }
+
+    /**
+     * schedule the next run.
+     *
+     * @param runNanos the nano time the run should start.
+     */
+    void scheduleAt(long runNanos) {
+        nextRunNanos = runNanos;
+        try {
+            future = scheduler.executor().schedule(this, runNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+        } catch (RejectedExecutionException e) {
+            LOG.warn("scheduler does not accept task " + name);
+            cancelled = true;
+        }
+        if (cancelled) {
+            cancel();
+        }
+    }
+
+    @Override
+    public void run() {
+        if (cancelled) {
+            return;
+        }
+        long start = System.nanoTime();
+        maxLatenessNanos = Math.max(maxLatenessNanos, start - nextRunNanos);
+        try {
+            task.run();
+        } catch (RuntimeException e) {
+            LOG.error("scheduled task " + name + " failed", e);
+        }
+        long end = System.nanoTime();
+        long duration = end - start;
+        runs++;
+        totalNanos += duration;
+        maxNanos = Math.max(maxNanos, duration);
+        if (periodNanos == 0L) {
+            scheduler.finished(this);
+            return;
+        }
+        long next = nextRunNanos + periodNanos;
+        if (next < end) {
+            long missed = (end - next) / periodNanos + 1L;
+            skippedRuns += missed;
+            next += missed * periodNanos;
+        }
+        if (!cancelled) {
+            scheduleAt(next);
+        }
+    }
+
+    /**
+     * cancel the task, a run that is already executing will finish.
+     */
+    public void cancel() {
+        cancelled = true;
+        Future<?> current = future;
+        if (current != null) {
+            current.cancel(false);
+        }
+        scheduler.finished(this);
+    }
+
+    /**
+     * @return true if the task will not run again (it was cancelled or it ran
+     * once).
+     */
+    public boolean isDone() {
+        return cancelled || periodNanos == 0L && runs > 0L;
+    }
+
+    /**
+     * @return true if the task was cancelled.
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * @return the name of the task.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the period in nanoseconds, 0 for a task that runs once.
+     */
+    public long getPeriodNanos() {
+        return periodNanos;
+    }
+
+    /**
+     * @return the number of runs.
+     */
+    public long getRuns() {
+        return runs;
+    }
+
+    /**
+     * @return the number of runs skipped because the task was too late.
+     */
+    public long getSkippedRuns() {
+        return skippedRuns;
+    }
+
+    /**
+     * @return the average run duration in nanoseconds.
+     */
+    public long getAverageNanos() {
+        long count = runs;
+        if (count == 0L) {
+            return 0L;
+        }
+        return totalNanos / count;
+    }
+
+    /**
+     * @return the longest run in nanoseconds.
+     */
+    public long getMaxNanos() {
+        return maxNanos;
+    }
+
+    /**
+     * @return the maximum delay between the planned and the real start of a
+     * run in nanoseconds.
+     */
+    public long getMaxLatenessNanos() {
+        return maxLatenessNanos;
+    }
+
+    @Override
+    public String toString() {
+        return name + " runs=" + runs + " skipped=" + skippedRuns + " avg=" + getAverageNanos() + "ns max=" + maxNanos + "ns maxLate=" + maxLatenessNanos + "ns";
+    }
+}
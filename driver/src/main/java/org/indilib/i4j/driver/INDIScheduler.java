@@ -0,0 +1,164 @@
+package org.indilib.i4j.driver;
+
+/*
+ * #%L
+ * INDI for Java Driver Library
+ * %%
+ * Copyright (C) 2013 - 2014 indiforjava
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The scheduler shared by all drivers in the jvm for their periodic and
+ * delayed work (status polling, exposure countdowns, simulations), instead of
+ * a sleeping thread per driver. Periodic tasks run at a fixed rate that does
+ * not drift: when a run is late or takes longer than the period the missed
+ * runs are skipped. Every task keeps timing statistics.
+ * <p>
+ * The tasks share a small pool of threads, so they should not block for long.
+ *
+ * @author Richard van Nieuwenhoven
+ */
+public final class INDIScheduler {
+
+    /**
+     * system property to change the number of scheduler threads.
+     */
+    public static final String THREADS_PROPERTY = "i4j.driver.schedulerThreads";
+
+    /**
+     * default number of scheduler threads.
+     */
+    private static final int DEFAULT_THREADS = 4;
+
+    /**
+     * the scheduler of the drivers in this jvm.
+     */
+    private static final INDIScheduler INSTANCE = new INDIScheduler();
+
+    /**
+     * the executor running the tasks.
+     */
+    private final ScheduledThreadPoolExecutor executor;
+
+    /**
+     * the tasks that are scheduled (the map is used as a set).
+     */
+    private final Map<INDIScheduledTask, Boolean> tasks = new ConcurrentHashMap<>();
+
+    /**
+     * constructor.
+     */
+    private INDIScheduler() {
+        executor = new ScheduledThreadPoolExecutor(Integer.getInteger(THREADS_PROPERTY, DEFAULT_THREADS), new ThreadFactory() {
+
+            private final AtomicInteger counter = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "driver scheduler " + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * @return the scheduler of the drivers in this jvm.
+     */
+    public static INDIScheduler getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Run a task periodically at a fixed rate.
+     *
+     * @param name         the name of the task (for the statistics).
+     * @param task         the task to run.
+     * @param initialDelay the delay before the first run.
+     * @param period       the period between the starts of two runs.
+     * @param unit         the time unit of the delay and the period.
+     * @return the scheduled task, to cancel it and for its statistics.
+     */
+    public INDIScheduledTask scheduleAtFixedRate(String name, Runnable task, long initialDelay, long period, TimeUnit unit) {
+        if (period <= 0L) {
+            throw new IllegalArgumentException("period must be positive");
+        }
+        return start(new INDIScheduledTask(this, name, task, unit.toNanos(period)), unit.toNanos(initialDelay));
+    }
+
+    /**
+     * Run a task once after a delay.
+     *
+     * @param name  the name of the task (for the statistics).
+     * @param task  the task to run.
+     * @param delay the delay before the run.
+     * @param unit  the time unit of the delay.
+     * @return the scheduled task, to cancel it and for its statistics.
+     */
+    public INDIScheduledTask schedule(String name, Runnable task, long delay, TimeUnit unit) {
+        return start(new INDIScheduledTask(this, name, task, 0L), unit.toNanos(delay));
+    }
+
+    /**
+     * @return the tasks that are currently scheduled.
+     */
+    public List<INDIScheduledTask> getTasks() {
+        return new ArrayList<>(tasks.keySet());
+    }
+
+    /**
+     * register and schedule the first run of the task.
+     *
+     * @param task       the task.
+     * @param delayNanos the delay before the first run.
+     * @return the task.
+     */
+    private INDIScheduledTask start(INDIScheduledTask task, long delayNanos) {
+        tasks.put(task, Boolean.TRUE);
+        task.scheduleAt(System.nanoTime() + Math.max(0L, delayNanos));
+        return task;
+    }
+
+    /**
+     * the executor running the tasks.
+     *
+     * @return the executor.
+     */
+    ScheduledThreadPoolExecutor executor() {
+        return executor;
+    }
+
+    /**
+     * the task will not run again.
+     *
+     * @param task the finished or cancelled task.
+     */
+    void finished(INDIScheduledTask task) {
+        tasks.remove(task);
+    }
+}
@@ -0,0 +1,225 @@
+package org.indilib.i4j.driver;
+
+/*
+ * #%L
+ * INDI for Java Driver Library
+ * %%
+ * Copyright (C) 2013 - 2014 indiforjava
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import org.indilib.i4j.protocol.DefVector;
+import org.indilib.i4j.protocol.DelProperty;
+import org.indilib.i4j.protocol.INDIProtocol;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A batch of messages of a driver that is written to the clients in one go
+ * when the batch is closed. Repeated updates of the same property within the
+ * batch are merged into one update carrying the latest values, so the clients
+ * see one consistent state. A definition or deletion of a property ends the
+ * merging: the updates before it are fixed with their current values and
+ * keep their place in front of it. Batches are opened with
+ * {@link INDIDriver#startUpdateBatch()} and belong to the thread that opened
+ * them; nested batches are part of the outermost one.
+ *
+ * <pre>
+ * try (INDIUpdateBatch batch = startUpdateBatch()) {
+ *     updateProperty(coordinates);
+ *     updateProperty(motion);
+ * }
+ * </pre>
+ *
+ * @author Richard van Nieuwenhoven
+ */
+public final class INDIUpdateBatch implements AutoCloseable {
+
+    /**
+     * the driver the batch belongs to.
+     */
+    private final INDIDriver driver;
+
+    /**
+     * the collected messages in order, either protocol messages or pending
+     * property updates.
+     */
+    private final List<Object> messages = new ArrayList<>();
+
+    /**
+     * the pending property updates by property.
+     */
+    private final Map<INDIProperty<?>, PendingUpdate> updates = new IdentityHashMap<>();
+
+    /**
+     * the number of open (nested) scopes of this batch.
+     */
+    private int depth = 1;
+
+    /**
+     * constructor.
+     *
+     * @param driver the driver the batch belongs to.
+     */
+    INDIUpdateBatch(INDIDriver driver) {
+        this.driver = driver;
+    }
+
+    /**
+     * open a nested scope of this batch.
+     *
+     * @return this batch.
+     */
+    INDIUpdateBatch nest() {
+        depth++;
+        return this;
+    }
+
+    /**
+     * add a protocol message to the batch. Before a definition or deletion
+     * the pending updates are flushed, so no update is moved behind it.
+     *
+     * @param message the message to send.
+     */
+    void add(INDIProtocol<?> message) {
+        if (message instanceof DefVector || message instanceof DelProperty) {
+            flush();
+        }
+        messages.add(message);
+    }
+
+    /**
+     * replace the pending property updates by their protocol messages with
+     * the current values, later updates start new ones.
+     */
+    private void flush() {
+        if (updates.isEmpty()) {
+            return;
+        }
+        for (int index = messages.size() - 1; index >= 0; index--) {
+            if (messages.get(index) instanceof PendingUpdate) {
+                INDIProtocol<?> set = toProtocolMessage((PendingUpdate) messages.get(index));
+                if (set == null) {
+                    messages.remove(index);
+                } else {
+                    messages.set(index, set);
+                }
+            }
+        }
+        updates.clear();
+    }
+
+    /**
+     * add a property update to the batch, or merge it with an update of the
+     * same property already in the batch.
+     *
+     * @param property      the updated property.
+     * @param includeMinMax should the Min Max Step values be included.
+     * @param message       the message for the clients, may be null.
+     */
+    void update(INDIProperty<?> property, boolean includeMinMax, String message) {
+        PendingUpdate pending = updates.get(property);
+        if (pending == null) {
+            pending = new PendingUpdate(property);
+            updates.put(property, pending);
+            messages.add(pending);
+        }
+        pending.includeMinMax |= includeMinMax;
+        if (message != null) {
+            pending.message = message;
+        }
+    }
+
+    /**
+     * @return the protocol messages of the batch, the property updates are
+     * created now with the latest values. Updates of properties removed in the
+     * meantime are dropped.
+     */
+    List<INDIProtocol<?>> toProtocolMessages() {
+        List<INDIProtocol<?>> result = new ArrayList<>(messages.size());
+        for (Object message : messages) {
+            if (message instanceof PendingUpdate) {
+                INDIProtocol<?> set = toProtocolMessage((PendingUpdate) message);
+                if (set != null) {
+                    result.add(set);
+                }
+            } else {
+                result.add((INDIProtocol<?>) message);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @param pending the pending update.
+     * @return the protocol message of the update with the current values, null
+     * if the property was removed in the meantime.
+     */
+    private INDIProtocol<?> toProtocolMessage(PendingUpdate pending) {
+        if (driver.getProperty(pending.property.getName()) != pending.property) {
+            return null;
+        }
+        synchronized (pending.property) {
+            return pending.property.getXMLPropertySet(pending.includeMinMax, pending.message);
+        }
+    }
+
+    /**
+     * close the scope, when the outermost scope closes all collected messages
+     * are sent to the clients.
+     */
+    @Override
+    public void close() {
+        depth--;
+        if (depth == 0) {
+            driver.endUpdateBatch(this);
+        }
+    }
+
+    /**
+     * A property update waiting for the end of the batch.
+     */
+    private static final class PendingUpdate {
+
+        /**
+         * the updated property.
+         */
+        private final INDIProperty<?> property;
+
+        /**
+         * should the Min Max Step values be included.
+         */
+        private boolean includeMinMax;
+
+        /**
+         * the message for the clients, the last one wins.
+         */
+        private String message;
+
+        /**
+         * constructor.
+         *
+         * @param property the updated property.
+         */
+        private PendingUpdate(INDIProperty<?> property) {
+            this.property = property;
+        }
+    }
+}
@@ -107,4 +107,23 @@ public @interface InjectProperty {
      */
     int nIndex() default -1;
 
+    /**
+     * @return the maximum number of updates per second sent to the clients,
+     * defaults to 0 (no limit).
+     */
+    double maxRate() default 0d;
+
+    /**
+     * @return the absolute change of a number element that must be exceeded
+     * before an update is sent, defaults to 0 (every change).
+     */
+    double deadband() default 0d;
+
+    /**
+     * @return the change of a number element relative to the value last sent
+     * that must be exceeded before an update is sent, defaults to 0 (every
+     * change).
+     */
+    double relativeDeadband() default 0d;
+
 }
@@ -426,7 +426,9 @@ public class INDIElementBuilder<ElementClass extends INDIElement<?>> {
     }
 
     /**
-     * copy all settings from the injection.
+     * copy all settings from the injection. Generated injectors do not call
+     * this, they set each value of the annotation on their own; the injector
+     * equivalence test of the ccd driver fails when the two differ.
      *
      * @param elem intection to copy the settings.
      * @return the builder itself.
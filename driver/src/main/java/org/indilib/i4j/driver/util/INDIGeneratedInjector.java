@@ -0,0 +1,52 @@
+package org.indilib.i4j.driver.util;
+
+/*
+ * #%L
+ * INDI for Java Driver Library
+ * %%
+ * Copyright (C) 2013 - 2014 indiforjava
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+/**
+ * The injector generated at compile time by the INDI injector annotation
+ * processor for one class with annotated fields. It does exactly what the
+ * reflective scan of {@link INDIPropertyInjector} would do for the fields
+ * declared in that class, without scanning the class at runtime. The
+ * generated class is called like the class it injects with the
+ * {@link #SUFFIX} appended and lives in the same package.
+ *
+ * @author Richard van Nieuwenhoven
+ */
+public interface INDIGeneratedInjector {
+
+    /**
+     * the suffix of the generated injector class names, nested classes use
+     * '_' instead of '$'.
+     */
+    String SUFFIX = "_INDIInjector";
+
+    /**
+     * inject the fields declared in the class of the generator into the
+     * instance.
+     *
+     * @param injector the running injection, it holds the context (current
+     *                 group, prefix, renamings and the last property).
+     * @param instance the driver or extension to inject.
+     */
+    void inject(INDIPropertyInjector injector, Object instance);
+}
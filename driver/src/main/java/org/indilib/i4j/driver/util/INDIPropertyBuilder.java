@@ -27,6 +27,7 @@ import org.indilib.i4j.Constants.PropertyStates;
 import org.indilib.i4j.Constants.SwitchRules;
 import org.indilib.i4j.driver.INDIDriver;
 import org.indilib.i4j.driver.INDIProperty;
+import org.indilib.i4j.driver.INDIPublicationPolicy;
 import org.indilib.i4j.driver.annotation.InjectProperty;
 import org.indilib.i4j.properties.INDIStandardProperty;
 import org.slf4j.Logger;
@@ -89,6 +90,13 @@ public class INDIPropertyBuilder<PropertyClass extends INDIProperty<?>> {
      */
     private boolean saveable = false;
 
+    /**
+     * the publication policy of the property, defaults to sending every update
+     * (can be overwritten with a system property, see
+     * {@link INDIPublicationPolicy}).
+     */
+    private INDIPublicationPolicy publicationPolicy = INDIPublicationPolicy.UNLIMITED;
+
     /**
      * if this property is a switch property what rule should apply? defaults to
      * ONE_OF_MANY.
@@ -288,6 +296,28 @@ public class INDIPropertyBuilder<PropertyClass extends INDIProperty<?>> {
         return this;
     }
 
+    /**
+     * @return the publication policy of the property, the one configured in
+     * the system properties wins over the one set in the builder.
+     */
+    public INDIPublicationPolicy publicationPolicy() {
+        return INDIPublicationPolicy.fromSystemProperties(name, publicationPolicy);
+    }
+
+    /**
+     * set the publication policy of the property, defaults to sending every
+     * update.
+     *
+     * @param publicationPolicyValue the new publication policy.
+     * @return the builder itself.
+     */
+    public INDIPropertyBuilder<PropertyClass> publicationPolicy(INDIPublicationPolicy publicationPolicyValue) {
+        if (publicationPolicyValue != null) {
+            publicationPolicy = publicationPolicyValue;
+        }
+        return this;
+    }
+
     /**
      * set if this property is a switch property what rule should apply?
      * defaults to ONE_OF_MANY.
@@ -323,7 +353,9 @@ public class INDIPropertyBuilder<PropertyClass extends INDIProperty<?>> {
                 INDIProperty<?> loadedProperty = INDIProperty.loadFromFile(driver, name());
                 if (loadedProperty != null) {
                     try {
-                        return propertyClazz.cast(loadedProperty);
+                        PropertyClass result = propertyClazz.cast(loadedProperty);
+                        result.setPublicationPolicy(publicationPolicy());
+                        return result;
                     } catch (Exception e) {
                         LOG.error("strange the class of the property changed, sorry but we will forget the saved one", e);
                     }
@@ -356,7 +388,9 @@ public class INDIPropertyBuilder<PropertyClass extends INDIProperty<?>> {
     }
 
     /**
-     * set the injection values into the builder.
+     * set the injection values into the builder. This is the reflective
+     * variant of INDIInjectorProcessor.propertyBuilder, a new annotation value
+     * must be handled in both.
      *
      * @param injectProperty the annotation to take the settings from.
      * @return the builder itself
@@ -375,6 +409,10 @@ public class INDIPropertyBuilder<PropertyClass extends INDIProperty<?>> {
         this.switchRule(injectProperty.switchRule());
         this.timeout(injectProperty.timeout());
         this.nIndex(injectProperty.nIndex());
+        this.publicationPolicy(INDIPublicationPolicy.UNLIMITED//
+                .maxRate(injectProperty.maxRate())//
+                .deadband(injectProperty.deadband())//
+                .relativeDeadband(injectProperty.relativeDeadband()));
         return this;
     }
 
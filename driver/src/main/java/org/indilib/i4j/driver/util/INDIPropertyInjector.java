@@ -35,8 +35,11 @@ import org.slf4j.LoggerFactory;
 
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.function.Function;
 
 /**
  * This is the INDI field injector it is responsible for interpreting the
@@ -47,16 +50,47 @@ import java.util.Map;
  * and then the subclass fields. The fields are injected in the order defined in
  * the class. The order is relevant because elements are injected in the first
  * preceding property
+ * <p>
+ * For every class of the hierarchy the injector generated at compile time by
+ * the annotation processor (see {@link INDIGeneratedInjector}) is used if it
+ * is available, otherwise the fields of the class are scanned by reflection
+ * (once per class). Setting the system property
+ * {@value #REFLECTIVE_PROPERTY} to true disables the generated injectors.
  *
  * @author Richard van Nieuwenhoven
  */
 public final class INDIPropertyInjector {
 
+    /**
+     * system property to ignore the generated injectors and always use
+     * reflection.
+     */
+    public static final String REFLECTIVE_PROPERTY = "i4j.driver.reflectiveInjection";
+
     /**
      * Logger to log errors to.
      */
     private static final Logger LOG = LoggerFactory.getLogger(INDIPropertyInjector.class);
 
+    /**
+     * the injector for the fields declared in a class, generated or
+     * reflective.
+     */
+    private static final ClassValue<INDIGeneratedInjector> INJECTORS = new ClassValue<INDIGeneratedInjector>() {
+
+        @Override
+        protected INDIGeneratedInjector computeValue(Class<?> clazz) {
+            INDIGeneratedInjector generated = null;
+            if (!Boolean.getBoolean(REFLECTIVE_PROPERTY)) {
+                generated = loadGeneratedInjector(clazz);
+            }
+            if (generated != null) {
+                return generated;
+            }
+            return new ReflectiveInjector(clazz);
+        }
+    };
+
     /**
      * During the injection process it is importent to keep the context, so that
      * when we are in a extention and a property of a driver is referenced wi
@@ -93,9 +127,9 @@ public final class INDIPropertyInjector {
 
     /**
      * the currently active renaming this is used to rename special fields
-     * inside an extension.
+     * inside an extension, as pairs of name and new name.
      */
-    private Rename[] currentRenamings;
+    private String[] currentRenamings;
 
     /**
      * Constructor with driver. this is private because it should only used
@@ -131,32 +165,31 @@ public final class INDIPropertyInjector {
     }
 
     /**
-     * find an indi property in the collected properties till now with a
-     * specified name. is the name is empty take the last scanned property.
+     * find the declared field of a class and make it accessible, used by the
+     * generated injectors for private fields.
      *
-     * @param name                the name of the property to find.
-     * @param lastScannedProperty the last scanned property.
-     * @return the found property.
+     * @param clazz     the class declaring the field.
+     * @param fieldName the name of the field.
+     * @return the accessible field.
      */
-    private INDIProperty<?> findNamedProperty(String name, INDIProperty<?> lastScannedProperty) {
-        if (!name.isEmpty()) {
-            INDIProperty<?> property = properties.get(name);
-            if (property != null) {
-                return property;
-            }
+    public static Field declaredField(Class<?> clazz, String fieldName) {
+        try {
+            Field field = clazz.getDeclaredField(fieldName);
+            field.setAccessible(true);
+            return field;
+        } catch (Exception e) {
+            throw new IllegalArgumentException("could not access field " + fieldName + " of " + clazz, e);
         }
-        return lastScannedProperty;
     }
 
     /**
      * get the value of a field by reflection.
      *
+     * @param field  the accessible field
      * @param object the object to get the field from
-     * @param field  the field
      * @return the value of the field in the specified object
      */
-    private Object getFieldValue(Object object, Field field) {
-        field.setAccessible(true);
+    public static Object getFieldValue(Field field, Object object) {
         try {
             return field.get(object);
         } catch (Exception e) {
@@ -165,79 +198,198 @@ public final class INDIPropertyInjector {
     }
 
     /**
-     * Now we process the hirachie top to bottom (that's why the recursion is
-     * first and than the processing.
+     * set the value of a field by reflection.
      *
-     * @param instance the instance to inject
-     * @param clazz    the current class.
+     * @param field      the accessible field to set
+     * @param object     the object defining the field
+     * @param fieldValue the value to set the field to
      */
-    private void initializeAnnotatedClass(Object instance, Class<?> clazz) {
-        if (clazz != null) {
-            initializeAnnotatedClass(instance, clazz.getSuperclass());
-            for (Field field : clazz.getDeclaredFields()) {
-                initializeDriverExtension(instance, field);
-                initializeAnnotatedProperty(instance, field);
-                initializeAnnotatedElement(instance, field);
-            }
+    public static void setFieldValue(Field field, Object object, Object fieldValue) {
+        try {
+            field.set(object, fieldValue);
+        } catch (Exception e) {
+            throw new IllegalArgumentException("could not set indi element", e);
         }
     }
 
     /**
-     * inject the field value of the instance, if it is annotated with an
-     * InjectElement annotation. select the appropriate value from the type and
-     * the annotations.
+     * @return the driver that is being injected.
+     */
+    public INDIDriver getDriver() {
+        return driver;
+    }
+
+    /**
+     * start a property for a field annotated with {@link InjectProperty}.
      *
-     * @param instance the instance to fill
-     * @param field    the current field.
+     * @param propertyClass the type of the field.
+     * @return the builder to set the annotation values in.
      */
-    private void initializeAnnotatedElement(Object instance, Field field) {
-        InjectElement elem = field.getAnnotation(InjectElement.class);
-        if (elem != null) {
-            INDIProperty<?> propertyToConnect = findNamedProperty(elem.property(), lastProperty);
-            if (propertyToConnect != null) {
-                INDIElementBuilder<?> builder = propertyToConnect.newElement().set(elem);
-                builder.name(rename(builder.name()));
-                INDIElement lastElement = builder.create();
-                setFieldValue(instance, field, lastElement);
-            } else {
-                LOG.error("could not find property " + elem.property() + " for element " + field);
-            }
+    @SuppressWarnings("unchecked")
+    public INDIPropertyBuilder<INDIProperty<?>> newProperty(Class<?> propertyClass) {
+        return driver.newProperty((Class<INDIProperty<?>>) propertyClass);
+    }
+
+    /**
+     * create the property of a field annotated with {@link InjectProperty}
+     * in the current context (group and renaming), it becomes the property
+     * of the following elements.
+     *
+     * @param builder the builder with the annotation values.
+     * @return the new property.
+     */
+    public INDIProperty<?> property(INDIPropertyBuilder<INDIProperty<?>> builder) {
+        if (builder.isDefaultGroup()) {
+            builder.group(currentGroup);
         }
+        builder.name(rename(builder.name()));
+        lastProperty = builder.create();
+
+        if (builder.saveable()) {
+            lastProperty.setSaveable(true);
+        }
+        properties.put(lastProperty.getName(), lastProperty);
+        return lastProperty;
     }
 
     /**
-     * start method for the recursion, fill the object instance top down.
+     * start an element for a field annotated with {@link InjectElement}.
      *
-     * @param instance the instance to fill.
+     * @param propertyName the name of the property of the element, empty for
+     *                     the last created property.
+     * @param fieldName    the field (for the error message).
+     * @return the builder to set the annotation values in or null if there is
+     * no property for the element.
      */
-    private void initializeAnnotatedProperties(Object instance) {
-        initializeAnnotatedClass(instance, instance.getClass());
+    public INDIElementBuilder<?> newElement(String propertyName, String fieldName) {
+        INDIProperty<?> propertyToConnect = findNamedProperty(propertyName, lastProperty);
+        if (propertyToConnect == null) {
+            LOG.error("could not find property " + propertyName + " for element " + fieldName);
+            return null;
+        }
+        return propertyToConnect.newElement();
+    }
+
+    /**
+     * create the element of a field annotated with {@link InjectElement} in
+     * the current context (renaming).
+     *
+     * @param builder the builder with the annotation values.
+     * @return the new element.
+     */
+    public INDIElement element(INDIElementBuilder<?> builder) {
+        builder.name(rename(builder.name()));
+        return builder.create();
+    }
+
+    /**
+     * get the extension of a field of a driver extension type, the
+     * {@link InjectExtension} values are the context while the extension is
+     * constructed (and injected), after construction the context is reset.
+     *
+     * @param existing   the current value of the field.
+     * @param group      the group of the extension properties, empty for the
+     *                   current group.
+     * @param prefix     the prefix for the extension property and element
+     *                   names, empty for the current prefix.
+     * @param renamings  the renamings in the extension as pairs of name and
+     *                   new name, empty for the current renamings.
+     * @param factory    the constructor of the extension or null if it can
+     *                   not be constructed.
+     * @return the newly instantiated extension or the existing one if it was
+     * already set
+     */
+    public Object extension(Object existing, String group, String prefix, String[] renamings, Function<INDIDriver, Object> factory) {
+        String oldValue = currentGroup;
+        String oldPrefix = currentGroup;
+        String[] oldRenamings = currentRenamings;
+        try {
+            if (!group.isEmpty()) {
+                currentGroup = group;
+            }
+            if (!prefix.isEmpty()) {
+                currentPrefix = prefix;
+            }
+            if (renamings.length > 0) {
+                currentRenamings = renamings;
+            }
+            if (existing != null || factory == null) {
+                return existing;
+            }
+            try {
+                return factory.apply(driver);
+            } catch (RuntimeException e) {
+                LOG.error("Could not instanciate Driver extention", e);
+                return null;
+            }
+        } finally {
+            currentGroup = oldValue;
+            currentPrefix = oldPrefix;
+            currentRenamings = oldRenamings;
+        }
     }
 
     /**
-     * inject the field value of the instance, if it is annotated with an
-     * InjectProperty annotation. select the appropriate value from the type and
-     * the annotations.
+     * load the injector generated at compile time for the class.
      *
-     * @param instance the instance to fill
-     * @param field    the current field.
+     * @param clazz the class with the annotated fields.
+     * @return the generated injector or null if there is none.
      */
-    private void initializeAnnotatedProperty(Object instance, Field field) {
-        InjectProperty prop = field.getAnnotation(InjectProperty.class);
-        if (prop != null) {
-            INDIPropertyBuilder<INDIProperty<?>> builder = driver.newProperty((Class<INDIProperty<?>>) field.getType()).set(prop);
-            if (builder.isDefaultGroup()) {
-                builder.group(currentGroup);
+    private static INDIGeneratedInjector loadGeneratedInjector(Class<?> clazz) {
+        String name = clazz.getName().replace('$', '_') + INDIGeneratedInjector.SUFFIX;
+        try {
+            Class<?> injectorClass = Class.forName(name, true, clazz.getClassLoader());
+            if (INDIGeneratedInjector.class.isAssignableFrom(injectorClass)) {
+                return (INDIGeneratedInjector) injectorClass.getConstructor().newInstance();
             }
-            builder.name(rename(builder.name()));
-            lastProperty = builder.create();
+            LOG.warn("ignoring " + name + " it is no generated injector");
+        } catch (ClassNotFoundException e) {
+            LOG.trace("no generated injector for " + clazz + ", using reflection");
+        } catch (Exception | LinkageError e) {
+            LOG.warn("could not load generated injector " + name + ", using reflection", e);
+        }
+        return null;
+    }
 
-            if (prop.saveable()) {
-                lastProperty.setSaveable(true);
+    /**
+     * find an indi property in the collected properties till now with a
+     * specified name. is the name is empty take the last scanned property.
+     *
+     * @param name                the name of the property to find.
+     * @param lastScannedProperty the last scanned property.
+     * @return the found property.
+     */
+    private INDIProperty<?> findNamedProperty(String name, INDIProperty<?> lastScannedProperty) {
+        if (!name.isEmpty()) {
+            INDIProperty<?> property = properties.get(name);
+            if (property != null) {
+                return property;
             }
-            properties.put(lastProperty.getName(), lastProperty);
-            setFieldValue(instance, field, lastProperty);
         }
+        return lastScannedProperty;
+    }
+
+    /**
+     * Now we process the hirachie top to bottom (that's why the recursion is
+     * first and than the processing.
+     *
+     * @param instance the instance to inject
+     * @param clazz    the current class.
+     */
+    private void initializeAnnotatedClass(Object instance, Class<?> clazz) {
+        if (clazz != null && clazz != Object.class) {
+            initializeAnnotatedClass(instance, clazz.getSuperclass());
+            INJECTORS.get(clazz).inject(this, instance);
+        }
+    }
+
+    /**
+     * start method for the recursion, fill the object instance top down.
+     *
+     * @param instance the instance to fill.
+     */
+    private void initializeAnnotatedProperties(Object instance) {
+        initializeAnnotatedClass(instance, instance.getClass());
     }
 
     /**
@@ -248,9 +400,9 @@ public final class INDIPropertyInjector {
      */
     private String rename(String name) {
         if (currentRenamings != null) {
-            for (Rename rename : currentRenamings) {
-                if (rename.name().equals(name)) {
-                    return rename.to();
+            for (int index = 0; index < currentRenamings.length; index += 2) {
+                if (currentRenamings[index].equals(name)) {
+                    return currentRenamings[index + 1];
                 }
             }
         }
@@ -261,80 +413,110 @@ public final class INDIPropertyInjector {
     }
 
     /**
-     * If the field is a driver extension, the context is set for the injection
-     * of the extension, after construction the context is reset.
-     *
-     * @param instance the instance in which the extension will be injected
-     * @param field    the field that specifies the extension.
+     * The fallback injector for classes without a generated injector, it scans
+     * the declared fields of the class once and injects them by reflection.
      */
-    private void initializeDriverExtension(Object instance, Field field) {
-        if (INDIDriverExtension.class.isAssignableFrom(field.getType())) {
-            InjectExtension extentionAnnot = field.getAnnotation(InjectExtension.class);
-            String oldValue = currentGroup;
-            String oldPrefix = currentGroup;
-            Rename[] oldRenamings = currentRenamings;
-            try {
-                if (extentionAnnot != null) {
-                    if (!extentionAnnot.group().isEmpty()) {
-                        currentGroup = extentionAnnot.group();
-                    }
-                    if (!extentionAnnot.prefix().isEmpty()) {
-                        currentPrefix = extentionAnnot.prefix();
-                    }
-                    if (extentionAnnot.rename().length > 0) {
-                        currentRenamings = extentionAnnot.rename();
-                    }
+    private static final class ReflectiveInjector implements INDIGeneratedInjector {
+
+        /**
+         * the (accessible) fields of the class that are injected, in the
+         * order of their declaration.
+         */
+        private final Field[] fields;
+
+        /**
+         * the constructors of the extension fields, null for the other fields
+         * and for extensions that can not be constructed.
+         */
+        private final List<Function<INDIDriver, Object>> factories = new ArrayList<>();
+
+        /**
+         * scan the class.
+         *
+         * @param clazz the class declaring the fields.
+         */
+        private ReflectiveInjector(Class<?> clazz) {
+            List<Field> injected = new ArrayList<>();
+            for (Field field : clazz.getDeclaredFields()) {
+                boolean extension = INDIDriverExtension.class.isAssignableFrom(field.getType());
+                if (extension || field.isAnnotationPresent(InjectProperty.class) || field.isAnnotationPresent(InjectElement.class)) {
+                    field.setAccessible(true);
+                    injected.add(field);
+                    factories.add(extension ? extensionFactory(field.getType()) : null);
                 }
-                INDIDriverExtension<?> driverExtension = instanciateDriverExtension(instance, field);
-                setFieldValue(instance, field, driverExtension);
-            } finally {
-                currentGroup = oldValue;
-                currentPrefix = oldPrefix;
-                currentRenamings = oldRenamings;
             }
+            fields = injected.toArray(new Field[injected.size()]);
         }
-    }
 
-    /**
-     * search the constructor that has a driver as a parameter and call it.
-     *
-     * @param instance the instance in which the extension will be injected
-     * @param field    the field that specifies the extension.
-     * @return the newly instantiated extension or the existing one if it was
-     * already set
-     */
-    private INDIDriverExtension<?> instanciateDriverExtension(Object instance, Field field) {
-        INDIDriverExtension<?> driverExtension = null;
-        try {
-            driverExtension = (INDIDriverExtension<?>) getFieldValue(instance, field);
-            if (driverExtension == null) {
-                for (Constructor<?> constructor : field.getType().getConstructors()) {
-                    if (constructor.getParameterTypes().length == 1 && INDIDriver.class.isAssignableFrom(constructor.getParameterTypes()[0])) {
-                        driverExtension = (INDIDriverExtension<?>) constructor.newInstance(driver);
-                        break;
+        /**
+         * search the constructor that has a driver as a parameter.
+         *
+         * @param type the type of the extension.
+         * @return the constructor as a function or null if there is none.
+         */
+        private static Function<INDIDriver, Object> extensionFactory(Class<?> type) {
+            for (Constructor<?> constructor : type.getConstructors()) {
+                if (constructor.getParameterTypes().length == 1 && INDIDriver.class.isAssignableFrom(constructor.getParameterTypes()[0])) {
+                    return driver -> {
+                        try {
+                            return constructor.newInstance(driver);
+                        } catch (Exception e) {
+                            throw new IllegalStateException("could not construct " + type, e);
+                        }
+                    };
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public void inject(INDIPropertyInjector injector, Object instance) {
+            for (int index = 0; index < fields.length; index++) {
+                Field field = fields[index];
+                if (INDIDriverExtension.class.isAssignableFrom(field.getType())) {
+                    injectExtension(injector, instance, field, factories.get(index));
+                }
+                InjectProperty prop = field.getAnnotation(InjectProperty.class);
+                if (prop != null) {
+                    setFieldValue(field, instance, injector.property(injector.newProperty(field.getType()).set(prop)));
+                }
+                InjectElement elem = field.getAnnotation(InjectElement.class);
+                if (elem != null) {
+                    INDIElementBuilder<?> builder = injector.newElement(elem.property(), field.toString());
+                    if (builder != null) {
+                        setFieldValue(field, instance, injector.element(builder.set(elem)));
                     }
                 }
             }
-        } catch (Exception e) {
-            LOG.error("Could not instanciate Driver extention", e);
         }
-        return driverExtension;
-    }
 
-    /**
-     * set the value of a field by reflection.
-     *
-     * @param object     the object defining the field
-     * @param field      the field to set
-     * @param fieldValue the value to set the field to
-     */
-    private void setFieldValue(Object object, Field field, Object fieldValue) {
-        field.setAccessible(true);
-        try {
-            field.set(object, fieldValue);
-        } catch (Exception e) {
-            throw new IllegalArgumentException("could not set indi element", e);
+        /**
+         * If the field is a driver extension, the context is set for the
+         * injection of the extension, after construction the context is
+         * reset.
+         *
+         * @param injector the running injection.
+         * @param instance the instance in which the extension will be
+         *                 injected
+         * @param field    the field that specifies the extension.
+         * @param factory  the constructor of the extension.
+         */
+        private static void injectExtension(INDIPropertyInjector injector, Object instance, Field field, Function<INDIDriver, Object> factory) {
+            InjectExtension extentionAnnot = field.getAnnotation(InjectExtension.class);
+            String group = "";
+            String prefix = "";
+            String[] renamings = new String[0];
+            if (extentionAnnot != null) {
+                group = extentionAnnot.group();
+                prefix = extentionAnnot.prefix();
+                Rename[] renames = extentionAnnot.rename();
+                renamings = new String[renames.length * 2];
+                for (int index = 0; index < renames.length; index++) {
+                    renamings[index * 2] = renames[index].name();
+                    renamings[index * 2 + 1] = renames[index].to();
+                }
+            }
+            setFieldValue(field, instance, injector.extension(getFieldValue(field, instance), group, prefix, renamings, factory));
         }
     }
-
 }
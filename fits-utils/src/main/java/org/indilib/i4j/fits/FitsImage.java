@@ -14,6 +14,9 @@ import org.slf4j.LoggerFactory;
 import java.awt.image.BufferedImage;
 import java.io.ByteArrayInputStream;
 import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 /*
  * #%L
@@ -49,6 +52,34 @@ public final class FitsImage {
      */
     private static final Logger LOG = LoggerFactory.getLogger(FitsImage.class);
 
+    /**
+     * the level the background (median) of an auto stretched image gets.
+     */
+    private static final double STRETCH_TARGET_BACKGROUND = 0.25d;
+
+    /**
+     * the shadows are clipped this number of (normalized) median absolute
+     * deviations below the median.
+     */
+    private static final double STRETCH_SHADOWS_CLIPPING = -2.8d;
+
+    /**
+     * factor from the median absolute deviation to the standard deviation of
+     * a normal distribution.
+     */
+    private static final double MAD_TO_SIGMA = 1.4826d;
+
+    /**
+     * the maximum number of pixel values the stretch statistics are taken
+     * from, larger images are sampled.
+     */
+    private static final int STRETCH_STATISTICS_SAMPLES = 1 << 20;
+
+    /**
+     * the neutral midtones balance (no change).
+     */
+    private static final double NEUTRAL_MIDTONES = 0.5d;
+
     /**
      * utility class.
      */
@@ -82,6 +113,19 @@ public final class FitsImage {
      * @return the java buffered image
      */
     public static BufferedImage asJavaImage(Fits fitsImage) {
+        return asJavaImage(fitsImage, false);
+    }
+
+    /**
+     * convert a fits image to a java displayable image, debayer it if
+     * Necessary.
+     *
+     * @param fitsImage the image to convert
+     * @param stretch   should the image be auto stretched (see
+     *                  {@link #stretch(RGBImagePixels)}).
+     * @return the java buffered image
+     */
+    public static BufferedImage asJavaImage(Fits fitsImage, boolean stretch) {
         try {
             BasicHDU<?> oneImage = fitsImage.getHDU(0);
             String bayerpat = oneImage.getHeader().getStringValue(MaxImDLExt.BAYERPAT);
@@ -110,10 +154,98 @@ public final class FitsImage {
                 Object blue = Array.get(oneImage.getKernel(), 2);
                 result.getBlue().setPixel(blue);
             }
+            if (stretch) {
+                stretch(result);
+            }
             return result.asImage();
         } catch (Exception e) {
             LOG.error("could not fits image to java image", e);
             return null;
         }
     }
+
+    /**
+     * auto stretch the image for display, in place. The shadows are clipped
+     * below the background noise and a midtones transfer function brings the
+     * background (median) to a fixed grey level, so faint details of a linear
+     * astronomical image become visible. The channels are stretched together
+     * (linked), the colors keep their balance.
+     *
+     * @param image the image with pixel values between 0 and 1.
+     */
+    public static void stretch(RGBImagePixels image) {
+        List<ImagePixels> channels = new ArrayList<>();
+        for (ImagePixels channel : new ImagePixels[]{
+            image.getRed(),
+            image.getGreen(),
+            image.getBlue()
+        }) {
+            if (!channels.contains(channel)) {
+                channels.add(channel);
+            }
+        }
+        double[] samples = statisticSamples(channels);
+        if (samples.length == 0) {
+            return;
+        }
+        Arrays.sort(samples);
+        double median = samples[samples.length / 2];
+        for (int index = 0; index < samples.length; index++) {
+            samples[index] = Math.abs(samples[index] - median);
+        }
+        Arrays.sort(samples);
+        double sigma = samples[samples.length / 2] * MAD_TO_SIGMA;
+        double shadows = Math.min(median, Math.max(0d, median + STRETCH_SHADOWS_CLIPPING * sigma));
+        double range = 1d - shadows;
+        if (range <= 0d) {
+            return;
+        }
+        double background = (median - shadows) / range;
+        double midtones = background > 0d ? midtonesTransfer(STRETCH_TARGET_BACKGROUND, background) : NEUTRAL_MIDTONES;
+        for (ImagePixels channel : channels) {
+            double[] pixel = channel.pixel();
+            for (int index = 0; index < pixel.length; index++) {
+                pixel[index] = midtonesTransfer(midtones, (pixel[index] - shadows) / range);
+            }
+        }
+    }
+
+    /**
+     * @param channels the channels of the image.
+     * @return the pixel values to take the statistics from, every value of a
+     * small image or an evenly spaced sample of a large one.
+     */
+    private static double[] statisticSamples(List<ImagePixels> channels) {
+        long total = 0;
+        for (ImagePixels channel : channels) {
+            total += channel.pixel().length;
+        }
+        int step = (int) Math.max(1L, (total + STRETCH_STATISTICS_SAMPLES - 1) / STRETCH_STATISTICS_SAMPLES);
+        double[] samples = new double[(int) (total / step) + channels.size()];
+        int count = 0;
+        for (ImagePixels channel : channels) {
+            double[] pixel = channel.pixel();
+            for (int index = 0; index < pixel.length; index += step) {
+                samples[count++] = pixel[index];
+            }
+        }
+        return Arrays.copyOf(samples, count);
+    }
+
+    /**
+     * the midtones transfer function, it maps 0 to 0, 1 to 1 and the midtones
+     * balance to 0.5.
+     *
+     * @param midtones the midtones balance.
+     * @param value    the value to map, clipped to 0..1.
+     * @return the mapped value.
+     */
+    private static double midtonesTransfer(double midtones, double value) {
+        if (value <= 0d) {
+            return 0d;
+        } else if (value >= 1d) {
+            return 1d;
+        }
+        return (midtones - 1d) * value / ((2d * midtones - 1d) * value - midtones);
+    }
 }
\ No newline at end of file
@@ -219,8 +219,8 @@ public class RGBImagePixels {
         BufferedImage result = new BufferedImage(red.getWidth(), red.getHeight(), BufferedImage.TYPE_INT_RGB);
         for (int index = 0; index < redPixel.length; index++) {
             int redPixelValue = (int) scalePixel(redPixel[index], max);
-            int greenPixelValue = (int) scalePixel(bluePixel[index], max);
-            int bluePixelValue = (int) scalePixel(greenPixel[index], max);
+            int greenPixelValue = (int) scalePixel(greenPixel[index], max);
+            int bluePixelValue = (int) scalePixel(bluePixel[index], max);
             result.setRGB(x, y, new Color(redPixelValue, greenPixelValue, bluePixelValue).getRGB());
             x++;
             if (x >= red.getWidth()) {
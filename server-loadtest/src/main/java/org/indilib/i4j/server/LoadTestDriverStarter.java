@@ -0,0 +1,63 @@
+package org.indilib.i4j.server;
+
+/*
+ * #%L
+ * INDI for Java Server Load Test
+ * %%
+ * Copyright (C) 2013 - 2014 indiforjava
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+
+import org.indilib.i4j.INDIException;
+import org.indilib.i4j.server.api.INDIDeviceInterface;
+import org.indilib.i4j.server.api.INDIServerInterface;
+
+import java.util.concurrent.Future;
+
+/**
+ * Starts the same driver class more than once in an in-process server, which
+ * the public server api does not offer. It lives in the package of the server
+ * to reach the package private start with an own identifier, but belongs to
+ * the load test only.
+ *
+ * @author Richard van Nieuwenhoven
+ */
+public final class LoadTestDriverStarter {
+
+    /**
+     * utility class.
+     */
+    private LoadTestDriverStarter() {
+    }
+
+    /**
+     * start a java driver class in the background under an own identifier.
+     *
+     * @param server     the in-process server.
+     * @param cls        the driver class.
+     * @param identifier the UNIQUE identifier of the device.
+     * @return the future of the started device.
+     * @throws INDIException if the driver is already loaded or starting.
+     */
+    public static Future<INDIDeviceInterface> startJavaDriver(INDIServerInterface server, Class<?> cls, String identifier) throws INDIException {
+        if (!(server instanceof INDIServer)) {
+            throw new INDIException("the load test needs an in-process server, not " + server);
+        }
+        return ((INDIServer) server).startJavaDriver(cls, identifier);
+    }
+}
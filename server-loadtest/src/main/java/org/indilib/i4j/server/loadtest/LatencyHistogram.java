@@ -0,0 +1,152 @@
+package org.indilib.i4j.server.loadtest;
+
+/*
+ * #%L
+ * INDI for Java Server Load Test
+ * %%
+ * Copyright (C) 2013 - 2014 indiforjava
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A thread safe histogram of latencies in microseconds with logarithmic
+ * buckets (the relative error of a bucket is about 3%), so any number of
+ * samples can be recorded without keeping them in memory.
+ *
+ * @author Richard van Nieuwenhoven
+ */
+public class LatencyHistogram {
+
+    /**
+     * values below this limit get an exact bucket.
+     */
+    private static final int LINEAR_LIMIT = 64;
+
+    /**
+     * the number of sub buckets per power of two.
+     */
+    private static final int SUB_BUCKETS = 32;
+
+    /**
+     * the number of bits of the sub bucket index.
+     */
+    private static final int SUB_BUCKET_BITS = 5;
+
+    /**
+     * the most significant bit of the first logarithmic bucket.
+     */
+    private static final int FIRST_MSB = 6;
+
+    /**
+     * the total number of buckets.
+     */
+    private static final int BUCKETS = LINEAR_LIMIT + (Long.SIZE - FIRST_MSB) * SUB_BUCKETS;
+
+    /**
+     * the sample counts per bucket.
+     */
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    /**
+     * the total number of samples.
+     */
+    private final AtomicLong count = new AtomicLong();
+
+    /**
+     * the largest sample.
+     */
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * record one latency.
+     *
+     * @param micros the latency in microseconds.
+     */
+    public void record(long micros) {
+        long value = Math.max(0L, micros);
+        counts.incrementAndGet(bucket(value));
+        count.incrementAndGet();
+        long currentMax = max.get();
+        while (value > currentMax && !max.compareAndSet(currentMax, value)) {
+            currentMax = max.get();
+        }
+    }
+
+    /**
+     * @return the number of recorded samples.
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * @return the largest recorded sample in microseconds.
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * @param percentile the percentile between 0 and 100.
+     * @return the latency in microseconds below which the percentile of the
+     * samples lies.
+     */
+    public long getPercentile(double percentile) {
+        long total = count.get();
+        if (total == 0) {
+            return 0L;
+        }
+        long target = Math.max(1L, (long) Math.ceil(total * percentile / 100d));
+        long seen = 0;
+        for (int index = 0; index < BUCKETS; index++) {
+            seen += counts.get(index);
+            if (seen >= target) {
+                return Math.min(upperBound(index), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * @param value the latency.
+     * @return the index of the bucket of the latency.
+     */
+    private static int bucket(long value) {
+        if (value < LINEAR_LIMIT) {
+            return (int) value;
+        }
+        int msb = Long.SIZE - 1 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (msb - SUB_BUCKET_BITS)) - SUB_BUCKETS;
+        return LINEAR_LIMIT + (msb - FIRST_MSB) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * @param index the index of the bucket.
+     * @return the largest latency in the bucket.
+     */
+    private static long upperBound(int index) {
+        if (index < LINEAR_LIMIT) {
+            return index;
+        }
+        int msb = (index - LINEAR_LIMIT) / SUB_BUCKETS + FIRST_MSB;
+        long top = (index - LINEAR_LIMIT) % SUB_BUCKETS + SUB_BUCKETS;
+        return ((top + 1) << (msb - SUB_BUCKET_BITS)) - 1;
+    }
+}
@@ -0,0 +1,229 @@
+package org.indilib.i4j.server.loadtest;
+
+/*
+ * #%L
+ * INDI for Java Server Load Test
+ * %%
+ * Copyright (C) 2013 - 2014 indiforjava
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import org.indilib.i4j.server.INDIServerAccessImpl;
+import org.indilib.i4j.server.LoadTestDriverStarter;
+import org.indilib.i4j.server.api.INDIDeviceInterface;
+import org.indilib.i4j.server.api.INDIServerInterface;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Finds the scaling limits of the server: starts an in-process server with M
+ * synthetic drivers and N synthetic clients (some of them slow readers or
+ * BLOB receivers), lets them run and reports the end-to-end latency
+ * percentiles, the throughput and the cpu and allocation per message. See
+ * {@link LoadTestConfiguration} for the arguments.
+ *
+ * @author Richard van Nieuwenhoven
+ */
+public final class LoadTest {
+
+    /**
+     * the host the server binds to.
+     */
+    private static final String HOST = "localhost";
+
+    /**
+     * the number of nanoseconds in a microsecond.
+     */
+    private static final double NANOS_PER_MICRO = 1000d;
+
+    /**
+     * the number of nanoseconds in a second.
+     */
+    private static final double NANOS_PER_SECOND = 1000000000d;
+
+    /**
+     * the number of bytes in a megabyte.
+     */
+    private static final double MEGABYTE = 1024d * 1024d;
+
+    /**
+     * the percentiles to report.
+     */
+    private static final double[] PERCENTILES = {
+        50d,
+        90d,
+        99d,
+        99.9d
+    };
+
+    /**
+     * the configuration of the run.
+     */
+    private final LoadTestConfiguration configuration;
+
+    /**
+     * the measurements of the run.
+     */
+    private final LoadTestResults results = new LoadTestResults();
+
+    /**
+     * constructor.
+     *
+     * @param configuration the configuration of the run.
+     */
+    private LoadTest(LoadTestConfiguration configuration) {
+        this.configuration = configuration;
+    }
+
+    /**
+     * run the load test.
+     *
+     * @param args the <code>name=value</code> settings, see
+     *             {@link LoadTestConfiguration}.
+     * @throws Exception if the load test could not be started.
+     */
+    public static void main(String[] args) throws Exception {
+        new LoadTest(LoadTestConfiguration.parse(args)).run();
+    }
+
+    /**
+     * start the server, drivers and clients, measure and report.
+     *
+     * @throws Exception if the load test could not be started.
+     */
+    private void run() throws Exception {
+        System.out.println("load test with " + configuration);
+        LoadTestDriver.setConfiguration(configuration);
+        INDIServerInterface server = new INDIServerAccessImpl().createOrGet(HOST, configuration.getPort());
+        List<Future<INDIDeviceInterface>> drivers = new ArrayList<>();
+        for (int index = 0; index < configuration.getDrivers(); index++) {
+            drivers.add(LoadTestDriverStarter.startJavaDriver(server, LoadTestDriver.class, "loadtest+-+" + index + "+-+"));
+        }
+        for (Future<INDIDeviceInterface> driver : drivers) {
+            driver.get();
+        }
+        List<LoadTestClient> clients = new ArrayList<>();
+        for (int index = 0; index < configuration.getClients(); index++) {
+            long delay = index < configuration.getSlowClients() ? configuration.getSlowDelay() : 0L;
+            boolean blobs = index >= configuration.getClients() - configuration.getBlobClients();
+            LoadTestClient client = new LoadTestClient(server, delay, blobs, results);
+            client.start();
+            clients.add(client);
+        }
+
+        TimeUnit.SECONDS.sleep(configuration.getWarmup());
+        long cpuStart = processCpuTime();
+        long allocatedStart = allocatedBytes();
+        long sentStart = LoadTestDriver.getUpdatesSent();
+        long start = System.nanoTime();
+        results.setMeasuring(true);
+        TimeUnit.SECONDS.sleep(configuration.getDuration());
+        results.setMeasuring(false);
+        double seconds = (System.nanoTime() - start) / NANOS_PER_SECOND;
+        long cpu = processCpuTime() - cpuStart;
+        long allocated = allocatedBytes() - allocatedStart;
+        long sent = LoadTestDriver.getUpdatesSent() - sentStart;
+
+        report(seconds, sent, cpu, allocated);
+
+        for (LoadTestClient client : clients) {
+            client.stop();
+        }
+        server.stopServer();
+    }
+
+    /**
+     * print the results of the run.
+     *
+     * @param seconds   the duration of the measurement.
+     * @param sent      the number of updates sent by the drivers.
+     * @param cpu       the cpu nanoseconds used by the process.
+     * @param allocated the bytes allocated by all threads.
+     */
+    private void report(double seconds, long sent, long cpu, long allocated) {
+        long received = results.getReceived();
+        System.out.println(String.format(Locale.US, "sent      %12.1f updates/s", sent / seconds));
+        System.out.println(String.format(Locale.US, "received  %12.1f updates/s", received / seconds));
+        System.out.println(String.format(Locale.US, "blobs     %12.1f MB/s", results.getBlobBytes() / seconds / MEGABYTE));
+        reportLatency("latency numbers", results.getNumberLatency());
+        reportLatency("latency blobs", results.getBlobLatency());
+        if (received > 0) {
+            if (cpu >= 0) {
+                System.out.println(String.format(Locale.US, "cpu       %12.1f us/update", cpu / NANOS_PER_MICRO / received));
+            }
+            if (allocated >= 0) {
+                System.out.println(String.format(Locale.US, "allocated %12.0f bytes/update", (double) allocated / received));
+            }
+        }
+    }
+
+    /**
+     * print the percentiles of a latency histogram.
+     *
+     * @param title     the title of the line.
+     * @param histogram the latencies.
+     */
+    private static void reportLatency(String title, LatencyHistogram histogram) {
+        if (histogram.getCount() == 0) {
+            return;
+        }
+        StringBuilder line = new StringBuilder(title).append(" (us):");
+        for (double percentile : PERCENTILES) {
+            line.append(String.format(Locale.US, " p%s=%d", percentile % 1 == 0 ? Integer.toString((int) percentile) : Double.toString(percentile),
+                    histogram.getPercentile(percentile)));
+        }
+        line.append(" max=").append(histogram.getMax()).append(" count=").append(histogram.getCount());
+        System.out.println(line);
+    }
+
+    /**
+     * @return the cpu nanoseconds used by the process or -1 if the jvm does
+     * not tell.
+     */
+    private static long processCpuTime() {
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof com.sun.management.OperatingSystemMXBean) {
+            return ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime();
+        }
+        return -1L;
+    }
+
+    /**
+     * @return the bytes allocated by all live threads or -1 if the jvm does
+     * not tell.
+     */
+    private static long allocatedBytes() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            long sum = 0;
+            for (long bytes : ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(threads.getAllThreadIds())) {
+                if (bytes > 0) {
+                    sum += bytes;
+                }
+            }
+            return sum;
+        }
+        return -1L;
+    }
+}
@@ -0,0 +1,208 @@
+package org.indilib.i4j.server.loadtest;
+
+/*
+ * #%L
+ * INDI for Java Server Load Test
+ * %%
+ * Copyright (C) 2013 - 2014 indiforjava
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import org.indilib.i4j.Constants.BLOBEnables;
+import org.indilib.i4j.INDIBLOBValue;
+import org.indilib.i4j.client.INDIBLOBElement;
+import org.indilib.i4j.client.INDIBLOBProperty;
+import org.indilib.i4j.client.INDIDevice;
+import org.indilib.i4j.client.INDIDeviceListener;
+import org.indilib.i4j.client.INDINumberElement;
+import org.indilib.i4j.client.INDINumberProperty;
+import org.indilib.i4j.client.INDIProperty;
+import org.indilib.i4j.client.INDIPropertyListener;
+import org.indilib.i4j.client.INDIServerConnection;
+import org.indilib.i4j.client.INDIServerConnectionListener;
+import org.indilib.i4j.protocol.io.INDIPipedConnections;
+import org.indilib.i4j.server.api.INDIServerInterface;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Date;
+
+/**
+ * A synthetic client for the load test. It connects with an in-process
+ * connection to the server, listens to all properties of the synthetic drivers and records the
+ * end-to-end latency of every update. Slow clients need the configured time
+ * per update, BLOB clients also receive the BLOBs.
+ *
+ * @author Richard van Nieuwenhoven
+ */
+public class LoadTestClient implements INDIServerConnectionListener, INDIDeviceListener, INDIPropertyListener {
+
+    /**
+     * Logger to log to.
+     */
+    private static final Logger LOG = LoggerFactory.getLogger(LoadTestClient.class);
+
+    /**
+     * the number of nanoseconds in a microsecond.
+     */
+    private static final long NANOS_PER_MICRO = 1000L;
+
+    /**
+     * the server to connect to.
+     */
+    private final INDIServerInterface server;
+
+    /**
+     * the in-process connection, the first end belongs to the server.
+     */
+    private final INDIPipedConnections pipes = new INDIPipedConnections();
+
+    /**
+     * the connection to the server.
+     */
+    private final INDIServerConnection connection;
+
+    /**
+     * the milliseconds needed per update, 0 for a fast client.
+     */
+    private final long delay;
+
+    /**
+     * should the client receive BLOBs?
+     */
+    private final boolean blobs;
+
+    /**
+     * where to record the measurements.
+     */
+    private final LoadTestResults results;
+
+    /**
+     * constructor.
+     *
+     * @param server  the server to connect to.
+     * @param delay   the milliseconds needed per update, 0 for a fast client.
+     * @param blobs   should the client receive BLOBs?
+     * @param results where to record the measurements.
+     */
+    public LoadTestClient(INDIServerInterface server, long delay, boolean blobs, LoadTestResults results) {
+        this.server = server;
+        connection = new INDIServerConnection(pipes.second());
+        this.delay = delay;
+        this.blobs = blobs;
+        this.results = results;
+    }
+
+    /**
+     * connect to the server and ask for all devices.
+     *
+     * @throws IOException if the connection failed.
+     */
+    public void start() throws IOException {
+        if (!server.addConnection(pipes.first())) {
+            throw new IOException("the server refused the connection");
+        }
+        connection.addINDIServerConnectionListener(this);
+        connection.connect();
+        connection.askForDevices();
+    }
+
+    /**
+     * disconnect from the server. Closing a piped connection does not wake
+     * up its readers, so both directions get an end of stream and the reader
+     * threads of the client and the server end.
+     */
+    public void stop() {
+        connection.disconnect();
+        try {
+            pipes.second().getINDIOutputStream().close();
+            pipes.first().getINDIOutputStream().close();
+        } catch (IOException e) {
+            LOG.warn("could not close the connection", e);
+        }
+    }
+
+    @Override
+    public void newDevice(INDIServerConnection serverConnection, INDIDevice device) {
+        if (device.getName().startsWith(LoadTestDriver.DEVICE_NAME_PREFIX)) {
+            device.addINDIDeviceListener(this);
+            if (blobs) {
+                try {
+                    device.blobsEnable(BLOBEnables.ALSO);
+                } catch (IOException e) {
+                    LOG.warn("could not enable blobs", e);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void removeDevice(INDIServerConnection serverConnection, INDIDevice device) {
+        device.removeINDIDeviceListener(this);
+    }
+
+    @Override
+    public void connectionLost(INDIServerConnection serverConnection) {
+        LOG.warn("load test client lost the connection");
+    }
+
+    @Override
+    public void newMessage(INDIServerConnection serverConnection, Date timestamp, String message) {
+    }
+
+    @Override
+    public void newProperty(INDIDevice device, INDIProperty<?> property) {
+        property.addINDIPropertyListener(this);
+    }
+
+    @Override
+    public void removeProperty(INDIDevice device, INDIProperty<?> property) {
+        property.removeINDIPropertyListener(this);
+    }
+
+    @Override
+    public void messageChanged(INDIDevice device) {
+    }
+
+    @Override
+    public void propertyChanged(INDIProperty<?> property) {
+        long now = LoadTestDriver.timestamp();
+        if (property instanceof INDINumberProperty) {
+            INDINumberElement stamp = ((INDINumberProperty) property).getElement(LoadTestDriver.STAMP_ELEMENT);
+            if (stamp != null) {
+                results.numberReceived((now - stamp.getValue().longValue()) / NANOS_PER_MICRO);
+            }
+        } else if (property instanceof INDIBLOBProperty) {
+            for (INDIBLOBElement element : ((INDIBLOBProperty) property).getElementsAsList()) {
+                INDIBLOBValue value = element.getValue();
+                if (value != null && value.getBlobData() != null && value.getBlobData().length >= Long.SIZE / Byte.SIZE) {
+                    long sent = ByteBuffer.wrap(value.getBlobData()).getLong();
+                    results.blobReceived((now - sent) / NANOS_PER_MICRO, value.getBlobData().length);
+                }
+            }
+        }
+        if (delay > 0) {
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
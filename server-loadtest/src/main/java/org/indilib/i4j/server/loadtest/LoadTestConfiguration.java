@@ -0,0 +1,253 @@
+package org.indilib.i4j.server.loadtest;
+
+/*
+ * #%L
+ * INDI for Java Server Load Test
+ * %%
+ * Copyright (C) 2013 - 2014 indiforjava
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.util.Locale;
+
+/**
+ * The settings of a load test run. Every setting can be changed with a
+ * <code>name=value</code> argument, for example <code>drivers=10 clients=50
+ * blobSize=1048576</code>.
+ *
+ * @author Richard van Nieuwenhoven
+ */
+public class LoadTestConfiguration {
+
+    /**
+     * the port the in-process server listens to.
+     */
+    private int port = 17624;
+
+    /**
+     * the number of synthetic drivers.
+     */
+    private int drivers = 4;
+
+    /**
+     * the number of number properties per driver.
+     */
+    private int properties = 10;
+
+    /**
+     * the updates per second of every number property.
+     */
+    private double rate = 10d;
+
+    /**
+     * the size of the BLOBs in bytes, 0 for no BLOB property.
+     */
+    private int blobSize = 0;
+
+    /**
+     * the BLOB updates per second of every driver.
+     */
+    private double blobRate = 1d;
+
+    /**
+     * the number of synthetic clients.
+     */
+    private int clients = 10;
+
+    /**
+     * the number of clients that are slow readers.
+     */
+    private int slowClients = 0;
+
+    /**
+     * the milliseconds a slow reader needs per message.
+     */
+    private long slowDelay = 10L;
+
+    /**
+     * the number of clients that enable BLOBs.
+     */
+    private int blobClients = 0;
+
+    /**
+     * the seconds before the measurement starts.
+     */
+    private int warmup = 5;
+
+    /**
+     * the seconds of the measurement.
+     */
+    private int duration = 30;
+
+    /**
+     * parse the arguments of the load test.
+     *
+     * @param args the <code>name=value</code> arguments.
+     * @return the configuration.
+     */
+    public static LoadTestConfiguration parse(String[] args) {
+        LoadTestConfiguration configuration = new LoadTestConfiguration();
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            if (separator <= 0) {
+                throw new IllegalArgumentException("argument " + arg + " is not of the form name=value");
+            }
+            configuration.set(arg.substring(0, separator).trim(), arg.substring(separator + 1).trim());
+        }
+        return configuration;
+    }
+
+    /**
+     * change one setting.
+     *
+     * @param name  the name of the setting.
+     * @param value the new value.
+     */
+    private void set(String name, String value) {
+        switch (name) {
+            case "port":
+                port = Integer.parseInt(value);
+                break;
+            case "drivers":
+                drivers = Integer.parseInt(value);
+                break;
+            case "properties":
+                properties = Integer.parseInt(value);
+                break;
+            case "rate":
+                rate = Double.parseDouble(value);
+                break;
+            case "blobSize":
+                blobSize = Integer.parseInt(value);
+                break;
+            case "blobRate":
+                blobRate = Double.parseDouble(value);
+                break;
+            case "clients":
+                clients = Integer.parseInt(value);
+                break;
+            case "slowClients":
+                slowClients = Integer.parseInt(value);
+                break;
+            case "slowDelay":
+                slowDelay = Long.parseLong(value);
+                break;
+            case "blobClients":
+                blobClients = Integer.parseInt(value);
+                break;
+            case "warmup":
+                warmup = Integer.parseInt(value);
+                break;
+            case "duration":
+                duration = Integer.parseInt(value);
+                break;
+            default:
+                throw new IllegalArgumentException("unknown setting " + name);
+        }
+    }
+
+    /**
+     * @return the port the in-process server listens to.
+     */
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * @return the number of synthetic drivers.
+     */
+    public int getDrivers() {
+        return drivers;
+    }
+
+    /**
+     * @return the number of number properties per driver.
+     */
+    public int getProperties() {
+        return properties;
+    }
+
+    /**
+     * @return the updates per second of every number property.
+     */
+    public double getRate() {
+        return rate;
+    }
+
+    /**
+     * @return the size of the BLOBs in bytes, 0 for no BLOB property.
+     */
+    public int getBlobSize() {
+        return blobSize;
+    }
+
+    /**
+     * @return the BLOB updates per second of every driver.
+     */
+    public double getBlobRate() {
+        return blobRate;
+    }
+
+    /**
+     * @return the number of synthetic clients.
+     */
+    public int getClients() {
+        return clients;
+    }
+
+    /**
+     * @return the number of clients that are slow readers.
+     */
+    public int getSlowClients() {
+        return slowClients;
+    }
+
+    /**
+     * @return the milliseconds a slow reader needs per message.
+     */
+    public long getSlowDelay() {
+        return slowDelay;
+    }
+
+    /**
+     * @return the number of clients that enable BLOBs.
+     */
+    public int getBlobClients() {
+        return blobClients;
+    }
+
+    /**
+     * @return the seconds before the measurement starts.
+     */
+    public int getWarmup() {
+        return warmup;
+    }
+
+    /**
+     * @return the seconds of the measurement.
+     */
+    public int getDuration() {
+        return duration;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US,
+                "drivers=%d properties=%d rate=%.1f/s blobSize=%d blobRate=%.1f/s clients=%d slowClients=%d slowDelay=%dms blobClients=%d warmup=%ds duration=%ds", //
+                drivers, properties, rate, blobSize, blobRate, clients, slowClients, slowDelay, blobClients, warmup, duration);
+    }
+}
@@ -0,0 +1,262 @@
+package org.indilib.i4j.server.loadtest;
+
+/*
+ * #%L
+ * INDI for Java Server Load Test
+ * %%
+ * Copyright (C) 2013 - 2014 indiforjava
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import org.indilib.i4j.Constants.PropertyPermissions;
+import org.indilib.i4j.Constants.PropertyStates;
+import org.indilib.i4j.INDIBLOBValue;
+import org.indilib.i4j.driver.INDIBLOBElement;
+import org.indilib.i4j.driver.INDIBLOBProperty;
+import org.indilib.i4j.driver.INDIDriver;
+import org.indilib.i4j.driver.INDINumberElement;
+import org.indilib.i4j.driver.INDINumberProperty;
+import org.indilib.i4j.driver.INDIProperty;
+import org.indilib.i4j.protocol.api.INDIConnection;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A synthetic driver for the load test. It defines the configured number of
+ * number properties and updates them with the configured rate, optionally it
+ * also sends BLOBs of the configured size. The updates are sent by tasks on
+ * the shared driver scheduler; when the drivers can not keep up, runs are
+ * skipped and the sent rate drops below the configured one. Every update
+ * carries the time it was sent, so the clients can measure the end-to-end
+ * latency.
+ *
+ * @author Richard van Nieuwenhoven
+ */
+public class LoadTestDriver extends INDIDriver {
+
+    /**
+     * the prefix of the device names of the synthetic drivers.
+     */
+    public static final String DEVICE_NAME_PREFIX = "LoadTest ";
+
+    /**
+     * the name of the element with the send time.
+     */
+    public static final String STAMP_ELEMENT = "STAMP";
+
+    /**
+     * the name of the BLOB property.
+     */
+    public static final String BLOB_PROPERTY = "LOAD_BLOB";
+
+    /**
+     * Logger to log to.
+     */
+    private static final Logger LOG = LoggerFactory.getLogger(LoadTestDriver.class);
+
+    /**
+     * the base of the send times, all drivers and clients run in the same
+     * jvm.
+     */
+    private static final long EPOCH = System.nanoTime();
+
+    /**
+     * the number of nanoseconds in a second.
+     */
+    private static final double NANOS_PER_SECOND = 1000000000d;
+
+    /**
+     * the counter for the device names.
+     */
+    private static final AtomicInteger INSTANCES = new AtomicInteger();
+
+    /**
+     * the number of updates sent by all drivers.
+     */
+    private static final AtomicLong UPDATES_SENT = new AtomicLong();
+
+    /**
+     * the configuration of the load test, set before the drivers are started.
+     */
+    private static volatile LoadTestConfiguration configuration = new LoadTestConfiguration();
+
+    /**
+     * the name of this device.
+     */
+    private final String name;
+
+    /**
+     * the number properties to update.
+     */
+    private final INDINumberProperty[] numberProperties;
+
+    /**
+     * the elements with the send time of the number properties.
+     */
+    private final INDINumberElement[] stampElements;
+
+    /**
+     * the elements with the changing value of the number properties.
+     */
+    private final INDINumberElement[] valueElements;
+
+    /**
+     * the BLOB property or null.
+     */
+    private final INDIBLOBProperty blobProperty;
+
+    /**
+     * the BLOB element or null.
+     */
+    private final INDIBLOBElement blobElement;
+
+    /**
+     * the value of the last number updates.
+     */
+    private long value;
+
+    /**
+     * the content of the BLOBs, the send time is written in front.
+     */
+    private final byte[] blobTemplate;
+
+    /**
+     * constructor, defines the properties and starts sending updates.
+     *
+     * @param connection the indi connection to the server.
+     */
+    public LoadTestDriver(INDIConnection connection) {
+        super(connection);
+        name = DEVICE_NAME_PREFIX + INSTANCES.incrementAndGet();
+        numberProperties = new INDINumberProperty[configuration.getProperties()];
+        stampElements = new INDINumberElement[numberProperties.length];
+        valueElements = new INDINumberElement[numberProperties.length];
+        for (int index = 0; index < numberProperties.length; index++) {
+            numberProperties[index] = newNumberProperty().name("LOAD_" + index).label("Load " + index).permission(PropertyPermissions.RO).create();
+            stampElements[index] = numberProperties[index].newElement().name(STAMP_ELEMENT).label("Sent").numberFormat("%.0f").maximum(Double.MAX_VALUE).create();
+            valueElements[index] = numberProperties[index].newElement().name("VALUE").label("Value").numberFormat("%.3f").maximum(Double.MAX_VALUE).create();
+            addProperty(numberProperties[index]);
+        }
+        if (configuration.getBlobSize() > 0) {
+            blobProperty = newBlobProperty().name(BLOB_PROPERTY).label("Blob").permission(PropertyPermissions.RO).create();
+            blobElement = blobProperty.newElement().name("DATA").label("Data").create();
+            addProperty(blobProperty);
+        } else {
+            blobProperty = null;
+            blobElement = null;
+        }
+        blobTemplate = new byte[Math.max(configuration.getBlobSize(), Long.SIZE / Byte.SIZE)];
+        if (configuration.getRate() > 0d) {
+            scheduleAtFixedRate("numbers", new Runnable() {
+
+                @Override
+                public void run() {
+                    sendNumbers();
+                }
+            }, interval(configuration.getRate()), TimeUnit.NANOSECONDS);
+        }
+        if (blobProperty != null && configuration.getBlobRate() > 0d) {
+            scheduleAtFixedRate("blobs", new Runnable() {
+
+                @Override
+                public void run() {
+                    sendBlob();
+                }
+            }, interval(configuration.getBlobRate()), TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * @param newConfiguration the configuration for the drivers started from
+     *                         now on.
+     */
+    public static void setConfiguration(LoadTestConfiguration newConfiguration) {
+        configuration = newConfiguration;
+    }
+
+    /**
+     * @return the number of updates sent by all drivers.
+     */
+    public static long getUpdatesSent() {
+        return UPDATES_SENT.get();
+    }
+
+    /**
+     * @return the current time in nanoseconds since the load test started,
+     * comparable over all drivers and clients.
+     */
+    public static long timestamp() {
+        return System.nanoTime() - EPOCH;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * send the next values of all number properties.
+     */
+    private void sendNumbers() {
+        value++;
+        for (int index = 0; index < numberProperties.length; index++) {
+            stampElements[index].setValueAsDouble(timestamp());
+            valueElements[index].setValueAsDouble(value);
+            numberProperties[index].setState(PropertyStates.OK);
+            send(numberProperties[index]);
+        }
+    }
+
+    /**
+     * send a BLOB with the send time in front.
+     */
+    private void sendBlob() {
+        byte[] content = blobTemplate.clone();
+        ByteBuffer.wrap(content).putLong(timestamp());
+        blobElement.setValue(new INDIBLOBValue(content, ".bin"));
+        blobProperty.setState(PropertyStates.OK);
+        send(blobProperty);
+    }
+
+    /**
+     * send one update and count it.
+     *
+     * @param property the property to send.
+     */
+    private void send(INDIProperty<?> property) {
+        try {
+            if (updateProperty(property)) {
+                UPDATES_SENT.incrementAndGet();
+            }
+        } catch (Exception e) {
+            LOG.warn("could not send update of " + property.getName(), e);
+        }
+    }
+
+    /**
+     * @param rate the updates per second, more than 0.
+     * @return the nanoseconds between two updates.
+     */
+    private static long interval(double rate) {
+        return Math.max(1L, (long) (NANOS_PER_SECOND / rate));
+    }
+}
@@ -0,0 +1,127 @@
+package org.indilib.i4j.server.loadtest;
+
+/*
+ * #%L
+ * INDI for Java Server Load Test
+ * %%
+ * Copyright (C) 2013 - 2014 indiforjava
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The measurements of a load test run, shared by all synthetic clients.
+ *
+ * @author Richard van Nieuwenhoven
+ */
+public class LoadTestResults {
+
+    /**
+     * the end-to-end latency of the number updates.
+     */
+    private final LatencyHistogram numberLatency = new LatencyHistogram();
+
+    /**
+     * the end-to-end latency of the BLOB updates.
+     */
+    private final LatencyHistogram blobLatency = new LatencyHistogram();
+
+    /**
+     * the number of updates received by all clients while measuring.
+     */
+    private final AtomicLong received = new AtomicLong();
+
+    /**
+     * the number of BLOB bytes received by all clients while measuring.
+     */
+    private final AtomicLong blobBytes = new AtomicLong();
+
+    /**
+     * are the updates measured (or is it the warmup)?
+     */
+    private volatile boolean measuring;
+
+    /**
+     * @return the end-to-end latency of the number updates.
+     */
+    public LatencyHistogram getNumberLatency() {
+        return numberLatency;
+    }
+
+    /**
+     * @return the end-to-end latency of the BLOB updates.
+     */
+    public LatencyHistogram getBlobLatency() {
+        return blobLatency;
+    }
+
+    /**
+     * @return the number of updates received by all clients while measuring.
+     */
+    public long getReceived() {
+        return received.get();
+    }
+
+    /**
+     * @return the number of BLOB bytes received by all clients while
+     * measuring.
+     */
+    public long getBlobBytes() {
+        return blobBytes.get();
+    }
+
+    /**
+     * @return true if the updates are measured.
+     */
+    public boolean isMeasuring() {
+        return measuring;
+    }
+
+    /**
+     * @param measuring true to measure the updates from now on.
+     */
+    public void setMeasuring(boolean measuring) {
+        this.measuring = measuring;
+    }
+
+    /**
+     * record a received number update.
+     *
+     * @param latencyMicros the end-to-end latency in microseconds.
+     */
+    public void numberReceived(long latencyMicros) {
+        if (measuring) {
+            received.incrementAndGet();
+            numberLatency.record(latencyMicros);
+        }
+    }
+
+    /**
+     * record a received BLOB update.
+     *
+     * @param latencyMicros the end-to-end latency in microseconds.
+     * @param size          the size of the BLOB in bytes.
+     */
+    public void blobReceived(long latencyMicros, long size) {
+        if (measuring) {
+            received.incrementAndGet();
+            blobBytes.addAndGet(size);
+            blobLatency.record(latencyMicros);
+        }
+    }
+}
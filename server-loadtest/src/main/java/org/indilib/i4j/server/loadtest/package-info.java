@@ -0,0 +1,31 @@
+/**
+ * A load test harness for the INDI for Java Server. It starts an in-process
+ * server with synthetic drivers and clients and reports the end-to-end
+ * latency percentiles, the throughput and the cpu and allocation cost per
+ * message. Start it with <code>LoadTest</code> and <code>name=value</code>
+ * arguments, see <code>LoadTestConfiguration</code> for the settings.
+ */
+
+package org.indilib.i4j.server.loadtest;
+
+/*
+ * #%L
+ * INDI for Java Server Load Test
+ * %%
+ * Copyright (C) 2013 - 2014 indiforjava
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
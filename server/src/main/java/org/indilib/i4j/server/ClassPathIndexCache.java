@@ -0,0 +1,433 @@
+package org.indilib.i4j.server;
+
+/*
+ * #%L
+ * INDI for Java Server Library
+ * %%
+ * Copyright (C) 2012 - 2014 indiforjava
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import org.indilib.i4j.FileUtils;
+import org.jboss.jandex.Index;
+import org.jboss.jandex.IndexReader;
+import org.jboss.jandex.IndexWriter;
+import org.jboss.jandex.Indexer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Cache of the jandex indexes of the classpath entries. The index of every jar
+ * is persisted in the i4j base directory, keyed by the path, size, last
+ * modification time and content hash of the jar, so that a restart of the
+ * server only has to index the jars that changed. Directories are always
+ * indexed because they are normally development class folders. Independent
+ * entries are indexed in parallel.
+ *
+ * @author Richard van Nieuwenhoven
+ */
+final class ClassPathIndexCache {
+
+    /**
+     * Logger to log to.
+     */
+    private static final Logger LOG = LoggerFactory.getLogger(ClassPathIndexCache.class);
+
+    /**
+     * The cached indexes are stored in this directory inside the default I4J
+     * directory.
+     */
+    private static final String CACHE_DIR_NAME = "jandex";
+
+    /**
+     * The version of the cache file format, increment it when the header
+     * changes.
+     */
+    private static final int CACHE_FORMAT_VERSION = 1;
+
+    /**
+     * the extension of the cache files.
+     */
+    private static final String CACHE_FILE_EXTENSION = ".idx";
+
+    /**
+     * the extension of java class files.
+     */
+    private static final String CLASS_FILE_EXTENSION = ".class";
+
+    /**
+     * the hash algorithm used for the content of the jars.
+     */
+    private static final String HASH_ALGORITHM = "SHA-1";
+
+    /**
+     * size of the buffer used to hash the jar contents.
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * mask to convert a byte to a unsigned int.
+     */
+    private static final int BYTE_MASK = 0xFF;
+
+    /**
+     * hex radix.
+     */
+    private static final int HEX_RADIX = 16;
+
+    /**
+     * The indexes already loaded in this vm, so that extending the classpath
+     * does not even have to touch the cache files of unchanged jars.
+     */
+    private final Map<File, CachedIndex> loadedIndexes = new ConcurrentHashMap<>();
+
+    /**
+     * Index all the files (jars or directories) in parallel, the result list
+     * has the same order as the files.
+     *
+     * @param files the jars or directories to index.
+     * @return the list of indexes (one per file).
+     * @throws IOException if one of the files could not be indexed.
+     */
+    public List<Index> index(List<File> files) throws IOException {
+        List<Index> result = new ArrayList<>(files.size());
+        if (files.isEmpty()) {
+            return result;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(files.size(), Runtime.getRuntime().availableProcessors()));
+        try {
+            List<Future<Index>> futures = new ArrayList<>(files.size());
+            for (final File file : files) {
+                futures.add(executor.submit(new Callable<Index>() {
+
+                    @Override
+                    public Index call() throws Exception {
+                        return index(file);
+                    }
+                }));
+            }
+            for (Future<Index> future : futures) {
+                result.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("indexing of the classpath interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IOException("could not index the classpath", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+        return result;
+    }
+
+    /**
+     * Get the index of one jar or directory, use the cached version if the jar
+     * did not change.
+     *
+     * @param file the jar or directory to index.
+     * @return the index of the file.
+     * @throws IOException if the file could not be indexed.
+     */
+    public Index index(File file) throws IOException {
+        if (file.isDirectory()) {
+            Indexer indexer = new Indexer();
+            indexDirectory(file, indexer);
+            return indexer.complete();
+        }
+        File jar = file.getAbsoluteFile();
+        long size = jar.length();
+        long lastModified = jar.lastModified();
+        CachedIndex cached = loadedIndexes.get(jar);
+        if (cached == null || !cached.matches(size, lastModified)) {
+            cached = loadOrCreate(jar, size, lastModified);
+            loadedIndexes.put(jar, cached);
+        }
+        return cached.index;
+    }
+
+    /**
+     * load the index from the cache file if it is still valid, otherwise index
+     * the jar and store the new index in the cache.
+     *
+     * @param jar the jar to index.
+     * @param size the current size of the jar.
+     * @param lastModified the current modification time of the jar.
+     * @return the cached index.
+     * @throws IOException if the jar could not be indexed.
+     */
+    private CachedIndex loadOrCreate(File jar, long size, long lastModified) throws IOException {
+        File cacheFile = cacheFile(jar);
+        CachedIndex stored = readCacheFile(jar, cacheFile);
+        if (stored != null && stored.matches(size, lastModified)) {
+            return stored;
+        }
+        String hash = contentHash(jar);
+        CachedIndex result;
+        if (stored != null && stored.hash.equals(hash)) {
+            // only the time stamp changed (f.e. the jar was copied again).
+            result = new CachedIndex(size, lastModified, hash, stored.index);
+        } else {
+            LOG.info("indexing " + jar.getAbsolutePath());
+            result = new CachedIndex(size, lastModified, hash, indexJar(jar));
+        }
+        writeCacheFile(jar, cacheFile, result);
+        return result;
+    }
+
+    /**
+     * read a cache file, if it does not exist or was written for an other jar
+     * or version null is returned.
+     *
+     * @param jar the jar the cache file should represent.
+     * @param cacheFile the cache file.
+     * @return the cached index or null.
+     */
+    private CachedIndex readCacheFile(File jar, File cacheFile) {
+        if (!cacheFile.isFile()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(cacheFile)))) {
+            if (in.readInt() != CACHE_FORMAT_VERSION || !in.readUTF().equals(jar.getPath())) {
+                return null;
+            }
+            long size = in.readLong();
+            long lastModified = in.readLong();
+            String hash = in.readUTF();
+            return new CachedIndex(size, lastModified, hash, new IndexReader(in).read());
+        } catch (Exception e) {
+            LOG.warn("ignoring unreadable index cache " + cacheFile.getAbsolutePath(), e);
+            return null;
+        }
+    }
+
+    /**
+     * write the index to the cache file, first to a temporary file that is
+     * renamed afterwards so that no other process sees a partial file.
+     *
+     * @param jar the jar the index represents.
+     * @param cacheFile the cache file to write.
+     * @param cached the index to write.
+     */
+    private void writeCacheFile(File jar, File cacheFile, CachedIndex cached) {
+        File tempFile = new File(cacheFile.getParentFile(), cacheFile.getName() + ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+                out.writeInt(CACHE_FORMAT_VERSION);
+                out.writeUTF(jar.getPath());
+                out.writeLong(cached.size);
+                out.writeLong(cached.lastModified);
+                out.writeUTF(cached.hash);
+                new IndexWriter(out).write(cached.index);
+            }
+            if (!tempFile.renameTo(cacheFile) && !(cacheFile.delete() && tempFile.renameTo(cacheFile))) {
+                LOG.warn("could not store index cache " + cacheFile.getAbsolutePath());
+            }
+        } catch (IOException e) {
+            LOG.warn("could not store index cache " + cacheFile.getAbsolutePath(), e);
+        } finally {
+            if (tempFile.exists() && !tempFile.delete()) {
+                LOG.warn("could not delete " + tempFile.getAbsolutePath());
+            }
+        }
+    }
+
+    /**
+     * @param jar the jar file
+     * @return the cache file for the jar (the name is unique for the path of
+     *         the jar).
+     */
+    private File cacheFile(File jar) {
+        File cacheDir = new File(FileUtils.getI4JBaseDirectory(), CACHE_DIR_NAME);
+        if (!cacheDir.exists() && !cacheDir.mkdir() && !cacheDir.isDirectory()) {
+            LOG.error("could not create directory " + cacheDir.getAbsolutePath());
+        }
+        String name = jar.getName().replaceAll("[^a-zA-Z0-9.\\-]", "");
+        return new File(cacheDir, name + "-" + hash(jar.getPath().getBytes()) + CACHE_FILE_EXTENSION);
+    }
+
+    /**
+     * index all classes in a jar.
+     *
+     * @param jar the jar file
+     * @return the index of the jar.
+     * @throws IOException if the jar could not be read.
+     */
+    private Index indexJar(File jar) throws IOException {
+        Indexer indexer = new Indexer();
+        try (ZipFile zip = new ZipFile(jar)) {
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                if (entry.getName().endsWith(CLASS_FILE_EXTENSION)) {
+                    try (InputStream in = zip.getInputStream(entry)) {
+                        indexer.index(in);
+                    } catch (Exception e) {
+                        LOG.error("could not scan " + entry.getName() + " in " + jar.getAbsolutePath());
+                    }
+                }
+            }
+        }
+        return indexer.complete();
+    }
+
+    /**
+     * index one file or directory using the specified indexer.
+     *
+     * @param file the file to index.
+     * @param indexer the indexer to use.
+     */
+    private void indexDirectory(File file, Indexer indexer) {
+        if (file.isFile() && file.getName().endsWith(CLASS_FILE_EXTENSION)) {
+            try (FileInputStream in = new FileInputStream(file)) {
+                indexer.index(in);
+            } catch (Exception e) {
+                LOG.error("could not scan " + file.getAbsolutePath());
+            }
+        } else if (file.isDirectory()) {
+            File[] files = file.listFiles();
+            if (files != null) {
+                for (File child : files) {
+                    indexDirectory(child, indexer);
+                }
+            }
+        }
+    }
+
+    /**
+     * @param jar the jar file.
+     * @return the hash of the content of the jar.
+     * @throws IOException if the jar could not be read.
+     */
+    private static String contentHash(File jar) throws IOException {
+        MessageDigest digest = newDigest();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try (InputStream in = new FileInputStream(jar)) {
+            for (int count = in.read(buffer); count >= 0; count = in.read(buffer)) {
+                digest.update(buffer, 0, count);
+            }
+        }
+        return toHex(digest.digest());
+    }
+
+    /**
+     * @param bytes the bytes to hash.
+     * @return the hex hash of the bytes.
+     */
+    private static String hash(byte[] bytes) {
+        return toHex(newDigest().digest(bytes));
+    }
+
+    /**
+     * @return a new message digest for the hashes.
+     */
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(HASH_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("every jvm must support " + HASH_ALGORITHM, e);
+        }
+    }
+
+    /**
+     * @param bytes the bytes to convert.
+     * @return the bytes as a hex string.
+     */
+    private static String toHex(byte[] bytes) {
+        StringBuilder result = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            int value = b & BYTE_MASK;
+            result.append(Character.forDigit(value / HEX_RADIX, HEX_RADIX));
+            result.append(Character.forDigit(value % HEX_RADIX, HEX_RADIX));
+        }
+        return result.toString();
+    }
+
+    /**
+     * The index of a jar together with the attributes of the jar it was
+     * created from.
+     */
+    private static final class CachedIndex {
+
+        /**
+         * the size of the jar.
+         */
+        private final long size;
+
+        /**
+         * the modification time of the jar.
+         */
+        private final long lastModified;
+
+        /**
+         * the content hash of the jar.
+         */
+        private final String hash;
+
+        /**
+         * the jandex index of the jar.
+         */
+        private final Index index;
+
+        /**
+         * constructor.
+         *
+         * @param size the size of the jar.
+         * @param lastModified the modification time of the jar.
+         * @param hash the content hash of the jar.
+         * @param index the jandex index of the jar.
+         */
+        private CachedIndex(long size, long lastModified, String hash, Index index) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.hash = hash;
+            this.index = index;
+        }
+
+        /**
+         * @param currentSize the current size of the jar.
+         * @param currentLastModified the current modification time of the jar.
+         * @return true if the jar seems unchanged.
+         */
+        private boolean matches(long currentSize, long currentLastModified) {
+            return size == currentSize && lastModified == currentLastModified;
+        }
+    }
+}
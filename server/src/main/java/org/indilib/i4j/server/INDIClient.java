@@ -123,6 +123,7 @@ public class INDIClient extends INDIDeviceListener implements INDIClientInterfac
 
     @Override
     public void processProtocolMessage(INDIProtocol<?> message) {
+        long start = System.nanoTime();
         if (message instanceof GetProperties) {
             processGetProperties((GetProperties) message);
         } else if (message instanceof NewVector) {
@@ -130,6 +131,7 @@ public class INDIClient extends INDIDeviceListener implements INDIClientInterfac
         } else if (message instanceof EnableBLOB) {
             processEnableBLOB((EnableBLOB) message);
         }
+        server.getStatistics().received(this, message, System.nanoTime() - start);
     }
 
     /**
@@ -150,7 +152,9 @@ public class INDIClient extends INDIDeviceListener implements INDIClientInterfac
     @Override
     protected void sendXMLMessage(INDIProtocol<?> message) {
         try {
+            long start = System.nanoTime();
             connection.getINDIOutputStream().writeObject(message);
+            server.getStatistics().sent(this, message, System.nanoTime() - start);
         } catch (Exception e) {
             LOG.warn("could not send xml message to client, disconnecting client", e);
             disconnect();
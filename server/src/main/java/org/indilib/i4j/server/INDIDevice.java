@@ -131,7 +131,7 @@ public abstract class INDIDevice extends INDIDeviceListener implements INDIDevic
 
     @Override
     public void processProtocolMessage(INDIProtocol<?> child) {
-
+        long start = System.nanoTime();
         if (child instanceof GetProperties) {
             processGetProperties((GetProperties) child);
         } else if (child instanceof DefVector<?>) {
@@ -144,6 +144,7 @@ public abstract class INDIDevice extends INDIDeviceListener implements INDIDevic
         } else if (child instanceof DelProperty) {
             processDelProperty((DelProperty) child);
         }
+        server.getStatistics().received(this, child, System.nanoTime() - start);
     }
 
     @Override
@@ -155,7 +156,9 @@ public abstract class INDIDevice extends INDIDeviceListener implements INDIDevic
     @Override
     protected final void sendXMLMessage(INDIProtocol<?> message) {
         try {
+            long start = System.nanoTime();
             getOutputStream().writeObject(message);
+            server.getStatistics().sent(this, message, System.nanoTime() - start);
         } catch (IOException e) {
             destroy();
         }
@@ -179,8 +182,11 @@ public abstract class INDIDevice extends INDIDeviceListener implements INDIDevic
     private void checkName(INDIProtocol<?> elem) {
         String newName = elem.getDevice();
 
-        if (!newName.isEmpty()) {
+        if (!newName.isEmpty() && !hasName(newName)) {
             dealWithPossibleNewDeviceName(newName);
+            if (hasName(newName)) {
+                server.deviceNamesChanged(this);
+            }
         }
     }
 
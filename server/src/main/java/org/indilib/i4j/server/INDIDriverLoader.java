@@ -0,0 +1,403 @@
+package org.indilib.i4j.server;
+
+/*
+ * #%L
+ * INDI for Java Server Library
+ * %%
+ * Copyright (C) 2013 - 2014 indiforjava
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import org.indilib.i4j.INDIException;
+import org.indilib.i4j.server.api.INDIDeviceInterface;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Starts the drivers of a server on a bounded pool of threads, so that slow
+ * drivers (native drivers that take long to execute or network drivers that
+ * run into a timeout) do not delay the others. Every start has a timeout after
+ * which it is abandoned: the loader thread running it is interrupted, but a
+ * driver that ignores the interrupt keeps its loader thread until its
+ * constructor returns. Such a late device is closed and not registered. In
+ * lazy mode the drivers are only started when the
+ * first client asks for properties of a device that is not yet known.
+ *
+ * @author Richard van Nieuwenhoven
+ */
+final class INDIDriverLoader {
+
+    /**
+     * system property to change the number of driver loader threads.
+     */
+    public static final String THREADS_PROPERTY = "i4j.server.driverLoaderThreads";
+
+    /**
+     * system property to change the driver start timeout in milliseconds.
+     */
+    public static final String TIMEOUT_PROPERTY = "i4j.server.driverStartTimeout";
+
+    /**
+     * Logger to log to.
+     */
+    private static final Logger LOG = LoggerFactory.getLogger(INDIDriverLoader.class);
+
+    /**
+     * default number of threads starting drivers in parallel.
+     */
+    private static final int DEFAULT_THREADS = 8;
+
+    /**
+     * default timeout for a single driver start in milliseconds.
+     */
+    private static final long DEFAULT_TIMEOUT = 30000L;
+
+    /**
+     * the server to register the started devices in.
+     */
+    private final INDIServer server;
+
+    /**
+     * the bounded pool that starts the drivers.
+     */
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * the scheduler that abandons driver starts after the timeout.
+     */
+    private final ScheduledExecutorService watchdog;
+
+    /**
+     * the timeout for a single driver start in milliseconds.
+     */
+    private final long timeout;
+
+    /**
+     * the driver starts currently running or waiting for a client (in lazy
+     * mode), by device identifier.
+     */
+    private final Map<String, DriverStart> pendingStarts = new ConcurrentHashMap<>();
+
+    /**
+     * should drivers only be started when a client needs them?
+     */
+    private volatile boolean lazy;
+
+    /**
+     * Create the loader for the server.
+     *
+     * @param server the server to register the started devices in.
+     */
+    INDIDriverLoader(INDIServer server) {
+        this.server = server;
+        int threads = Integer.getInteger(THREADS_PROPERTY, DEFAULT_THREADS);
+        timeout = Long.getLong(TIMEOUT_PROPERTY, DEFAULT_TIMEOUT);
+        executor = new ThreadPoolExecutor(threads, threads, 1L, TimeUnit.MINUTES, new LinkedBlockingQueue<Runnable>(), new NamedThreadFactory("driver loader"));
+        executor.allowCoreThreadTimeOut(true);
+        watchdog = new ScheduledThreadPoolExecutor(1, new NamedThreadFactory("driver loader watchdog"));
+    }
+
+    /**
+     * @return true if drivers are only started when a client needs them.
+     */
+    public boolean isLazy() {
+        return lazy;
+    }
+
+    /**
+     * @param lazy true if drivers should only be started when a client needs
+     *             them.
+     */
+    public void setLazy(boolean lazy) {
+        this.lazy = lazy;
+    }
+
+    /**
+     * @return the timeout for a single driver start in milliseconds.
+     */
+    public long getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * Start a driver in the background (or register it for a later start in
+     * lazy mode). The device will be added to the server as soon as it is up.
+     *
+     * @param identifier the unique identifier of the device.
+     * @param factory    the factory that creates (and so starts) the device.
+     * @return the future of the started device.
+     * @throws INDIException if a driver with the same identifier is already
+     *                       starting.
+     */
+    public Future<INDIDeviceInterface> start(String identifier, Callable<INDIDevice> factory) throws INDIException {
+        DriverStart driverStart = new DriverStart(new StartDevice(identifier, factory));
+        if (pendingStarts.putIfAbsent(identifier, driverStart) != null) {
+            throw new INDIException("Driver " + identifier + " is already starting.");
+        }
+        if (lazy) {
+            LOG.info("Driver " + identifier + " will be started when the first client needs it");
+        } else {
+            submit(driverStart);
+        }
+        return driverStart;
+    }
+
+    /**
+     * start all drivers that are waiting for a client.
+     */
+    public void startLazyDrivers() {
+        for (DriverStart driverStart : new ArrayList<>(pendingStarts.values())) {
+            if (driverStart.submitted.compareAndSet(0, 1)) {
+                LOG.info("Client needs driver " + driverStart.identifier + ", starting it");
+                schedule(driverStart);
+            }
+        }
+    }
+
+    /**
+     * @param identifier the device identifier.
+     * @return true if the driver is starting or waiting for a client.
+     */
+    public boolean isStarting(String identifier) {
+        return pendingStarts.containsKey(identifier);
+    }
+
+    /**
+     * cancel the start of the driver with the specified identifier.
+     *
+     * @param identifier the device identifier.
+     */
+    public void cancel(String identifier) {
+        DriverStart driverStart = pendingStarts.remove(identifier);
+        if (driverStart != null) {
+            driverStart.cancel(true);
+        }
+    }
+
+    /**
+     * stop all driver starts.
+     */
+    public void shutdown() {
+        for (DriverStart driverStart : new ArrayList<>(pendingStarts.values())) {
+            driverStart.cancel(true);
+        }
+        pendingStarts.clear();
+        executor.shutdownNow();
+        watchdog.shutdownNow();
+    }
+
+    /**
+     * submit the start of the driver if that was not done before.
+     *
+     * @param driverStart the driver start.
+     */
+    private void submit(DriverStart driverStart) {
+        if (driverStart.submitted.compareAndSet(0, 1)) {
+            schedule(driverStart);
+        }
+    }
+
+    /**
+     * execute the start and schedule its timeout.
+     *
+     * @param driverStart the driver start.
+     */
+    private void schedule(final DriverStart driverStart) {
+        executor.execute(driverStart);
+        watchdog.schedule(new Runnable() {
+
+            @Override
+            public void run() {
+                // a driver that was registered meanwhile can not be cancelled anymore.
+                if (!driverStart.isDone() && driverStart.cancel(true)) {
+                    LOG.error("Driver " + driverStart.identifier + " did not start within " + timeout + "ms, it was abandoned");
+                }
+            }
+        }, timeout, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * The start of one driver.
+     */
+    private final class DriverStart extends FutureTask<INDIDeviceInterface> {
+
+        /**
+         * the device identifier.
+         */
+        private final String identifier;
+
+        /**
+         * the callable that really starts the device.
+         */
+        private final StartDevice startDevice;
+
+        /**
+         * 0 as long as the start was not yet submitted to the executor.
+         */
+        private final AtomicInteger submitted = new AtomicInteger();
+
+        /**
+         * constructor.
+         *
+         * @param startDevice the callable that really starts the device.
+         */
+        private DriverStart(StartDevice startDevice) {
+            super(startDevice);
+            this.startDevice = startDevice;
+            identifier = startDevice.identifier;
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            if (!startDevice.abandon()) {
+                return false;
+            }
+            return super.cancel(mayInterruptIfRunning);
+        }
+
+        @Override
+        protected void done() {
+            pendingStarts.remove(identifier, this);
+        }
+    }
+
+    /**
+     * create the device and register it in the server, unless the start was
+     * abandoned in the meantime.
+     */
+    private final class StartDevice implements Callable<INDIDeviceInterface> {
+
+        /**
+         * the device identifier.
+         */
+        private final String identifier;
+
+        /**
+         * the factory that creates (and so starts) the device.
+         */
+        private final Callable<INDIDevice> factory;
+
+        /**
+         * set when the start was cancelled or ran into the timeout, guarded by
+         * this.
+         */
+        private boolean abandoned;
+
+        /**
+         * set when the device was added to the server, guarded by this.
+         */
+        private boolean registered;
+
+        /**
+         * constructor.
+         *
+         * @param identifier the device identifier.
+         * @param factory    the factory that creates (and so starts) the
+         *                   device.
+         */
+        private StartDevice(String identifier, Callable<INDIDevice> factory) {
+            this.identifier = identifier;
+            this.factory = factory;
+        }
+
+        @Override
+        public INDIDeviceInterface call() throws Exception {
+            long start = System.currentTimeMillis();
+            INDIDevice device;
+            try {
+                device = factory.call();
+            } catch (Exception e) {
+                LOG.error("Driver " + identifier + " could not be started", e);
+                throw e;
+            }
+            // the check and the registration are atomic against abandon().
+            synchronized (this) {
+                if (!abandoned) {
+                    server.addDevice(device);
+                    registered = true;
+                }
+            }
+            if (!registered) {
+                device.isBeingDestroyed();
+                device.closeConnections();
+                throw new INDIException("Driver " + identifier + " was started too late, it was abandoned.");
+            }
+            LOG.info("Driver " + identifier + " started in " + (System.currentTimeMillis() - start) + "ms");
+            return device;
+        }
+
+        /**
+         * abandon the start, unless the device is already registered in the
+         * server.
+         *
+         * @return true if the start was abandoned, false if the device is
+         * already registered.
+         */
+        private synchronized boolean abandon() {
+            if (!registered) {
+                abandoned = true;
+            }
+            return abandoned;
+        }
+    }
+
+    /**
+     * Thread factory for daemon threads with a recognizable name.
+     */
+    private static final class NamedThreadFactory implements ThreadFactory {
+
+        /**
+         * the counter for the thread names.
+         */
+        private final AtomicInteger counter = new AtomicInteger();
+
+        /**
+         * the prefix of the thread names.
+         */
+        private final String name;
+
+        /**
+         * constructor.
+         *
+         * @param name the prefix of the thread names.
+         */
+        private NamedThreadFactory(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, name + " " + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -85,6 +85,21 @@ public class INDIJavaDevice extends INDIDevice {
      * @throws INDIException if there is any problem instantiating the Driver.
      */
     protected INDIJavaDevice(INDIServer server, Class<?> driverClass, String identifier) throws INDIException {
+        this(server, driverClass, identifier, connection -> instantiate(driverClass, connection));
+    }
+
+    /**
+     * Constructs a new Java Device with a driver created by the factory and
+     * starts listening to its messages.
+     *
+     * @param server        The server which listens to this Device.
+     * @param driverClass   The class of the Driver.
+     * @param identifier    The JAR file from where to load the Driver.
+     * @param driverFactory creates the driver on the connection to the
+     *                      server.
+     * @throws INDIException if there is any problem instantiating the Driver.
+     */
+    INDIJavaDevice(INDIServer server, Class<?> driverClass, String identifier, DriverFactory driverFactory) throws INDIException {
         super(server);
 
         // name = null;
@@ -95,14 +110,26 @@ public class INDIJavaDevice extends INDIDevice {
         INDIPipedConnections connections = new INDIPipedConnections();
 
         driverConnection = connections.first();
+        driver = driverFactory.create(connections.second());
+        driver.startListening();
+    }
+
+    /**
+     * Instantiate a driver class with its connection constructor.
+     *
+     * @param driverClass the class of the driver.
+     * @param connection  the connection of the driver to the server.
+     * @return the new driver.
+     * @throws INDIException if the class is not an INDI for Java driver.
+     */
+    private static INDIDriver instantiate(Class<?> driverClass, INDIConnection connection) throws INDIException {
         try {
             Constructor<?> c = driverClass.getConstructor(INDIConnection.class);
-            driver = (INDIDriver) c.newInstance(connections.second());
+            return (INDIDriver) c.newInstance(connection);
         } catch (InstantiationException | IllegalAccessException | NoSuchMethodException | InvocationTargetException | ClassCastException ex) {
             LOG.error("Problem instantiating driver (not an INDI for Java Driver?)", ex);
             throw new INDIException("Problem instantiating driver (not an INDI for Java Driver?)", ex);
         }
-        driver.startListening();
     }
 
     @Override
@@ -192,4 +219,17 @@ public class INDIJavaDevice extends INDIDevice {
     protected boolean hasName(String name) {
         return names.contains(name);
     }
+
+    /**
+     * Creates the driver of a java device.
+     */
+    interface DriverFactory {
+
+        /**
+         * @param connection the connection of the driver to the server.
+         * @return the new driver.
+         * @throws INDIException if the driver could not be created.
+         */
+        INDIDriver create(INDIConnection connection) throws INDIException;
+    }
 }
@@ -44,9 +44,16 @@ import java.io.File;
 import java.lang.reflect.Modifier;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.ServiceLoader;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * A class representing a INDI Server. It is in charge of dealing with several
@@ -62,6 +69,12 @@ import java.util.ServiceLoader;
  */
 public final class INDIServer implements INDIServerInterface {
 
+    /**
+     * system property to load the {@link INDIServerStatisticsDriver} at the
+     * start of the server (set it to <code>true</code>).
+     */
+    public static final String STATISTICS_PROPERTY = "i4j.server.statistics";
+
     /**
      * Driver class id prefix.
      */
@@ -84,14 +97,26 @@ public final class INDIServer implements INDIServerInterface {
      */
     private final List<INDIServerAcceptor> additionalAcceptors = new ArrayList<>();
     /**
-     * A list of clients (and devices if they are snooping) connected to the
-     * server.
+     * The clients (and devices if they are snooping) connected to the server
+     * and the devices loaded by the server, replaced as a whole on every
+     * change.
+     */
+    private volatile INDIServerRegistry registry = INDIServerRegistry.EMPTY;
+
+    /**
+     * the lock that serializes the changes of the registry.
+     */
+    private final Object registryLock = new Object();
+
+    /**
+     * the loader that starts the drivers in the background.
      */
-    private List<INDIDeviceListener> clients;
+    private INDIDriverLoader driverLoader;
+
     /**
-     * A list of Devices loaded by the server.
+     * the live operating metrics of this server.
      */
-    private List<INDIDevice> devices;
+    private final INDIServerStatistics statistics = new INDIServerStatistics();
 
     /**
      * Constructs a new Server. The Server begins to listen to the default port.
@@ -127,6 +152,7 @@ public final class INDIServer implements INDIServerInterface {
     public synchronized void destroyNativeDriver(String driverPath) {
         LOG.info("Removing native driver " + driverPath);
 
+        driverLoader.cancel(driverPath);
         destroyIdentifiedDrivers(driverPath);
     }
 
@@ -136,6 +162,7 @@ public final class INDIServer implements INDIServerInterface {
 
         LOG.info("Removing network driver " + networkName);
 
+        driverLoader.cancel(networkName);
         destroyIdentifiedDrivers(networkName);
     }
 
@@ -152,17 +179,15 @@ public final class INDIServer implements INDIServerInterface {
 
     @Override
     public List<INDIDeviceInterface> getDevices() {
-        return new ArrayList<>(devices);
+        return new ArrayList<INDIDeviceInterface>(Arrays.asList(registry.getDevices()));
     }
 
     @Override
     public boolean isAlreadyLoaded(String deviceIdentifier) {
-        for (INDIDevice d : staticCopyOfDevices()) {
-            if (d.isDevice(deviceIdentifier)) {
-                return true;
-            }
+        if (!registry.getDevicesWithIdentifier(deviceIdentifier).isEmpty()) {
+            return true;
         }
-        return false;
+        return driverLoader.isStarting(deviceIdentifier);
     }
 
     @Override
@@ -171,40 +196,87 @@ public final class INDIServer implements INDIServerInterface {
     }
 
     @Override
-    public synchronized void loadJavaDriversFromJAR(String jarFileName) throws INDIException {
+    public void loadJavaDriversFromJAR(String jarFileName) throws INDIException {
         IndexView jarIndex = Util.extendClasspath(new File(jarFileName));
         if (jarIndex != null) {
+            List<Future<INDIDeviceInterface>> starts = new ArrayList<>();
             for (ClassInfo subclass : jarIndex.getAllKnownSubclasses(DotName.createSimple(INDIDriver.class.getName()))) {
                 if (!Modifier.isAbstract(subclass.flags())) {
                     try {
                         Class<?> clazz = Thread.currentThread().getContextClassLoader().loadClass(subclass.name().toString());
-                        if (clazz.isInstance(INDIDriver.class)) loadJavaDriver(clazz);
+                        if (INDIDriver.class.isAssignableFrom(clazz)) {
+                            starts.add(startJavaDriver(clazz));
+                        }
                     } catch (Exception e) {
                         throw new INDIException("could not load diver class " + subclass.toString(), e);
                     }
                 }
             }
+            for (Future<INDIDeviceInterface> start : starts) {
+                waitForDriverStart(start, jarFileName);
+            }
         }
     }
 
     @Override
-    public synchronized void loadNativeDriver(String driverPath) throws INDIException {
+    public void loadNativeDriver(String driverPath) throws INDIException {
+        waitForDriverStart(startNativeDriver(driverPath), driverPath);
+    }
+
+    @Override
+    public void loadNetworkDriver(String host, int port) throws INDIException {
+        waitForDriverStart(startNetworkDriver(host, port), host + ":" + port);
+    }
+
+    @Override
+    public Future<INDIDeviceInterface> startJavaDriver(Class<?> cls) throws INDIException {
+        return startJavaDriver(cls, DRIVER_CLASS_ID_PREFIX + cls.getName());
+    }
+
+    /**
+     * start a java driver class in the background under an own identifier,
+     * so the same driver class can be started more than once.
+     *
+     * @param cls        the class
+     * @param identifier the UNIQUE identifier of the device.
+     * @return the future of the started device.
+     * @throws INDIException if the driver is already loaded or starting.
+     */
+    synchronized Future<INDIDeviceInterface> startJavaDriver(final Class<?> cls, final String identifier) throws INDIException {
+        if (isAlreadyLoaded(identifier)) {
+            throw new INDIException("Driver " + cls.getName() + " already loaded.");
+        }
 
+        LOG.info("Loading Java Driver " + cls.getName());
+
+        return driverLoader.start(identifier, new Callable<INDIDevice>() {
+
+            @Override
+            public INDIDevice call() throws Exception {
+                return new INDIJavaDevice(INDIServer.this, cls, identifier);
+            }
+        });
+    }
+
+    @Override
+    public synchronized Future<INDIDeviceInterface> startNativeDriver(final String driverPath) throws INDIException {
         if (isAlreadyLoaded(driverPath)) {
             throw new INDIException("Driver already loaded.");
         }
 
         LOG.info("Loading Native Driver " + driverPath);
 
-        INDINativeDevice newDevice;
+        return driverLoader.start(driverPath, new Callable<INDIDevice>() {
 
-        newDevice = new INDINativeDevice(this, driverPath);
-
-        addDevice(newDevice);
+            @Override
+            public INDIDevice call() throws Exception {
+                return new INDINativeDevice(INDIServer.this, driverPath);
+            }
+        });
     }
 
     @Override
-    public synchronized void loadNetworkDriver(String host, int port) throws INDIException {
+    public synchronized Future<INDIDeviceInterface> startNetworkDriver(final String host, final int port) throws INDIException {
         String networkName = host + ":" + port;
 
         if (isAlreadyLoaded(networkName)) {
@@ -213,11 +285,18 @@ public final class INDIServer implements INDIServerInterface {
 
         LOG.info("Loading Network Driver " + networkName);
 
-        INDINetworkDevice newDevice;
+        return driverLoader.start(networkName, new Callable<INDIDevice>() {
 
-        newDevice = new INDINetworkDevice(this, host, port);
+            @Override
+            public INDIDevice call() throws Exception {
+                return new INDINetworkDevice(INDIServer.this, host, port);
+            }
+        });
+    }
 
-        addDevice(newDevice);
+    @Override
+    public void setLazyDriverStart(boolean lazy) {
+        driverLoader.setLazy(lazy);
     }
 
     @Override
@@ -226,6 +305,7 @@ public final class INDIServer implements INDIServerInterface {
         if (baseAcceptor != null) {
             baseAcceptor.close();
         }
+        driverLoader.shutdown();
         for (INDIDeviceListener indiDeviceListener : staticCopyOfClients()) {
             if (indiDeviceListener instanceof INDIClient) {
                 try {
@@ -238,19 +318,19 @@ public final class INDIServer implements INDIServerInterface {
     }
 
     /**
-     * @return a static list to iterate without the problem of concurrent
-     * modifications.
+     * @return the current clients, the array is an immutable snapshot that can
+     * be iterated without the problem of concurrent modifications.
      */
     private INDIDeviceListener[] staticCopyOfClients() {
-        return clients.toArray(new INDIDeviceListener[0]);
+        return registry.getClients();
     }
 
     /**
-     * @return a static list to iterate without the problem of concurrent
-     * modifications.
+     * @return the current devices, the array is an immutable snapshot that can
+     * be iterated without the problem of concurrent modifications.
      */
     private INDIDevice[] staticCopyOfDevices() {
-        return devices.toArray(new INDIDevice[0]);
+        return registry.getDevices();
     }
 
     /**
@@ -341,21 +421,32 @@ public final class INDIServer implements INDIServerInterface {
     protected List<INDIDeviceListener> getClientsListeningToPropertyUpdates(String deviceName, String propertyName, boolean isBLOB) {
         List<INDIDeviceListener> list = new ArrayList<>();
         for (INDIDeviceListener c : staticCopyOfClients()) {
-            if (c.listensToProperty(deviceName, propertyName)) {
-                if (isBLOB) {
-                    if (c.isBLOBAccepted(deviceName, propertyName)) {
-                        list.add(c);
-                    }
-                } else {
-                    if (c.areNonBLOBsAccepted(deviceName)) {
-                        list.add(c);
-                    }
-                }
+            if (isListeningToPropertyUpdates(c, deviceName, propertyName, isBLOB)) {
+                list.add(c);
             }
         }
         return list;
     }
 
+    /**
+     * Checks if a Client listens to Property updates.
+     *
+     * @param client       The Client to check.
+     * @param deviceName   The name of the Device of the Property.
+     * @param propertyName The name of the Property.
+     * @param isBLOB       If the Property is a BLOB one.
+     * @return <code>true</code> if the Client wants the update.
+     */
+    private static boolean isListeningToPropertyUpdates(INDIDeviceListener client, String deviceName, String propertyName, boolean isBLOB) {
+        if (!client.listensToProperty(deviceName, propertyName)) {
+            return false;
+        }
+        if (isBLOB) {
+            return client.isBLOBAccepted(deviceName, propertyName);
+        }
+        return client.areNonBLOBsAccepted(deviceName);
+    }
+
     /**
      * Gets a list of Clients that specifically listen to a Property of a
      * Device.
@@ -381,12 +472,7 @@ public final class INDIServer implements INDIServerInterface {
      * @return The Device with name <code>deviceName</code>.
      */
     protected INDIDevice getDevice(String deviceName) {
-        for (INDIDevice device : staticCopyOfDevices()) {
-            if (device.hasName(deviceName)) {
-                return device;
-            }
-        }
-        return null;
+        return registry.getDevice(deviceName);
     }
 
     /**
@@ -416,6 +502,8 @@ public final class INDIServer implements INDIServerInterface {
         INDIDevice d = this.getDevice(device);
 
         if (d == null) {
+            // the device could be one of the drivers that wait for a client.
+            driverLoader.startLazyDrivers();
             sendXMLMessageToAllDevices(xml);
         } else {
             d.sendXMLMessage(xml);
@@ -446,8 +534,10 @@ public final class INDIServer implements INDIServerInterface {
     protected void notifyDeviceListenersDefXXXVector(INDIDevice device, INDIProtocol<?> xml) {
         String deviceName = xml.getDevice();
         String propertyName = xml.getName().trim();
-        for (INDIDeviceListener c : getClientsListeningToProperty(deviceName, propertyName)) {
-            c.sendXMLMessage(xml);
+        for (INDIDeviceListener c : staticCopyOfClients()) {
+            if (c.listensToProperty(deviceName, propertyName)) {
+                c.sendXMLMessage(xml);
+            }
         }
     }
 
@@ -459,8 +549,10 @@ public final class INDIServer implements INDIServerInterface {
      */
     protected void notifyDeviceListenersDelProperty(INDIDevice device, INDIProtocol<?> xml) {
         String deviceName = xml.getDevice();
-        for (INDIDeviceListener c : getClientsListeningToDevice(deviceName)) {
-            c.sendXMLMessage(xml);
+        for (INDIDeviceListener c : staticCopyOfClients()) {
+            if (c.listensToDevice(deviceName)) {
+                c.sendXMLMessage(xml);
+            }
         }
     }
 
@@ -476,8 +568,10 @@ public final class INDIServer implements INDIServerInterface {
         if (deviceName.isEmpty()) {
             sendXMLMessageToAllClients(xml);
         } else {
-            for (INDIDeviceListener c : getClientsListeningToDevice(deviceName)) {
-                c.sendXMLMessage(xml);
+            for (INDIDeviceListener c : staticCopyOfClients()) {
+                if (c.listensToDevice(deviceName)) {
+                    c.sendXMLMessage(xml);
+                }
             }
         }
     }
@@ -497,8 +591,10 @@ public final class INDIServer implements INDIServerInterface {
         if (xml instanceof SetBlobVector) {
             isBLOB = true;
         }
-        for (INDIDeviceListener c : getClientsListeningToPropertyUpdates(deviceName, propertyName, isBLOB)) {
-            c.sendXMLMessage(xml);
+        for (INDIDeviceListener c : staticCopyOfClients()) {
+            if (isListeningToPropertyUpdates(c, deviceName, propertyName, isBLOB)) {
+                c.sendXMLMessage(xml);
+            }
         }
     }
 
@@ -509,11 +605,27 @@ public final class INDIServer implements INDIServerInterface {
      * @param client The Client to remove.
      */
     protected void removeClient(INDIClient client) {
-        clients.remove(client);
+        synchronized (registryLock) {
+            registry = registry.without(client);
+        }
+        statistics.remove(client);
 
         connectionWithClientBroken(client);
     }
 
+    /**
+     * A Device reported a new name, index it so that messages for the name
+     * reach the device. Called by the Devices when they define properties of
+     * a name that was not known before.
+     *
+     * @param device The Device with the new name.
+     */
+    protected void deviceNamesChanged(INDIDevice device) {
+        synchronized (registryLock) {
+            registry = registry.reindexed();
+        }
+    }
+
     /**
      * Removes a Device from the list of devices. Called by the Devices to be
      * removed when connection breaks
@@ -523,8 +635,10 @@ public final class INDIServer implements INDIServerInterface {
     protected void removeDevice(INDIDevice device) {
         String[] names = device.getNames();
 
-        devices.remove(device);
-        clients.remove(device);
+        synchronized (registryLock) {
+            registry = registry.without(device);
+        }
+        statistics.remove(device);
 
         notifyClientsDeviceRemoved(names);
 
@@ -579,9 +693,11 @@ public final class INDIServer implements INDIServerInterface {
      *
      * @param device The device to add.
      */
-    private void addDevice(INDIDevice device) {
-        devices.add(device);
-        clients.add(device);
+    void addDevice(INDIDevice device) {
+        statistics.register(device);
+        synchronized (registryLock) {
+            registry = registry.withDevice(device);
+        }
 
         device.startReading();
         // Force the device to send its properties for already connected clients
@@ -611,6 +727,7 @@ public final class INDIServer implements INDIServerInterface {
     public synchronized void destroyJavaDriver(Class<?> cls) {
         LOG.info("Removing driver " + cls.getName());
 
+        driverLoader.cancel(DRIVER_CLASS_ID_PREFIX + cls.getName());
         destroyIdentifiedDrivers(DRIVER_CLASS_ID_PREFIX + cls.getName());
     }
 
@@ -642,23 +759,51 @@ public final class INDIServer implements INDIServerInterface {
      * @return A list of devices with a particular identifier.
      */
     private List<INDIDevice> getDevicesWithIdentifier(String deviceIdentifier) {
-        List<INDIDevice> found = new ArrayList<>();
-        for (INDIDevice device : staticCopyOfDevices()) {
-            if (device.isDevice(deviceIdentifier)) {
-                found.add(device);
-            }
-        }
-        return found;
+        return registry.getDevicesWithIdentifier(deviceIdentifier);
     }
 
     /**
-     * Initializes the Server and launches the listening thread.
+     * Initializes the Server, launches the listening thread and starts the
+     * statistics device if it was switched on.
      */
     private void initServer() {
-        devices = Collections.synchronizedList(new ArrayList<>());
-        clients = Collections.synchronizedList(new ArrayList<>());
+        driverLoader = new INDIDriverLoader(this);
 
         startListeningToClients();
+        if (Boolean.getBoolean(STATISTICS_PROPERTY)) {
+            try {
+                startStatisticsDriver();
+            } catch (INDIException e) {
+                LOG.warn("could not start the server statistics device", e);
+            }
+        }
+    }
+
+    /**
+     * Starts the device publishing the statistics of this server.
+     *
+     * @return the future of the started device.
+     * @throws INDIException if the device is already loaded.
+     */
+    private synchronized Future<INDIDeviceInterface> startStatisticsDriver() throws INDIException {
+        final String identifier = DRIVER_CLASS_ID_PREFIX + INDIServerStatisticsDriver.class.getName();
+        if (isAlreadyLoaded(identifier)) {
+            throw new INDIException("Driver " + INDIServerStatisticsDriver.class.getName() + " already loaded.");
+        }
+        return driverLoader.start(identifier, new Callable<INDIDevice>() {
+
+            @Override
+            public INDIDevice call() throws Exception {
+                return new INDIJavaDevice(INDIServer.this, INDIServerStatisticsDriver.class, identifier, connection -> new INDIServerStatisticsDriver(connection, statistics));
+            }
+        });
+    }
+
+    /**
+     * @return the live operating metrics of this server.
+     */
+    INDIServerStatistics getStatistics() {
+        return statistics;
     }
 
     /**
@@ -686,23 +831,35 @@ public final class INDIServer implements INDIServerInterface {
      * @param cls The Class of the driver to load.
      * @throws INDIException If there is any problem instantiating the Driver.
      */
-    public synchronized void loadJavaDriver(Class<?> cls) throws INDIException {
-        loadJavaDriver(cls, DRIVER_CLASS_ID_PREFIX + cls.getName());
+    public void loadJavaDriver(Class<?> cls) throws INDIException {
+        waitForDriverStart(startJavaDriver(cls), cls.getName());
     }
 
     /**
-     * Loads a particular Java Driver.
+     * Wait until the driver start completed, in lazy mode the start is not
+     * awaited because it only happens when a client needs the driver.
      *
-     * @param cls        The Class of the driver to load.
-     * @param identifier A UNIQUE identifier. Please note that if there are repeated
-     *                   identifiers strange things may happen. MUST BE CHECKED IN THE
-     *                   FUTURE.
-     * @throws INDIException If there is any problem instantiating the Driver.
+     * @param driverStart the future of the driver start.
+     * @param driverName  the name of the driver for the error message.
+     * @throws INDIException If the driver could not be started.
      */
-    private synchronized void loadJavaDriver(Class<?> cls, String identifier) throws INDIException {
-        INDIJavaDevice newDevice = new INDIJavaDevice(this, cls, identifier);
-
-        addDevice(newDevice);
+    private void waitForDriverStart(Future<INDIDeviceInterface> driverStart, String driverName) throws INDIException {
+        if (driverLoader.isLazy()) {
+            return;
+        }
+        try {
+            driverStart.get(driverLoader.getTimeout(), TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof INDIException) {
+                throw (INDIException) e.getCause();
+            }
+            throw new INDIException("Could not start driver " + driverName, e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new INDIException("Interrupted while starting driver " + driverName, e);
+        } catch (TimeoutException | CancellationException e) {
+            throw new INDIException("Driver " + driverName + " did not start in time", e);
+        }
     }
 
     /**
@@ -775,7 +932,10 @@ public final class INDIServer implements INDIServerInterface {
         if (INDIServer.this.acceptClient(clientConnection)) {
             INDIClient client = new INDIClient(clientConnection, INDIServer.this);
 
-            clients.add(client);
+            statistics.register(client);
+            synchronized (registryLock) {
+                registry = registry.withClient(client);
+            }
 
             connectionWithClientEstablished(client);
             return true;
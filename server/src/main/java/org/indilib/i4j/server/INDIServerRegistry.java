@@ -0,0 +1,211 @@
+package org.indilib.i4j.server;
+
+/*
+ * #%L
+ * INDI for Java Server Library
+ * %%
+ * Copyright (C) 2013 - 2014 indiforjava
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * An immutable snapshot of the clients and devices connected to the server.
+ * Every connect and disconnect creates a new snapshot that the server swaps in
+ * atomically, so the message dispatching (that runs for every single message)
+ * can iterate and look up without locks and without copying.
+ *
+ * @author Richard van Nieuwenhoven
+ */
+final class INDIServerRegistry {
+
+    /**
+     * the empty registry of a freshly started server.
+     */
+    static final INDIServerRegistry EMPTY = new INDIServerRegistry(new INDIDeviceListener[0], new INDIDevice[0]);
+
+    /**
+     * the clients (and devices, they may be snooping) connected to the server.
+     */
+    private final INDIDeviceListener[] clients;
+
+    /**
+     * the devices loaded by the server.
+     */
+    private final INDIDevice[] devices;
+
+    /**
+     * the devices by their device names (the first device wins if two devices
+     * use the same name).
+     */
+    private final Map<String, INDIDevice> devicesByName;
+
+    /**
+     * the devices by their device identifier, sorted so that identifier
+     * prefixes (the jar of java drivers) can be found as well.
+     */
+    private final NavigableMap<String, List<INDIDevice>> devicesByIdentifier;
+
+    /**
+     * constructor, indexes the devices.
+     *
+     * @param clients the clients (and devices) connected to the server.
+     * @param devices the devices loaded by the server.
+     */
+    private INDIServerRegistry(INDIDeviceListener[] clients, INDIDevice[] devices) {
+        this.clients = clients;
+        this.devices = devices;
+        Map<String, INDIDevice> byName = new HashMap<>();
+        NavigableMap<String, List<INDIDevice>> byIdentifier = new TreeMap<>();
+        for (INDIDevice device : devices) {
+            for (String name : device.getNames()) {
+                if (!byName.containsKey(name)) {
+                    byName.put(name, device);
+                }
+            }
+            List<INDIDevice> identified = byIdentifier.get(device.getDeviceIdentifier());
+            if (identified == null) {
+                identified = new ArrayList<>(1);
+                byIdentifier.put(device.getDeviceIdentifier(), identified);
+            }
+            identified.add(device);
+        }
+        devicesByName = byName;
+        devicesByIdentifier = byIdentifier;
+    }
+
+    /**
+     * @return the clients (and devices, they may be snooping) connected to the
+     * server. The array must not be modified.
+     */
+    INDIDeviceListener[] getClients() {
+        return clients;
+    }
+
+    /**
+     * @return the devices loaded by the server. The array must not be
+     * modified.
+     */
+    INDIDevice[] getDevices() {
+        return devices;
+    }
+
+    /**
+     * @param deviceName the name of the device.
+     * @return the device with the name or null if no device uses the name.
+     */
+    INDIDevice getDevice(String deviceName) {
+        return devicesByName.get(deviceName);
+    }
+
+    /**
+     * Gets the devices with a particular identifier, the identifier may be a
+     * prefix of the device identifier (see {@link INDIDevice#isDevice(String)}
+     * ).
+     *
+     * @param deviceIdentifier the device identifier.
+     * @return the devices with the identifier.
+     */
+    List<INDIDevice> getDevicesWithIdentifier(String deviceIdentifier) {
+        List<INDIDevice> found = Collections.emptyList();
+        for (Map.Entry<String, List<INDIDevice>> entry : devicesByIdentifier.tailMap(deviceIdentifier, true).entrySet()) {
+            if (!entry.getKey().startsWith(deviceIdentifier)) {
+                break;
+            }
+            for (INDIDevice device : entry.getValue()) {
+                if (device.isDevice(deviceIdentifier)) {
+                    if (found.isEmpty()) {
+                        found = new ArrayList<>();
+                    }
+                    found.add(device);
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * @param client the newly connected client.
+     * @return the new registry including the client.
+     */
+    INDIServerRegistry withClient(INDIDeviceListener client) {
+        INDIDeviceListener[] newClients = Arrays.copyOf(clients, clients.length + 1);
+        newClients[clients.length] = client;
+        return new INDIServerRegistry(newClients, devices);
+    }
+
+    /**
+     * @param device the newly loaded device, it is also registered as a
+     *               client.
+     * @return the new registry including the device.
+     */
+    INDIServerRegistry withDevice(INDIDevice device) {
+        INDIDeviceListener[] newClients = Arrays.copyOf(clients, clients.length + 1);
+        newClients[clients.length] = device;
+        INDIDevice[] newDevices = Arrays.copyOf(devices, devices.length + 1);
+        newDevices[devices.length] = device;
+        return new INDIServerRegistry(newClients, newDevices);
+    }
+
+    /**
+     * @param listener the client or device that disconnected.
+     * @return the new registry without the client or device, or this registry
+     * if it was not registered.
+     */
+    INDIServerRegistry without(INDIDeviceListener listener) {
+        INDIDeviceListener[] newClients = remove(clients, listener);
+        INDIDevice[] newDevices = listener instanceof INDIDevice ? remove(devices, (INDIDevice) listener) : devices;
+        if (newClients == clients && newDevices == devices) {
+            return this;
+        }
+        return new INDIServerRegistry(newClients, newDevices);
+    }
+
+    /**
+     * @return the new registry with the current device names indexed (the
+     * names of a device are only known after it defined its properties).
+     */
+    INDIServerRegistry reindexed() {
+        return new INDIServerRegistry(clients, devices);
+    }
+
+    /**
+     * @param array   the array to remove the element from.
+     * @param element the element to remove.
+     * @param <T>     the element type.
+     * @return a copy of the array without the element, or the same array if
+     * the element was not in it.
+     */
+    private static <T> T[] remove(T[] array, T element) {
+        for (int index = 0; index < array.length; index++) {
+            if (array[index] == element) {
+                T[] result = Arrays.copyOf(array, array.length - 1);
+                System.arraycopy(array, index + 1, result, index, array.length - index - 1);
+                return result;
+            }
+        }
+        return array;
+    }
+}
@@ -0,0 +1,251 @@
+package org.indilib.i4j.server;
+
+/*
+ * #%L
+ * INDI for Java Server Library
+ * %%
+ * Copyright (C) 2013 - 2014 indiforjava
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import org.indilib.i4j.protocol.INDIProtocol;
+import org.indilib.i4j.protocol.OneBlob;
+import org.indilib.i4j.protocol.OneElement;
+import org.indilib.i4j.protocol.SetBlobVector;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The live operating metrics of one server: message and BLOB counters and the
+ * time spent reading and writing per connected client and driver. The
+ * counters only ever increase, rates are calculated by the readers of the
+ * statistics (see {@link INDIServerStatisticsDriver}).
+ *
+ * @author Richard van Nieuwenhoven
+ */
+public final class INDIServerStatistics {
+
+    /**
+     * the counters of every connected client and driver.
+     */
+    private final Map<INDIDeviceListener, Counters> counters = new ConcurrentHashMap<>();
+
+    /**
+     * constructor, every server owns its statistics.
+     */
+    INDIServerStatistics() {
+    }
+
+    /**
+     * @return a copy of the counters of all connected clients and drivers.
+     */
+    public List<Counters> getCounters() {
+        return new ArrayList<>(counters.values());
+    }
+
+    /**
+     * start collecting the statistics of a new client or driver.
+     *
+     * @param listener the client or driver that connected.
+     */
+    void register(INDIDeviceListener listener) {
+        counters.put(listener, new Counters(listener));
+    }
+
+    /**
+     * a message was received from the listener and processed.
+     *
+     * @param listener  the client or driver that sent the message.
+     * @param message   the received message.
+     * @param busyNanos the time it took to process the message.
+     */
+    void received(INDIDeviceListener listener, INDIProtocol<?> message, long busyNanos) {
+        Counters listenerCounters = counters.get(listener);
+        if (listenerCounters == null) {
+            return;
+        }
+        listenerCounters.messagesIn.increment();
+        listenerCounters.busyNanos.add(busyNanos);
+        if (message instanceof SetBlobVector) {
+            listenerCounters.blobBytesIn.add(blobBytes((SetBlobVector) message));
+        }
+    }
+
+    /**
+     * a message was written to the listener.
+     *
+     * @param listener   the client or driver that received the message.
+     * @param message    the written message.
+     * @param writeNanos the time it took to write the message.
+     */
+    void sent(INDIDeviceListener listener, INDIProtocol<?> message, long writeNanos) {
+        Counters listenerCounters = counters.get(listener);
+        if (listenerCounters == null) {
+            return;
+        }
+        listenerCounters.messagesOut.increment();
+        listenerCounters.writeNanos.add(writeNanos);
+        if (message instanceof SetBlobVector) {
+            listenerCounters.blobBytesOut.add(blobBytes((SetBlobVector) message));
+        }
+    }
+
+    /**
+     * the listener disconnected, forget its counters.
+     *
+     * @param listener the client or driver that disconnected.
+     */
+    void remove(INDIDeviceListener listener) {
+        counters.remove(listener);
+    }
+
+    /**
+     * @param message the BLOB message.
+     * @return the number of BLOB bytes in the message.
+     */
+    private static long blobBytes(SetBlobVector message) {
+        long bytes = 0;
+        for (OneElement<?> element : message.getElements()) {
+            if (element instanceof OneBlob) {
+                bytes += ((OneBlob) element).getContentLength();
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * The counters of one client or driver, they only ever increase.
+     */
+    public static final class Counters {
+
+        /**
+         * the client or driver.
+         */
+        private final INDIDeviceListener listener;
+
+        /**
+         * the number of received messages.
+         */
+        private final LongAdder messagesIn = new LongAdder();
+
+        /**
+         * the number of written messages.
+         */
+        private final LongAdder messagesOut = new LongAdder();
+
+        /**
+         * the number of received BLOB bytes.
+         */
+        private final LongAdder blobBytesIn = new LongAdder();
+
+        /**
+         * the number of written BLOB bytes.
+         */
+        private final LongAdder blobBytesOut = new LongAdder();
+
+        /**
+         * the nanoseconds the reader thread was busy processing messages.
+         */
+        private final LongAdder busyNanos = new LongAdder();
+
+        /**
+         * the nanoseconds spent writing messages to the listener.
+         */
+        private final LongAdder writeNanos = new LongAdder();
+
+        /**
+         * constructor.
+         *
+         * @param listener the client or driver.
+         */
+        private Counters(INDIDeviceListener listener) {
+            this.listener = listener;
+        }
+
+        /**
+         * @return true if the counters belong to a driver, false for a client.
+         */
+        public boolean isDriver() {
+            return listener instanceof INDIDevice;
+        }
+
+        /**
+         * @return the name of the client or driver (the device names of a
+         * driver as soon as they are known).
+         */
+        public String getName() {
+            if (listener instanceof INDIDevice) {
+                INDIDevice device = (INDIDevice) listener;
+                String[] names = device.getNames();
+                if (names.length > 0) {
+                    return String.join(",", names);
+                }
+                return device.getDeviceIdentifier();
+            } else if (listener instanceof INDIClient) {
+                return ((INDIClient) listener).getInetAddress();
+            }
+            return listener.toString();
+        }
+
+        /**
+         * @return the number of received messages.
+         */
+        public long getMessagesIn() {
+            return messagesIn.sum();
+        }
+
+        /**
+         * @return the number of written messages.
+         */
+        public long getMessagesOut() {
+            return messagesOut.sum();
+        }
+
+        /**
+         * @return the number of received BLOB bytes.
+         */
+        public long getBlobBytesIn() {
+            return blobBytesIn.sum();
+        }
+
+        /**
+         * @return the number of written BLOB bytes.
+         */
+        public long getBlobBytesOut() {
+            return blobBytesOut.sum();
+        }
+
+        /**
+         * @return the nanoseconds the reader thread was busy processing
+         * messages.
+         */
+        public long getBusyNanos() {
+            return busyNanos.sum();
+        }
+
+        /**
+         * @return the nanoseconds spent writing messages to the listener.
+         */
+        public long getWriteNanos() {
+            return writeNanos.sum();
+        }
+    }
+}
@@ -0,0 +1,460 @@
+package org.indilib.i4j.server;
+
+/*
+ * #%L
+ * INDI for Java Server Library
+ * %%
+ * Copyright (C) 2013 - 2014 indiforjava
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import org.indilib.i4j.Constants.PropertyPermissions;
+import org.indilib.i4j.Constants.PropertyStates;
+import org.indilib.i4j.driver.INDIDriver;
+import org.indilib.i4j.driver.INDIElement;
+import org.indilib.i4j.driver.INDINumberElement;
+import org.indilib.i4j.driver.INDINumberProperty;
+import org.indilib.i4j.driver.INDIScheduledTask;
+import org.indilib.i4j.driver.INDITextElement;
+import org.indilib.i4j.driver.INDITextProperty;
+import org.indilib.i4j.protocol.api.INDIConnection;
+import org.indilib.i4j.server.INDIServerStatistics.Counters;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A virtual device that publishes the operating metrics of the server as read
+ * only properties, so the health of the server can be watched with any INDI
+ * client. The server loads it at the start if the system property
+ * {@link INDIServer#STATISTICS_PROPERTY} is <code>true</code>.
+ *
+ * @author Richard van Nieuwenhoven
+ */
+public class INDIServerStatisticsDriver extends INDIDriver {
+
+    /**
+     * Logger to log to.
+     */
+    private static final Logger LOG = LoggerFactory.getLogger(INDIServerStatisticsDriver.class);
+
+    /**
+     * the interval between two updates of the statistics in milliseconds.
+     */
+    private static final long UPDATE_INTERVAL = 1000L;
+
+    /**
+     * number of bytes in a kilobyte.
+     */
+    private static final double KILOBYTE = 1024d;
+
+    /**
+     * number of bytes in a megabyte.
+     */
+    private static final double MEGABYTE = KILOBYTE * KILOBYTE;
+
+    /**
+     * factor to convert a fraction to a percentage.
+     */
+    private static final double PERCENT = 100d;
+
+    /**
+     * number of nanoseconds in a second.
+     */
+    private static final double NANOS_PER_SECOND = 1000000000d;
+
+    /**
+     * number of milliseconds in a second.
+     */
+    private static final double MILLIS_PER_SECOND = 1000d;
+
+    /**
+     * the group of the server properties.
+     */
+    private static final String GROUP_SERVER = "Server";
+
+    /**
+     * the group of the jvm properties.
+     */
+    private static final String GROUP_JVM = "JVM";
+
+    /**
+     * the statistics to publish.
+     */
+    private final INDIServerStatistics statistics;
+
+    /**
+     * the traffic summary of the whole server.
+     */
+    private final INDINumberProperty trafficP;
+
+    /**
+     * the number of connected clients.
+     */
+    private final INDINumberElement clientsE;
+
+    /**
+     * the number of connected drivers.
+     */
+    private final INDINumberElement driversE;
+
+    /**
+     * the received messages per second.
+     */
+    private final INDINumberElement messagesInE;
+
+    /**
+     * the written messages per second.
+     */
+    private final INDINumberElement messagesOutE;
+
+    /**
+     * the received BLOB kilobytes per second.
+     */
+    private final INDINumberElement blobInE;
+
+    /**
+     * the written BLOB kilobytes per second.
+     */
+    private final INDINumberElement blobOutE;
+
+    /**
+     * the busy time of all reader threads in percent of one thread.
+     */
+    private final INDINumberElement readerBusyE;
+
+    /**
+     * the time spent writing in percent of one thread.
+     */
+    private final INDINumberElement writeBusyE;
+
+    /**
+     * the jvm figures.
+     */
+    private final INDINumberProperty jvmP;
+
+    /**
+     * the used heap in megabytes.
+     */
+    private final INDINumberElement heapUsedE;
+
+    /**
+     * the maximum heap in megabytes.
+     */
+    private final INDINumberElement heapMaxE;
+
+    /**
+     * the number of garbage collections since the start of the jvm.
+     */
+    private final INDINumberElement gcCountE;
+
+    /**
+     * the time spent in garbage collection in percent.
+     */
+    private final INDINumberElement gcLoadE;
+
+    /**
+     * the number of live threads.
+     */
+    private final INDINumberElement threadsE;
+
+    /**
+     * the traffic per client.
+     */
+    private INDITextProperty clientsP;
+
+    /**
+     * the traffic per driver.
+     */
+    private INDITextProperty driversP;
+
+    /**
+     * the counter values of the previous update, to calculate the rates.
+     */
+    private Map<Counters, long[]> previousValues = new HashMap<>();
+
+    /**
+     * the garbage collection time of the previous update.
+     */
+    private long previousGcTime;
+
+    /**
+     * the time of the previous update in nanoseconds.
+     */
+    private long previousUpdate = System.nanoTime();
+
+    /**
+     * the task updating the statistics.
+     */
+    private final INDIScheduledTask updater;
+
+    /**
+     * Constructs the statistics driver and starts updating the statistics.
+     *
+     * @param connection the indi connection to the server.
+     * @param statistics the statistics of the server to publish.
+     */
+    public INDIServerStatisticsDriver(INDIConnection connection, INDIServerStatistics statistics) {
+        super(connection);
+        this.statistics = statistics;
+        trafficP = newNumberProperty().name("SERVER_TRAFFIC").label("Traffic").group(GROUP_SERVER).permission(PropertyPermissions.RO).create();
+        clientsE = trafficP.newElement().name("CLIENTS").label("Clients").numberFormat("%.0f").maximum(Integer.MAX_VALUE).create();
+        driversE = trafficP.newElement().name("DRIVERS").label("Drivers").numberFormat("%.0f").maximum(Integer.MAX_VALUE).create();
+        messagesInE = trafficP.newElement().name("MESSAGES_IN").label("Messages in (1/s)").numberFormat("%.1f").maximum(Double.MAX_VALUE).create();
+        messagesOutE = trafficP.newElement().name("MESSAGES_OUT").label("Messages out (1/s)").numberFormat("%.1f").maximum(Double.MAX_VALUE).create();
+        blobInE = trafficP.newElement().name("BLOB_IN").label("BLOB in (kB/s)").numberFormat("%.1f").maximum(Double.MAX_VALUE).create();
+        blobOutE = trafficP.newElement().name("BLOB_OUT").label("BLOB out (kB/s)").numberFormat("%.1f").maximum(Double.MAX_VALUE).create();
+        readerBusyE = trafficP.newElement().name("READER_BUSY").label("Readers busy (%)").numberFormat("%.1f").maximum(Double.MAX_VALUE).create();
+        writeBusyE = trafficP.newElement().name("WRITE_BUSY").label("Writing (%)").numberFormat("%.1f").maximum(Double.MAX_VALUE).create();
+        addProperty(trafficP);
+
+        jvmP = newNumberProperty().name("JVM").label("JVM").group(GROUP_JVM).permission(PropertyPermissions.RO).create();
+        heapUsedE = jvmP.newElement().name("HEAP_USED").label("Heap used (MB)").numberFormat("%.1f").maximum(Double.MAX_VALUE).create();
+        heapMaxE = jvmP.newElement().name("HEAP_MAX").label("Heap max (MB)").numberFormat("%.1f").maximum(Double.MAX_VALUE).create();
+        gcCountE = jvmP.newElement().name("GC_COUNT").label("Garbage collections").numberFormat("%.0f").maximum(Double.MAX_VALUE).create();
+        gcLoadE = jvmP.newElement().name("GC_LOAD").label("Garbage collection (%)").numberFormat("%.1f").maximum(Double.MAX_VALUE).create();
+        threadsE = jvmP.newElement().name("THREADS").label("Threads").numberFormat("%.0f").maximum(Integer.MAX_VALUE).create();
+        addProperty(jvmP);
+
+        updater = scheduleAtFixedRate("statistics", new Runnable() {
+
+            @Override
+            public void run() {
+                update();
+            }
+        }, UPDATE_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public String getName() {
+        return "INDI Server";
+    }
+
+    @Override
+    public void isBeingDestroyed() {
+        updater.cancel();
+        super.isBeingDestroyed();
+    }
+
+    /**
+     * update the statistics, a failure must not end the periodic task.
+     */
+    private void update() {
+        try {
+            updateStatistics();
+        } catch (Exception e) {
+            LOG.warn("could not update the server statistics", e);
+        }
+    }
+
+    /**
+     * calculate the rates since the last update and publish them.
+     */
+    private synchronized void updateStatistics() {
+        long now = System.nanoTime();
+        double seconds = (now - previousUpdate) / NANOS_PER_SECOND;
+        previousUpdate = now;
+
+        List<Counters> counters = statistics.getCounters();
+        Map<Counters, long[]> currentValues = new HashMap<>();
+        List<String> clientNames = new ArrayList<>();
+        List<String> clientValues = new ArrayList<>();
+        List<String> driverNames = new ArrayList<>();
+        List<String> driverValues = new ArrayList<>();
+        double[] totals = new double[ValueIndex.values().length];
+        for (Counters counter : counters) {
+            long[] values = values(counter);
+            currentValues.put(counter, values);
+            long[] previous = previousValues.get(counter);
+            double[] rates = new double[values.length];
+            for (int index = 0; index < values.length; index++) {
+                rates[index] = (values[index] - (previous == null ? 0 : previous[index])) / seconds;
+                totals[index] += rates[index];
+            }
+            if (counter.isDriver()) {
+                driverNames.add(counter.getName());
+                driverValues.add(format(rates));
+            } else {
+                clientNames.add(counter.getName());
+                clientValues.add(format(rates));
+            }
+        }
+        previousValues = currentValues;
+
+        clientsE.setValueAsDouble(clientNames.size());
+        driversE.setValueAsDouble(driverNames.size());
+        messagesInE.setValueAsDouble(totals[ValueIndex.MESSAGES_IN.ordinal()]);
+        messagesOutE.setValueAsDouble(totals[ValueIndex.MESSAGES_OUT.ordinal()]);
+        blobInE.setValueAsDouble(totals[ValueIndex.BLOB_IN.ordinal()] / KILOBYTE);
+        blobOutE.setValueAsDouble(totals[ValueIndex.BLOB_OUT.ordinal()] / KILOBYTE);
+        readerBusyE.setValueAsDouble(totals[ValueIndex.BUSY.ordinal()] / NANOS_PER_SECOND * PERCENT);
+        writeBusyE.setValueAsDouble(totals[ValueIndex.WRITE.ordinal()] / NANOS_PER_SECOND * PERCENT);
+        trafficP.setState(PropertyStates.OK);
+        updateProperty(trafficP);
+
+        updateJvm(seconds);
+
+        clientsP = updateTextProperty(clientsP, "CLIENTS", "Clients", clientNames, clientValues);
+        driversP = updateTextProperty(driversP, "DRIVERS", "Drivers", driverNames, driverValues);
+    }
+
+    /**
+     * publish the heap, garbage collection and thread figures.
+     *
+     * @param seconds the seconds since the last update.
+     */
+    private void updateJvm(double seconds) {
+        MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+        long gcCount = 0;
+        long gcTime = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            gcCount += Math.max(0, gc.getCollectionCount());
+            gcTime += Math.max(0, gc.getCollectionTime());
+        }
+        heapUsedE.setValueAsDouble(heap.getUsed() / MEGABYTE);
+        heapMaxE.setValueAsDouble(heap.getMax() / MEGABYTE);
+        gcCountE.setValueAsDouble(gcCount);
+        gcLoadE.setValueAsDouble((gcTime - previousGcTime) / (seconds * MILLIS_PER_SECOND) * PERCENT);
+        previousGcTime = gcTime;
+        threadsE.setValueAsDouble(ManagementFactory.getThreadMXBean().getThreadCount());
+        jvmP.setState(PropertyStates.OK);
+        updateProperty(jvmP);
+    }
+
+    /**
+     * update the text property with one element per client or driver. If the
+     * clients or drivers changed the property is defined again.
+     *
+     * @param property the current property (or null).
+     * @param name     the name of the property.
+     * @param label    the label of the property.
+     * @param names    the names of the clients or drivers.
+     * @param values   the formatted rates of the clients or drivers.
+     * @return the property that is defined now.
+     */
+    private INDITextProperty updateTextProperty(INDITextProperty property, String name, String label, List<String> names, List<String> values) {
+        INDITextProperty result = property;
+        if (result != null && !sameLabels(result, names)) {
+            removeProperty(result);
+            result = null;
+        }
+        if (result == null) {
+            result = newTextProperty().name(name).label(label).group(GROUP_SERVER).permission(PropertyPermissions.RO).create();
+            for (int index = 0; index < names.size(); index++) {
+                result.newElement().name(name + "_" + (index + 1)).label(names.get(index)).textValue(values.get(index)).create();
+            }
+            if (!names.isEmpty()) {
+                addProperty(result);
+            }
+            return result;
+        }
+        List<INDIElement<INDITextElement>> elements = result.getElementsAsList();
+        for (int index = 0; index < elements.size(); index++) {
+            elements.get(index).setValue(values.get(index));
+        }
+        result.setState(PropertyStates.OK);
+        updateProperty(result);
+        return result;
+    }
+
+    /**
+     * @param property the text property.
+     * @param names    the current names of the clients or drivers.
+     * @return true if the elements of the property have the labels.
+     */
+    private static boolean sameLabels(INDITextProperty property, List<String> names) {
+        List<INDIElement<INDITextElement>> elements = property.getElementsAsList();
+        if (elements.size() != names.size()) {
+            return false;
+        }
+        for (int index = 0; index < names.size(); index++) {
+            if (!elements.get(index).getLabel().equals(names.get(index))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param counter the counters of a client or driver.
+     * @return the current counter values, indexed by {@link ValueIndex}.
+     */
+    private static long[] values(Counters counter) {
+        long[] values = new long[ValueIndex.values().length];
+        values[ValueIndex.MESSAGES_IN.ordinal()] = counter.getMessagesIn();
+        values[ValueIndex.MESSAGES_OUT.ordinal()] = counter.getMessagesOut();
+        values[ValueIndex.BLOB_IN.ordinal()] = counter.getBlobBytesIn();
+        values[ValueIndex.BLOB_OUT.ordinal()] = counter.getBlobBytesOut();
+        values[ValueIndex.BUSY.ordinal()] = counter.getBusyNanos();
+        values[ValueIndex.WRITE.ordinal()] = counter.getWriteNanos();
+        return values;
+    }
+
+    /**
+     * @param rates the rates of a client or driver, indexed by
+     *              {@link ValueIndex}.
+     * @return the rates as human readable text.
+     */
+    private static String format(double[] rates) {
+        return String.format(Locale.US, "in %.1f/s, out %.1f/s, BLOB in %.1f kB/s, BLOB out %.1f kB/s, busy %.1f%%, writing %.1f%%", //
+                rates[ValueIndex.MESSAGES_IN.ordinal()], //
+                rates[ValueIndex.MESSAGES_OUT.ordinal()], //
+                rates[ValueIndex.BLOB_IN.ordinal()] / KILOBYTE, //
+                rates[ValueIndex.BLOB_OUT.ordinal()] / KILOBYTE, //
+                rates[ValueIndex.BUSY.ordinal()] / NANOS_PER_SECOND * PERCENT, //
+                rates[ValueIndex.WRITE.ordinal()] / NANOS_PER_SECOND * PERCENT);
+    }
+
+    /**
+     * The positions of the counter values in the value arrays.
+     */
+    private enum ValueIndex {
+        /**
+         * received messages.
+         */
+        MESSAGES_IN,
+        /**
+         * written messages.
+         */
+        MESSAGES_OUT,
+        /**
+         * received BLOB bytes.
+         */
+        BLOB_IN,
+        /**
+         * written BLOB bytes.
+         */
+        BLOB_OUT,
+        /**
+         * reader busy nanoseconds.
+         */
+        BUSY,
+        /**
+         * writing nanoseconds.
+         */
+        WRITE
+    }
+}
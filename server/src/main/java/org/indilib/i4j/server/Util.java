@@ -27,7 +27,6 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.lang.reflect.Method;
 import java.net.URI;
 import java.net.URL;
@@ -59,6 +58,11 @@ public final class Util {
      */
     private static int nrOfSystemClasspathEntries;
 
+    /**
+     * the persistent cache of the jar indexes.
+     */
+    private static final ClassPathIndexCache INDEX_CACHE = new ClassPathIndexCache();
+
     /**
      * private accessor for utility class.
      */
@@ -124,9 +128,7 @@ public final class Util {
             String udirs = udir.toString();
             for (URL url : urls) {
                 if (url.toString().equalsIgnoreCase(udirs)) {
-                    Indexer indexer = new Indexer();
-                    Result result = JarIndexer.createJarIndex(dirOrJar, indexer, false, false, false);
-                    return result.getIndex();
+                    return INDEX_CACHE.index(dirOrJar);
                 }
             }
             Class<URLClassLoader> sysClass = URLClassLoader.class;
@@ -141,59 +143,33 @@ public final class Util {
     }
 
     /**
-     * index one file or directory using the specified indexer.
-     *
-     * @param file    the file to index.
-     * @param indexer the indexer to use.
-     */
-    private static void index(File file, Indexer indexer) {
-        if (file.isFile() && file.getName().endsWith(".class")) {
-            try {
-                FileInputStream in = new FileInputStream(file);
-                indexer.index(in);
-                in.close();
-            } catch (Exception e) {
-                LOG.error("could not scan " + file.getAbsolutePath());
-            }
-        } else if (file.isDirectory()) {
-            File[] files = file.listFiles();
-            if (files != null) {
-                for (File child : files) {
-                    index(child, indexer);
-                }
-            }
-        }
-    }
-
-    /**
-     * reindex the list of urls and return the index of the current url.
+     * reindex the list of urls and return the index of the current url. Only
+     * the jars that changed since they were last indexed are really scanned,
+     * the others come from the index cache.
      *
-     * @param urLs       the list of all urls
+     * @param urLs the list of all urls
      * @param currentUrl the url for with to return the index
      * @return the index of the current url.
      * @throws Exception if something seriun went wrong.
      */
     private static IndexView reindex(URL[] urLs, URL currentUrl) throws Exception {
-        Index jarIndex = null;
-        Indexer indexer = new Indexer();
-        List<IndexView> indexes = new ArrayList<>();
+        List<File> files = new ArrayList<>();
+        int currentIndex = -1;
         for (URL url : urLs) {
             File file = Util.toFile(url.toURI());
-            if (file != null) {
-                if (file.isDirectory()) {
-                    index(file, indexer);
-                    indexes.add(indexer.complete());
-                } else if (file.getName().endsWith("jar")) {
-                    Result result = JarIndexer.createJarIndex(file, indexer, false, false, false);
-                    indexes.add(result.getIndex());
-                    if (currentUrl != null && url.toString().equalsIgnoreCase(currentUrl.toString())) {
-                        jarIndex = result.getIndex();
-                    }
+            if (file != null && (file.isDirectory() || file.getName().endsWith("jar"))) {
+                if (currentUrl != null && url.toString().equalsIgnoreCase(currentUrl.toString())) {
+                    currentIndex = files.size();
                 }
+                files.add(file);
             }
         }
-        indexer.complete();
-        classPathIndex = CompositeIndex.create(indexes);
-        return jarIndex;
+        List<Index> indexes = INDEX_CACHE.index(files);
+        classPathIndex = CompositeIndex.create(new ArrayList<IndexView>(indexes));
+        nrOfSystemClasspathEntries = urLs.length;
+        if (currentIndex < 0) {
+            return null;
+        }
+        return indexes.get(currentIndex);
     }
 }
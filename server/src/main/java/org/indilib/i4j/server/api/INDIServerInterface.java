@@ -27,6 +27,7 @@ import org.indilib.i4j.protocol.api.INDIConnection;
 
 import java.net.URL;
 import java.util.List;
+import java.util.concurrent.Future;
 
 /**
  * The core indi server interface. over this interface the server can be
@@ -126,6 +127,47 @@ public interface INDIServerInterface {
      */
     void loadNetworkDriver(String host, int port) throws INDIException;
 
+    /**
+     * start a java driver class by its class in the background. The device is
+     * added to the server as soon as it is started.
+     *
+     * @param cls the class
+     * @return the future of the started device.
+     * @throws INDIException if the driver is already loaded or starting.
+     */
+    Future<INDIDeviceInterface> startJavaDriver(Class<?> cls) throws INDIException;
+
+    /**
+     * start a Native Driver in the background. The device is added to the
+     * server as soon as it is started.
+     *
+     * @param driverPath The Driver path name. It will be executed in a separate
+     *                   process.
+     * @return the future of the started device.
+     * @throws INDIException if the driver is already loaded or starting.
+     */
+    Future<INDIDeviceInterface> startNativeDriver(String driverPath) throws INDIException;
+
+    /**
+     * start a Network Driver in the background. The device is added to the
+     * server as soon as the connection is established.
+     *
+     * @param host The host of the Network Driver.
+     * @param port The port of the Network Driver.
+     * @return the future of the started device.
+     * @throws INDIException if the driver is already loaded or starting.
+     */
+    Future<INDIDeviceInterface> startNetworkDriver(String host, int port) throws INDIException;
+
+    /**
+     * In lazy mode drivers are not started when they are loaded but only when
+     * the first client asks for the properties of a device that is not yet
+     * known to the server.
+     *
+     * @param lazy true to start drivers only when a client needs them.
+     */
+    void setLazyDriverStart(boolean lazy);
+
     /**
      * Stops the server from listening new Clients. All connections with
      * existing clients are also broken.